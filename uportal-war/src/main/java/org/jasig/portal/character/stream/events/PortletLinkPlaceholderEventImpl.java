@@ -73,7 +73,7 @@ public final class PortletLinkPlaceholderEventImpl extends PortletPlaceholderEve
             return true;
         if (obj == null)
             return false;
-        if (!PortletNewItemCountPlaceholderEvent.class.isAssignableFrom(obj.getClass()))
+        if (!PortletLinkPlaceholderEvent.class.isAssignableFrom(obj.getClass()))
             return false;
         PortletLinkPlaceholderEvent other = (PortletLinkPlaceholderEvent) obj;
         if (this.getEventType() == null) {
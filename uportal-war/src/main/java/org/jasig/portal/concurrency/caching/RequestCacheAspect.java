@@ -21,8 +21,12 @@ package org.jasig.portal.concurrency.caching;
 
 import java.io.Serializable;
 import java.lang.annotation.AnnotationFormatError;
+import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
@@ -34,13 +38,12 @@ import javax.servlet.http.HttpServletRequest;
 import net.sf.ehcache.hibernate.management.impl.EhcacheHibernateMbeanNames;
 
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.Signature;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.jasig.portal.url.IPortalRequestUtils;
 import org.jasig.portal.utils.ConcurrentMapUtils;
-import org.jasig.portal.utils.cache.CacheKey;
 import org.jasig.portal.utils.web.PortalWebUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +56,10 @@ import org.springframework.web.context.request.RequestAttributes;
 
 /**
  * Aspect that caches the results of a method invocation in the current {@link RequestAttributes}
+ * <br/>
+ * The signature, key mask and statistics of each annotated method are resolved on its first invocation. Each
+ * method is assigned a slot in a per request array that holds the cached results of that method keyed only by
+ * the arguments, so a cache hit does not need to build a key that includes the method signature.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -60,11 +67,14 @@ import org.springframework.web.context.request.RequestAttributes;
 @Aspect
 @Component("requestCacheAspect")
 public class RequestCacheAspect implements InitializingBean {
-    private static final String CACHE_MAP = RequestCacheAspect.class.getName() + ".CACHE_MAP";
+    private static final String CACHE_SLOTS = RequestCacheAspect.class.getName() + ".CACHE_SLOTS";
     private static final Object NULL_PLACEHOLDER = new Object();
+    private static final Object NO_ARGS_KEY = new Object();
     
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
+    private final ConcurrentMap<Method, CachedMethod> cachedMethods = new ConcurrentHashMap<Method, CachedMethod>();
+    private final AtomicInteger cachedMethodCount = new AtomicInteger();
     private final ConcurrentMap<String, CacheStatistics> methodStats = new ConcurrentHashMap<String, CacheStatistics>();
     private final CacheStatistics overallStats = new CacheStatistics();
 
@@ -95,22 +105,23 @@ public class RequestCacheAspect implements InitializingBean {
     public Object cacheRequest(ProceedingJoinPoint pjp, RequestCache requestCache) throws Throwable {
         final long start = System.nanoTime();
         
-        final CacheKey cacheKey = createCacheKey(pjp, requestCache);
+        final CachedMethod cachedMethod = this.getCachedMethod(pjp, requestCache);
         
         final HttpServletRequest currentPortalRequest;
         try {
             currentPortalRequest = this.portalRequestUtils.getCurrentPortalRequest();
         }
         catch (IllegalStateException e) {
-            logger.trace("No current portal request, will not cache result of: {}", cacheKey);
+            logger.trace("No current portal request, will not cache result of: {}", cachedMethod);
             //No current request, simply proceed
             return pjp.proceed();
         }
         
-        final CacheStatistics cacheStatistics = this.getCacheStatistics(pjp, requestCache);
+        final CacheStatistics cacheStatistics = cachedMethod.getCacheStatistics();
+        final Object cacheKey = cachedMethod.createCacheKey(pjp.getArgs());
         
         //Check in the cache for a result
-        final ConcurrentMap<CacheKey, Object> cache = PortalWebUtils.getMapRequestAttribute(currentPortalRequest, CACHE_MAP);
+        final ConcurrentMap<Object, Object> cache = this.getCacheSlots(currentPortalRequest).getSlot(cachedMethod.getSlot());
         Object result = cache.get(cacheKey);
         
         //Return null if placeholder was cached
@@ -118,7 +129,7 @@ public class RequestCacheAspect implements InitializingBean {
             final long time = System.nanoTime() - start;
             cacheStatistics.recordHit(time);
             overallStats.recordHit(time);
-            logger.debug("Found cached null for invocation of: {}", cacheKey);
+            logger.debug("Found cached null for invocation of: {} {}", cachedMethod, cacheKey);
             return null;
         }
         //Rethrow if exception was cached
@@ -126,7 +137,7 @@ public class RequestCacheAspect implements InitializingBean {
             final long time = System.nanoTime() - start;
             cacheStatistics.recordHit(time);
             overallStats.recordHit(time);
-            logger.debug("Found cached exception for invocation of: {}", cacheKey);
+            logger.debug("Found cached exception for invocation of: {} {}", cachedMethod, cacheKey);
             throw ((ExceptionHolder)result).getThrowable();
         }
         //Return cached result
@@ -134,7 +145,7 @@ public class RequestCacheAspect implements InitializingBean {
             final long time = System.nanoTime() - start;
             cacheStatistics.recordHit(time);
             overallStats.recordHit(time);
-            logger.debug("Found cached result for invocation of: {}", cacheKey);
+            logger.debug("Found cached result for invocation of: {} {}", cachedMethod, cacheKey);
             return result;
         }
         
@@ -148,12 +159,12 @@ public class RequestCacheAspect implements InitializingBean {
             if (result != null) {
                 //Cache the not-null result
                 cache.put(cacheKey, result);
-                logger.debug("Cached result for invocation of: {}", cacheKey);
+                logger.debug("Cached result for invocation of: {} {}", cachedMethod, cacheKey);
             }
             else if (requestCache.cacheNull()) {
                 //If caching nulls cache the placeholder
                 cache.put(cacheKey, NULL_PLACEHOLDER);
-                logger.debug("Cached null for invocation of: {}", cacheKey);
+                logger.debug("Cached null for invocation of: {} {}", cachedMethod, cacheKey);
             }
             
             return result;
@@ -165,7 +176,7 @@ public class RequestCacheAspect implements InitializingBean {
             if (requestCache.cacheException()) {
                 //If caching exceptions wrapp the exception and cache it
                 cache.put(cacheKey, new ExceptionHolder(t));
-                logger.debug("Cached exception for invocation of: {}", cacheKey);
+                logger.debug("Cached exception for invocation of: {} {}", cachedMethod, cacheKey);
             }
             throw t;
         }
@@ -175,10 +186,38 @@ public class RequestCacheAspect implements InitializingBean {
         this.mBeanExportOperations.registerManagedResource(object, name);
     }
     
-    protected final CacheStatistics getCacheStatistics(ProceedingJoinPoint pjp, RequestCache requestCache) {
-        final Signature signature = pjp.getSignature();
-        final String signatureString = signature.toString();
+    /**
+     * Get the resolved metadata for the intercepted method, resolving it on the first invocation of the method
+     */
+    protected final CachedMethod getCachedMethod(ProceedingJoinPoint pjp, RequestCache requestCache) {
+        final MethodSignature signature = (MethodSignature)pjp.getSignature();
+        final Method method = signature.getMethod();
         
+        final CachedMethod cachedMethod = this.cachedMethods.get(method);
+        if (cachedMethod != null) {
+            return cachedMethod;
+        }
+        
+        final boolean[] keyMask = requestCache.keyMask();
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        if (keyMask.length != 0 && keyMask.length != parameterTypes.length) {
+            throw new AnnotationFormatError("RequestCache.keyMask has an invalid length on: " + signature.toLongString());
+        }
+        
+        final CacheStatistics cacheStatistics = this.getCacheStatistics(signature.toString());
+        
+        synchronized (this.cachedMethods) {
+            CachedMethod newCachedMethod = this.cachedMethods.get(method);
+            if (newCachedMethod == null) {
+                final int slot = this.cachedMethodCount.getAndIncrement();
+                newCachedMethod = new CachedMethod(slot, signature.toLongString(), keyMask, parameterTypes, cacheStatistics);
+                this.cachedMethods.put(method, newCachedMethod);
+            }
+            return newCachedMethod;
+        }
+    }
+    
+    protected final CacheStatistics getCacheStatistics(String signatureString) {
         CacheStatistics cacheStatistics = this.methodStats.get(signatureString);
         if (cacheStatistics == null) {
             final CacheStatistics newStats = new CacheStatistics();
@@ -211,31 +250,181 @@ public class RequestCacheAspect implements InitializingBean {
         return cacheStatistics;
     }
     
-    protected CacheKey createCacheKey(ProceedingJoinPoint pjp, RequestCache requestCache) {
-        final Signature signature = pjp.getSignature();
-        final Class<?> declaringType = signature.getDeclaringType();
-        final String signatureLongString = signature.toLongString();
+    /**
+     * Get the cache slots for the request, the request attribute mutex is only used when the slots are created
+     */
+    protected final CacheSlots getCacheSlots(HttpServletRequest request) {
+        CacheSlots cacheSlots = (CacheSlots)request.getAttribute(CACHE_SLOTS);
+        if (cacheSlots != null) {
+            return cacheSlots;
+        }
         
-        final boolean[] keyMask = requestCache.keyMask();
-        final Object[] args = pjp.getArgs();
+        final Object mutex = PortalWebUtils.getRequestAttributeMutex(request);
+        synchronized (mutex) {
+            cacheSlots = (CacheSlots)request.getAttribute(CACHE_SLOTS);
+            if (cacheSlots == null) {
+                cacheSlots = new CacheSlots(this.cachedMethodCount.get());
+                request.setAttribute(CACHE_SLOTS, cacheSlots);
+            }
+            return cacheSlots;
+        }
+    }
+    
+    /**
+     * Metadata for a method annotated with {@link RequestCache}, resolved once per method
+     */
+    protected static final class CachedMethod {
+        private final int slot;
+        private final String signature;
+        private final boolean[] keyMask;
+        private final boolean[] arrayParameters;
+        private final int keyArgCount;
+        private final CacheStatistics cacheStatistics;
         
-        final Object[] keyArgs;
-        if (keyMask.length == 0) {
-            keyArgs = args;
+        CachedMethod(int slot, String signature, boolean[] keyMask, Class<?>[] parameterTypes, CacheStatistics cacheStatistics) {
+            this.slot = slot;
+            this.signature = signature;
+            this.cacheStatistics = cacheStatistics;
+            
+            this.keyMask = new boolean[parameterTypes.length];
+            this.arrayParameters = new boolean[parameterTypes.length];
+            int keyArgCount = 0;
+            for (int i = 0; i < parameterTypes.length; i++) {
+                this.keyMask[i] = keyMask.length == 0 || keyMask[i];
+                this.arrayParameters[i] = parameterTypes[i].isArray();
+                if (this.keyMask[i]) {
+                    keyArgCount++;
+                }
+            }
+            this.keyArgCount = keyArgCount;
         }
-        else if (keyMask.length != args.length) {
-            throw new AnnotationFormatError("RequestCache.keyMask has an invalid length on: " + signature.toLongString());
+        
+        public int getSlot() {
+            return this.slot;
+        }
+
+        public CacheStatistics getCacheStatistics() {
+            return this.cacheStatistics;
+        }
+        
+        /**
+         * Create the key for the arguments within this method's slot. Methods with no key arguments share a
+         * single key and methods with one non-array key argument use the argument as the key.
+         */
+        public Object createCacheKey(Object[] args) {
+            if (this.keyArgCount == 0) {
+                return NO_ARGS_KEY;
+            }
+            
+            if (this.keyArgCount == 1) {
+                for (int i = 0; i < args.length; i++) {
+                    if (this.keyMask[i]) {
+                        final Object arg = args[i];
+                        if (arg != null && !this.arrayParameters[i]) {
+                            return arg;
+                        }
+                        break;
+                    }
+                }
+            }
+            
+            final Object[] keyArgs;
+            if (this.keyArgCount == args.length) {
+                keyArgs = args;
+            }
+            else {
+                keyArgs = new Object[this.keyArgCount];
+                int keyIndex = 0;
+                for (int i = 0; i < args.length; i++) {
+                    if (this.keyMask[i]) {
+                        keyArgs[keyIndex++] = args[i];
+                    }
+                }
+            }
+            
+            return new ArgumentsKey(keyArgs);
+        }
+
+        @Override
+        public String toString() {
+            return this.signature;
         }
-        else {
-            keyArgs = new Object[args.length];
-            for (int i = 0; i < args.length; i++) {
-                if (keyMask[i]) {
-                    keyArgs[i] = args[i];
+    }
+    
+    /**
+     * Per request cache, one result map for each {@link CachedMethod} indexed by {@link CachedMethod#getSlot()}
+     */
+    protected static final class CacheSlots {
+        private volatile AtomicReferenceArray<ConcurrentMap<Object, Object>> slots;
+        
+        CacheSlots(int size) {
+            this.slots = new AtomicReferenceArray<ConcurrentMap<Object, Object>>(Math.max(size, 16));
+        }
+        
+        public ConcurrentMap<Object, Object> getSlot(int index) {
+            final AtomicReferenceArray<ConcurrentMap<Object, Object>> slots = this.slots;
+            if (index < slots.length()) {
+                final ConcurrentMap<Object, Object> slot = slots.get(index);
+                if (slot != null) {
+                    return slot;
                 }
             }
+            
+            return this.createSlot(index);
         }
         
-        return CacheKey.build(signatureLongString, declaringType, keyArgs);
+        private synchronized ConcurrentMap<Object, Object> createSlot(int index) {
+            AtomicReferenceArray<ConcurrentMap<Object, Object>> slots = this.slots;
+            if (index >= slots.length()) {
+                final AtomicReferenceArray<ConcurrentMap<Object, Object>> newSlots = 
+                        new AtomicReferenceArray<ConcurrentMap<Object, Object>>(Math.max(index + 1, slots.length() * 2));
+                for (int i = 0; i < slots.length(); i++) {
+                    newSlots.set(i, slots.get(i));
+                }
+                slots = newSlots;
+                this.slots = newSlots;
+            }
+            
+            ConcurrentMap<Object, Object> slot = slots.get(index);
+            if (slot == null) {
+                slot = new ConcurrentHashMap<Object, Object>();
+                slots.set(index, slot);
+            }
+            return slot;
+        }
+    }
+    
+    /**
+     * Key for methods with multiple key arguments or a null or array argument
+     */
+    private static final class ArgumentsKey {
+        private final Object[] args;
+        private final int hash;
+        
+        public ArgumentsKey(Object[] args) {
+            this.args = args;
+            this.hash = Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            final ArgumentsKey other = (ArgumentsKey) obj;
+            return this.hash == other.hash && Arrays.deepEquals(this.args, other.args);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.deepToString(this.args);
+        }
     }
     
     private static class ExceptionHolder implements Serializable {
@@ -32,6 +32,7 @@ import javax.persistence.Transient;
 
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.stat.JpaStatisticalSummary;
+import org.jasig.portal.utils.LatencyHistogram;
 
 /**
  * Base for aggregate entities that track timed statistics
@@ -80,6 +81,12 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
     @Column(name = "SECOND_MOMENT_TIME", nullable = false)
     private double secondMoment;
     
+    @Column(name = "HISTOGRAM_TIME", length = 2000)
+    private byte[] histogramData;
+    
+    @Transient
+    private LatencyHistogram histogram;
+    
     @Embedded
     private JpaStatisticalSummary statisticalSummary;
     
@@ -160,6 +167,26 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         return this.secondMoment;
     }
 
+    @Override
+    public final double getPercentile(double percentile) {
+        return JpaStatisticalSummary.getPercentile(this.getTimeHistogram(), percentile);
+    }
+
+    @Override
+    public final LatencyHistogram getHistogram() {
+        final LatencyHistogram copy = new LatencyHistogram();
+        copy.merge(this.getTimeHistogram());
+        return copy;
+    }
+    
+    private LatencyHistogram getTimeHistogram() {
+        updateStats();
+        if (this.histogram == null) {
+            this.histogram = LatencyHistogram.fromByteArray(this.histogramData);
+        }
+        return this.histogram;
+    }
+
     /**
      * Check if the interval is complete, must be called by super classes if overridden
      */
@@ -222,6 +249,8 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         this.geometricMean = this.statisticalSummary.getGeometricMean();
         this.sumOfLogs = this.statisticalSummary.getSumOfLogs();
         this.secondMoment = this.statisticalSummary.getSecondMoment();
+        this.histogramData = this.statisticalSummary.getHistogramData();
+        this.histogram = null;
         
         this.modified = false;
     }
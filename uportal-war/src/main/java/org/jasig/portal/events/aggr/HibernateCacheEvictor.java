@@ -19,6 +19,8 @@
 package org.jasig.portal.events.aggr;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
 
 import org.hibernate.Cache;
 
@@ -32,4 +34,10 @@ public interface HibernateCacheEvictor {
      * @see Cache#evictEntity(Class, Serializable)
      */
     void evictEntity(Class<?> entityClass, Serializable identifier);
+    
+    /**
+     * Removes and returns the entities recorded by {@link #evictEntity(Class, Serializable)} on the current thread.
+     * Used to hand evictions recorded by worker threads back to the thread that performs the eviction.
+     */
+    Map<Class<?>, Collection<Serializable>> removeEvictedEntities();
 }
@@ -74,4 +74,10 @@ public interface IEventAggregatorStatus {
      */
     DateTime getLastEventDate();
     void setLastEventDate(DateTime lastEventDateTime);
+    
+    /**
+     * @return Id of the last event processed, with {@link #getLastEventDate()} forms the aggregation watermark. null if not tracked.
+     */
+    Long getLastEventId();
+    void setLastEventId(Long lastEventId);
 }
@@ -0,0 +1,386 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.aggr.session.EventSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * Runs {@link IPortalEventAggregator}s on worker threads during raw event aggregation. Events are still read,
+ * filtered and matched to their {@link EventSession} on the calling thread, the calls to each aggregator are queued
+ * in event order to the partition that owns the aggregator. Each partition is processed by a single worker in its
+ * own aggregation transaction, and so with its own EntityManager.
+ * <br/>
+ * All aggregators of the same type are placed in the same partition. As an aggregator only updates its own
+ * aggregations every aggregation key is updated by exactly one partition and sees exactly the same sequence of
+ * updates as it would when aggregation is run serially.
+ * <br/>
+ * Partition transactions are held open until {@link #complete(boolean)} is called. The partitions are committed just
+ * before the calling thread's aggregation transaction commits, if a partition fails to commit the exception propagates
+ * and the aggregation transaction, including its watermark, is rolled back so the events are aggregated again.
+ * <br/>
+ * The partition and aggregation transactions are not atomic, partitioned aggregation is at-least-once. If a partition
+ * fails to commit after other partitions committed, or the aggregation transaction fails to commit after the
+ * partitions committed, the committed partitions count the events again when they are re-aggregated. Both cases
+ * are logged as errors with the number of partitions that committed, see {@link #getCommittedPartitionCount()}.
+ * Events are never lost, a partition's work is only discarded when the watermark is rolled back with it.
+ */
+final class PartitionedEventAggregator {
+    private static final PartitionTask END_OF_EVENTS = new PartitionTask() {
+        @Override
+        public void execute(EventAggregationContext eventAggregationContext) {
+        }
+    };
+    
+    /**
+     * Period to wait between checks for failed partitions when blocked on a partition
+     */
+    private static final long FAILURE_CHECK_PERIOD = 100;
+    
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final Map<IPortalEventAggregator<PortalEvent>, Partition> aggregatorPartitions = new IdentityHashMap<IPortalEventAggregator<PortalEvent>, Partition>();
+    private final List<Partition> partitions;
+    private final TransactionOperations transactionOperations;
+    private final HibernateCacheEvictor hibernateCacheEvictor;
+    
+    private final CountDownLatch decision = new CountDownLatch(1);
+    private volatile boolean commit = false;
+    private volatile Throwable failure;
+    private boolean finished = false;
+    private boolean completed = false;
+    
+    /**
+     * @param partitionCount Maximum number of partitions to create, fewer are created if there are fewer aggregator types
+     * @param queueSize Maximum number of pending aggregator calls per partition
+     */
+    PartitionedEventAggregator(Collection<IPortalEventAggregator<PortalEvent>> portalEventAggregators, int partitionCount,
+            int queueSize, TransactionOperations transactionOperations, HibernateCacheEvictor hibernateCacheEvictor) {
+        
+        this.transactionOperations = transactionOperations;
+        this.hibernateCacheEvictor = hibernateCacheEvictor;
+        
+        //Group the aggregators by type
+        final Map<Class<?>, List<IPortalEventAggregator<PortalEvent>>> aggregatorsByType = new LinkedHashMap<Class<?>, List<IPortalEventAggregator<PortalEvent>>>();
+        for (final IPortalEventAggregator<PortalEvent> portalEventAggregator : portalEventAggregators) {
+            final Class<?> aggregatorType = AopProxyUtils.ultimateTargetClass(portalEventAggregator);
+            List<IPortalEventAggregator<PortalEvent>> aggregators = aggregatorsByType.get(aggregatorType);
+            if (aggregators == null) {
+                aggregators = new ArrayList<IPortalEventAggregator<PortalEvent>>();
+                aggregatorsByType.put(aggregatorType, aggregators);
+            }
+            aggregators.add(portalEventAggregator);
+        }
+        
+        //Assign each group of aggregators to the partition with the fewest aggregators
+        final int count = Math.max(1, Math.min(partitionCount, aggregatorsByType.size()));
+        final List<Partition> partitions = new ArrayList<Partition>(count);
+        for (int index = 0; index < count; index++) {
+            partitions.add(new Partition(index, queueSize));
+        }
+        for (final List<IPortalEventAggregator<PortalEvent>> aggregators : aggregatorsByType.values()) {
+            Partition smallest = partitions.get(0);
+            for (final Partition partition : partitions) {
+                if (partition.aggregatorCount < smallest.aggregatorCount) {
+                    smallest = partition;
+                }
+            }
+            for (final IPortalEventAggregator<PortalEvent> aggregator : aggregators) {
+                this.aggregatorPartitions.put(aggregator, smallest);
+                smallest.aggregatorCount++;
+            }
+        }
+        this.partitions = Collections.unmodifiableList(partitions);
+    }
+    
+    /**
+     * @return The number of partitions the aggregators were split into
+     */
+    public int getPartitionCount() {
+        return this.partitions.size();
+    }
+    
+    /**
+     * @return The number of partitions whose transaction committed, only valid after {@link #complete(boolean)}
+     */
+    public int getCommittedPartitionCount() {
+        int committed = 0;
+        for (final Partition partition : this.partitions) {
+            if (partition.committed) {
+                committed++;
+            }
+        }
+        return committed;
+    }
+    
+    /**
+     * Start a worker for each partition
+     * 
+     * @throws RejectedExecutionException If the executor cannot run all of the partitions, any started partitions are stopped
+     */
+    public void start(ExecutorService executorService) {
+        for (final Partition partition : this.partitions) {
+            try {
+                executorService.execute(partition);
+                partition.started = true;
+            }
+            catch (RejectedExecutionException e) {
+                this.failure = e;
+                this.complete(false);
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Queue a call to {@link IPortalEventAggregator#aggregateEvent(PortalEvent, EventSession, EventAggregationContext, Map)}
+     */
+    public void aggregateEvent(final IPortalEventAggregator<PortalEvent> portalEventAggregator, final PortalEvent event, 
+            final EventSession eventSession, final Map<AggregationInterval, AggregationIntervalInfo> currentIntervals) {
+        
+        this.enqueue(portalEventAggregator, new PartitionTask() {
+            @Override
+            public void execute(EventAggregationContext eventAggregationContext) {
+                portalEventAggregator.aggregateEvent(event, eventSession, eventAggregationContext, currentIntervals);
+            }
+        });
+    }
+    
+    /**
+     * Queue a call to {@link IPortalEventAggregator#handleIntervalBoundary(AggregationInterval, EventAggregationContext, Map)}
+     */
+    public void handleIntervalBoundary(final IPortalEventAggregator<PortalEvent> portalEventAggregator, final AggregationInterval interval, 
+            final Map<AggregationInterval, AggregationIntervalInfo> intervals) {
+        
+        this.enqueue(portalEventAggregator, new PartitionTask() {
+            @Override
+            public void execute(EventAggregationContext eventAggregationContext) {
+                portalEventAggregator.handleIntervalBoundary(interval, eventAggregationContext, intervals);
+            }
+        });
+    }
+    
+    /**
+     * Waits for all partitions to process their queued work.
+     * 
+     * @throws IllegalStateException If any partition failed
+     */
+    public void finish() {
+        if (!this.finished) {
+            this.finished = true;
+            for (final Partition partition : this.partitions) {
+                this.put(partition, END_OF_EVENTS);
+            }
+        }
+        
+        for (final Partition partition : this.partitions) {
+            this.await(partition.processed);
+        }
+        this.checkFailure();
+    }
+    
+    /**
+     * Commit or roll back the partition transactions and wait for the workers to end. Entities evicted by the
+     * partitions are recorded with the {@link HibernateCacheEvictor} on the calling thread. Calls after the first
+     * have no effect.
+     * 
+     * @throws IllegalStateException If commit is true and any partition failed or could not commit
+     */
+    public void complete(boolean commit) {
+        if (this.completed) {
+            final int committedPartitions = this.getCommittedPartitionCount();
+            if (!commit && committedPartitions > 0 && this.failure == null) {
+                logger.error("{} aggregation partitions were committed but raw event aggregation was rolled back, " +
+                		"the events will be counted again by those partitions when they are re-aggregated", committedPartitions);
+            }
+            return;
+        }
+        this.completed = true;
+        
+        //Make sure that workers waiting for work see the end of the events, a failed partition may not drain its queue
+        if (!this.finished) {
+            this.finished = true;
+            for (final Partition partition : this.partitions) {
+                partition.queue.clear();
+                partition.queue.offer(END_OF_EVENTS);
+            }
+        }
+        
+        this.commit = commit && this.failure == null;
+        this.decision.countDown();
+        
+        for (final Partition partition : this.partitions) {
+            if (!partition.started) {
+                continue;
+            }
+            try {
+                partition.ended.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for aggregation partition " + partition.index + " to end", e);
+            }
+            
+            for (final Map.Entry<Class<?>, Collection<Serializable>> evictedEntry : partition.evictedEntities.entrySet()) {
+                final Class<?> entityClass = evictedEntry.getKey();
+                for (final Serializable id : evictedEntry.getValue()) {
+                    this.hibernateCacheEvictor.evictEntity(entityClass, id);
+                }
+            }
+        }
+        
+        if (commit && this.failure != null) {
+            final int committedPartitions = this.getCommittedPartitionCount();
+            if (committedPartitions > 0) {
+                logger.error("{} of {} aggregation partitions were committed before another partition failed, " +
+                		"the events will be counted again by those partitions when they are re-aggregated", committedPartitions, this.partitions.size());
+            }
+            
+            //Fail the calling thread's commit so the watermark does not move past events a partition did not store
+            throw new IllegalStateException("Aggregation partition failed to commit, raw event aggregation will be rolled back", this.failure);
+        }
+    }
+    
+    private void enqueue(IPortalEventAggregator<PortalEvent> portalEventAggregator, PartitionTask task) {
+        final Partition partition = this.aggregatorPartitions.get(portalEventAggregator);
+        if (partition == null) {
+            throw new IllegalArgumentException("Aggregator is not part of any partition: " + portalEventAggregator);
+        }
+        this.put(partition, task);
+    }
+    
+    private void put(Partition partition, PartitionTask task) {
+        this.checkFailure();
+        try {
+            while (!partition.queue.offer(task, FAILURE_CHECK_PERIOD, TimeUnit.MILLISECONDS)) {
+                this.checkFailure();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queuing work for aggregation partition " + partition.index, e);
+        }
+    }
+    
+    private void await(CountDownLatch latch) {
+        try {
+            while (!latch.await(FAILURE_CHECK_PERIOD, TimeUnit.MILLISECONDS)) {
+                this.checkFailure();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for aggregation partitions", e);
+        }
+    }
+    
+    private void checkFailure() {
+        final Throwable t = this.failure;
+        if (t != null) {
+            throw new IllegalStateException("Aggregation partition failed, aggregation will be rolled back", t);
+        }
+    }
+    
+    private interface PartitionTask {
+        void execute(EventAggregationContext eventAggregationContext);
+    }
+    
+    private final class Partition implements Runnable {
+        private final int index;
+        private final BlockingQueue<PartitionTask> queue;
+        private final CountDownLatch processed = new CountDownLatch(1);
+        private final CountDownLatch ended = new CountDownLatch(1);
+        private int aggregatorCount = 0;
+        private boolean started = false;
+        private volatile boolean committed = false;
+        private volatile Map<Class<?>, Collection<Serializable>> evictedEntities = Collections.emptyMap();
+        
+        public Partition(int index, int queueSize) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<PartitionTask>(queueSize);
+        }
+
+        @Override
+        public void run() {
+            try {
+                transactionOperations.execute(new TransactionCallbackWithoutResult() {
+                    @Override
+                    protected void doInTransactionWithoutResult(TransactionStatus status) {
+                        final EventAggregationContext eventAggregationContext = new EventAggregationContextImpl();
+                        try {
+                            for (PartitionTask task = queue.take(); task != END_OF_EVENTS; task = queue.take()) {
+                                task.execute(eventAggregationContext);
+                            }
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("Interrupted while waiting for work", e);
+                        }
+                        processed.countDown();
+                        
+                        //Hold the transaction open until the calling thread's transaction completes
+                        try {
+                            decision.await();
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException("Interrupted while waiting for commit", e);
+                        }
+                        if (!commit) {
+                            status.setRollbackOnly();
+                        }
+                    }
+                });
+                this.committed = commit;
+            }
+            catch (Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                }
+                logger.warn("Aggregation partition " + this.index + " failed", t);
+            }
+            finally {
+                this.evictedEntities = hibernateCacheEvictor.removeEvictedEntities();
+                processed.countDown();
+                ended.countDown();
+            }
+        }
+    }
+}
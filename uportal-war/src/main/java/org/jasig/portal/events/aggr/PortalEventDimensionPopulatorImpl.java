@@ -36,6 +36,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -76,7 +77,7 @@ public class PortalEventDimensionPopulatorImpl extends BaseAggrEventsJpaDao impl
     }
 
     @Autowired
-    public void setPortalEventDao(IPortalEventDao portalEventDao) {
+    public void setPortalEventDao(@Qualifier("portalEventDao") IPortalEventDao portalEventDao) {
         this.portalEventDao = portalEventDao;
     }
 
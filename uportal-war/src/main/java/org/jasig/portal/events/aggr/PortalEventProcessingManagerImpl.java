@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Resource;
 
@@ -45,13 +46,15 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 
 @Service("portalEventAggregationManager")
-public class PortalEventProcessingManagerImpl implements IPortalEventProcessingManager, HibernateCacheEvictor, DisposableBean {
+@ManagedResource("uPortal:section=Aggregation,name=PortalEventProcessingManager")
+public class PortalEventProcessingManagerImpl implements IPortalEventProcessingManager, HibernateCacheEvictor, DisposableBean, PortalEventProcessingManagerMXBean {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     private PortalEventDimensionPopulator portalEventDimensionPopulator;
@@ -74,6 +77,11 @@ public class PortalEventProcessingManagerImpl implements IPortalEventProcessingM
     };
     private volatile boolean shutdown = false;
     
+    private volatile int lastAggregatedEvents = 0;
+    private volatile long lastAggregationTime = 0;
+    private final AtomicLong totalAggregatedEvents = new AtomicLong();
+    private final AtomicLong totalAggregationTime = new AtomicLong();
+    
     @Autowired
     public void setClusterLockService(IClusterLockService clusterLockService) {
         this.clusterLockService = clusterLockService;
@@ -212,6 +220,7 @@ public class PortalEventProcessingManagerImpl implements IPortalEventProcessingM
                     logger.warn("doAggregateRawEvents did not execute");
                 }
                 else if (aggrResult != null) {
+                    recordAggregation(aggrResult, start);
                     if (logger.isInfoEnabled()) {
                         logResult("Aggregated {} events created at {} events/second between {} and {} in {}ms - {} e/s a {}x speedup.", aggrResult, start);
                     }
@@ -388,6 +397,13 @@ public class PortalEventProcessingManagerImpl implements IPortalEventProcessingM
         ids.add(identifier);
     }
     
+    @Override
+    public Map<Class<?>, Collection<Serializable>> removeEvictedEntities() {
+        final Map<Class<?>, Collection<Serializable>> evictedEntities = evictedEntitiesHolder.get();
+        evictedEntitiesHolder.remove();
+        return evictedEntities;
+    }
+    
     /**
      * Check if the database and software versions match
      */
@@ -405,6 +421,46 @@ public class PortalEventProcessingManagerImpl implements IPortalEventProcessingM
         return softwareVersion.equals(databaseVersion);
     }
 
+    @Override
+    public int getLastAggregatedEvents() {
+        return this.lastAggregatedEvents;
+    }
+
+    @Override
+    public long getLastAggregationTime() {
+        return this.lastAggregationTime;
+    }
+
+    @Override
+    public double getLastAggregationRate() {
+        return rate(this.lastAggregatedEvents, this.lastAggregationTime);
+    }
+
+    @Override
+    public long getTotalAggregatedEvents() {
+        return this.totalAggregatedEvents.get();
+    }
+
+    @Override
+    public double getAverageAggregationRate() {
+        return rate(this.totalAggregatedEvents.get(), this.totalAggregationTime.get());
+    }
+    
+    private void recordAggregation(EventProcessingResult aggrResult, long start) {
+        final long runTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        this.lastAggregatedEvents = aggrResult.getProcessed();
+        this.lastAggregationTime = runTime;
+        this.totalAggregatedEvents.addAndGet(aggrResult.getProcessed());
+        this.totalAggregationTime.addAndGet(runTime);
+    }
+    
+    private static double rate(long events, long timeMillis) {
+        if (timeMillis <= 0) {
+            return 0;
+        }
+        return events / (timeMillis / 1000d);
+    }
+
     private void logResult(String message, EventProcessingResult aggrResult, long start) {
         final long runTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
         final double processRate = aggrResult.getProcessed() / (runTime / 1000d);
@@ -0,0 +1,51 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.aggr;
+
+/**
+ * Raw event aggregation throughput for the {@link PortalEventProcessingManagerImpl}
+ */
+public interface PortalEventProcessingManagerMXBean {
+    
+    /**
+     * @return Number of events processed by the last aggregation run on this server
+     */
+    int getLastAggregatedEvents();
+    
+    /**
+     * @return Duration in milliseconds of the last aggregation run on this server
+     */
+    long getLastAggregationTime();
+    
+    /**
+     * @return Events per second processed by the last aggregation run on this server
+     */
+    double getLastAggregationRate();
+    
+    /**
+     * @return Total number of events aggregated by this server
+     */
+    long getTotalAggregatedEvents();
+    
+    /**
+     * @return Events per second processed over all aggregation runs on this server
+     */
+    double getAverageAggregationRate();
+}
@@ -31,6 +31,7 @@ import org.joda.time.ReadablePeriod;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -61,7 +62,7 @@ public class PortalEventPurgerImpl implements PortalEventPurger {
     }
 
     @Autowired
-    public void setPortalEventDao(IPortalEventDao portalEventDao) {
+    public void setPortalEventDao(@Qualifier("portalEventDao") IPortalEventDao portalEventDao) {
         this.portalEventDao = portalEventDao;
     }
 
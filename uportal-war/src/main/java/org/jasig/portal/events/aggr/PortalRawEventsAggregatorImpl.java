@@ -30,13 +30,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.FlushModeType;
 
 import org.apache.commons.lang.mutable.MutableInt;
-import org.apache.commons.lang.mutable.MutableObject;
 import org.hibernate.Cache;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -51,6 +52,7 @@ import org.jasig.portal.events.aggr.dao.DateDimensionDao;
 import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.aggr.session.EventSession;
 import org.jasig.portal.events.aggr.session.EventSessionDao;
+import org.jasig.portal.events.handlers.db.EventAggregationWatermark;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
 import org.jasig.portal.jpa.BaseAggrEventsJpaDao;
 import org.jasig.portal.jpa.BaseRawEventsJpaDao.RawEventsTransactional;
@@ -62,10 +64,13 @@ import org.joda.time.ReadablePeriod;
 import org.springframework.aop.framework.AopProxyUtils;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
@@ -86,6 +91,8 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
     private AggregationIntervalHelper intervalHelper;
     private EventSessionDao eventSessionDao;
     private DateDimensionDao dateDimensionDao;
+    private HibernateCacheEvictor hibernateCacheEvictor;
+    private ExecutorService aggregationExecutor;
     private Set<IPortalEventAggregator<PortalEvent>> portalEventAggregators = Collections.emptySet();
     private List<ApplicationEventFilter<PortalEvent>> applicationEventFilters = Collections.emptyList();
     
@@ -94,8 +101,14 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
     private int cleanUnclosedAggregationsBatchSize = 1000;
     private int cleanUnclosedIntervalsBatchSize = 315;
     private ReadablePeriod aggregationDelay = Period.seconds(30);
+    private ReadablePeriod lateEventWindow = Period.minutes(2);
+    private int aggregationPartitions = 1;
+    private int partitionQueueSize = 1000;
     
     private final Map<Class<?>, List<String>> entityCollectionRoles = new HashMap<Class<?>, List<String>>();
+    
+    //Watermark from the last aggregation run on this server, only used while holding the aggregation cluster lock
+    private EventAggregationWatermark aggregationWatermark;
     private volatile boolean shutdown = false;
     
     @Autowired
@@ -129,7 +142,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
     }
 
     @Autowired
-    public void setPortalEventDao(IPortalEventDao portalEventDao) {
+    public void setPortalEventDao(@Qualifier("portalEventDao") IPortalEventDao portalEventDao) {
         this.portalEventDao = portalEventDao;
     }
 
@@ -148,6 +161,19 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         this.portalEventAggregators = portalEventAggregators;
     }
 
+    @Autowired
+    public void setHibernateCacheEvictor(HibernateCacheEvictor hibernateCacheEvictor) {
+        this.hibernateCacheEvictor = hibernateCacheEvictor;
+    }
+
+    /**
+     * Executor used to run aggregation partitions, required if {@link #setAggregationPartitions(int)} is greater than 1
+     */
+    @Resource(name="eventAggregationThreadPool")
+    public void setAggregationExecutor(ExecutorService aggregationExecutor) {
+        this.aggregationExecutor = aggregationExecutor;
+    }
+
     @Resource(name="aggregatorEventFilters")
     public void setApplicationEventFilters(List<ApplicationEventFilter<PortalEvent>> applicationEventFilters) {
         this.applicationEventFilters = applicationEventFilters;
@@ -158,6 +184,15 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         this.aggregationDelay = aggregationDelay;
     }
     
+    /**
+     * How far before the aggregation watermark to look for events that were stored after aggregation moved past
+     * their timestamp, defaults to 2 minutes. Only used while aggregation keeps running on the same server.
+     */
+    @Value("${org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl.lateEventWindow:PT2M}")
+    public void setLateEventWindow(ReadablePeriod lateEventWindow) {
+        this.lateEventWindow = lateEventWindow;
+    }
+    
     @Value("${org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl.eventAggregationBatchSize:10000}")
     public void setEventAggregationBatchSize(int eventAggregationBatchSize) {
         this.eventAggregationBatchSize = eventAggregationBatchSize;
@@ -168,6 +203,23 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
 		this.intervalAggregationBatchSize = intervalAggregationBatchSize;
 	}
     
+    /**
+     * Number of partitions to split the event aggregators into, each partition is run by a separate thread. Defaults
+     * to 1 which runs all aggregators on the aggregating thread.
+     */
+    @Value("${org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl.aggregationPartitions:1}")
+    public void setAggregationPartitions(int aggregationPartitions) {
+        this.aggregationPartitions = aggregationPartitions;
+    }
+    
+    /**
+     * Maximum number of queued aggregator calls per partition before aggregation waits for the partition to catch up
+     */
+    @Value("${org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl.partitionQueueSize:1000}")
+    public void setPartitionQueueSize(int partitionQueueSize) {
+        this.partitionQueueSize = partitionQueueSize;
+    }
+    
     @Value("${org.jasig.portal.events.aggr.PortalRawEventsAggregatorImpl.cleanUnclosedAggregationsBatchSize:1000}")
     public void setCleanUnclosedAggregationsBatchSize(int cleanUnclosedAggregationsBatchSize) {
 		this.cleanUnclosedAggregationsBatchSize = cleanUnclosedAggregationsBatchSize;
@@ -429,6 +481,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         
         //Calculate date range for aggregation
         DateTime lastAggregated = eventAggregatorStatus.getLastEventDate();
+        Long lastEventId = eventAggregatorStatus.getLastEventId();
         if (lastAggregated == null) {
             lastAggregated = portalEventDao.getOldestPortalEventTimestamp();
             
@@ -442,14 +495,29 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             AggregationIntervalInfo oldestMinuteInterval = this.intervalHelper.getIntervalInfo(AggregationInterval.MINUTE, lastAggregated);
             cleanUnclosedStatus.setLastEventDate(oldestMinuteInterval.getStart().minusMinutes(1));
             eventAggregationManagementDao.updateEventAggregatorStatus(cleanUnclosedStatus);
+            
+            //Nothing has been aggregated, start with the oldest event
+            lastEventId = Long.MIN_VALUE;
+        }
+        else if (lastEventId == null) {
+            //Status stored before event ids were tracked, the events at the last event date have already been aggregated
+            lastEventId = Long.MAX_VALUE;
         }
         
         final DateTime newestEventTime = DateTime.now().minus(this.aggregationDelay).secondOfMinute().roundFloorCopy();
         
+        //Reuse the watermark from the previous run so late events can be found, unless another server has run aggregation since
+        EventAggregationWatermark watermark = this.aggregationWatermark;
+        if (watermark == null || !watermark.isAt(lastAggregated, lastEventId)) {
+            watermark = new EventAggregationWatermark(lastAggregated, lastEventId, this.lateEventWindow);
+        }
+        this.aggregationWatermark = null;
+        
         final Thread currentThread = Thread.currentThread();
         final String currentName = currentThread.getName();
         final MutableInt events = new MutableInt();
-        final MutableObject lastEventDate = new MutableObject(newestEventTime);
+        
+        final PartitionedEventAggregator partitionedEventAggregator = this.startPartitionedEventAggregator();
         
         boolean complete;
         try {
@@ -461,23 +529,88 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             eventAggregatorStatus.setLastStart(DateTime.now());
             
             complete = portalEventDao.aggregatePortalEvents(
-            		lastAggregated, newestEventTime, this.eventAggregationBatchSize, 
-            		new AggregateEventsHandler(events, lastEventDate, eventAggregatorStatus));
+            		watermark, newestEventTime, this.eventAggregationBatchSize, 
+            		new AggregateEventsHandler(events, eventAggregatorStatus, partitionedEventAggregator));
             
-            eventAggregatorStatus.setLastEventDate((DateTime)lastEventDate.getValue());
+            if (partitionedEventAggregator != null) {
+                //Wait for the partitions to catch up, fails if any partition failed
+                partitionedEventAggregator.finish();
+                
+                if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                    //No transaction to tie the partitions to, commit them now
+                    partitionedEventAggregator.complete(true);
+                }
+            }
+            
+            if (complete && events.intValue() == 0) {
+                //Nothing to aggregate, everything before the end time has been seen
+                watermark.advanceTo(newestEventTime, Long.MIN_VALUE);
+            }
+            
+            eventAggregatorStatus.setLastEventDate(watermark.getTimestamp());
+            eventAggregatorStatus.setLastEventId(watermark.getEventId());
             eventAggregatorStatus.setLastEnd(DateTime.now());
         }
+        catch (RuntimeException e) {
+            if (partitionedEventAggregator != null) {
+                partitionedEventAggregator.complete(false);
+            }
+            throw e;
+        }
         finally {
             currentThread.setName(currentName);
         }
         
         //Store the results of the aggregation
         eventAggregationManagementDao.updateEventAggregatorStatus(eventAggregatorStatus);
+        this.aggregationWatermark = watermark;
         
         complete = complete && (this.eventAggregationBatchSize <= 0 || events.intValue() < this.eventAggregationBatchSize);
         return new EventProcessingResult(events.intValue(), lastAggregated, eventAggregatorStatus.getLastEventDate(), complete);
     }
     
+    /**
+     * @return A started partitioned aggregator, null if aggregators should be run on the current thread
+     */
+    private PartitionedEventAggregator startPartitionedEventAggregator() {
+        if (this.aggregationPartitions <= 1 || this.aggregationExecutor == null) {
+            return null;
+        }
+        
+        final PartitionedEventAggregator partitionedEventAggregator = new PartitionedEventAggregator(
+                this.portalEventAggregators, this.aggregationPartitions, this.partitionQueueSize, 
+                this.getTransactionOperations(), this.hibernateCacheEvictor);
+        if (partitionedEventAggregator.getPartitionCount() <= 1) {
+            return null;
+        }
+        
+        try {
+            partitionedEventAggregator.start(this.aggregationExecutor);
+        }
+        catch (RejectedExecutionException e) {
+            logger.warn("Not enough threads available to run " + partitionedEventAggregator.getPartitionCount() + " aggregation partitions, aggregating on the current thread", e);
+            return null;
+        }
+        
+        //Commit the partitions before the aggregation transaction, a failed partition commit rolls back the aggregation
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    partitionedEventAggregator.complete(true);
+                }
+                
+                @Override
+                public void afterCompletion(int status) {
+                    partitionedEventAggregator.complete(status == STATUS_COMMITTED);
+                }
+            });
+        }
+        
+        logger.debug("Aggregating events using {} partitions", partitionedEventAggregator.getPartitionCount());
+        return partitionedEventAggregator;
+    }
+    
     /**
      * Helper class that loads and caches the interval configuration for each aggregator as well as the union of intervals handled by the set of aggregators.
      */
@@ -539,8 +672,8 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         //Event Aggregation Context - used by aggregators to track state
         private final EventAggregationContext eventAggregationContext = new EventAggregationContextImpl(); 
         private final MutableInt eventCounter;
-        private final MutableObject lastEventDate;
         private final IEventAggregatorStatus eventAggregatorStatus;
+        private final PartitionedEventAggregator partitionedEventAggregator;
         private int intervalsCrossed = 0;
 
         //Local tracking of the current aggregation interval and info about said interval
@@ -552,10 +685,11 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         private final Map<Class<? extends IPortalEventAggregator<?>>, Map<AggregationInterval, AggregationIntervalInfo>> aggregatorReadOnlyIntervalInfo = new HashMap<Class<? extends IPortalEventAggregator<?>>, Map<AggregationInterval,AggregationIntervalInfo>>();
         private final AggregatedGroupConfig defaultAggregatedGroupConfig;
         
-        private AggregateEventsHandler(MutableInt eventCounter, MutableObject lastEventDate, IEventAggregatorStatus eventAggregatorStatus) {
+        private AggregateEventsHandler(MutableInt eventCounter, IEventAggregatorStatus eventAggregatorStatus, 
+                PartitionedEventAggregator partitionedEventAggregator) {
             this.eventCounter = eventCounter;
-            this.lastEventDate = lastEventDate;
             this.eventAggregatorStatus = eventAggregatorStatus;
+            this.partitionedEventAggregator = partitionedEventAggregator;
             this.defaultAggregatedGroupConfig = eventAggregationManagementDao.getDefaultAggregatedGroupConfig();
         }
 
@@ -568,7 +702,6 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             }
             
             final DateTime eventDate = event.getTimestampAsDate();
-            this.lastEventDate.setValue(eventDate);
             
             //If no interval data yet populate it.
             if (this.currentIntervalInfo.isEmpty()) {
@@ -603,9 +736,6 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             //Aggregate the event
             this.doAggregateEvent(event);
             
-            //Update the status object with the event date
-            this.lastEventDate.setValue(eventDate);
-            
             //Continue processing
             return true;
         }
@@ -672,7 +802,12 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
                     }
                     
                     //Aggregation magic happens here!
-                    portalEventAggregator.aggregateEvent(item, eventSession, eventAggregationContext, aggregatorIntervalInfo);
+                    if (this.partitionedEventAggregator != null) {
+                        this.partitionedEventAggregator.aggregateEvent(portalEventAggregator, item, eventSession, aggregatorIntervalInfo);
+                    }
+                    else {
+                        portalEventAggregator.aggregateEvent(item, eventSession, eventAggregationContext, aggregatorIntervalInfo);
+                    }
                 }
             }
         }
@@ -718,7 +853,12 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
                 //If the aggreagator is configured to use the interval notify it of the interval boundary
                 if (aggregatorIntervalConfig.isIncluded(interval)) {
                     final Map<AggregationInterval, AggregationIntervalInfo> aggregatorIntervalInfo = this.getAggregatorIntervalInfo(aggregatorType);
-                    portalEventAggregator.handleIntervalBoundary(interval, eventAggregationContext, aggregatorIntervalInfo);
+                    if (this.partitionedEventAggregator != null) {
+                        this.partitionedEventAggregator.handleIntervalBoundary(portalEventAggregator, interval, aggregatorIntervalInfo);
+                    }
+                    else {
+                        portalEventAggregator.handleIntervalBoundary(interval, eventAggregationContext, aggregatorIntervalInfo);
+                    }
                 }
             }
         }
@@ -19,6 +19,7 @@
 package org.jasig.portal.events.aggr;
 
 import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.jasig.portal.utils.LatencyHistogram;
 
 /**
  * Statistics about an aggregation that includes timing info. All values are
@@ -75,4 +76,23 @@ public interface TimedAggregationStatistics extends StatisticalSummary {
      * @return second central moment statistic
      */
     double getSecondMoment();
+
+    /**
+     * Returns an estimate of the percentile of the values that have been added, the estimate is within
+     * 12.5% of the actual value.
+     * <p>
+     * Double.NaN is returned if no values have been added.
+     * </p>
+     * @param percentile The percentile to estimate, between 0 and 100
+     * @return the estimated percentile
+     */
+    double getPercentile(double percentile);
+    
+    /**
+     * Returns a copy of the histogram of the values that have been added. Histograms from multiple
+     * aggregations can be merged, for example to compute percentiles for a day from hourly aggregations.
+     * 
+     * @return the histogram, empty if no values have been added
+     */
+    LatencyHistogram getHistogram();
 }
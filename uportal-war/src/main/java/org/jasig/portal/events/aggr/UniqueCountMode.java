@@ -0,0 +1,39 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr;
+
+import org.jasig.portal.utils.HyperLogLog;
+
+/**
+ * How an aggregation tracks the unique strings (user names, session ids) it has seen while its interval
+ * is open.
+ */
+public enum UniqueCountMode {
+    /**
+     * Every unique string is stored in {@link UniqueStrings}, counts are exact but storage grows with the
+     * number of unique strings and is discarded when the interval completes.
+     */
+    EXACT,
+    /**
+     * Strings are offered to a fixed size {@link HyperLogLog}, counts are estimates with about 2.3% standard
+     * error. The estimator is kept when the interval completes so estimates can be merged across intervals
+     * and groups.
+     */
+    ESTIMATED;
+}
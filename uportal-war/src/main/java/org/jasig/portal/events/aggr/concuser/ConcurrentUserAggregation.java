@@ -21,6 +21,8 @@ package org.jasig.portal.events.aggr.concuser;
 
 import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.aggr.BaseAggregation;
+import org.jasig.portal.events.aggr.UniqueCountMode;
+import org.jasig.portal.utils.HyperLogLog;
 
 /**
  * Tracks the number of concurrent users. Measured by unique {@link PortalEvent#getEventSessionId()} values
@@ -34,4 +36,11 @@ public interface ConcurrentUserAggregation extends BaseAggregation<ConcurrentUse
      * @return Total number of users that were active for the duration of this aggregation.
      */
     int getConcurrentUsers();
+    
+    /**
+     * @return Estimator of the unique event sessions seen in the interval, null unless the aggregation was counted with
+     *  {@link UniqueCountMode#ESTIMATED}. The returned estimator is a copy and can be merged with the estimators of other
+     *  intervals or groups to estimate the active users across them.
+     */
+    HyperLogLog getConcurrentUserEstimate();
 }
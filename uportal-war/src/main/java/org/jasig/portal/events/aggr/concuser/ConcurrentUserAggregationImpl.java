@@ -47,10 +47,12 @@ import org.jasig.portal.events.aggr.BaseAggregationImpl;
 import org.jasig.portal.events.aggr.BaseGroupedAggregationDiscriminator;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.TimeDimension;
+import org.jasig.portal.events.aggr.UniqueCountMode;
 import org.jasig.portal.events.aggr.UniqueStrings;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.login.LoginAggregationDiscriminator;
 import org.jasig.portal.events.aggr.login.LoginAggregationDiscriminatorImpl;
+import org.jasig.portal.utils.HyperLogLog;
 
 /**
  * @author Eric Dalquist
@@ -98,6 +100,14 @@ public final class ConcurrentUserAggregationImpl
     @Fetch(FetchMode.JOIN)
     private UniqueStrings uniqueStrings;
     
+    @Column(name = "UNIQUE_ESTIMATE", length = HyperLogLog.DEFAULT_SERIALIZED_SIZE)
+    private byte[] uniqueEstimate;
+    
+    @Column(name = "UNIQUE_ESTIMATE_OPEN")
+    private Boolean uniqueEstimateOpen;
+    
+    @Transient
+    private HyperLogLog estimator;
     @Transient
     private ConcurrentUserAggregationKey aggregationKey;
     @Transient
@@ -125,6 +135,11 @@ public final class ConcurrentUserAggregationImpl
         return this.concurrentUsers;
     }
 
+    @Override
+    public HyperLogLog getConcurrentUserEstimate() {
+        return this.uniqueEstimate != null ? HyperLogLog.fromBytes(this.uniqueEstimate) : null;
+    }
+    
     @Override
     public ConcurrentUserAggregationKey getAggregationKey() {
         ConcurrentUserAggregationKey key = this.aggregationKey;
@@ -147,29 +162,70 @@ public final class ConcurrentUserAggregationImpl
 
     @Override
     protected boolean isComplete() {
-        return this.concurrentUsers > 0 && this.uniqueStrings == null;
+        return this.concurrentUsers > 0 && this.uniqueStrings == null && !Boolean.TRUE.equals(this.uniqueEstimateOpen);
     }
 
     @Override
     protected void completeInterval() {
         this.uniqueStrings = null;
+        this.uniqueEstimateOpen = null;
+        this.estimator = null;
     }
     
-    void countSession(String eventSessionId) {
+    /**
+     * @param uniqueCountMode How to count unique values if this is the first value counted in the interval,
+     *  once counting has started the aggregation continues to use the same mode.
+     */
+    void countSession(String eventSessionId, UniqueCountMode uniqueCountMode) {
         if (isComplete()) {
             this.getLogger().warn("{} is already closed, the event session {} will be ignored on: {}", this.getClass().getSimpleName(), eventSessionId, this);
             return;
         }
         
-        if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+        final HyperLogLog estimator = this.getOpenEstimator(uniqueCountMode);
+        if (estimator != null) {
+            if (estimator.offer(eventSessionId)) {
+                this.concurrentUsers = (int) estimator.cardinality();
+                
+                //Replace rather than modify the persistent array so the change is seen when the session is flushed
+                this.uniqueEstimate = estimator.toBytes();
+            }
         }
-        
-        if (this.uniqueStrings.add(eventSessionId)) {
+        else if (this.getUniqueStrings().add(eventSessionId)) {
             this.concurrentUsers++;
         }
     }
 
+    /**
+     * @return The estimator to count with, null if unique strings are counted exactly
+     */
+    private HyperLogLog getOpenEstimator(UniqueCountMode uniqueCountMode) {
+        if (this.estimator != null) {
+            return this.estimator;
+        }
+        
+        if (this.uniqueEstimate != null) {
+            this.estimator = HyperLogLog.fromBytes(this.uniqueEstimate);
+            return this.estimator;
+        }
+        
+        if (this.uniqueStrings == null && uniqueCountMode == UniqueCountMode.ESTIMATED) {
+            this.estimator = new HyperLogLog();
+            this.uniqueEstimate = this.estimator.toBytes();
+            this.uniqueEstimateOpen = Boolean.TRUE;
+            return this.estimator;
+        }
+        
+        return null;
+    }
+    
+    private UniqueStrings getUniqueStrings() {
+        if (this.uniqueStrings == null) {
+            this.uniqueStrings = new UniqueStrings();
+        }
+        return this.uniqueStrings;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
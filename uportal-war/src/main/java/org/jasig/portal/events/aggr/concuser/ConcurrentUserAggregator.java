@@ -27,8 +27,10 @@ import org.jasig.portal.events.aggr.BasePortalEventAggregator;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.EventAggregationContext;
 import org.jasig.portal.events.aggr.TimeDimension;
+import org.jasig.portal.events.aggr.UniqueCountMode;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Event aggregator that uses {@link ConcurrentUserAggregationPrivateDao} to aggregate concurrent user data 
@@ -39,11 +41,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class ConcurrentUserAggregator extends BasePortalEventAggregator<PortalEvent, ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> {
     private ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao;
 
+    private UniqueCountMode uniqueCountMode = UniqueCountMode.EXACT;
+
     @Autowired
     public void setConcurrentUserAggregationDao(ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao) {
         this.concurrentUserAggregationDao = concurrentUserAggregationDao;
     }
 
+    /**
+     * How unique event sessions are counted in new aggregations, defaults to {@link UniqueCountMode#EXACT}
+     */
+    @Value("${org.jasig.portal.events.aggr.concuser.ConcurrentUserAggregator.uniqueCountMode:EXACT}")
+    public void setUniqueCountMode(UniqueCountMode uniqueCountMode) {
+        this.uniqueCountMode = uniqueCountMode;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> getAggregationDao() {
         return this.concurrentUserAggregationDao;
@@ -60,7 +72,7 @@ public class ConcurrentUserAggregator extends BasePortalEventAggregator<PortalEv
         final String eventSessionId = e.getEventSessionId();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countSession(eventSessionId);
+        aggregation.countSession(eventSessionId, this.uniqueCountMode);
     }
     
     @Override
@@ -55,7 +55,9 @@ public class JpaConcurrentUserAggregationDao extends
     @Override
     protected void addUnclosedPredicate(CriteriaBuilder cb, Root<ConcurrentUserAggregationImpl> root,
             List<Predicate> keyPredicates) {
-        keyPredicates.add(cb.isNotNull(root.get(ConcurrentUserAggregationImpl_.uniqueStrings)));
+        keyPredicates.add(cb.or(
+                cb.isNotNull(root.get(ConcurrentUserAggregationImpl_.uniqueStrings)),
+                cb.isTrue(root.get(ConcurrentUserAggregationImpl_.uniqueEstimateOpen))));
     }
 
     @Override
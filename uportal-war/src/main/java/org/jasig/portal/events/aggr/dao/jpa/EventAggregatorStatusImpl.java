@@ -75,6 +75,9 @@ class EventAggregatorStatusImpl implements IEventAggregatorStatus {
     @Column(name="LAST_EVENT_DATE")
     @Type(type="dateTime")
     private DateTime lastEventDateTime;
+    
+    @Column(name="LAST_EVENT_ID")
+    private Long lastEventId;
 
     @SuppressWarnings("unused")
     private EventAggregatorStatusImpl() {
@@ -129,6 +132,16 @@ class EventAggregatorStatusImpl implements IEventAggregatorStatus {
         this.lastEventDateTime = lastEventDateTime;
     }
 
+    @Override
+    public Long getLastEventId() {
+        return this.lastEventId;
+    }
+
+    @Override
+    public void setLastEventId(Long lastEventId) {
+        this.lastEventId = lastEventId;
+    }
+
     @Override
     public ProcessingType getProcessingType() {
         return this.processingType;
@@ -160,6 +173,6 @@ class EventAggregatorStatusImpl implements IEventAggregatorStatus {
     public String toString() {
         return "EventAggregatorStatusImpl [id=" + this.id + ", entityVersion=" + this.entityVersion
                 + ", processingType=" + this.processingType + ", serverName=" + this.serverName + ", lastStart="
-                + this.lastStart + ", lastEnd=" + this.lastEnd + ", lastEventDateTime=" + this.lastEventDateTime + "]";
+                + this.lastStart + ", lastEnd=" + this.lastEnd + ", lastEventDateTime=" + this.lastEventDateTime + ", lastEventId=" + this.lastEventId + "]";
     }
 }
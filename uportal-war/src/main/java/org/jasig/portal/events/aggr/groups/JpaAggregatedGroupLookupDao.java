@@ -37,9 +37,14 @@ import org.jasig.portal.jpa.OpenEntityManager;
 import org.jasig.portal.jpa.cache.EntityManagerCache;
 import org.jasig.portal.utils.cache.CacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.google.common.base.Function;
 
@@ -56,6 +61,16 @@ public class JpaAggregatedGroupLookupDao extends BaseAggrEventsJpaDao implements
 
     private EntityManagerCache entityManagerCache;
     private ICompositeGroupService compositeGroupService;
+    private TransactionOperations newTransactionOperations;
+    private final Object createMappingLock = new Object();
+    
+    @Autowired
+    @Qualifier(PERSISTENCE_UNIT_NAME)
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.newTransactionOperations = transactionTemplate;
+    }
 
     @Autowired
     public void setEntityManagerCache(EntityManagerCache entityManagerCache) {
@@ -99,14 +114,30 @@ public class JpaAggregatedGroupLookupDao extends BaseAggrEventsJpaDao implements
             return groupMapping;
         }
         
-        return this.getTransactionOperations().execute(new TransactionCallback<AggregatedGroupMapping>() {
+        //Group mappings are referenced by aggregations written in parallel, each in its own transaction. Create the
+        //mapping in a separate transaction and under a lock so it is visible to every aggregator as soon as it exists
+        synchronized (this.createMappingLock) {
+            final NaturalIdQuery<AggregatedGroupMappingImpl> lockedQuery = this.createNaturalIdQuery(AggregatedGroupMappingImpl.class);
+            lockedQuery.using(AggregatedGroupMappingImpl_.groupService, groupService);
+            lockedQuery.using(AggregatedGroupMappingImpl_.groupName, groupName);
+            groupMapping = lockedQuery.load();
+            if (groupMapping == null) {
+                groupMapping = this.createMapping(groupService, groupName);
+            }
+        }
+        
+        this.entityManagerCache.put(BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME, key, groupMapping);
+        return groupMapping;
+    }
+    
+    private AggregatedGroupMapping createMapping(final String groupService, final String groupName) {
+        return this.newTransactionOperations.execute(new TransactionCallback<AggregatedGroupMapping>() {
             @Override
             public AggregatedGroupMapping doInTransaction(TransactionStatus status) {
                 final AggregatedGroupMappingImpl aggregatedGroupMapping = new AggregatedGroupMappingImpl(groupService, groupName);
                 getEntityManager().persist(aggregatedGroupMapping);
                 
                 logger.debug("Created {}", aggregatedGroupMapping);
-                entityManagerCache.put(BaseAggrEventsJpaDao.PERSISTENCE_UNIT_NAME, key, aggregatedGroupMapping);
                 
                 return aggregatedGroupMapping;
             }
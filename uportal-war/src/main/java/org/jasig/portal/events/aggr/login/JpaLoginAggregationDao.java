@@ -53,7 +53,9 @@ public class JpaLoginAggregationDao extends JpaBaseAggregationDao<LoginAggregati
     @Override
     protected void addUnclosedPredicate(CriteriaBuilder cb, Root<LoginAggregationImpl> root,
             List<Predicate> keyPredicates) {
-        keyPredicates.add(cb.isNotNull(root.get(LoginAggregationImpl_.uniqueStrings)));
+        keyPredicates.add(cb.or(
+                cb.isNotNull(root.get(LoginAggregationImpl_.uniqueStrings)),
+                cb.isTrue(root.get(LoginAggregationImpl_.uniqueEstimateOpen))));
     }
     
     @Override
@@ -21,6 +21,8 @@ package org.jasig.portal.events.aggr.login;
 
 import org.jasig.portal.events.LoginEvent;
 import org.jasig.portal.events.aggr.BaseAggregation;
+import org.jasig.portal.events.aggr.UniqueCountMode;
+import org.jasig.portal.utils.HyperLogLog;
 
 /**
  * @author Eric Dalquist
@@ -36,4 +38,11 @@ public interface LoginAggregation extends BaseAggregation<LoginAggregationKey, L
      * @return Unique number of {@link LoginEvent}s that occurred in the interval, uniqueness is determined by {@link LoginEvent#getUserName()}
      */
     int getUniqueLoginCount();
+    
+    /**
+     * @return Estimator of the unique user names seen in the interval, null unless the aggregation was counted with
+     *  {@link UniqueCountMode#ESTIMATED}. The returned estimator is a copy and can be merged with the estimators of other
+     *  intervals or groups to estimate the unique logins across them.
+     */
+    HyperLogLog getUniqueLoginEstimate();
 }
@@ -46,8 +46,10 @@ import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.BaseAggregationImpl;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.TimeDimension;
+import org.jasig.portal.events.aggr.UniqueCountMode;
 import org.jasig.portal.events.aggr.UniqueStrings;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.utils.HyperLogLog;
 
 /**
  * @author Eric Dalquist
@@ -96,7 +98,15 @@ public final class LoginAggregationImpl
     @JoinColumn(name = "UNIQUE_STRINGS_ID")
     @Fetch(FetchMode.JOIN)
     private UniqueStrings uniqueStrings;
+    
+    @Column(name = "UNIQUE_ESTIMATE", length = HyperLogLog.DEFAULT_SERIALIZED_SIZE)
+    private byte[] uniqueEstimate;
+    
+    @Column(name = "UNIQUE_ESTIMATE_OPEN")
+    private Boolean uniqueEstimateOpen;
 
+    @Transient
+    private HyperLogLog estimator;
     @Transient
     private LoginAggregationKeyImpl aggregationKey;
     @Transient
@@ -128,6 +138,11 @@ public final class LoginAggregationImpl
         return this.uniqueLoginCount;
     }
     
+    @Override
+    public HyperLogLog getUniqueLoginEstimate() {
+        return this.uniqueEstimate != null ? HyperLogLog.fromBytes(this.uniqueEstimate) : null;
+    }
+    
     @Override
     public LoginAggregationKey getAggregationKey() {
         LoginAggregationKeyImpl key = this.aggregationKey;
@@ -150,30 +165,71 @@ public final class LoginAggregationImpl
 
     @Override
     protected boolean isComplete() {
-        return this.loginCount > 0 && this.uniqueStrings == null;
+        return this.loginCount > 0 && this.uniqueStrings == null && !Boolean.TRUE.equals(this.uniqueEstimateOpen);
     }
 
     @Override
     protected void completeInterval() {
         this.uniqueStrings = null;
+        this.uniqueEstimateOpen = null;
+        this.estimator = null;
     }
 
-    void countUser(String userName) {
+    /**
+     * @param uniqueCountMode How to count unique values if this is the first value counted in the interval,
+     *  once counting has started the aggregation continues to use the same mode.
+     */
+    void countUser(String userName, UniqueCountMode uniqueCountMode) {
         if (isComplete()) {
             this.getLogger().warn("{} is already closed, the user name {} will be ignored on: {}", this.getClass().getSimpleName(), userName, this);
             return;
         }
         
-        if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+        final HyperLogLog estimator = this.getOpenEstimator(uniqueCountMode);
+        if (estimator != null) {
+            if (estimator.offer(userName)) {
+                this.uniqueLoginCount = (int) estimator.cardinality();
+                
+                //Replace rather than modify the persistent array so the change is seen when the session is flushed
+                this.uniqueEstimate = estimator.toBytes();
+            }
         }
-        
-        if (this.uniqueStrings.add(userName)) {
+        else if (this.getUniqueStrings().add(userName)) {
             this.uniqueLoginCount++;
         }
         this.loginCount++;
     }
 
+    /**
+     * @return The estimator to count with, null if unique strings are counted exactly
+     */
+    private HyperLogLog getOpenEstimator(UniqueCountMode uniqueCountMode) {
+        if (this.estimator != null) {
+            return this.estimator;
+        }
+        
+        if (this.uniqueEstimate != null) {
+            this.estimator = HyperLogLog.fromBytes(this.uniqueEstimate);
+            return this.estimator;
+        }
+        
+        if (this.uniqueStrings == null && uniqueCountMode == UniqueCountMode.ESTIMATED) {
+            this.estimator = new HyperLogLog();
+            this.uniqueEstimate = this.estimator.toBytes();
+            this.uniqueEstimateOpen = Boolean.TRUE;
+            return this.estimator;
+        }
+        
+        return null;
+    }
+    
+    private UniqueStrings getUniqueStrings() {
+        if (this.uniqueStrings == null) {
+            this.uniqueStrings = new UniqueStrings();
+        }
+        return this.uniqueStrings;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
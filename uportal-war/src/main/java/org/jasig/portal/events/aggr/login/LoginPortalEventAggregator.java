@@ -28,8 +28,10 @@ import org.jasig.portal.events.aggr.BasePortalEventAggregator;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.EventAggregationContext;
 import org.jasig.portal.events.aggr.TimeDimension;
+import org.jasig.portal.events.aggr.UniqueCountMode;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Event aggregator that uses {@link LoginAggregationPrivateDao} to aggregate login events 
@@ -40,11 +42,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class LoginPortalEventAggregator extends BasePortalEventAggregator<LoginEvent, LoginAggregationImpl, LoginAggregationKey> {
     private LoginAggregationPrivateDao loginAggregationDao;
 
+    private UniqueCountMode uniqueCountMode = UniqueCountMode.EXACT;
+
     @Autowired
     public void setLoginAggregationDao(LoginAggregationPrivateDao loginAggregationDao) {
         this.loginAggregationDao = loginAggregationDao;
     }
 
+    /**
+     * How unique user names are counted in new aggregations, defaults to {@link UniqueCountMode#EXACT}
+     */
+    @Value("${org.jasig.portal.events.aggr.login.LoginPortalEventAggregator.uniqueCountMode:EXACT}")
+    public void setUniqueCountMode(UniqueCountMode uniqueCountMode) {
+        this.uniqueCountMode = uniqueCountMode;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<LoginAggregationImpl, LoginAggregationKey> getAggregationDao() {
         return this.loginAggregationDao;
@@ -70,6 +82,6 @@ public class LoginPortalEventAggregator extends BasePortalEventAggregator<LoginE
         final String userName = e.getUserName();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countUser(userName);
+        aggregation.countUser(userName, this.uniqueCountMode);
     }
 }
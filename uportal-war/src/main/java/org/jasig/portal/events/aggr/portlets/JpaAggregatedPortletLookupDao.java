@@ -34,9 +34,14 @@ import org.jasig.portal.portlet.dao.IPortletDefinitionDao;
 import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.utils.cache.CacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.google.common.base.Function;
 
@@ -52,6 +57,16 @@ public class JpaAggregatedPortletLookupDao extends BaseAggrEventsJpaDao implemen
 
     private EntityManagerCache entityManagerCache;
     private IPortletDefinitionDao portletDefinitionDao;
+    private TransactionOperations newTransactionOperations;
+    private final Object createMappingLock = new Object();
+    
+    @Autowired
+    @Qualifier(PERSISTENCE_UNIT_NAME)
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.newTransactionOperations = transactionTemplate;
+    }
     
     @Autowired
     public void setPortletDefinitionDao(IPortletDefinitionDao portletDefinitionDao) {
@@ -93,7 +108,23 @@ public class JpaAggregatedPortletLookupDao extends BaseAggrEventsJpaDao implemen
             return portletMapping;
         }
         
-        return this.getTransactionOperations().execute(new TransactionCallback<AggregatedPortletMapping>() {
+        //Portlet mappings are shared by aggregators that may run in parallel, each in its own transaction. Create the
+        //mapping in a separate transaction and under a lock so it is visible to every aggregator as soon as it exists
+        synchronized (this.createMappingLock) {
+            final NaturalIdQuery<AggregatedPortletMappingImpl> lockedQuery = this.createNaturalIdQuery(AggregatedPortletMappingImpl.class);
+            lockedQuery.using(AggregatedPortletMappingImpl_.fname, fname);
+            portletMapping = lockedQuery.load();
+            if (portletMapping == null) {
+                portletMapping = this.createMapping(fname);
+            }
+        }
+        
+        this.entityManagerCache.put(PERSISTENCE_UNIT_NAME, key, portletMapping);
+        return portletMapping;
+    }
+    
+    private AggregatedPortletMapping createMapping(final String fname) {
+        return this.newTransactionOperations.execute(new TransactionCallback<AggregatedPortletMapping>() {
             @Override
             public AggregatedPortletMapping doInTransaction(TransactionStatus status) {
                 final IPortletDefinition portletDefinition = portletDefinitionDao.getPortletDefinitionByFname(fname);
@@ -109,7 +140,6 @@ public class JpaAggregatedPortletLookupDao extends BaseAggrEventsJpaDao implemen
                 getEntityManager().persist(aggregatedGroupMapping);
                 
                 logger.debug("Created {}", aggregatedGroupMapping);
-                entityManagerCache.put(PERSISTENCE_UNIT_NAME, key, aggregatedGroupMapping);
                 
                 return aggregatedGroupMapping;
             }
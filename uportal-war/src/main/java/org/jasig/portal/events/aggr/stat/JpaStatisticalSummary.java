@@ -18,6 +18,7 @@
  */
 package org.jasig.portal.events.aggr.stat;
 
+import javax.persistence.Column;
 import javax.persistence.Embeddable;
 import javax.persistence.Embedded;
 import javax.persistence.Transient;
@@ -36,6 +37,7 @@ import org.apache.commons.math3.util.FastMath;
 import org.apache.commons.math3.util.MathUtils;
 import org.apache.commons.math3.util.Precision;
 import org.jasig.portal.events.aggr.TimedAggregationStatistics;
+import org.jasig.portal.utils.LatencyHistogram;
 
 /**
  * Semi-Clone of {@link SummaryStatistics} that can be persisted in a database
@@ -81,6 +83,14 @@ public class JpaStatisticalSummary implements TimedAggregationStatistics {
     @Transient
     private Variance variance;
     
+    /** encoded histogram of values that have been added, updated by {@link #getHistogramData()} */
+    @Column(name = "CM_HISTOGRAM", length = 2000)
+    private byte[] histogramData;
+    
+    /** histogram of values that have been added */
+    @Transient
+    private LatencyHistogram histogram;
+    
     //***** ALL FIELDS ARE LAZILY INITIALIZED HERE *****//
     
     private SecondMoment _getSecondMoment() {
@@ -137,6 +147,12 @@ public class JpaStatisticalSummary implements TimedAggregationStatistics {
         }
         return this.variance;
     }
+    private LatencyHistogram _getHistogram() {
+        if (this.histogram == null) {
+            this.histogram = LatencyHistogram.fromByteArray(this.histogramData);
+        }
+        return this.histogram;
+    }
 
     public void addValue(double value) {
         _getSum().increment(value);
@@ -145,6 +161,7 @@ public class JpaStatisticalSummary implements TimedAggregationStatistics {
         _getMax().increment(value);
         _getSumLog().increment(value);
         _getSecondMoment().increment(value);
+        _getHistogram().record(Math.round(value));
     }
     
 
@@ -294,6 +311,48 @@ public class JpaStatisticalSummary implements TimedAggregationStatistics {
         return _getSecondMoment().getResult();
     }
 
+    /**
+     * Returns an estimate of the percentile of the values that have been added, accurate to within 12.5%
+     * <p>
+     * Double.NaN is returned if no values have been added.
+     * </p>
+     * @param percentile The percentile to estimate, between 0 and 100
+     * @return the estimated percentile
+     */
+    @Override
+    public double getPercentile(double percentile) {
+        return getPercentile(_getHistogram(), percentile);
+    }
+    
+    /**
+     * Returns a copy of the histogram of the values that have been added, values are rounded to the nearest
+     * whole number.
+     * @return the histogram
+     */
+    @Override
+    public LatencyHistogram getHistogram() {
+        return LatencyHistogram.fromByteArray(this.getHistogramData());
+    }
+    
+    /**
+     * Encodes the histogram of the values that have been added for storage
+     * @return The encoded histogram
+     */
+    public byte[] getHistogramData() {
+        this.histogramData = _getHistogram().toByteArray();
+        return this.histogramData;
+    }
+    
+    /**
+     * @return The percentile of the histogram, Double.NaN if the histogram is empty
+     */
+    public static double getPercentile(LatencyHistogram histogram, double percentile) {
+        if (histogram.getCount() == 0) {
+            return Double.NaN;
+        }
+        return histogram.getValueAtPercentile(percentile);
+    }
+
     /**
      * Generates a text report displaying summary statistics from values that
      * have been added.
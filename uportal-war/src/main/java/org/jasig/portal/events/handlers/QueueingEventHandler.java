@@ -20,42 +20,174 @@
 package org.jasig.portal.events.handlers;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jasig.portal.spring.context.FilteringApplicationListener;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationEvent;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 /**
- * Queues PortalEvents in a local {@link ConcurrentLinkedQueue} and flushes the events to the configured
- * {@link BatchingEventHandler} when {@link #flush()} is called. This class must be used with some external
- * timer that will call {@link #flush()} at regular intervals
+ * Queues PortalEvents in a bounded local queue and flushes the events in batches to {@link #onApplicationEvents(Iterable)}.
+ * By default a dedicated writer thread flushes the queue every {@link #setFlushPeriod(long)} milliseconds or as soon as
+ * a full batch is queued so threads publishing events never do the work of handling them. If the writer thread is
+ * disabled this class must be used with some external timer that will call {@link #flush()} at regular intervals.
+ * <p>
+ * When the queue is full new events are handled according to the configured {@link OverflowPolicy}. The batch size
+ * adapts between {@link #setBatchSize(int)} and {@link #setMaxBatchSize(int)} based on how far the writer is behind.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public abstract class QueueingEventHandler<E extends ApplicationEvent> 
-        extends FilteringApplicationListener<E> implements DisposableBean {
+        extends FilteringApplicationListener<E> implements InitializingBean, DisposableBean, QueueingEventHandlerMXBean {
+    
+    /**
+     * How to handle a new event when the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest queued event to make room for the new event, never blocks
+         */
+        DROP_OLDEST,
+        /**
+         * Discard new events of the configured droppable types, events of other types are handled as {@link #BLOCK}
+         */
+        DROP_BY_TYPE,
+        /**
+         * Wait up to the overflow timeout for room in the queue, the new event is discarded if the queue is still full
+         */
+        BLOCK;
+    }
     
-    private final Queue<E> eventQueue = new ConcurrentLinkedQueue<E>();
     private final Lock flushLock = new ReentrantLock();
-    private int batchSize = 25;
+    private final AtomicLong queuedEvents = new AtomicLong();
+    private final AtomicLong handledEvents = new AtomicLong();
+    private final AtomicLong failedEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final ConcurrentMap<Class<?>, AtomicLong> droppedEventsByType = new ConcurrentHashMap<Class<?>, AtomicLong>();
+    
+    private BlockingQueue<E> eventQueue = new ArrayBlockingQueue<E>(10000);
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long overflowTimeout = 100;
+    private Set<Class<? extends E>> droppableEventTypes = Collections.emptySet();
+    private int minBatchSize = 25;
+    private int maxBatchSize = 500;
+    private long flushPeriod = 1000;
+    private long shutdownTimeout = 30000;
+    private boolean writerThreadEnabled = true;
+    
+    private volatile int batchSize = this.minBatchSize;
+    private volatile Thread writerThread;
+    private volatile boolean running = false;
+    private volatile long lastFlushTime = 0;
     
     //Used to hold events to flush, MUST only be read/written from within the flushLock 
-    private List<E> eventBuffer = new ArrayList<E>(this.batchSize);
+    private final List<E> eventBuffer = new ArrayList<E>();
     
 
-
     /**
-     * The maximum number of events to be flushed to the {@link BatchingEventHandler} per call.
+     * The minimum number of events to be flushed to {@link #onApplicationEvents(Iterable)} per call, also the
+     * initial batch size. Defaults to 25
      */
     public void setBatchSize(int batchSize) {
-        this.batchSize = batchSize;
-        eventBuffer = new ArrayList<E>(this.batchSize);
+        this.minBatchSize = Math.max(1, batchSize);
+        this.batchSize = this.minBatchSize;
+    }
+    
+    /**
+     * The maximum number of events to be flushed to {@link #onApplicationEvents(Iterable)} per call when the
+     * queue is backing up. Defaults to 500
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+    
+    /**
+     * Maximum number of events to queue, defaults to 10000
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.eventQueue = new ArrayBlockingQueue<E>(queueCapacity);
+    }
+
+    /**
+     * How new events are handled when the queue is full, defaults to {@link OverflowPolicy#DROP_OLDEST}
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Milliseconds to wait for room in a full queue for the {@link OverflowPolicy#BLOCK} and 
+     * {@link OverflowPolicy#DROP_BY_TYPE} policies, defaults to 100
+     */
+    public void setOverflowTimeout(long overflowTimeout) {
+        this.overflowTimeout = overflowTimeout;
+    }
+
+    /**
+     * Event types that are discarded immediately when the queue is full, used by {@link OverflowPolicy#DROP_BY_TYPE}
+     */
+    public void setDroppableEventTypes(Set<Class<? extends E>> droppableEventTypes) {
+        this.droppableEventTypes = ImmutableSet.copyOf(droppableEventTypes);
+    }
+
+    /**
+     * Maximum milliseconds the writer thread waits before flushing a partial batch, defaults to 1000
+     */
+    public void setFlushPeriod(long flushPeriod) {
+        this.flushPeriod = flushPeriod;
+    }
+
+    /**
+     * Maximum milliseconds {@link #destroy()} waits for a flush that is under way before writing the remaining
+     * queued events, defaults to 30000
+     */
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    /**
+     * If a dedicated thread should be used to flush events, if false {@link #flush()} must be called
+     * periodically. Defaults to true
+     */
+    public void setWriterThreadEnabled(boolean writerThreadEnabled) {
+        this.writerThreadEnabled = writerThreadEnabled;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!this.writerThreadEnabled) {
+            return;
+        }
+        
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("uP-EventWriter-" + this.getClass().getSimpleName() + "-");
+        threadFactory.setDaemon(true);
+        
+        this.running = true;
+        this.writerThread = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                writeEvents();
+            }
+        });
+        this.writerThread.start();
     }
     
     /* (non-Javadoc)
@@ -63,7 +195,25 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     @Override
     public final void destroy() throws Exception {
-        this.flush();
+        final Thread writerThread = this.writerThread;
+        if (writerThread != null) {
+            this.running = false;
+            LockSupport.unpark(writerThread);
+            writerThread.join(this.flushPeriod + 5000);
+            this.writerThread = null;
+        }
+        
+        //Wait for any flush still under way instead of skipping the final flush, then drain the queue
+        if (!this.flushLock.tryLock(this.shutdownTimeout, TimeUnit.MILLISECONDS)) {
+            logger.warn("Timed out after {}ms waiting for the current flush to complete, {} queued events were not written", this.shutdownTimeout, this.eventQueue.size());
+            return;
+        }
+        try {
+            this.flushQueue();
+        }
+        finally {
+            this.flushLock.unlock();
+        }
     }
     
     /* (non-Javadoc)
@@ -71,7 +221,16 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     @Override
     protected final void onFilteredApplicationEvent(E event) {
-        this.eventQueue.offer(event);
+        if (!this.eventQueue.offer(event) && !this.handleOverflow(event)) {
+            return;
+        }
+        this.queuedEvents.incrementAndGet();
+        
+        //Wake the writer as soon as there is a full batch waiting
+        final Thread writerThread = this.writerThread;
+        if (writerThread != null && this.eventQueue.size() >= this.batchSize) {
+            LockSupport.unpark(writerThread);
+        }
     }
     
     /**
@@ -83,14 +242,16 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
     protected abstract void onApplicationEvents(Iterable<E> events);
     
     /**
-     * Flushes the queued PortalEvents to the configured {@link BatchingEventHandler}. If <code>force</code> is false
-     * flushing only happens if there are enough events in the queue and a flush isn't already under way. If 
-     * <code>force</code> is true all queued events will be flushed and the calling thread will wait until any previously
-     * executing flush call completes before flushing
-     * 
-     * @param force Forces flushing events to the {@link BatchingEventHandler} even if there are fewer than <code>flushCount</code> PortalEvents in the queue.
+     * Flushes the queued PortalEvents to {@link #onApplicationEvents(Iterable)}. Flushing only happens if
+     * a flush isn't already under way. If the writer thread is running this method just wakes it up.
      */
     public final void flush() {
+        final Thread writerThread = this.writerThread;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+            return;
+        }
+        
         if (eventQueue.isEmpty()) {
             //No events to flush
             logger.trace("No events to flush, returning.");
@@ -103,15 +264,177 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             logger.trace("FlushLock already held, returning.");
             return;
         }
+        try {
+            this.flushQueue();
+        }
+        finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return this.eventQueue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return this.eventQueue.size() + this.eventQueue.remainingCapacity();
+    }
+
+    @Override
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    @Override
+    public long getQueuedEventCount() {
+        return this.queuedEvents.get();
+    }
+
+    @Override
+    public long getHandledEventCount() {
+        return this.handledEvents.get();
+    }
+
+    @Override
+    public long getFailedEventCount() {
+        return this.failedEvents.get();
+    }
+
+    @Override
+    public long getDroppedEventCount() {
+        return this.droppedEvents.get();
+    }
+
+    @Override
+    public Map<String, Long> getDroppedEventCountsByType() {
+        final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        for (final Map.Entry<Class<?>, AtomicLong> droppedEntry : this.droppedEventsByType.entrySet()) {
+            builder.put(droppedEntry.getKey().getName(), droppedEntry.getValue().get());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public long getLastFlushTime() {
+        return this.lastFlushTime;
+    }
+    
+    /**
+     * Called when the queue is full
+     * 
+     * @return true if the event was queued
+     */
+    private boolean handleOverflow(E event) {
+        switch (this.overflowPolicy) {
+            case DROP_OLDEST: {
+                E oldest;
+                do {
+                    oldest = this.eventQueue.poll();
+                    if (oldest != null) {
+                        this.dropEvent(oldest);
+                    }
+                } while (!this.eventQueue.offer(event));
+                return true;
+            }
+            case DROP_BY_TYPE: {
+                if (this.isDroppable(event)) {
+                    this.dropEvent(event);
+                    return false;
+                }
+                return this.offerWithTimeout(event);
+            }
+            default: {
+                return this.offerWithTimeout(event);
+            }
+        }
+    }
+    
+    private boolean offerWithTimeout(E event) {
+        try {
+            if (this.eventQueue.offer(event, this.overflowTimeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        this.dropEvent(event);
+        return false;
+    }
+    
+    private boolean isDroppable(E event) {
+        for (final Class<? extends E> droppableEventType : this.droppableEventTypes) {
+            if (droppableEventType.isInstance(event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void dropEvent(E event) {
+        final long dropped = this.droppedEvents.incrementAndGet();
+        
+        final Class<?> eventType = event.getClass();
+        AtomicLong droppedByType = this.droppedEventsByType.get(eventType);
+        if (droppedByType == null) {
+            droppedByType = new AtomicLong();
+            final AtomicLong existing = this.droppedEventsByType.putIfAbsent(eventType, droppedByType);
+            if (existing != null) {
+                droppedByType = existing;
+            }
+        }
+        droppedByType.incrementAndGet();
+        
+        //Log the first drop and then periodically to avoid flooding the log while the queue is full
+        if (dropped == 1 || dropped % 1000 == 0) {
+            this.logger.warn("Event queue is full, {} events have been dropped. Dropped: {}", dropped, event);
+        }
+    }
+    
+    /**
+     * Main loop for the writer thread
+     */
+    private void writeEvents() {
+        final long flushPeriodNanos = TimeUnit.MILLISECONDS.toNanos(this.flushPeriod);
+        
+        while (this.running) {
+            if (this.eventQueue.size() < this.batchSize) {
+                LockSupport.parkNanos(this, flushPeriodNanos);
+            }
+            
+            this.flushLock.lock();
+            try {
+                this.flushQueue();
+            }
+            catch (Throwable t) {
+                this.logger.error("Event writer failed to flush events", t);
+            }
+            finally {
+                this.flushLock.unlock();
+            }
+        }
+        
+        logger.debug("Event writer stopped");
+    }
+    
+    /**
+     * Writes all queued events in batches, MUST only be called from within the flushLock
+     */
+    private void flushQueue() {
+        final int queueDepth = this.eventQueue.size();
+        
         try {
             while (!this.eventQueue.isEmpty()) {
                 //Clear the buffer for re-use
                 eventBuffer.clear();
                 
                 //Pop events off the queue into the buffer
-                while (!this.eventQueue.isEmpty() && eventBuffer.size() < this.batchSize) {
-                    final E event = eventQueue.poll();
-                    eventBuffer.add(event);
+                this.eventQueue.drainTo(eventBuffer, this.batchSize);
+                if (eventBuffer.isEmpty()) {
+                    break;
                 }
 
                 if (this.logger.isDebugEnabled()) {
@@ -121,8 +444,10 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
                 //Write events out to batching listener
                 try {
                     this.onApplicationEvents(eventBuffer);
+                    this.handledEvents.addAndGet(eventBuffer.size());
                 }
                 catch (Throwable t) {
+                    this.failedEvents.addAndGet(eventBuffer.size());
                     this.logger.error("An exception was thrown while trying to flush " + eventBuffer.size() + " events", t);
 
                     final StringBuilder failedEvents = new StringBuilder();
@@ -142,13 +467,29 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
                     this.logger.error(failedEvents.toString(), t);
                 }
             }
-
         }
         finally {
             //Clear the buffer to avoid memory leaks
             eventBuffer.clear();
-            
-            this.flushLock.unlock();
+        }
+        
+        if (queueDepth > 0) {
+            this.lastFlushTime = System.currentTimeMillis();
+            this.adaptBatchSize(queueDepth);
+        }
+    }
+    
+    /**
+     * Grow the batch size while the queue is backing up and shrink it back down once the queue drains
+     * in a single partial batch.
+     */
+    private void adaptBatchSize(int queueDepth) {
+        final int currentBatchSize = this.batchSize;
+        if (queueDepth > currentBatchSize * 2) {
+            this.batchSize = Math.min(this.maxBatchSize, currentBatchSize * 2);
+        }
+        else if (queueDepth < currentBatchSize) {
+            this.batchSize = Math.max(this.minBatchSize, currentBatchSize / 2);
         }
     }
 }
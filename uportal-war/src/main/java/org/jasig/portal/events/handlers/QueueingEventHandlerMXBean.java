@@ -0,0 +1,73 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers;
+
+import java.util.Map;
+
+/**
+ * Queue depth and throughput statistics for a {@link QueueingEventHandler}
+ */
+public interface QueueingEventHandlerMXBean {
+    
+    /**
+     * @return Number of events currently waiting in the queue
+     */
+    int getQueueDepth();
+    
+    /**
+     * @return Maximum number of events that can be queued
+     */
+    int getQueueCapacity();
+    
+    /**
+     * @return Current number of events flushed per batch
+     */
+    int getBatchSize();
+    
+    /**
+     * @return Total number of events queued
+     */
+    long getQueuedEventCount();
+    
+    /**
+     * @return Total number of events successfully flushed
+     */
+    long getHandledEventCount();
+    
+    /**
+     * @return Total number of events in batches that failed to flush
+     */
+    long getFailedEventCount();
+    
+    /**
+     * @return Total number of events discarded because the queue was full
+     */
+    long getDroppedEventCount();
+    
+    /**
+     * @return Number of events discarded because the queue was full, keyed by event class name
+     */
+    Map<String, Long> getDroppedEventCountsByType();
+    
+    /**
+     * @return Time in milliseconds of the last flush of a non-empty queue, 0 if no events have been flushed
+     */
+    long getLastFlushTime();
+}
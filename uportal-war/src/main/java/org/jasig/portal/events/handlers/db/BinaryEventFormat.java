@@ -0,0 +1,99 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Constants of the binary event data format shared by {@link BinaryEventGenerator} and {@link BinaryEventParser}.
+ * <p>
+ * The data starts with the {@link #VERSION} byte followed by one tag byte per JSON token. Field names and string
+ * values are either written once as a variable length UTF-8 byte count followed by the bytes or as a reference to
+ * a {@link #DICTIONARY} entry or to a string written earlier in the same event. Integers are zig-zag encoded
+ * variable length values.
+ */
+final class BinaryEventFormat {
+    static final byte VERSION = 1;
+    
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    static final int TAG_START_OBJECT = 0x01;
+    static final int TAG_END_OBJECT = 0x02;
+    static final int TAG_START_ARRAY = 0x03;
+    static final int TAG_END_ARRAY = 0x04;
+    static final int TAG_NULL = 0x05;
+    static final int TAG_TRUE = 0x06;
+    static final int TAG_FALSE = 0x07;
+    static final int TAG_INT = 0x08;
+    static final int TAG_LONG = 0x09;
+    static final int TAG_DOUBLE = 0x0A;
+    static final int TAG_BIG_INTEGER = 0x0B;
+    static final int TAG_BIG_DECIMAL = 0x0C;
+    static final int TAG_BINARY = 0x0D;
+    static final int TAG_FIELD_NAME = 0x10;
+    static final int TAG_FIELD_NAME_REF = 0x11;
+    static final int TAG_STRING = 0x12;
+    static final int TAG_STRING_REF = 0x13;
+    
+    /**
+     * Strings that are referenced without ever being written, the field names, type ids and common values of
+     * the portal events. Existing data depends on the order of this list, it must never be modified. A different
+     * dictionary requires a new {@link #VERSION}.
+     */
+    static final List<String> DICTIONARY = ImmutableList.of(
+            //PortalEvent
+            "@c", "timestamp", "serverId", "eventSessionId", "userName",
+            //Event types
+            ".LoginEvent", ".LogoutEvent", ".PortalRenderEvent",
+            ".PortletActionExecutionEvent", ".PortletEventExecutionEvent", ".PortletRenderExecutionEvent", 
+            ".PortletRenderHeaderExecutionEvent", ".PortletResourceExecutionEvent",
+            ".PortletHungEvent", ".PortletHungCompleteEvent",
+            ".FolderAddedToLayoutPortalEvent", ".FolderDeletedFromLayoutPortalEvent", ".FolderMovedInLayoutPortalEvent",
+            ".PortletAddedToLayoutPortalEvent", ".PortletDeletedFromLayoutPortalEvent", ".PortletMovedInLayoutPortalEvent",
+            //LoginEvent
+            "groups", "attributes",
+            //PortalRenderEvent
+            "requestPathInfo", "urlState", "urlType", "parameters", "targetedLayoutNodeId", "executionTimeNano",
+            "NORMAL", "MAX", "DETACHED", "EXCLUSIVE", "RENDER", "ACTION", "RESOURCE",
+            //PortletExecutionEvent
+            "fname", "windowState", "portletMode", "eventName", "targeted", "cached", "usedPortalCache", 
+            "usedBrowserCache", "resourceId",
+            "normal", "maximized", "minimized", "exclusive", "detached", "view", "edit", "help", "config",
+            //LayoutPortalEvent
+            "layoutId", "layoutOwner", "parentFolderId", "oldParentFolderId", "newParentFolderId", "newFolderId",
+            "movedFolderId", "deletedFolderId", "deletedFolderName");
+    
+    static final Map<String, Integer> DICTIONARY_INDEX;
+    static {
+        final ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (int i = 0; i < DICTIONARY.size(); i++) {
+            builder.put(DICTIONARY.get(i), i);
+        }
+        DICTIONARY_INDEX = builder.build();
+    }
+    
+    private BinaryEventFormat() {
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.DICTIONARY;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.DICTIONARY_INDEX;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_BIG_DECIMAL;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_BIG_INTEGER;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_BINARY;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_DOUBLE;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_END_ARRAY;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_END_OBJECT;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_FALSE;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_FIELD_NAME;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_FIELD_NAME_REF;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_INT;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_LONG;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_NULL;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_START_ARRAY;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_START_OBJECT;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_STRING;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_STRING_REF;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_TRUE;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.UTF_8;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.VERSION;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonGenerationException;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.base.GeneratorBase;
+import com.fasterxml.jackson.core.json.JsonWriteContext;
+
+/**
+ * Writes the Jackson token stream in the {@link BinaryEventFormat} to an in-memory buffer.
+ */
+final class BinaryEventGenerator extends GeneratorBase {
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private byte[] buffer = new byte[256];
+    private int size = 0;
+    
+    public BinaryEventGenerator(ObjectCodec codec) {
+        super(Feature.collectDefaults(), codec);
+        write(VERSION);
+    }
+    
+    /**
+     * @return The data written so far
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.size);
+    }
+
+    @Override
+    public void writeStartArray() throws IOException, JsonGenerationException {
+        _verifyValueWrite("start an array");
+        _writeContext = _writeContext.createChildArrayContext();
+        write(TAG_START_ARRAY);
+    }
+
+    @Override
+    public void writeEndArray() throws IOException, JsonGenerationException {
+        if (!_writeContext.inArray()) {
+            _reportError("Current context not an array but " + _writeContext.getTypeDesc());
+        }
+        _writeContext = _writeContext.getParent();
+        write(TAG_END_ARRAY);
+    }
+
+    @Override
+    public void writeStartObject() throws IOException, JsonGenerationException {
+        _verifyValueWrite("start an object");
+        _writeContext = _writeContext.createChildObjectContext();
+        write(TAG_START_OBJECT);
+    }
+
+    @Override
+    public void writeEndObject() throws IOException, JsonGenerationException {
+        if (!_writeContext.inObject()) {
+            _reportError("Current context not an object but " + _writeContext.getTypeDesc());
+        }
+        _writeContext = _writeContext.getParent();
+        write(TAG_END_OBJECT);
+    }
+
+    @Override
+    public void writeFieldName(String name) throws IOException, JsonGenerationException {
+        if (_writeContext.writeFieldName(name) == JsonWriteContext.STATUS_EXPECT_VALUE) {
+            _reportError("Can not write a field name, expecting a value");
+        }
+        writeString(name, TAG_FIELD_NAME, TAG_FIELD_NAME_REF);
+    }
+
+    @Override
+    public void writeString(String text) throws IOException, JsonGenerationException {
+        if (text == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite("write text value");
+        writeString(text, TAG_STRING, TAG_STRING_REF);
+    }
+
+    @Override
+    public void writeString(char[] text, int offset, int len) throws IOException, JsonGenerationException {
+        writeString(new String(text, offset, len));
+    }
+
+    @Override
+    public void writeRawUTF8String(byte[] text, int offset, int length) throws IOException, JsonGenerationException {
+        writeString(new String(text, offset, length, UTF_8));
+    }
+
+    @Override
+    public void writeUTF8String(byte[] text, int offset, int length) throws IOException, JsonGenerationException {
+        writeString(new String(text, offset, length, UTF_8));
+    }
+
+    @Override
+    public void writeRaw(String text) throws IOException, JsonGenerationException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override
+    public void writeRaw(String text, int offset, int len) throws IOException, JsonGenerationException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override
+    public void writeRaw(char[] text, int offset, int len) throws IOException, JsonGenerationException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override
+    public void writeRaw(char c) throws IOException, JsonGenerationException {
+        _reportUnsupportedOperation();
+    }
+
+    @Override
+    public void writeBinary(Base64Variant b64variant, byte[] data, int offset, int len) throws IOException, JsonGenerationException {
+        if (data == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite("write binary value");
+        write(TAG_BINARY);
+        writeVarInt(len);
+        write(data, offset, len);
+    }
+
+    @Override
+    public void writeNumber(int v) throws IOException, JsonGenerationException {
+        _verifyValueWrite("write number");
+        write(TAG_INT);
+        writeVarLong(v);
+    }
+
+    @Override
+    public void writeNumber(long v) throws IOException, JsonGenerationException {
+        _verifyValueWrite("write number");
+        write(TAG_LONG);
+        writeVarLong(v);
+    }
+
+    @Override
+    public void writeNumber(BigInteger v) throws IOException, JsonGenerationException {
+        if (v == null) {
+            writeNull();
+            return;
+        }
+        _verifyValueWrite("write number");
+        write(TAG_BIG_INTEGER);
+        writeUTF8(v.toString());
+    }
+
+    @Override
+    public void writeNumber(double d) throws IOException, JsonGenerationException {
+        _verifyValueWrite("write number");
+        write(TAG_DOUBLE);
+        final long bits = Double.doubleToLongBits(d);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            write((int) (bits >>> shift));
+        }
+    }
+
+    @Override
+    public void writeNumber(float f) throws IOException, JsonGenerationException {
+        writeNumber((double) f);
+    }
+
+    @Override
+    public void writeNumber(BigDecimal dec) throws IOException, JsonGenerationException {
+        if (dec == null) {
+            writeNull();
+            return;
+        }
+        writeNumber(dec.toString());
+    }
+
+    @Override
+    public void writeNumber(String encodedValue) throws IOException, JsonGenerationException, UnsupportedOperationException {
+        _verifyValueWrite("write number");
+        write(TAG_BIG_DECIMAL);
+        writeUTF8(encodedValue);
+    }
+
+    @Override
+    public void writeBoolean(boolean state) throws IOException, JsonGenerationException {
+        _verifyValueWrite("write boolean value");
+        write(state ? TAG_TRUE : TAG_FALSE);
+    }
+
+    @Override
+    public void writeNull() throws IOException, JsonGenerationException {
+        _verifyValueWrite("write null value");
+        write(TAG_NULL);
+    }
+
+    @Override
+    public void flush() throws IOException {
+    }
+
+    @Override
+    protected void _releaseBuffers() {
+    }
+
+    @Override
+    protected void _verifyValueWrite(String typeMsg) throws IOException, JsonGenerationException {
+        if (_writeContext.writeValue() == JsonWriteContext.STATUS_EXPECT_NAME) {
+            _reportError("Can not " + typeMsg + ", expecting field name");
+        }
+    }
+    
+    /**
+     * Write a dictionary or back reference if the string has been seen before, the string itself if not
+     */
+    private void writeString(String value, int literalTag, int refTag) {
+        Integer index = DICTIONARY_INDEX.get(value);
+        if (index == null) {
+            index = this.strings.get(value);
+        }
+        
+        if (index != null) {
+            write(refTag);
+            writeVarInt(index);
+        }
+        else {
+            this.strings.put(value, DICTIONARY.size() + this.strings.size());
+            write(literalTag);
+            writeUTF8(value);
+        }
+    }
+    
+    private void writeUTF8(String value) {
+        final byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(bytes.length);
+        write(bytes, 0, bytes.length);
+    }
+    
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write(value);
+    }
+    
+    /**
+     * Zig-zag encode the value so small negative values stay small
+     */
+    private void writeVarLong(long value) {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            write((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        write((int) zigZag);
+    }
+    
+    private void write(int b) {
+        if (this.size == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+        this.buffer[this.size++] = (byte) b;
+    }
+    
+    private void write(byte[] bytes, int offset, int length) {
+        if (this.size + length > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + length));
+        }
+        System.arraycopy(bytes, offset, this.buffer, this.size, length);
+        this.size += length;
+    }
+}
@@ -0,0 +1,424 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.DICTIONARY;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_BIG_DECIMAL;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_BIG_INTEGER;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_BINARY;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_DOUBLE;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_END_ARRAY;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_END_OBJECT;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_FALSE;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_FIELD_NAME;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_FIELD_NAME_REF;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_INT;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_LONG;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_NULL;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_START_ARRAY;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_START_OBJECT;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_STRING;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_STRING_REF;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.TAG_TRUE;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.UTF_8;
+import static org.jasig.portal.events.handlers.db.BinaryEventFormat.VERSION;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.base.ParserMinimalBase;
+import com.fasterxml.jackson.core.json.JsonReadContext;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+/**
+ * Reads a Jackson token stream from data written by the {@link BinaryEventGenerator}
+ */
+final class BinaryEventParser extends ParserMinimalBase {
+    private final List<String> strings = new ArrayList<String>();
+    private final byte[] data;
+    private int position;
+    
+    private ObjectCodec codec;
+    private JsonReadContext parsingContext = JsonReadContext.createRootContext(-1, -1);
+    private boolean closed = false;
+    
+    //Value of the current token
+    private String text;
+    private Number number;
+    private NumberType numberType;
+    private byte[] binary;
+    
+    public BinaryEventParser(byte[] data, ObjectCodec codec) throws JsonParseException {
+        this.data = data;
+        this.codec = codec;
+        
+        if (data.length == 0 || data[0] != VERSION) {
+            _reportError("Unsupported PortalEvent data version: " + (data.length == 0 ? "none" : data[0]));
+        }
+        this.position = 1;
+    }
+
+    @Override
+    public ObjectCodec getCodec() {
+        return this.codec;
+    }
+
+    @Override
+    public void setCodec(ObjectCodec c) {
+        this.codec = c;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException, JsonParseException {
+        if (this.position >= this.data.length) {
+            close();
+            return (_currToken = null);
+        }
+        
+        final int tag = read();
+        switch (tag) {
+            case TAG_START_OBJECT: {
+                this.parsingContext = this.parsingContext.createChildObjectContext(-1, -1);
+                return (_currToken = JsonToken.START_OBJECT);
+            }
+            case TAG_END_OBJECT: {
+                this.parsingContext = this.parsingContext.getParent();
+                return (_currToken = JsonToken.END_OBJECT);
+            }
+            case TAG_START_ARRAY: {
+                this.parsingContext = this.parsingContext.createChildArrayContext(-1, -1);
+                return (_currToken = JsonToken.START_ARRAY);
+            }
+            case TAG_END_ARRAY: {
+                this.parsingContext = this.parsingContext.getParent();
+                return (_currToken = JsonToken.END_ARRAY);
+            }
+            case TAG_FIELD_NAME: {
+                this.text = readUTF8();
+                this.strings.add(this.text);
+                this.parsingContext.setCurrentName(this.text);
+                return (_currToken = JsonToken.FIELD_NAME);
+            }
+            case TAG_FIELD_NAME_REF: {
+                this.text = getString(readVarInt());
+                this.parsingContext.setCurrentName(this.text);
+                return (_currToken = JsonToken.FIELD_NAME);
+            }
+            case TAG_STRING: {
+                this.text = readUTF8();
+                this.strings.add(this.text);
+                return (_currToken = JsonToken.VALUE_STRING);
+            }
+            case TAG_STRING_REF: {
+                this.text = getString(readVarInt());
+                return (_currToken = JsonToken.VALUE_STRING);
+            }
+            case TAG_INT: {
+                return setNumber((int) readVarLong(), NumberType.INT);
+            }
+            case TAG_LONG: {
+                return setNumber(readVarLong(), NumberType.LONG);
+            }
+            case TAG_BIG_INTEGER: {
+                return setNumber(new BigInteger(readUTF8()), NumberType.BIG_INTEGER);
+            }
+            case TAG_DOUBLE: {
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | read();
+                }
+                return setNumber(Double.longBitsToDouble(bits), NumberType.DOUBLE);
+            }
+            case TAG_BIG_DECIMAL: {
+                return setNumber(new BigDecimal(readUTF8()), NumberType.BIG_DECIMAL);
+            }
+            case TAG_BINARY: {
+                final int length = readVarInt();
+                checkAvailable(length);
+                this.binary = Arrays.copyOfRange(this.data, this.position, this.position + length);
+                this.position += length;
+                return (_currToken = JsonToken.VALUE_EMBEDDED_OBJECT);
+            }
+            case TAG_TRUE: {
+                return (_currToken = JsonToken.VALUE_TRUE);
+            }
+            case TAG_FALSE: {
+                return (_currToken = JsonToken.VALUE_FALSE);
+            }
+            case TAG_NULL: {
+                return (_currToken = JsonToken.VALUE_NULL);
+            }
+            default: {
+                _reportError("Unknown tag " + tag + " at position " + (this.position - 1));
+                return null;
+            }
+        }
+    }
+
+    @Override
+    protected void _handleEOF() throws JsonParseException {
+    }
+
+    @Override
+    public String getCurrentName() throws IOException, JsonParseException {
+        if (_currToken == JsonToken.START_OBJECT || _currToken == JsonToken.START_ARRAY) {
+            final JsonReadContext parent = this.parsingContext.getParent();
+            return parent == null ? null : parent.getCurrentName();
+        }
+        return this.parsingContext.getCurrentName();
+    }
+
+    @Override
+    public void overrideCurrentName(String name) {
+        JsonReadContext ctxt = this.parsingContext;
+        if (_currToken == JsonToken.START_OBJECT || _currToken == JsonToken.START_ARRAY) {
+            ctxt = ctxt.getParent();
+        }
+        ctxt.setCurrentName(name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public JsonStreamContext getParsingContext() {
+        return this.parsingContext;
+    }
+
+    @Override
+    public JsonLocation getTokenLocation() {
+        return getCurrentLocation();
+    }
+
+    @Override
+    public JsonLocation getCurrentLocation() {
+        return new JsonLocation(null, this.position, -1, -1);
+    }
+
+    @Override
+    public String getText() throws IOException, JsonParseException {
+        if (_currToken == null) {
+            return null;
+        }
+        switch (_currToken) {
+            case FIELD_NAME:
+            case VALUE_STRING: {
+                return this.text;
+            }
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT: {
+                return this.number.toString();
+            }
+            default: {
+                return _currToken.asString();
+            }
+        }
+    }
+
+    @Override
+    public char[] getTextCharacters() throws IOException, JsonParseException {
+        final String text = getText();
+        return text == null ? null : text.toCharArray();
+    }
+
+    @Override
+    public int getTextLength() throws IOException, JsonParseException {
+        final String text = getText();
+        return text == null ? 0 : text.length();
+    }
+
+    @Override
+    public int getTextOffset() throws IOException, JsonParseException {
+        return 0;
+    }
+
+    @Override
+    public boolean hasTextCharacters() {
+        return false;
+    }
+
+    @Override
+    public Number getNumberValue() throws IOException, JsonParseException {
+        checkNumber();
+        return this.number;
+    }
+
+    @Override
+    public NumberType getNumberType() throws IOException, JsonParseException {
+        checkNumber();
+        return this.numberType;
+    }
+
+    @Override
+    public int getIntValue() throws IOException, JsonParseException {
+        return getNumberValue().intValue();
+    }
+
+    @Override
+    public long getLongValue() throws IOException, JsonParseException {
+        return getNumberValue().longValue();
+    }
+
+    @Override
+    public BigInteger getBigIntegerValue() throws IOException, JsonParseException {
+        final Number number = getNumberValue();
+        if (number instanceof BigInteger) {
+            return (BigInteger) number;
+        }
+        if (number instanceof BigDecimal) {
+            return ((BigDecimal) number).toBigInteger();
+        }
+        if (this.numberType == NumberType.DOUBLE) {
+            return BigDecimal.valueOf(number.doubleValue()).toBigInteger();
+        }
+        return BigInteger.valueOf(number.longValue());
+    }
+
+    @Override
+    public float getFloatValue() throws IOException, JsonParseException {
+        return getNumberValue().floatValue();
+    }
+
+    @Override
+    public double getDoubleValue() throws IOException, JsonParseException {
+        return getNumberValue().doubleValue();
+    }
+
+    @Override
+    public BigDecimal getDecimalValue() throws IOException, JsonParseException {
+        final Number number = getNumberValue();
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+        if (this.numberType == NumberType.DOUBLE) {
+            return BigDecimal.valueOf(number.doubleValue());
+        }
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    @Override
+    public Object getEmbeddedObject() throws IOException, JsonParseException {
+        if (_currToken == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return this.binary;
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] getBinaryValue(Base64Variant b64variant) throws IOException, JsonParseException {
+        if (_currToken == JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return this.binary;
+        }
+        if (_currToken != JsonToken.VALUE_STRING) {
+            _reportError("Current token (" + _currToken + ") not VALUE_STRING or VALUE_EMBEDDED_OBJECT, can not access as binary");
+        }
+        final ByteArrayBuilder builder = new ByteArrayBuilder();
+        _decodeBase64(this.text, builder, b64variant);
+        return builder.toByteArray();
+    }
+    
+    private JsonToken setNumber(Number number, NumberType numberType) {
+        this.number = number;
+        this.numberType = numberType;
+        return (_currToken = (numberType == NumberType.DOUBLE || numberType == NumberType.BIG_DECIMAL) ? JsonToken.VALUE_NUMBER_FLOAT : JsonToken.VALUE_NUMBER_INT);
+    }
+    
+    private void checkNumber() throws JsonParseException {
+        if (_currToken != JsonToken.VALUE_NUMBER_INT && _currToken != JsonToken.VALUE_NUMBER_FLOAT) {
+            _reportError("Current token (" + _currToken + ") not numeric, can not use numeric value accessors");
+        }
+    }
+    
+    private String getString(int index) throws JsonParseException {
+        if (index < DICTIONARY.size()) {
+            return DICTIONARY.get(index);
+        }
+        
+        final int stringIndex = index - DICTIONARY.size();
+        if (stringIndex >= this.strings.size()) {
+            _reportError("Invalid string reference " + index + " at position " + this.position);
+        }
+        return this.strings.get(stringIndex);
+    }
+    
+    private int read() throws JsonParseException {
+        if (this.position >= this.data.length) {
+            _reportInvalidEOF();
+        }
+        return this.data[this.position++] & 0xFF;
+    }
+    
+    private void checkAvailable(int length) throws JsonParseException {
+        if (length < 0 || this.position + length > this.data.length) {
+            _reportInvalidEOF();
+        }
+    }
+    
+    private int readVarInt() throws JsonParseException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = read();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+    
+    private long readVarLong() throws JsonParseException {
+        long zigZag = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = read();
+            zigZag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+    
+    private String readUTF8() throws JsonParseException {
+        final int length = readVarInt();
+        checkAvailable(length);
+        final String value = new String(this.data, this.position, length, UTF_8);
+        this.position += length;
+        return value;
+    }
+}
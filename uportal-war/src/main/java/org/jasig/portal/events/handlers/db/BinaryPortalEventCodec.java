@@ -0,0 +1,171 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.io.IOException;
+
+import org.jasig.portal.events.PortalEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Stores events in a compact binary encoding of the token stream Jackson produces for the event, see
+ * {@link BinaryEventFormat} for the details of the encoding.
+ * <p>
+ * The EVENT_DATA column is a character LOB so the binary data is stored Base64 encoded behind a
+ * {@link #PREFIX} character that can never start a JSON document.
+ */
+@Component("binaryPortalEventCodec")
+public class BinaryPortalEventCodec implements PortalEventCodec {
+    static final char PREFIX = '~';
+    
+    private static final Base64Variant BASE64 = Base64Variants.MIME_NO_LINEFEEDS;
+    
+    private ObjectMapper mapper;
+
+    @Autowired
+    public void setMapper(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean isEncoded(String eventData) {
+        return eventData.length() > 0 && eventData.charAt(0) == PREFIX;
+    }
+
+    @Override
+    public String encode(PortalEvent event) {
+        return encodeBase64(encodeBinary(event));
+    }
+
+    @Override
+    public <E extends PortalEvent> E decode(String eventData, Class<E> eventType) {
+        if (!isEncoded(eventData)) {
+            throw new IllegalArgumentException("PortalEvent data is not binary encoded");
+        }
+        
+        return decodeBinary(decodeBase64(eventData), eventType);
+    }
+    
+    /**
+     * @return The binary encoded event data, without the {@link #PREFIX} or Base64 encoding
+     */
+    byte[] encodeBinary(PortalEvent event) {
+        final BinaryEventGenerator generator = new BinaryEventGenerator(this.mapper);
+        try {
+            this.mapper.writeValue(generator, event);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+        
+        return generator.toByteArray();
+    }
+    
+    /**
+     * Reads event data created by {@link #encodeBinary(PortalEvent)}
+     */
+    <E extends PortalEvent> E decodeBinary(byte[] data, Class<E> eventType) {
+        if (data.length == 0 || data[0] != BinaryEventFormat.VERSION) {
+            throw new IllegalArgumentException("Unsupported PortalEvent data version: " + (data.length == 0 ? "none" : data[0]));
+        }
+        
+        try {
+            return this.mapper.readValue(new BinaryEventParser(data, this.mapper), eventType);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+        }
+    }
+    
+    /**
+     * Encodes the data as Base64 behind the {@link #PREFIX} directly into a single char[], the general
+     * purpose encoders cost more than serializing the event.
+     */
+    private static String encodeBase64(byte[] data) {
+        final char[] chars = new char[1 + (data.length + 2) / 3 * 4];
+        chars[0] = PREFIX;
+        
+        int position = 1;
+        int i = 0;
+        for (final int end = data.length - 2; i < end; i += 3) {
+            final int bits = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+            chars[position++] = BASE64.encodeBase64BitsAsChar(bits >> 18);
+            chars[position++] = BASE64.encodeBase64BitsAsChar((bits >> 12) & 0x3F);
+            chars[position++] = BASE64.encodeBase64BitsAsChar((bits >> 6) & 0x3F);
+            chars[position++] = BASE64.encodeBase64BitsAsChar(bits & 0x3F);
+        }
+        
+        final int remaining = data.length - i;
+        if (remaining > 0) {
+            int bits = (data[i] & 0xFF) << 16;
+            if (remaining == 2) {
+                bits |= (data[i + 1] & 0xFF) << 8;
+            }
+            chars[position++] = BASE64.encodeBase64BitsAsChar(bits >> 18);
+            chars[position++] = BASE64.encodeBase64BitsAsChar((bits >> 12) & 0x3F);
+            chars[position++] = remaining == 2 ? BASE64.encodeBase64BitsAsChar((bits >> 6) & 0x3F) : BASE64.getPaddingChar();
+            chars[position++] = BASE64.getPaddingChar();
+        }
+        
+        return new String(chars);
+    }
+    
+    /**
+     * Decodes the Base64 data following the {@link #PREFIX} directly from the String, avoids the
+     * intermediate byte[] copy of the general purpose decoders.
+     */
+    private static byte[] decodeBase64(String eventData) {
+        int end = eventData.length();
+        while (end > 1 && eventData.charAt(end - 1) == BASE64.getPaddingChar()) {
+            end--;
+        }
+        
+        final int chars = end - 1;
+        if (chars % 4 == 1) {
+            throw new IllegalArgumentException("Invalid Base64 PortalEvent data length");
+        }
+        
+        final byte[] data = new byte[chars * 3 / 4];
+        int bits = 0;
+        int bitCount = 0;
+        int position = 0;
+        for (int i = 1; i < end; i++) {
+            final char c = eventData.charAt(i);
+            final int value = BASE64.decodeBase64Char(c);
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid Base64 character '" + c + "' in PortalEvent data at " + i);
+            }
+            
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                data[position++] = (byte) (bits >> bitCount);
+            }
+        }
+        
+        return data;
+    }
+}
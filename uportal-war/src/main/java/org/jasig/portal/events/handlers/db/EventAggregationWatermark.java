@@ -0,0 +1,168 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.ReadablePeriod;
+
+/**
+ * Position of event aggregation in the raw event store, the (timestamp, event id) key of the last aggregated
+ * event. Events are aggregated in key order so every event with a greater key has not been aggregated yet.
+ * <p>
+ * Events can be stored after aggregation has moved past their timestamp, for example when a server's event
+ * queue backs up. To find these late events the ids of the events aggregated during the reprocessing window
+ * before the watermark are remembered, any event in the window that is not one of them has not been
+ * aggregated. Events that are later than the reprocessing window are never aggregated.
+ * <p>
+ * Only the key is persisted, when a watermark is re-created from a stored key the window starts just after
+ * the watermark and grows as aggregation moves forward. Events at or before the stored key are never late.
+ */
+public class EventAggregationWatermark {
+    private final Map<Long, Long> windowEventTimestamps = new HashMap<Long, Long>();
+    private final ReadablePeriod reprocessingWindow;
+    private DateTime timestamp;
+    private long eventId;
+    private DateTime windowStart;
+    private long windowStartEventId;
+    
+    /**
+     * @param timestamp Timestamp of the last aggregated event
+     * @param eventId Id of the last aggregated event, {@link Long#MIN_VALUE} if no event with the timestamp has been aggregated,
+     *  {@link Long#MAX_VALUE} if every event with the timestamp has been aggregated
+     * @param reprocessingWindow How far before the watermark to look for late events
+     */
+    public EventAggregationWatermark(DateTime timestamp, long eventId, ReadablePeriod reprocessingWindow) {
+        this.timestamp = timestamp;
+        this.eventId = eventId;
+        this.windowStart = timestamp;
+        this.windowStartEventId = eventId;
+        this.reprocessingWindow = reprocessingWindow;
+    }
+
+    /**
+     * @return Timestamp of the last aggregated event
+     */
+    public DateTime getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return Id of the last aggregated event
+     */
+    public long getEventId() {
+        return this.eventId;
+    }
+
+    /**
+     * @return Start of the range before the watermark that is checked for late events, events at this
+     *  timestamp are only checked if their id is after {@link #getWindowStartEventId()}
+     */
+    public DateTime getWindowStart() {
+        return this.windowStart;
+    }
+
+    /**
+     * @return Id of the event at the start of the reprocessing window, {@link Long#MIN_VALUE} once the window has moved
+     */
+    public long getWindowStartEventId() {
+        return this.windowStartEventId;
+    }
+    
+    /**
+     * @return true if the watermark is at the specified key
+     */
+    public boolean isAt(DateTime timestamp, long eventId) {
+        return this.timestamp.getMillis() == timestamp.getMillis() && this.eventId == eventId;
+    }
+    
+    /**
+     * @return true if the event has a key after the watermark
+     */
+    public boolean isAfter(DateTime timestamp, long eventId) {
+        return isAfter(timestamp, eventId, this.timestamp, this.eventId);
+    }
+    
+    /**
+     * @return true if the event has a key before the watermark, is in the reprocessing window and has not been aggregated
+     */
+    public boolean isLate(DateTime timestamp, long eventId) {
+        return !this.isAfter(timestamp, eventId) 
+                && isAfter(timestamp, eventId, this.windowStart, this.windowStartEventId) 
+                && !this.windowEventTimestamps.containsKey(eventId);
+    }
+    
+    /**
+     * Record that an event was aggregated, moving the watermark if the event is after it
+     */
+    public void aggregated(DateTime timestamp, long eventId) {
+        if (this.isAfter(timestamp, eventId)) {
+            this.timestamp = timestamp;
+            this.eventId = eventId;
+        }
+        this.windowEventTimestamps.put(eventId, timestamp.getMillis());
+    }
+    
+    /**
+     * Move the watermark without recording an aggregated event, used when everything before the new
+     * position is known to have been aggregated. Does nothing if the position is not after the watermark.
+     */
+    public void advanceTo(DateTime timestamp, long eventId) {
+        if (this.isAfter(timestamp, eventId)) {
+            this.timestamp = timestamp;
+            this.eventId = eventId;
+        }
+    }
+    
+    /**
+     * Move the start of the reprocessing window up to the watermark minus the window period and forget
+     * the aggregated events from before it.
+     */
+    public void pruneWindow() {
+        final DateTime newWindowStart = this.timestamp.minus(this.reprocessingWindow);
+        if (!newWindowStart.isAfter(this.windowStart)) {
+            return;
+        }
+        
+        this.windowStart = newWindowStart;
+        this.windowStartEventId = Long.MIN_VALUE;
+        final long windowStartMillis = newWindowStart.getMillis();
+        for (final Iterator<Long> timestampItr = this.windowEventTimestamps.values().iterator(); timestampItr.hasNext(); ) {
+            if (timestampItr.next() < windowStartMillis) {
+                timestampItr.remove();
+            }
+        }
+    }
+
+    private static boolean isAfter(DateTime timestamp, long eventId, DateTime keyTimestamp, long keyEventId) {
+        final long millis = timestamp.getMillis();
+        final long keyMillis = keyTimestamp.getMillis();
+        return millis > keyMillis || (millis == keyMillis && eventId > keyEventId);
+    }
+
+    @Override
+    public String toString() {
+        return "EventAggregationWatermark [timestamp=" + this.timestamp + ", eventId=" + this.eventId
+                + ", windowStart=" + this.windowStart + ", windowEvents=" + this.windowEventTimestamps.size() + "]";
+    }
+}
@@ -0,0 +1,546 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.jasig.portal.concurrency.FunctionWithoutResult;
+import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.handlers.db.PortalEventLogSegment.RecordHandler;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.joda.time.ReadablePeriod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Stores portal events in segmented, memory mapped, append-only log files on the local disk instead of the
+ * raw events database. Events are written with the {@link BinaryPortalEventCodec} binary encoding and read
+ * back in the order they were written, for events stored by the {@link PortalEventDaoQueuingEventHandler}
+ * writer thread that is very close to timestamp order.
+ * <p>
+ * A new segment is started when the current one is full or older than the segment roll period, segments
+ * are deleted as a whole once all of their events are older than the purge time. Each segment has a sparse
+ * timestamp index, see {@link PortalEventLogSegment}.
+ * <p>
+ * Aggregation progress is tracked as the log position after the last aggregated event, the watermark,
+ * which is stored in a small file alongside the segments instead of marking each event as aggregated. When
+ * aggregation runs in a transaction the watermark is only stored once that transaction commits.
+ * <p>
+ * The log only contains events from the server that wrote them so this store is only appropriate for
+ * single server deployments or where each server's events are aggregated separately.
+ */
+public class FilePortalEventStore implements IPortalEventDao, InitializingBean, DisposableBean {
+    private static final String WATERMARK_FILE_NAME = "aggregation.watermark";
+    private static final int WATERMARK_SLOT_SIZE = 24;
+    
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    /**
+     * Held for reading during scans and writing while segments are deleted so segment files are never
+     * closed while being read.
+     */
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    private final Object writeMonitor = new Object();
+    private final Object aggregationMonitor = new Object();
+    
+    private BinaryPortalEventCodec portalEventCodec;
+    private File directory;
+    private int segmentSize = 64 * 1024 * 1024;
+    private int indexInterval = 64 * 1024;
+    private ReadablePeriod segmentRollPeriod = Period.hours(1);
+    private boolean syncWrites = true;
+    
+    //Copy on write, replaced while holding the writeMonitor
+    private volatile List<PortalEventLogSegment> segments = ImmutableList.of();
+    private PortalEventLogSegment activeSegment;
+    private long activeSegmentRollTime;
+    
+    //Guarded by the aggregationMonitor, the watermark is the read position, the stored watermark is the last committed position
+    private RandomAccessFile watermarkAccess;
+    private long watermarkSequence = 0;
+    private long watermarkSegmentId = -1;
+    private int watermarkOffset = PortalEventLogSegment.HEADER_SIZE;
+    private long storedWatermarkSegmentId = -1;
+    private int storedWatermarkOffset = PortalEventLogSegment.HEADER_SIZE;
+    
+    @Autowired
+    public void setPortalEventCodec(BinaryPortalEventCodec portalEventCodec) {
+        this.portalEventCodec = portalEventCodec;
+    }
+
+    /**
+     * Directory the event log segments and aggregation watermark are stored in, created if it does not exist
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Size in bytes of each segment file, defaults to 64MB
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Number of bytes of events between segment index entries, defaults to 64KB
+     */
+    public void setIndexInterval(int indexInterval) {
+        this.indexInterval = indexInterval;
+    }
+
+    /**
+     * Maximum period of time events are written to a segment before a new segment is started, defaults to 1 hour.
+     * Shorter periods let the purger delete events closer to the purge time.
+     */
+    public void setSegmentRollPeriod(ReadablePeriod segmentRollPeriod) {
+        this.segmentRollPeriod = segmentRollPeriod;
+    }
+
+    /**
+     * If each batch of stored events should be forced to disk before returning, defaults to true. If false
+     * events are still safe from a portal crash but may be lost if the operating system crashes.
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (this.directory == null || this.directory.getPath().length() == 0) {
+            throw new IllegalStateException("directory must be set, see org.jasig.portal.events.handlers.db.FilePortalEventStore.directory in portal.properties");
+        }
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IllegalStateException("Failed to create event log directory: " + this.directory);
+        }
+        
+        final File[] logFiles = this.directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(PortalEventLogSegment.LOG_SUFFIX);
+            }
+        });
+        Arrays.sort(logFiles);
+        
+        final List<PortalEventLogSegment> segments = new ArrayList<PortalEventLogSegment>(logFiles.length);
+        for (final File logFile : logFiles) {
+            segments.add(PortalEventLogSegment.open(logFile, this.indexInterval));
+        }
+        this.segments = ImmutableList.copyOf(segments);
+        this.logger.info("Opened {} event log segments in {}", segments.size(), this.directory);
+        
+        this.watermarkAccess = new RandomAccessFile(new File(this.directory, WATERMARK_FILE_NAME), "rw");
+        this.loadWatermark();
+        this.storedWatermarkSegmentId = this.watermarkSegmentId;
+        this.storedWatermarkOffset = this.watermarkOffset;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        synchronized (this.writeMonitor) {
+            if (this.activeSegment != null) {
+                this.activeSegment.seal(this.syncWrites);
+                this.activeSegment = null;
+            }
+        }
+        
+        this.segmentsLock.writeLock().lock();
+        try {
+            for (final PortalEventLogSegment segment : this.segments) {
+                segment.close();
+            }
+            this.segments = ImmutableList.of();
+        }
+        finally {
+            this.segmentsLock.writeLock().unlock();
+        }
+        
+        synchronized (this.aggregationMonitor) {
+            this.watermarkAccess.close();
+        }
+    }
+
+    @Override
+    public void storePortalEvent(PortalEvent portalEvent) {
+        this.storePortalEvents(ImmutableList.of(portalEvent));
+    }
+
+    @Override
+    public void storePortalEvents(PortalEvent... portalEvents) {
+        this.storePortalEvents(Arrays.asList(portalEvents));
+    }
+
+    @Override
+    public void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        synchronized (this.writeMonitor) {
+            try {
+                for (final PortalEvent portalEvent : portalEvents) {
+                    final byte[] data;
+                    try {
+                        data = this.portalEventCodec.encodeBinary(portalEvent);
+                    }
+                    catch (RuntimeException e) {
+                        this.logger.warn("Failed to serialize " + portalEvent + ", it will not be stored", e);
+                        continue;
+                    }
+                    
+                    this.append(portalEvent.getTimestampAsDate().getMillis(), data);
+                }
+                
+                if (this.activeSegment != null) {
+                    this.activeSegment.flush(this.syncWrites);
+                }
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Failed to write portal events to event log in " + this.directory, e);
+            }
+        }
+    }
+
+    @Override
+    public void getPortalEvents(DateTime startTime, DateTime endTime, FunctionWithoutResult<PortalEvent> handler) {
+        this.getPortalEvents(startTime, endTime, -1, handler);
+    }
+
+    @Override
+    public void getPortalEvents(DateTime startTime, DateTime endTime, final int maxEvents, final FunctionWithoutResult<PortalEvent> handler) {
+        final long start = startTime.getMillis();
+        final long end = endTime.getMillis();
+        
+        this.segmentsLock.readLock().lock();
+        try {
+            final int[] found = new int[1];
+            for (final PortalEventLogSegment segment : this.segments) {
+                if (!segment.overlaps(start, end)) {
+                    continue;
+                }
+                
+                final boolean scanComplete = segment.scan(segment.findScanStart(start), new RecordHandler() {
+                    @Override
+                    public boolean handle(int offset, int nextOffset, long timestamp, byte[] data) {
+                        if (timestamp >= start && timestamp < end) {
+                            handler.apply(portalEventCodec.decodeBinary(data, PortalEvent.class));
+                            found[0]++;
+                        }
+                        return maxEvents <= 0 || found[0] < maxEvents;
+                    }
+                });
+                
+                if (!scanComplete) {
+                    return;
+                }
+            }
+        }
+        finally {
+            this.segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads events after the log position of the last aggregated event in log order, late events are
+     * aggregated in the order they were written and need no reprocessing window. The scan stops at the first
+     * event on or after the end time so that event and every event after it are returned by the next call.
+     * <p>
+     * The watermark is moved to the timestamp of the newest aggregated event, its event id is the log position
+     * of that event. If a transaction is active the new log position is stored after it commits, if it rolls
+     * back the events are read again by the next call.
+     */
+    @Override
+    public boolean aggregatePortalEvents(final EventAggregationWatermark watermark, DateTime endTime, final int maxEvents, final Function<PortalEvent, Boolean> handler) {
+        final long end = endTime.getMillis();
+        
+        synchronized (this.aggregationMonitor) {
+            this.segmentsLock.readLock().lock();
+            try {
+                final long startSegmentId = this.watermarkSegmentId;
+                final int startOffset = this.watermarkOffset;
+                final int[] aggregated = new int[1];
+                final boolean[] handlerStopped = new boolean[1];
+                
+                try {
+                    for (final PortalEventLogSegment segment : this.segments) {
+                        if (segment.getId() < this.watermarkSegmentId) {
+                            continue;
+                        }
+                        
+                        final long segmentId = segment.getId();
+                        final int scanStart = segmentId == this.watermarkSegmentId ? this.watermarkOffset : PortalEventLogSegment.HEADER_SIZE;
+                        final boolean scanComplete = segment.scan(scanStart, new RecordHandler() {
+                            @Override
+                            public boolean handle(int offset, int nextOffset, long timestamp, byte[] data) {
+                                if (timestamp >= end) {
+                                    return false;
+                                }
+                                
+                                final PortalEvent portalEvent;
+                                try {
+                                    portalEvent = portalEventCodec.decodeBinary(data, PortalEvent.class);
+                                }
+                                catch (RuntimeException e) {
+                                    //Move past the event to prevent trying to reprocess the broken event data
+                                    logger.warn("Failed to read event at offset " + offset + " of event log segment " + segmentId, e);
+                                    advanceWatermark(segmentId, nextOffset);
+                                    return true;
+                                }
+                                
+                                final Boolean eventHandled = handler.apply(portalEvent);
+                                if (!eventHandled) {
+                                    logger.debug("Aggregation stop requested before processing event {}", portalEvent);
+                                    handlerStopped[0] = true;
+                                    return false;
+                                }
+                                aggregated[0]++;
+                                
+                                advanceWatermark(segmentId, nextOffset);
+                                watermark.advanceTo(new DateTime(timestamp), (segmentId << 32) | offset);
+                                return maxEvents <= 0 || aggregated[0] < maxEvents;
+                            }
+                        });
+                        
+                        if (!scanComplete) {
+                            break;
+                        }
+                    }
+                }
+                catch (RuntimeException e) {
+                    //Aggregation of the handled events will be rolled back, they need to be read again
+                    this.watermarkSegmentId = startSegmentId;
+                    this.watermarkOffset = startOffset;
+                    throw e;
+                }
+                
+                if (this.watermarkSegmentId != startSegmentId || this.watermarkOffset != startOffset) {
+                    this.commitWatermark(this.watermarkSegmentId, this.watermarkOffset);
+                }
+                
+                return !handlerStopped[0];
+            }
+            finally {
+                this.segmentsLock.readLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public DateTime getOldestPortalEventTimestamp() {
+        long oldest = Long.MAX_VALUE;
+        for (final PortalEventLogSegment segment : this.segments) {
+            if (segment.getCount() > 0) {
+                oldest = Math.min(oldest, segment.getMinTimestamp());
+            }
+        }
+        return oldest == Long.MAX_VALUE ? null : new DateTime(oldest);
+    }
+
+    @Override
+    public DateTime getNewestPortalEventTimestamp() {
+        long newest = Long.MIN_VALUE;
+        for (final PortalEventLogSegment segment : this.segments) {
+            if (segment.getCount() > 0) {
+                newest = Math.max(newest, segment.getMaxTimestamp());
+            }
+        }
+        return newest == Long.MIN_VALUE ? null : new DateTime(newest);
+    }
+
+    /**
+     * Deletes every segment that only contains events from before the specified time, the segment
+     * currently being written to is never deleted.
+     * 
+     * @return The number of events in the deleted segments
+     */
+    @Override
+    public int deletePortalEventsBefore(DateTime time) {
+        final long end = time.getMillis();
+        
+        this.segmentsLock.writeLock().lock();
+        try {
+            synchronized (this.writeMonitor) {
+                int deleted = 0;
+                final List<PortalEventLogSegment> remaining = new ArrayList<PortalEventLogSegment>(this.segments.size());
+                for (final PortalEventLogSegment segment : this.segments) {
+                    if (segment != this.activeSegment && segment.getMaxTimestamp() < end) {
+                        try {
+                            segment.delete();
+                            deleted += segment.getCount();
+                            continue;
+                        }
+                        catch (IOException e) {
+                            this.logger.warn("Failed to delete event log segment " + segment.getId() + ", it will be deleted during the next purge", e);
+                        }
+                    }
+                    remaining.add(segment);
+                }
+                
+                this.segments = ImmutableList.copyOf(remaining);
+                return deleted;
+            }
+        }
+        finally {
+            this.segmentsLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Append the event data to the active segment, starting a new segment if needed
+     */
+    private void append(long timestamp, byte[] data) throws IOException {
+        if (PortalEventLogSegment.HEADER_SIZE + PortalEventLogSegment.RECORD_HEADER_SIZE + data.length > this.segmentSize) {
+            this.logger.warn("Event at " + timestamp + " is " + data.length + " bytes, larger than the event log segment size, it will not be stored");
+            return;
+        }
+        
+        if (this.activeSegment != null && System.currentTimeMillis() >= this.activeSegmentRollTime) {
+            this.rollSegment();
+        }
+        if (this.activeSegment == null || !this.activeSegment.append(timestamp, data)) {
+            this.rollSegment();
+            this.activeSegment.append(timestamp, data);
+        }
+    }
+    
+    private void rollSegment() throws IOException {
+        long nextId = 0;
+        if (this.activeSegment != null) {
+            this.activeSegment.seal(this.syncWrites);
+        }
+        final List<PortalEventLogSegment> segments = this.segments;
+        if (!segments.isEmpty()) {
+            nextId = segments.get(segments.size() - 1).getId() + 1;
+        }
+        
+        final PortalEventLogSegment segment = PortalEventLogSegment.create(this.directory, nextId, this.segmentSize, this.indexInterval);
+        this.activeSegment = segment;
+        this.activeSegmentRollTime = new DateTime().plus(this.segmentRollPeriod).getMillis();
+        
+        this.segments = ImmutableList.<PortalEventLogSegment>builder().addAll(segments).add(segment).build();
+        this.logger.debug("Started event log segment {}", nextId);
+    }
+    
+    private void advanceWatermark(long segmentId, int offset) {
+        this.watermarkSegmentId = segmentId;
+        this.watermarkOffset = offset;
+    }
+    
+    /**
+     * Store the watermark once the current transaction commits, or immediately if there is no transaction. If the
+     * transaction rolls back the read position is reset to the last stored watermark.
+     */
+    private void commitWatermark(final long segmentId, final int offset) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            try {
+                this.storeWatermark(segmentId, offset);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Failed to store aggregation watermark in " + this.directory, e);
+            }
+            return;
+        }
+        
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                synchronized (aggregationMonitor) {
+                    try {
+                        storeWatermark(segmentId, offset);
+                    }
+                    catch (IOException e) {
+                        //Aggregation is already committed, the events will be aggregated again after a restart
+                        logger.error("Failed to store aggregation watermark in " + directory + " after aggregation was committed", e);
+                    }
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    synchronized (aggregationMonitor) {
+                        watermarkSegmentId = storedWatermarkSegmentId;
+                        watermarkOffset = storedWatermarkOffset;
+                    }
+                }
+            }
+        });
+    }
+    
+    /**
+     * The watermark file has two slots that are written alternately, each with a sequence number and CRC,
+     * so a torn write never loses the previous watermark.
+     */
+    private void loadWatermark() throws IOException {
+        final byte[] data = new byte[WATERMARK_SLOT_SIZE * 2];
+        this.watermarkAccess.seek(0);
+        final int read = Math.max(0, this.watermarkAccess.read(data));
+        
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        for (int slot = 0; slot + WATERMARK_SLOT_SIZE <= read; slot += WATERMARK_SLOT_SIZE) {
+            final long sequence = buffer.getLong(slot);
+            final long segmentId = buffer.getLong(slot + 8);
+            final int offset = buffer.getInt(slot + 16);
+            final int crc = buffer.getInt(slot + 20);
+            if (crc == computeWatermarkCrc(data, slot) && sequence > this.watermarkSequence) {
+                this.watermarkSequence = sequence;
+                this.watermarkSegmentId = segmentId;
+                this.watermarkOffset = offset;
+            }
+        }
+    }
+    
+    private void storeWatermark(long segmentId, int offset) throws IOException {
+        this.storedWatermarkSegmentId = segmentId;
+        this.storedWatermarkOffset = offset;
+        this.watermarkSequence++;
+        
+        final ByteBuffer buffer = ByteBuffer.allocate(WATERMARK_SLOT_SIZE);
+        buffer.putLong(this.watermarkSequence);
+        buffer.putLong(segmentId);
+        buffer.putInt(offset);
+        buffer.putInt(computeWatermarkCrc(buffer.array(), 0));
+        
+        this.watermarkAccess.seek((this.watermarkSequence % 2) * WATERMARK_SLOT_SIZE);
+        this.watermarkAccess.write(buffer.array());
+        this.watermarkAccess.getChannel().force(false);
+    }
+    
+    private static int computeWatermarkCrc(byte[] data, int slot) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, slot, WATERMARK_SLOT_SIZE - 4);
+        return (int) crc.getValue();
+    }
+}
@@ -52,19 +52,20 @@ public interface IPortalEventDao {
     void getPortalEvents(DateTime startTime, DateTime endTime, FunctionWithoutResult<PortalEvent> handler);
     
     /**
-     * Gets all un-aggregated persisted events in the time range. After the handler is called on each event
-     * it is marked as aggregated. To deal with memory and data access issues the results are not
-     * returned but passed in order to the provided {@link Function} handler. If aggregation should stop
-     * the handler should return false after processing an event. Only events processed up to that point
-     * will be marked as aggregated.
+     * Gets all un-aggregated persisted events before the end time. Events after the watermark are passed to the
+     * handler in (timestamp, event id) order, late events in the watermark's reprocessing window are passed to the
+     * handler first. The watermark is updated as each event is handled, no other record of aggregation is kept.
+     * To deal with memory and data access issues the results are not returned but passed in order to the provided
+     * {@link Function} handler. If aggregation should stop the handler should return false after processing an event,
+     * the watermark will not include that event.
      * 
-     * @param startTime The inclusive start time to get events for
+     * @param watermark Position of the last aggregated event, updated as events are aggregated
      * @param endTime The exclusive end time to get events for
      * @param maxEvents The maximum number events to retrieve. -1 means no limit
      * @param handler Function which will be called for each event.
      * @return true if all events were handled successfully, false if the handler returns false for any event to signal processing should be stopped
      */
-    boolean aggregatePortalEvents(DateTime startTime, DateTime endTime, int maxEvents, Function<PortalEvent, Boolean> handler);
+    boolean aggregatePortalEvents(EventAggregationWatermark watermark, DateTime endTime, int maxEvents, Function<PortalEvent, Boolean> handler);
     
     /**
      * @return The timestamp of the oldest event in the persitent store
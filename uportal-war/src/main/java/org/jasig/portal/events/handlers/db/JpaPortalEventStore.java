@@ -19,9 +19,19 @@
 
 package org.jasig.portal.events.handlers.db;
 
-import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.Resource;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -33,59 +43,123 @@ import org.hibernate.FlushMode;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.type.Type;
 import org.jasig.portal.concurrency.FunctionWithoutResult;
 import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.jpa.BaseRawEventsJpaDao;
+import org.jasig.portal.utils.LatencyHistogram;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Repository;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 /**
  * Stores portal events using JPA/Hibenate no internal batch segmentation is done to the passed list
  * of {@link PortalEvent}s. If a {@link PortalEvent} is not mapped as a persistent entity a message is logged
  * at the WARN level and the event is ignored.
+ * <p>
+ * Lists of events are inserted using JDBC batches instead of being persisted one at a time, the batch size
+ * is configured per database dialect. Event ids come from the entity's pooled id generator so events stored
+ * either way share the same ids.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 @Repository
-public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
+@ManagedResource("uPortal:section=Events,name=JpaPortalEventStore")
+public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao, JpaPortalEventStoreMXBean {
 
-    private ObjectMapper mapper;
+    private Map<String, PortalEventCodec> portalEventCodecsByName;
+    private List<PortalEventCodec> portalEventCodecs;
+    private String eventCodecName = "jsonPortalEventCodec";
+    private PortalEventCodec eventCodec;
     private String deleteQuery;
     private String selectQuery;
-    private String selectUnaggregatedQuery;
-    private int flushPeriod = 1000;
+    private String selectAggregationQuery;
+    private String selectWindowEventKeysQuery;
+    private String selectEventsByIdQuery;
+    private int lateEventBatchSize = 100;
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
     private ParameterExpression<DateTime> endTimeParameter;
-
+    private ParameterExpression<DateTime> watermarkTimeParameter;
+    private ParameterExpression<Long> watermarkEventIdParameter;
+    private ParameterExpression<Long> eventIdsParameter;
+    
+    private final LatencyHistogram batchInsertTimes = new LatencyHistogram();
+    private final LatencyHistogram batchSizes = new LatencyHistogram();
+    private ConcurrentMap<Class<? extends Dialect>, Integer> dialectJdbcBatchSizes = new ConcurrentHashMap<Class<? extends Dialect>, Integer>();
+    private int defaultJdbcBatchSize = 100;
+    private volatile BatchInsert batchInsert;
     
+    /**
+     * All codecs that can be used to read stored events, keyed by bean name
+     */
     @Autowired
-    public void setMapper(ObjectMapper mapper) {
-        this.mapper = mapper;
+    public void setPortalEventCodecs(Map<String, PortalEventCodec> portalEventCodecs) {
+        this.portalEventCodecsByName = portalEventCodecs;
     }
 
     /**
-     * Frequency that updated events should be flushed during a call to {@link #aggregatePortalEvents(DateTime, DateTime, int, FunctionWithoutResult)}, defaults to 1000.
+     * Name of the {@link PortalEventCodec} used to store new events, defaults to jsonPortalEventCodec which
+     * every version can read
      */
-    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.aggregationFlushPeriod:1000}")
-    public void setAggregationFlushPeriod(int flushPeriod) {
-        this.flushPeriod = flushPeriod;
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.eventCodec:jsonPortalEventCodec}")
+    public void setEventCodec(String eventCodecName) {
+        this.eventCodecName = eventCodecName;
+    }
+
+    /**
+     * Maximum number of late events loaded per query during a call to {@link #aggregatePortalEvents(EventAggregationWatermark, DateTime, int, Function)}, defaults to 100.
+     */
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.lateEventBatchSize:100}")
+    public void setLateEventBatchSize(int lateEventBatchSize) {
+        this.lateEventBatchSize = lateEventBatchSize;
+    }
+    
+    /**
+     * Maximum number of events per JDBC batch for database dialects that have no entry in {@link #setDialectJdbcBatchSizes(Map)},
+     * defaults to 100. 0 stores events using JPA.
+     */
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.jdbcBatchSize:100}")
+    public void setDefaultJdbcBatchSize(int defaultJdbcBatchSize) {
+        this.defaultJdbcBatchSize = defaultJdbcBatchSize;
+    }
+
+    /**
+     * Maximum number of events per JDBC batch by database dialect, a dialect also matches entries for its super classes.
+     * 0 stores events using JPA.
+     */
+    @Resource(name="portalEventJdbcBatchSizes")
+    public void setDialectJdbcBatchSizes(Map<Class<? extends Dialect>, Integer> dialectJdbcBatchSizes) {
+        this.dialectJdbcBatchSizes = new ConcurrentHashMap<Class<? extends Dialect>, Integer>(dialectJdbcBatchSizes);
     }
     
     @Override
     public void afterPropertiesSet() throws Exception {
+        this.eventCodec = this.portalEventCodecsByName.get(this.eventCodecName);
+        if (this.eventCodec == null) {
+            throw new IllegalStateException("No PortalEventCodec named '" + this.eventCodecName + "' exists, options are: " + this.portalEventCodecsByName.keySet());
+        }
+        this.portalEventCodecs = ImmutableList.copyOf(this.portalEventCodecsByName.values());
+        
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
         this.endTimeParameter = this.createParameterExpression(DateTime.class, "endTime");
+        this.watermarkTimeParameter = this.createParameterExpression(DateTime.class, "watermarkTime");
+        this.watermarkEventIdParameter = this.createParameterExpression(Long.class, "watermarkEventId");
+        this.eventIdsParameter = this.createParameterExpression(Long.class, "eventIds");
         
         this.selectQuery = 
                 "SELECT e " +
@@ -94,13 +168,31 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                      "AND e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName() + " " + 
         		"ORDER BY e." + PersistentPortalEvent_.timestamp.getName() + " ASC";
         
-        this.selectUnaggregatedQuery = 
+        final String timestamp = "e." + PersistentPortalEvent_.timestamp.getName();
+        final String id = "e." + PersistentPortalEvent_.id.getName();
+        
+        //Events with a (timestamp, id) key after the watermark
+        this.selectAggregationQuery = 
+                "SELECT e " +
+                "FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE (" + timestamp + " > :" + this.watermarkTimeParameter.getName() + " " +
+                        "OR (" + timestamp + " = :" + this.watermarkTimeParameter.getName() + " AND " + id + " > :" + this.watermarkEventIdParameter.getName() + ")) " +
+                     "AND " + timestamp + " < :" + this.endTimeParameter.getName() + " " +
+                "ORDER BY " + timestamp + " ASC, " + id + " ASC";
+        
+        //Keys of the events in the reprocessing window, used to find late events without loading the event data
+        this.selectWindowEventKeysQuery = 
+                "SELECT " + id + ", " + timestamp + " " +
+                "FROM " + PersistentPortalEvent.class.getName() + " e " +
+                "WHERE " + timestamp + " >= :" + this.startTimeParameter.getName() + " " +
+                     "AND " + timestamp + " <= :" + this.watermarkTimeParameter.getName() + " " +
+                "ORDER BY " + timestamp + " ASC, " + id + " ASC";
+        
+        this.selectEventsByIdQuery = 
                 "SELECT e " +
                 "FROM " + PersistentPortalEvent.class.getName() + " e " +
-                "WHERE e." + PersistentPortalEvent_.timestamp.getName() + " >= :" + this.startTimeParameter.getName() + " " +
-                     "AND e." + PersistentPortalEvent_.timestamp.getName() + " < :" + this.endTimeParameter.getName() + " " +
-                     "AND (e." + PersistentPortalEvent_.aggregated.getName() + " is null OR e." + PersistentPortalEvent_.aggregated.getName() + " = false) " +
-                "ORDER BY e." + PersistentPortalEvent_.timestamp.getName() + " ASC";
+                "WHERE " + id + " IN (:" + this.eventIdsParameter.getName() + ") " +
+                "ORDER BY " + timestamp + " ASC, " + id + " ASC";
         
         this.deleteQuery = 
                 "DELETE FROM " + PersistentPortalEvent.class.getName() + " e " +
@@ -147,27 +239,220 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(PortalEvent... portalEvents) {
-        for (final PortalEvent portalEvent : portalEvents) {
-            try {
-                storePortalEvent(portalEvent);
-            }
-            catch (IllegalArgumentException iae) {
-                this.logger.warn(portalEvent.getClass().getName() + " is not mapped as a persistent entity and will not be stored. " + portalEvent + " Exception=" + iae.getMessage());
-            }
-        }
+        this.storePortalEvents(Arrays.asList(portalEvents));
     }
 
     @Override
     @RawEventsTransactional
     public void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        final Session session = this.getEntityManager().unwrap(Session.class);
+        final BatchInsert batchInsert = this.getBatchInsert(session);
+        if (batchInsert.jdbcBatchSize <= 0) {
+            for (final PortalEvent portalEvent : portalEvents) {
+                try {
+                    storePortalEvent(portalEvent);
+                }
+                catch (IllegalArgumentException iae) {
+                    this.logger.warn(portalEvent.getClass().getName() + " is not mapped as a persistent entity and will not be stored. " + portalEvent + " Exception=" + iae.getMessage());
+                }
+            }
+            return;
+        }
+        
+        final List<PersistentPortalEvent> persistentPortalEvents = new ArrayList<PersistentPortalEvent>();
         for (final PortalEvent portalEvent : portalEvents) {
             try {
-                storePortalEvent(portalEvent);
+                persistentPortalEvents.add(this.wrapPortalEvent(portalEvent));
             }
             catch (IllegalArgumentException iae) {
-                this.logger.warn(portalEvent.getClass().getName() + " is not mapped as a persistent entity and will not be stored. " + portalEvent + " Exception=" + iae.getMessage());
+                this.logger.warn(portalEvent.getClass().getName() + " could not be encoded and will not be stored. " + portalEvent + " Exception=" + iae.getMessage());
+            }
+        }
+        if (persistentPortalEvents.isEmpty()) {
+            return;
+        }
+        
+        session.doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                insertPortalEvents(connection, (SessionImplementor) session, batchInsert, persistentPortalEvents);
+            }
+        });
+    }
+    
+    /**
+     * Insert the events using JDBC batches of up to {@link BatchInsert#jdbcBatchSize} events
+     */
+    protected void insertPortalEvents(Connection connection, SessionImplementor session, BatchInsert batchInsert, List<PersistentPortalEvent> persistentPortalEvents) throws SQLException {
+        final AbstractEntityPersister persister = batchInsert.persister;
+        final SessionFactoryImplementor sessionFactory = session.getFactory();
+        final Type identifierType = persister.getIdentifierType();
+        final Type[] propertyTypes = persister.getPropertyTypes();
+        final boolean[] propertyInsertability = persister.getPropertyInsertability();
+        
+        final PreparedStatement ps = connection.prepareStatement(batchInsert.insertSql);
+        try {
+            int batchSize = 0;
+            for (final PersistentPortalEvent persistentPortalEvent : persistentPortalEvents) {
+                final Serializable id = persister.getIdentifierGenerator().generate(session, persistentPortalEvent);
+                
+                int index = 1;
+                identifierType.nullSafeSet(ps, id, index, session);
+                index += identifierType.getColumnSpan(sessionFactory);
+                
+                final Object[] propertyValues = persister.getPropertyValues(persistentPortalEvent);
+                for (int propertyIndex = 0; propertyIndex < propertyTypes.length; propertyIndex++) {
+                    if (propertyInsertability[propertyIndex]) {
+                        final Type propertyType = propertyTypes[propertyIndex];
+                        propertyType.nullSafeSet(ps, propertyValues[propertyIndex], index, session);
+                        index += propertyType.getColumnSpan(sessionFactory);
+                    }
+                }
+                
+                ps.addBatch();
+                batchSize++;
+                
+                if (batchSize == batchInsert.jdbcBatchSize) {
+                    this.executeBatch(ps, batchSize);
+                    batchSize = 0;
+                }
+            }
+            
+            if (batchSize > 0) {
+                this.executeBatch(ps, batchSize);
+            }
+        }
+        finally {
+            ps.close();
+        }
+    }
+    
+    private void executeBatch(PreparedStatement ps, int batchSize) throws SQLException {
+        final long start = System.nanoTime();
+        ps.executeBatch();
+        this.batchInsertTimes.record((System.nanoTime() - start) / 1000);
+        this.batchSizes.record(batchSize);
+    }
+    
+    /**
+     * Lazily resolve the insert statement and batch size, the dialect isn't known until the entity manager is in use
+     */
+    protected BatchInsert getBatchInsert(Session session) {
+        BatchInsert batchInsert = this.batchInsert;
+        if (batchInsert != null) {
+            return batchInsert;
+        }
+        
+        final SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) session.getSessionFactory();
+        final AbstractEntityPersister persister = (AbstractEntityPersister) sessionFactory.getEntityPersister(PersistentPortalEvent.class.getName());
+        
+        final StringBuilder columns = new StringBuilder();
+        final StringBuilder values = new StringBuilder();
+        for (final String column : persister.getIdentifierColumnNames()) {
+            appendColumn(columns, values, column);
+        }
+        final boolean[] propertyInsertability = persister.getPropertyInsertability();
+        for (int propertyIndex = 0; propertyIndex < propertyInsertability.length; propertyIndex++) {
+            if (propertyInsertability[propertyIndex]) {
+                for (final String column : persister.getPropertyColumnNames(propertyIndex)) {
+                    appendColumn(columns, values, column);
+                }
             }
         }
+        final String insertSql = "INSERT INTO " + persister.getTableName() + " (" + columns + ") VALUES (" + values + ")";
+        
+        final Class<? extends Dialect> dialectType = sessionFactory.getDialect().getClass();
+        final int jdbcBatchSize = this.resolveJdbcBatchSize(dialectType);
+        this.logger.info("Raw portal events will be stored using JDBC batches of {} for {}", jdbcBatchSize, dialectType.getName());
+        
+        batchInsert = new BatchInsert(persister, insertSql, jdbcBatchSize);
+        this.batchInsert = batchInsert;
+        return batchInsert;
+    }
+    
+    private static void appendColumn(StringBuilder columns, StringBuilder values, String column) {
+        if (columns.length() > 0) {
+            columns.append(", ");
+            values.append(", ");
+        }
+        columns.append(column);
+        values.append("?");
+    }
+    
+    protected int resolveJdbcBatchSize(Class<? extends Dialect> dialectType) {
+        //First try a direct lookup
+        Integer jdbcBatchSize = this.dialectJdbcBatchSizes.get(dialectType);
+        if (jdbcBatchSize != null) {
+            return jdbcBatchSize;
+        }
+        
+        //Next search the mappings looking for a sublcass match
+        for (final Map.Entry<Class<? extends Dialect>, Integer> jdbcBatchSizeEntry : this.dialectJdbcBatchSizes.entrySet()) {
+            if (jdbcBatchSizeEntry.getKey().isAssignableFrom(dialectType)) {
+                jdbcBatchSize = jdbcBatchSizeEntry.getValue();
+                
+                //Cache the resolution for future lookups
+                this.dialectJdbcBatchSizes.put(dialectType, jdbcBatchSize);
+                return jdbcBatchSize;
+            }
+        }
+        
+        return this.defaultJdbcBatchSize;
+    }
+    
+    @Override
+    public int getJdbcBatchSize() {
+        final BatchInsert batchInsert = this.batchInsert;
+        if (batchInsert == null) {
+            return this.defaultJdbcBatchSize;
+        }
+        return batchInsert.jdbcBatchSize;
+    }
+
+    @Override
+    public long getBatchInsertCount() {
+        return this.batchSizes.getCount();
+    }
+
+    @Override
+    public long getBatchInsertEventCount() {
+        return this.batchSizes.getTotal();
+    }
+
+    @Override
+    public double getBatchSizeMean() {
+        return this.batchSizes.getMean();
+    }
+
+    @Override
+    public long getBatchSizeMax() {
+        return this.batchSizes.getMax();
+    }
+
+    @Override
+    public double getBatchInsertTimeMean() {
+        return this.batchInsertTimes.getMean() / 1000;
+    }
+
+    @Override
+    public double getBatchInsertTimeMedian() {
+        return this.batchInsertTimes.getValueAtPercentile(50) / 1000d;
+    }
+
+    @Override
+    public double getBatchInsertTime99thPercentile() {
+        return this.batchInsertTimes.getValueAtPercentile(99) / 1000d;
+    }
+
+    @Override
+    public double getBatchInsertTimeMax() {
+        return this.batchInsertTimes.getMax() / 1000d;
+    }
+
+    @Override
+    public void resetStatistics() {
+        this.batchInsertTimes.reset();
+        this.batchSizes.reset();
     }
     
     @Override
@@ -186,51 +471,106 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
     @Override
     @RawEventsTransactional
-    public boolean aggregatePortalEvents(DateTime startTime, DateTime endTime, int maxEvents, Function<PortalEvent, Boolean> handler) {
+    public boolean aggregatePortalEvents(EventAggregationWatermark watermark, DateTime endTime, int maxEvents, Function<PortalEvent, Boolean> handler) {
         final Session session = this.getEntityManager().unwrap(Session.class);
-        session.setFlushMode(FlushMode.COMMIT);
-        final org.hibernate.Query query = session.createQuery(this.selectUnaggregatedQuery);
-        query.setParameter(this.startTimeParameter.getName(), startTime);
+        session.setFlushMode(FlushMode.MANUAL);
+        
+        int resultCount = 0;
+        
+        //Late events first, they are older than everything after the watermark
+        final List<Long> lateEventIds = this.findLateEventIds(session, watermark);
+        if (!lateEventIds.isEmpty()) {
+            this.logger.debug("Found {} late events in the reprocessing window of {}", lateEventIds.size(), watermark);
+        }
+        for (final List<Long> lateEventIdsBatch : Lists.partition(lateEventIds, this.lateEventBatchSize)) {
+            final org.hibernate.Query query = session.createQuery(this.selectEventsByIdQuery);
+            query.setParameterList(this.eventIdsParameter.getName(), lateEventIdsBatch);
+            
+            for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
+                if (maxEvents > 0 && resultCount >= maxEvents) {
+                    return true;
+                }
+                
+                final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
+                if (!this.aggregatePortalEvent(session, persistentPortalEvent, watermark, handler)) {
+                    return false;
+                }
+                resultCount++;
+            }
+        }
+        
+        final org.hibernate.Query query = session.createQuery(this.selectAggregationQuery);
+        query.setParameter(this.watermarkTimeParameter.getName(), watermark.getTimestamp());
+        query.setParameter(this.watermarkEventIdParameter.getName(), watermark.getEventId());
         query.setParameter(this.endTimeParameter.getName(), endTime);
         if (maxEvents > 0) {
-            query.setMaxResults(maxEvents);
+            if (resultCount >= maxEvents) {
+                return true;
+            }
+            query.setMaxResults(maxEvents - resultCount);
         }
 
-        int resultCount = 0;
         for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
             final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
-            final PortalEvent portalEvent;
-            try {
-                portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
-            }
-            catch (RuntimeException e) {
-                this.logger.warn("Failed to convert PersistentPortalEvent to PortalEvent: " + persistentPortalEvent, e);
-                
-                //Mark the event as aggregated and store the mark to prevent trying to reprocess the broken event data
-                persistentPortalEvent.setAggregated(true);
-                session.persist(persistentPortalEvent);
-                
-                continue;
-            }
-            
-            final Boolean eventHandled = handler.apply(portalEvent);
-            if (!eventHandled) {
-                this.logger.debug("Aggregation stop requested before processing event {}", portalEvent);
+            if (!this.aggregatePortalEvent(session, persistentPortalEvent, watermark, handler)) {
                 return false;
             }
-            
-            //Mark the event as aggregated and store the mark
-            persistentPortalEvent.setAggregated(true);
-            session.persist(persistentPortalEvent);
-            
-            //periodic flush and clear of session to manage memory demands
-            if (++resultCount % this.flushPeriod == 0) {
-                this.logger.debug("Aggregated {} events, flush and clear {} EntityManager.", resultCount, PERSISTENCE_UNIT_NAME);
-                session.flush();
-                session.clear();
+        }
+        
+        watermark.pruneWindow();
+        return true;
+    }
+    
+    /**
+     * @return Ids of the events in the watermark's reprocessing window that have not been aggregated, in (timestamp, id) order
+     */
+    protected List<Long> findLateEventIds(Session session, EventAggregationWatermark watermark) {
+        if (!watermark.getWindowStart().isBefore(watermark.getTimestamp())) {
+            return Collections.emptyList();
+        }
+        
+        final org.hibernate.Query query = session.createQuery(this.selectWindowEventKeysQuery);
+        query.setParameter(this.startTimeParameter.getName(), watermark.getWindowStart());
+        query.setParameter(this.watermarkTimeParameter.getName(), watermark.getTimestamp());
+        
+        final List<Long> lateEventIds = new ArrayList<Long>();
+        for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
+            final Long eventId = (Long)results.get(0);
+            final DateTime timestamp = (DateTime)results.get(1);
+            if (watermark.isLate(timestamp, eventId)) {
+                lateEventIds.add(eventId);
             }
         }
+        return lateEventIds;
+    }
+    
+    /**
+     * Pass the event to the handler and record it in the watermark, events that can't be read are recorded and skipped
+     * to prevent trying to reprocess the broken event data.
+     * 
+     * @return false if the handler requested aggregation stop
+     */
+    private boolean aggregatePortalEvent(Session session, PersistentPortalEvent persistentPortalEvent, EventAggregationWatermark watermark, Function<PortalEvent, Boolean> handler) {
+        //Nothing is written during aggregation, keep the session from growing
+        session.evict(persistentPortalEvent);
         
+        final PortalEvent portalEvent;
+        try {
+            portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
+        }
+        catch (RuntimeException e) {
+            this.logger.warn("Failed to convert PersistentPortalEvent to PortalEvent: " + persistentPortalEvent, e);
+            watermark.aggregated(persistentPortalEvent.getTimestamp(), persistentPortalEvent.getId());
+            return true;
+        }
+        
+        final Boolean eventHandled = handler.apply(portalEvent);
+        if (!eventHandled) {
+            this.logger.debug("Aggregation stop requested before processing event {}", portalEvent);
+            return false;
+        }
+        
+        watermark.aggregated(persistentPortalEvent.getTimestamp(), persistentPortalEvent.getId());
         return true;
     }
     
@@ -253,7 +593,6 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
             final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
             final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
             handler.apply(portalEvent);
-            persistentPortalEvent.setAggregated(true);
             session.evict(persistentPortalEvent);
         }
     }
@@ -272,32 +611,31 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     }
 
     protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
-        try {
-            return mapper.readValue(eventData, eventType);
-        }
-        catch (JsonParseException e) {
-            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
-        }
-        catch (JsonMappingException e) {
-            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
-        }
-        catch (IOException e) {
-            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+        for (final PortalEventCodec portalEventCodec : this.portalEventCodecs) {
+            if (portalEventCodec.isEncoded(eventData)) {
+                return portalEventCodec.decode(eventData, eventType);
+            }
         }
+        
+        throw new RuntimeException("No PortalEventCodec can deserialize PortalEvent data: " + eventData);
     }
     
     protected String toString(PortalEvent event) {
-        try {
-            return mapper.writeValueAsString(event);
-        }
-        catch (JsonParseException e) {
-            throw new RuntimeException("Failed to serialize PortalEvent data", e);
-        }
-        catch (JsonMappingException e) {
-            throw new RuntimeException("Failed to serialize PortalEvent data", e);
-        }
-        catch (IOException e) {
-            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        return this.eventCodec.encode(event);
+    }
+    
+    /**
+     * Insert statement and batch size for the raw events database
+     */
+    protected static final class BatchInsert {
+        private final AbstractEntityPersister persister;
+        private final String insertSql;
+        private final int jdbcBatchSize;
+        
+        BatchInsert(AbstractEntityPersister persister, String insertSql, int jdbcBatchSize) {
+            this.persister = persister;
+            this.insertSql = insertSql;
+            this.jdbcBatchSize = jdbcBatchSize;
         }
     }
 }
@@ -0,0 +1,75 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+/**
+ * JMX view of the JDBC batch writes done by the {@link JpaPortalEventStore}
+ */
+public interface JpaPortalEventStoreMXBean {
+    /**
+     * @return Maximum number of events per JDBC batch for the raw events database dialect, 0 if events are stored using JPA
+     */
+    int getJdbcBatchSize();
+    
+    /**
+     * @return Number of JDBC batches executed
+     */
+    long getBatchInsertCount();
+    
+    /**
+     * @return Number of events inserted by JDBC batches
+     */
+    long getBatchInsertEventCount();
+    
+    /**
+     * @return Mean number of events per JDBC batch
+     */
+    double getBatchSizeMean();
+    
+    /**
+     * @return Largest number of events in a JDBC batch
+     */
+    long getBatchSizeMax();
+    
+    /**
+     * @return Mean time in milliseconds to execute a JDBC batch
+     */
+    double getBatchInsertTimeMean();
+    
+    /**
+     * @return Median time in milliseconds to execute a JDBC batch
+     */
+    double getBatchInsertTimeMedian();
+    
+    /**
+     * @return 99th percentile time in milliseconds to execute a JDBC batch
+     */
+    double getBatchInsertTime99thPercentile();
+    
+    /**
+     * @return Longest time in milliseconds to execute a JDBC batch
+     */
+    double getBatchInsertTimeMax();
+    
+    /**
+     * Reset the batch size and insert time statistics
+     */
+    void resetStatistics();
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.io.IOException;
+
+import org.jasig.portal.events.PortalEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Stores events as JSON documents, the format used for all event data written before
+ * {@link BinaryPortalEventCodec} was added.
+ */
+@Component("jsonPortalEventCodec")
+public class JsonPortalEventCodec implements PortalEventCodec {
+    private ObjectMapper mapper;
+    
+    @Autowired
+    public void setMapper(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean isEncoded(String eventData) {
+        for (int i = 0; i < eventData.length(); i++) {
+            final char c = eventData.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{';
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String encode(PortalEvent event) {
+        try {
+            return mapper.writeValueAsString(event);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+    }
+
+    @Override
+    public <E extends PortalEvent> E decode(String eventData, Class<E> eventType) {
+        try {
+            return mapper.readValue(eventData, eventType);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+        }
+    }
+}
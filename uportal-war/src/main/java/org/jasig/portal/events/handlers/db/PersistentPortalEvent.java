@@ -62,13 +62,11 @@ public class PersistentPortalEvent implements Serializable {
     @Id
     @GeneratedValue(generator = "UP_RAW_EVENTS_GEN")
     @Column(name="EVENT_ID")
-    @SuppressWarnings("unused")
     private final long id;
     
     @Index(name = "IDX_UP_RAW_EVENTS_TIMESTAMP")
     @Column(name="TIMESTAMP", nullable=false, updatable=false)
     @Type(type = "dateTime")
-    @SuppressWarnings("unused")
     private final DateTime timestamp;
     
     @Index(name = "IDX_UP_RAW_EVENTS_SERVER_ID")
@@ -94,7 +92,9 @@ public class PersistentPortalEvent implements Serializable {
     @Lob
     private final String eventData; 
     
-    @Index(name = "IDX_UP_RAW_EVENTS_AGGREGATED")
+    /**
+     * No longer updated, aggregation progress is tracked by an {@link EventAggregationWatermark}
+     */
     @Column(name = "AGGREGATED") 
     private Boolean aggregated = false;
     
@@ -123,6 +123,14 @@ public class PersistentPortalEvent implements Serializable {
         this.eventType = (Class<PortalEvent>)portalEvent.getClass();
     }
     
+    public long getId() {
+        return this.id;
+    }
+
+    public DateTime getTimestamp() {
+        return this.timestamp;
+    }
+
     public Class<PortalEvent> getEventType() {
         return this.eventType;
     }
@@ -143,10 +151,6 @@ public class PersistentPortalEvent implements Serializable {
         return a;
     }
 
-    void setAggregated(boolean aggregated) {
-        this.aggregated = aggregated;
-    }
-
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
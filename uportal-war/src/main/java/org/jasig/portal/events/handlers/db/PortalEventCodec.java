@@ -0,0 +1,46 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import org.jasig.portal.events.PortalEvent;
+
+/**
+ * Converts {@link PortalEvent}s to and from the data stored in the EVENT_DATA column of the raw
+ * events table. Every codec must be able to recognize its own data so that rows written by
+ * different codecs can be read from the same table.
+ */
+public interface PortalEventCodec {
+    
+    /**
+     * @return true if the event data was written by this codec
+     */
+    boolean isEncoded(String eventData);
+    
+    /**
+     * @return The event data to store for the event
+     */
+    String encode(PortalEvent event);
+    
+    /**
+     * @param eventData Data previously returned by {@link #encode(PortalEvent)}
+     * @param eventType The type of the stored event
+     */
+    <E extends PortalEvent> E decode(String eventData, Class<E> eventType);
+}
@@ -22,13 +22,17 @@ package org.jasig.portal.events.handlers.db;
 import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.handlers.QueueingEventHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 /**
- * Hands off queued portal events for storage by the IPortalEventDao
+ * Hands off queued portal events for storage by the IPortalEventDao. Events are stored by the writer thread so
+ * request threads never wait on the database.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
+@ManagedResource("uPortal:section=Events,name=PortalEventDaoQueuingEventHandler")
 public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<PortalEvent> {
     private IPortalEventDao portalEventDao;
     
@@ -36,7 +40,7 @@ public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<Port
      * @param portalEventDao the portalEventDao to set
      */
     @Autowired
-    public void setPortalEventDao(IPortalEventDao portalEventDao) {
+    public void setPortalEventDao(@Qualifier("portalEventDao") IPortalEventDao portalEventDao) {
         this.portalEventDao = portalEventDao;
     }
 
@@ -0,0 +1,439 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One memory mapped, append-only file of the {@link FilePortalEventStore} event log.
+ * <p>
+ * The log file starts with a magic number and format version followed by the event records. Each record is
+ * the data length, a CRC32 of the timestamp and data, the event timestamp and the event data. The unused
+ * remainder of the file is zero filled so the first record with a zero length, or one that fails its
+ * CRC check after a crash, marks the end of the segment.
+ * <p>
+ * A sparse index is written to a second file as the segment grows, each entry records an offset in the log
+ * along with the number, oldest and newest timestamp of all records before that offset. Range scans use it
+ * to skip the start of the segment and the last entry provides the segment statistics without reading
+ * the log file when the segment is opened.
+ * <p>
+ * Appends must be made by a single thread, any number of threads may read concurrently. Readers only see
+ * records up to the end published by the last append.
+ */
+final class PortalEventLogSegment {
+    static final int MAGIC = 0x75504556;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 24;
+    
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+    
+    /**
+     * Handles records read during a {@link PortalEventLogSegment#scan(int, RecordHandler)}
+     */
+    interface RecordHandler {
+        /**
+         * @param nextOffset Offset of the record after this one
+         * @return false to stop the scan
+         */
+        boolean handle(int offset, int nextOffset, long timestamp, byte[] data);
+    }
+    
+    /**
+     * @return The file name of the log file for the segment id, zero padded so names sort by id
+     */
+    static String getLogFileName(long id) {
+        return String.format("%020d", id) + LOG_SUFFIX;
+    }
+    
+    /**
+     * Create a new, empty segment
+     */
+    static PortalEventLogSegment create(File directory, long id, int capacity, int indexInterval) throws IOException {
+        final File logFile = new File(directory, getLogFileName(id));
+        if (logFile.exists()) {
+            throw new IOException("Event log segment already exists: " + logFile);
+        }
+        
+        final PortalEventLogSegment segment = new PortalEventLogSegment(directory, id, logFile, capacity, indexInterval);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.size = HEADER_SIZE;
+        segment.indexedOffset = HEADER_SIZE;
+        return segment;
+    }
+    
+    /**
+     * Open an existing segment, recovering the end of the log from the index and the records after the
+     * last index entry.
+     */
+    static PortalEventLogSegment open(File logFile, int indexInterval) throws IOException {
+        final String fileName = logFile.getName();
+        final long id = Long.parseLong(fileName.substring(0, fileName.length() - LOG_SUFFIX.length()));
+        
+        final PortalEventLogSegment segment = new PortalEventLogSegment(logFile.getParentFile(), id, logFile, (int) logFile.length(), indexInterval);
+        if (segment.capacity < HEADER_SIZE || segment.buffer.getInt(0) != MAGIC) {
+            segment.close();
+            throw new IOException("Not an event log segment: " + logFile);
+        }
+        final int version = segment.buffer.getInt(4);
+        if (version != VERSION) {
+            segment.close();
+            throw new IOException("Unsupported event log segment version " + version + ": " + logFile);
+        }
+        
+        segment.loadIndex();
+        segment.recover();
+        return segment;
+    }
+    
+    private final List<IndexEntry> index = new ArrayList<IndexEntry>();
+    private final CRC32 crc = new CRC32();
+    private final long id;
+    private final File logFile;
+    private final File indexFile;
+    private final int capacity;
+    private final int indexInterval;
+    private final RandomAccessFile logAccess;
+    private final MappedByteBuffer buffer;
+    private RandomAccessFile indexAccess;
+    private int indexedOffset;
+    private int pendingIndexEntries = 0;
+    
+    //Published by the appending thread, read by the scanning threads
+    private volatile int size;
+    private volatile int count = 0;
+    private volatile long minTimestamp = Long.MAX_VALUE;
+    private volatile long maxTimestamp = Long.MIN_VALUE;
+    
+    private PortalEventLogSegment(File directory, long id, File logFile, int capacity, int indexInterval) throws IOException {
+        this.id = id;
+        this.logFile = logFile;
+        this.indexFile = new File(directory, logFile.getName().replace(LOG_SUFFIX, INDEX_SUFFIX));
+        this.capacity = capacity;
+        this.indexInterval = indexInterval;
+        
+        this.logAccess = new RandomAccessFile(logFile, "rw");
+        try {
+            this.buffer = this.logAccess.getChannel().map(MapMode.READ_WRITE, 0, capacity);
+            this.indexAccess = new RandomAccessFile(this.indexFile, "rw");
+        }
+        catch (IOException e) {
+            this.logAccess.close();
+            throw e;
+        }
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    /**
+     * @return Number of events in the segment
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return Timestamp of the oldest event in the segment, {@link Long#MAX_VALUE} if the segment is empty
+     */
+    public long getMinTimestamp() {
+        return this.minTimestamp;
+    }
+
+    /**
+     * @return Timestamp of the newest event in the segment, {@link Long#MIN_VALUE} if the segment is empty
+     */
+    public long getMaxTimestamp() {
+        return this.maxTimestamp;
+    }
+    
+    /**
+     * @return true if the segment contains any events in the time range
+     */
+    public boolean overlaps(long startTimestamp, long endTimestamp) {
+        return this.count > 0 && this.maxTimestamp >= startTimestamp && this.minTimestamp < endTimestamp;
+    }
+    
+    /**
+     * Append a record to the segment, the record is visible to readers once this method returns
+     * 
+     * @return false if the record does not fit in the segment
+     */
+    public boolean append(long timestamp, byte[] data) {
+        final int offset = this.size;
+        final int nextOffset = offset + RECORD_HEADER_SIZE + data.length;
+        if (nextOffset > this.capacity || nextOffset < 0) {
+            return false;
+        }
+        
+        this.crc.reset();
+        this.crc.update(toBytes(timestamp));
+        this.crc.update(data);
+        
+        final ByteBuffer record = this.buffer.duplicate();
+        record.position(offset);
+        record.putInt(data.length);
+        record.putInt((int) this.crc.getValue());
+        record.putLong(timestamp);
+        record.put(data);
+        
+        this.count++;
+        if (timestamp < this.minTimestamp) {
+            this.minTimestamp = timestamp;
+        }
+        if (timestamp > this.maxTimestamp) {
+            this.maxTimestamp = timestamp;
+        }
+        
+        //Publish the record
+        this.size = nextOffset;
+        
+        if (nextOffset - this.indexedOffset >= this.indexInterval) {
+            addIndexEntry();
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Write any pending index entries and optionally force the appended records to disk
+     * 
+     * @param force If the log data should be forced to the storage device before the index is written
+     */
+    public void flush(boolean force) throws IOException {
+        if (force) {
+            this.buffer.force();
+        }
+        
+        if (this.pendingIndexEntries == 0) {
+            return;
+        }
+        
+        final List<IndexEntry> entries;
+        synchronized (this.index) {
+            entries = new ArrayList<IndexEntry>(this.index.subList(this.index.size() - this.pendingIndexEntries, this.index.size()));
+        }
+        
+        final ByteBuffer indexData = ByteBuffer.allocate(entries.size() * INDEX_ENTRY_SIZE);
+        for (final IndexEntry entry : entries) {
+            indexData.putInt(entry.offset);
+            indexData.putInt(entry.count);
+            indexData.putLong(entry.minTimestamp);
+            indexData.putLong(entry.maxTimestamp);
+        }
+        
+        this.indexAccess.seek(this.indexAccess.length());
+        this.indexAccess.write(indexData.array());
+        if (force) {
+            this.indexAccess.getChannel().force(false);
+        }
+        this.pendingIndexEntries = 0;
+    }
+    
+    /**
+     * Index the end of the segment and write any pending index entries, no more records may be appended
+     * after the segment is sealed.
+     */
+    public void seal(boolean force) throws IOException {
+        if (this.indexedOffset != this.size) {
+            addIndexEntry();
+        }
+        this.flush(force);
+    }
+    
+    /**
+     * @return Offset of the first record that may have a timestamp on or after the specified time
+     */
+    public int findScanStart(long startTimestamp) {
+        synchronized (this.index) {
+            //Entries are in offset order and the max timestamp of the records before each entry never decreases
+            int low = 0;
+            int high = this.index.size() - 1;
+            int offset = HEADER_SIZE;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final IndexEntry entry = this.index.get(mid);
+                if (entry.maxTimestamp < startTimestamp) {
+                    offset = entry.offset;
+                    low = mid + 1;
+                }
+                else {
+                    high = mid - 1;
+                }
+            }
+            return offset;
+        }
+    }
+    
+    /**
+     * Read records in order starting at the specified offset until the end of the segment or the handler
+     * stops the scan.
+     * 
+     * @return false if the handler stopped the scan
+     */
+    public boolean scan(int offset, RecordHandler handler) {
+        final int end = this.size;
+        final ByteBuffer view = this.buffer.duplicate();
+        while (offset < end) {
+            view.position(offset);
+            final int length = view.getInt();
+            view.getInt(); //CRC, only checked during recovery
+            final long timestamp = view.getLong();
+            final byte[] data = new byte[length];
+            view.get(data);
+            
+            final int nextOffset = offset + RECORD_HEADER_SIZE + length;
+            if (!handler.handle(offset, nextOffset, timestamp, data)) {
+                return false;
+            }
+            offset = nextOffset;
+        }
+        return true;
+    }
+    
+    /**
+     * Close the segment files, the memory mapping is released when the segment is garbage collected
+     */
+    public void close() throws IOException {
+        try {
+            this.logAccess.close();
+        }
+        finally {
+            this.indexAccess.close();
+        }
+    }
+    
+    /**
+     * Close and delete the segment files
+     */
+    public void delete() throws IOException {
+        this.close();
+        if (!this.logFile.delete() && this.logFile.exists()) {
+            throw new IOException("Failed to delete event log segment: " + this.logFile);
+        }
+        if (!this.indexFile.delete() && this.indexFile.exists()) {
+            throw new IOException("Failed to delete event log segment index: " + this.indexFile);
+        }
+    }
+    
+    private void addIndexEntry() {
+        final IndexEntry entry = new IndexEntry(this.size, this.count, this.minTimestamp, this.maxTimestamp);
+        synchronized (this.index) {
+            this.index.add(entry);
+        }
+        this.indexedOffset = this.size;
+        this.pendingIndexEntries++;
+    }
+    
+    private void loadIndex() throws IOException {
+        //Ignore a partially written last entry
+        final int entries = (int) (this.indexAccess.length() / INDEX_ENTRY_SIZE);
+        final byte[] indexData = new byte[entries * INDEX_ENTRY_SIZE];
+        this.indexAccess.seek(0);
+        this.indexAccess.readFully(indexData);
+        this.indexAccess.setLength(indexData.length);
+        
+        final ByteBuffer indexBuffer = ByteBuffer.wrap(indexData);
+        for (int i = 0; i < entries; i++) {
+            final IndexEntry entry = new IndexEntry(indexBuffer.getInt(), indexBuffer.getInt(), indexBuffer.getLong(), indexBuffer.getLong());
+            if (entry.offset > this.capacity) {
+                break;
+            }
+            this.index.add(entry);
+        }
+        
+        this.size = HEADER_SIZE;
+        if (!this.index.isEmpty()) {
+            final IndexEntry last = this.index.get(this.index.size() - 1);
+            this.size = last.offset;
+            this.count = last.count;
+            this.minTimestamp = last.minTimestamp;
+            this.maxTimestamp = last.maxTimestamp;
+        }
+        this.indexedOffset = this.size;
+    }
+    
+    /**
+     * Read the valid records after the last index entry to find the end of the segment
+     */
+    private void recover() throws IOException {
+        int offset = this.size;
+        while (offset + RECORD_HEADER_SIZE <= this.capacity) {
+            final int length = this.buffer.getInt(offset);
+            final int nextOffset = offset + RECORD_HEADER_SIZE + length;
+            if (length <= 0 || nextOffset > this.capacity || nextOffset < 0) {
+                break;
+            }
+            
+            final long timestamp = this.buffer.getLong(offset + 8);
+            final byte[] data = new byte[length];
+            final ByteBuffer view = this.buffer.duplicate();
+            view.position(offset + RECORD_HEADER_SIZE);
+            view.get(data);
+            
+            this.crc.reset();
+            this.crc.update(toBytes(timestamp));
+            this.crc.update(data);
+            if ((int) this.crc.getValue() != this.buffer.getInt(offset + 4)) {
+                break;
+            }
+            
+            this.count++;
+            this.minTimestamp = Math.min(this.minTimestamp, timestamp);
+            this.maxTimestamp = Math.max(this.maxTimestamp, timestamp);
+            offset = nextOffset;
+        }
+        this.size = offset;
+        
+        //Index the recovered records so they don't need to be read again the next time the segment is opened
+        this.seal(false);
+    }
+    
+    private static byte[] toBytes(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+    
+    private static final class IndexEntry {
+        private final int offset;
+        private final int count;
+        private final long minTimestamp;
+        private final long maxTimestamp;
+        
+        public IndexEntry(int offset, int count, long minTimestamp, long maxTimestamp) {
+            this.offset = offset;
+            this.count = count;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+        }
+    }
+}
@@ -0,0 +1,537 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.pags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.GroupDefinition;
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.TestGroup;
+import org.jasig.portal.groups.pags.testers.AlwaysTrueTester;
+import org.jasig.portal.groups.pags.testers.BaseAttributeTester;
+import org.jasig.portal.groups.pags.testers.EagerRegexTester;
+import org.jasig.portal.groups.pags.testers.GuestUserTester;
+import org.jasig.portal.groups.pags.testers.IntegerEQTester;
+import org.jasig.portal.groups.pags.testers.IntegerGETester;
+import org.jasig.portal.groups.pags.testers.IntegerGTTester;
+import org.jasig.portal.groups.pags.testers.IntegerLETester;
+import org.jasig.portal.groups.pags.testers.IntegerLTTester;
+import org.jasig.portal.groups.pags.testers.IntegerTester;
+import org.jasig.portal.groups.pags.testers.InvertedRegexTester;
+import org.jasig.portal.groups.pags.testers.RegexTester;
+import org.jasig.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.jasig.portal.groups.pags.testers.StringEqualsTester;
+import org.jasig.portal.groups.pags.testers.ValueExistsTester;
+import org.jasig.portal.groups.pags.testers.ValueMissingTester;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.PersonFactory;
+import org.jasig.portal.security.provider.RestrictedPerson;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Compiled form of the PAGS group definitions that finds every group containing a person
+ * in a single pass over the person's attributes.
+ * <p>
+ * Testers are grouped by the attribute they read so each attribute is fetched once for
+ * all groups. String equality testers are answered with hash lookups, identical regular
+ * expressions are evaluated once per value no matter how many groups use them and integer
+ * values are parsed once. Testers of any other type are run as-is, and only when a group
+ * actually needs their answer.
+ * <p>
+ * The resulting group keys are memoized per snapshot of the attributes the testers read,
+ * so people that share those attribute values share the result.
+ */
+class PersonAttributesGroupEvaluator {
+    private static final Log log = LogFactory.getLog(PersonAttributesGroupEvaluator.class);
+    
+    private final String[] groupKeys;
+    //group -> test groups -> tester indexes, a group contains a person if all testers of any test group pass
+    private final int[][][] groupTestGroups;
+    //group -> indexes of all of its containing groups
+    private final int[][] groupAncestors;
+    
+    private final List<IPersonTester> testers = new ArrayList<IPersonTester>();
+    private final Map<String, AttributeTesters> attributeTesters = new LinkedHashMap<String, AttributeTesters>();
+    private final BitSet alwaysPassingTesters = new BitSet();
+    private final BitSet guestTesters = new BitSet();
+    private final BitSet opaqueTesters = new BitSet();
+    
+    private final Cache<List<Object>, Set<String>> containingGroupsCache;
+    
+    /**
+     * @param groupDefinitions The PAGS group definitions
+     * @param ancestorKeys The keys of all groups containing each group, by group key
+     * @param cacheSize Number of attribute snapshots to remember results for
+     */
+    public PersonAttributesGroupEvaluator(Collection<GroupDefinition> groupDefinitions, Map<String, Set<String>> ancestorKeys, int cacheSize) {
+        final int groupCount = groupDefinitions.size();
+        this.groupKeys = new String[groupCount];
+        this.groupTestGroups = new int[groupCount][][];
+        this.groupAncestors = new int[groupCount][];
+        
+        final Map<String, Integer> groupIndexes = new HashMap<String, Integer>();
+        final Map<String, Integer> testerIndexes = new HashMap<String, Integer>();
+        int groupIndex = 0;
+        for (final GroupDefinition groupDefinition : groupDefinitions) {
+            this.groupKeys[groupIndex] = groupDefinition.getKey();
+            groupIndexes.put(groupDefinition.getKey(), groupIndex);
+            
+            final List<TestGroup> testGroups = groupDefinition.getTestGroups();
+            final int[][] testGroupTesters = new int[testGroups.size()][];
+            for (int testGroupIndex = 0; testGroupIndex < testGroupTesters.length; testGroupIndex++) {
+                final List<IPersonTester> tests = testGroups.get(testGroupIndex).getTests();
+                final int[] testerIndexesForGroup = new int[tests.size()];
+                for (int testIndex = 0; testIndex < testerIndexesForGroup.length; testIndex++) {
+                    testerIndexesForGroup[testIndex] = this.addTester(tests.get(testIndex), testerIndexes);
+                }
+                testGroupTesters[testGroupIndex] = testerIndexesForGroup;
+            }
+            this.groupTestGroups[groupIndex] = testGroupTesters;
+            
+            groupIndex++;
+        }
+        
+        for (groupIndex = 0; groupIndex < groupCount; groupIndex++) {
+            final Set<String> ancestors = ancestorKeys.get(this.groupKeys[groupIndex]);
+            final List<Integer> ancestorIndexes = new ArrayList<Integer>();
+            if (ancestors != null) {
+                for (final String ancestorKey : ancestors) {
+                    final Integer ancestorIndex = groupIndexes.get(ancestorKey);
+                    if (ancestorIndex != null) {
+                        ancestorIndexes.add(ancestorIndex);
+                    }
+                }
+            }
+            this.groupAncestors[groupIndex] = toArray(ancestorIndexes);
+        }
+        
+        this.containingGroupsCache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        
+        if (log.isDebugEnabled()) {
+            log.debug("Compiled " + groupCount + " PAGS groups into " + this.testers.size() + " distinct testers over " + 
+                    this.attributeTesters.size() + " attributes, " + this.opaqueTesters.cardinality() + " testers are run as-is");
+        }
+    }
+    
+    /**
+     * @param memberKey Key of the person being tested, only used for logging
+     * @param attributes The person's attributes
+     * @return Keys of the groups that contain the person, this set must not be modified
+     */
+    public Set<String> getContainingGroupKeys(String memberKey, Map<String, List<Object>> attributes) {
+        final RestrictedPerson person = PersonFactory.createRestrictedPerson();
+        person.setAttributes(attributes);
+        
+        final List<Object> snapshot = this.getAttributeSnapshot(person, attributes);
+        Set<String> containingGroupKeys = this.containingGroupsCache.getIfPresent(snapshot);
+        if (containingGroupKeys == null) {
+            containingGroupKeys = this.evaluate(memberKey, person);
+            this.containingGroupsCache.put(snapshot, containingGroupKeys);
+        }
+        
+        return containingGroupKeys;
+    }
+    
+    /**
+     * Everything the result can depend on: the values of the attributes the testers read plus
+     * the guest flag, or all of the attributes if any tester is run as-is.
+     */
+    protected List<Object> getAttributeSnapshot(IPerson person, Map<String, List<Object>> attributes) {
+        final Map<String, List<Object>> values = new HashMap<String, List<Object>>();
+        if (this.opaqueTesters.isEmpty()) {
+            for (final String attributeName : this.attributeTesters.keySet()) {
+                final List<Object> attributeValues = attributes.get(attributeName);
+                if (attributeValues != null) {
+                    values.put(attributeName, new ArrayList<Object>(attributeValues));
+                }
+            }
+        }
+        else {
+            for (final Map.Entry<String, List<Object>> attributeEntry : attributes.entrySet()) {
+                final List<Object> attributeValues = attributeEntry.getValue();
+                values.put(attributeEntry.getKey(), attributeValues != null ? new ArrayList<Object>(attributeValues) : null);
+            }
+        }
+        
+        final Boolean guest = this.guestTesters.isEmpty() ? null : person.isGuest();
+        return Arrays.<Object>asList(guest, values);
+    }
+    
+    protected Set<String> evaluate(String memberKey, IPerson person) {
+        final TesterResults testerResults = new TesterResults(person);
+        final Boolean[] groupTests = new Boolean[this.groupKeys.length];
+        
+        final Set<String> containingGroupKeys = new LinkedHashSet<String>();
+        for (int groupIndex = 0; groupIndex < this.groupKeys.length; groupIndex++) {
+            //A group with no test groups never contains a person directly
+            if (this.groupTestGroups[groupIndex].length == 0 || !this.test(groupIndex, testerResults, groupTests)) {
+                continue;
+            }
+            
+            //The person must also pass the tests of every containing group
+            int failedAncestor = -1;
+            for (final int ancestorIndex : this.groupAncestors[groupIndex]) {
+                if (!this.test(ancestorIndex, testerResults, groupTests)) {
+                    failedAncestor = ancestorIndex;
+                    break;
+                }
+            }
+            
+            if (failedAncestor < 0) {
+                containingGroupKeys.add(this.groupKeys[groupIndex]);
+            }
+            else if (log.isWarnEnabled()) {
+                log.warn("PAGS group=" + this.groupKeys[groupIndex] + " contained person=" + memberKey + 
+                        ", but the person failed to be contained in ancesters of this group (parentGroup=" + 
+                        this.groupKeys[failedAncestor] + "). This may indicate a misconfigured PAGS group " +
+                        "store. Please check PAGSGroupStoreConfig.xml.");
+            }
+        }
+        
+        return Collections.unmodifiableSet(containingGroupKeys);
+    }
+    
+    private boolean test(int groupIndex, TesterResults testerResults, Boolean[] groupTests) {
+        Boolean result = groupTests[groupIndex];
+        if (result == null) {
+            final int[][] testGroups = this.groupTestGroups[groupIndex];
+            result = testGroups.length == 0;
+            for (int testGroupIndex = 0; testGroupIndex < testGroups.length && !result; testGroupIndex++) {
+                result = testerResults.passedAll(testGroups[testGroupIndex]);
+            }
+            groupTests[groupIndex] = result;
+        }
+        return result;
+    }
+    
+    private int addTester(IPersonTester tester, Map<String, Integer> testerIndexes) {
+        final Class<? extends IPersonTester> testerClass = tester.getClass();
+        
+        //Testers that only look at one attribute and value can be shared by every group using them
+        final String testerKey;
+        if (tester instanceof BaseAttributeTester && isCompiled(testerClass)) {
+            final BaseAttributeTester attributeTester = (BaseAttributeTester) tester;
+            testerKey = testerClass.getName() + "\u0000" + attributeTester.getAttributeName() + "\u0000" + attributeTester.getTestValue();
+            
+            final Integer existingIndex = testerIndexes.get(testerKey);
+            if (existingIndex != null) {
+                return existingIndex;
+            }
+        }
+        else {
+            testerKey = null;
+        }
+        
+        final int testerIndex = this.testers.size();
+        this.testers.add(tester);
+        if (testerKey != null) {
+            testerIndexes.put(testerKey, testerIndex);
+            
+            final BaseAttributeTester attributeTester = (BaseAttributeTester) tester;
+            AttributeTesters testersForAttribute = this.attributeTesters.get(attributeTester.getAttributeName());
+            if (testersForAttribute == null) {
+                testersForAttribute = new AttributeTesters(attributeTester.getAttributeName());
+                this.attributeTesters.put(attributeTester.getAttributeName(), testersForAttribute);
+            }
+            testersForAttribute.add(attributeTester, testerIndex);
+        }
+        else if (testerClass == AlwaysTrueTester.class) {
+            this.alwaysPassingTesters.set(testerIndex);
+        }
+        else if (testerClass == GuestUserTester.class) {
+            this.guestTesters.set(testerIndex);
+        }
+        else {
+            this.opaqueTesters.set(testerIndex);
+        }
+        
+        return testerIndex;
+    }
+    
+    private static boolean isCompiled(Class<? extends IPersonTester> testerClass) {
+        return testerClass == StringEqualsTester.class ||
+                testerClass == StringEqualsIgnoreCaseTester.class ||
+                testerClass == ValueMissingTester.class ||
+                testerClass == ValueExistsTester.class ||
+                testerClass == RegexTester.class ||
+                testerClass == EagerRegexTester.class ||
+                testerClass == InvertedRegexTester.class ||
+                testerClass == IntegerEQTester.class ||
+                testerClass == IntegerGETester.class ||
+                testerClass == IntegerGTTester.class ||
+                testerClass == IntegerLETester.class ||
+                testerClass == IntegerLTTester.class;
+    }
+    
+    /**
+     * Folds case the same way {@link String#equalsIgnoreCase(String)} compares characters so
+     * two strings fold to the same value exactly when they are equal ignoring case.
+     */
+    static String foldCase(String value) {
+        final char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+    
+    private static int[] toArray(List<Integer> values) {
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+    
+    private static void put(Map<String, BitSet> testers, String value, int testerIndex) {
+        BitSet testersForValue = testers.get(value);
+        if (testersForValue == null) {
+            testersForValue = new BitSet();
+            testers.put(value, testersForValue);
+        }
+        testersForValue.set(testerIndex);
+    }
+    
+    /**
+     * Results of all testers for one person. Attribute testers are evaluated up front, testers
+     * run as-is are only evaluated the first time a group needs their answer.
+     */
+    private final class TesterResults {
+        private final IPerson person;
+        private final BitSet passed;
+        private final BitSet evaluated;
+        
+        public TesterResults(IPerson person) {
+            this.person = person;
+            this.passed = (BitSet) alwaysPassingTesters.clone();
+            for (final AttributeTesters testersForAttribute : attributeTesters.values()) {
+                testersForAttribute.test(testers, person, this.passed);
+            }
+            for (int testerIndex = guestTesters.nextSetBit(0); testerIndex >= 0; testerIndex = guestTesters.nextSetBit(testerIndex + 1)) {
+                if (testers.get(testerIndex).test(person)) {
+                    this.passed.set(testerIndex);
+                }
+            }
+            this.evaluated = new BitSet();
+        }
+        
+        public boolean passedAll(int[] testerIndexes) {
+            for (final int testerIndex : testerIndexes) {
+                if (!this.passed(testerIndex)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private boolean passed(int testerIndex) {
+            if (opaqueTesters.get(testerIndex) && !this.evaluated.get(testerIndex)) {
+                this.evaluated.set(testerIndex);
+                if (testers.get(testerIndex).test(this.person)) {
+                    this.passed.set(testerIndex);
+                }
+            }
+            return this.passed.get(testerIndex);
+        }
+    }
+    
+    /**
+     * All of the compiled testers that read a single attribute
+     */
+    private static final class AttributeTesters {
+        private final String attributeName;
+        private final BitSet allTesters = new BitSet();
+        
+        private final Map<String, BitSet> equalsTesters = new HashMap<String, BitSet>();
+        private final Map<String, BitSet> equalsIgnoreCaseTesters = new HashMap<String, BitSet>();
+        private final Map<String, BitSet> valueMissingTesters = new HashMap<String, BitSet>();
+        private final BitSet allValueMissingTesters = new BitSet();
+        private final BitSet valueExistsTesters = new BitSet();
+        private final Map<String, PatternTesters> patternTesters = new LinkedHashMap<String, PatternTesters>();
+        private final List<IntegerTester> integerTesters = new ArrayList<IntegerTester>();
+        private final List<Integer> integerTesterIndexes = new ArrayList<Integer>();
+        
+        public AttributeTesters(String attributeName) {
+            this.attributeName = attributeName;
+        }
+        
+        public void add(BaseAttributeTester tester, int testerIndex) {
+            this.allTesters.set(testerIndex);
+            
+            final Class<? extends BaseAttributeTester> testerClass = tester.getClass();
+            final String testValue = tester.getTestValue();
+            if (testerClass == StringEqualsTester.class) {
+                if (testValue != null) {
+                    put(this.equalsTesters, testValue, testerIndex);
+                }
+            }
+            else if (testerClass == StringEqualsIgnoreCaseTester.class) {
+                if (testValue != null) {
+                    put(this.equalsIgnoreCaseTesters, foldCase(testValue), testerIndex);
+                }
+            }
+            else if (testerClass == ValueMissingTester.class) {
+                this.allValueMissingTesters.set(testerIndex);
+                if (testValue != null) {
+                    put(this.valueMissingTesters, foldCase(testValue), testerIndex);
+                }
+            }
+            else if (testerClass == ValueExistsTester.class) {
+                this.valueExistsTesters.set(testerIndex);
+            }
+            else if (tester instanceof IntegerTester) {
+                this.integerTesters.add((IntegerTester) tester);
+                this.integerTesterIndexes.add(testerIndex);
+            }
+            else {
+                PatternTesters testersForPattern = this.patternTesters.get(testValue);
+                if (testersForPattern == null) {
+                    testersForPattern = new PatternTesters(Pattern.compile(testValue));
+                    this.patternTesters.put(testValue, testersForPattern);
+                }
+                
+                if (testerClass == EagerRegexTester.class) {
+                    testersForPattern.findTesters.set(testerIndex);
+                }
+                else if (testerClass == InvertedRegexTester.class) {
+                    testersForPattern.notMatchesTesters.set(testerIndex);
+                }
+                else {
+                    testersForPattern.matchesTesters.set(testerIndex);
+                }
+            }
+        }
+        
+        /**
+         * Sets the bits of the testers that pass for the person's values of this attribute. Like
+         * the testers themselves a person passes if any one of the values passes, except for
+         * {@link ValueMissingTester} which passes if none of the values match.
+         */
+        public void test(List<IPersonTester> testers, IPerson person, BitSet passed) {
+            final Object[] values = person.getAttributeValues(this.attributeName);
+            if (values == null) {
+                passed.or(this.allValueMissingTesters);
+                return;
+            }
+            
+            //The testers expect String values, run them as-is for anything else so they fail the same way
+            for (final Object value : values) {
+                if (!(value instanceof String)) {
+                    for (int testerIndex = this.allTesters.nextSetBit(0); testerIndex >= 0; testerIndex = this.allTesters.nextSetBit(testerIndex + 1)) {
+                        if (testers.get(testerIndex).test(person)) {
+                            passed.set(testerIndex);
+                        }
+                    }
+                    return;
+                }
+            }
+            
+            final BitSet matchedValueMissingTesters = new BitSet();
+            for (final Object valueObject : values) {
+                final String value = (String) valueObject;
+                
+                or(passed, this.equalsTesters.get(value));
+                if (!this.equalsIgnoreCaseTesters.isEmpty() || !this.valueMissingTesters.isEmpty()) {
+                    final String foldedValue = foldCase(value);
+                    or(passed, this.equalsIgnoreCaseTesters.get(foldedValue));
+                    or(matchedValueMissingTesters, this.valueMissingTesters.get(foldedValue));
+                }
+                
+                if (value.length() > 0) {
+                    passed.or(this.valueExistsTesters);
+                }
+                
+                for (final PatternTesters testersForPattern : this.patternTesters.values()) {
+                    testersForPattern.test(value, passed);
+                }
+                
+                if (!this.integerTesters.isEmpty()) {
+                    final int integerValue;
+                    try {
+                        integerValue = Integer.parseInt(value);
+                    }
+                    catch (NumberFormatException nfe) {
+                        continue;
+                    }
+                    for (int i = 0; i < this.integerTesters.size(); i++) {
+                        if (this.integerTesters.get(i).test(integerValue)) {
+                            passed.set(this.integerTesterIndexes.get(i));
+                        }
+                    }
+                }
+            }
+            
+            final BitSet valueMissingPassed = (BitSet) this.allValueMissingTesters.clone();
+            valueMissingPassed.andNot(matchedValueMissingTesters);
+            passed.or(valueMissingPassed);
+        }
+        
+        private static void or(BitSet target, BitSet source) {
+            if (source != null) {
+                target.or(source);
+            }
+        }
+    }
+    
+    /**
+     * Every tester using the same regular expression, the pattern is evaluated once per value
+     * for all of them.
+     */
+    private static final class PatternTesters {
+        private final Pattern pattern;
+        private final BitSet matchesTesters = new BitSet();
+        private final BitSet findTesters = new BitSet();
+        private final BitSet notMatchesTesters = new BitSet();
+        
+        public PatternTesters(Pattern pattern) {
+            this.pattern = pattern;
+        }
+        
+        public void test(String value, BitSet passed) {
+            final Matcher matcher = this.pattern.matcher(value);
+            final boolean matches = matcher.matches();
+            if (matches) {
+                passed.or(this.matchesTesters);
+                passed.or(this.findTesters);
+            }
+            else {
+                passed.or(this.notMatchesTesters);
+                if (!this.findTesters.isEmpty() && matcher.reset().find()) {
+                    passed.or(this.findTesters);
+                }
+            }
+        }
+    }
+}
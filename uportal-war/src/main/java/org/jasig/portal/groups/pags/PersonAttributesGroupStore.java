@@ -47,8 +47,6 @@ import org.jasig.portal.groups.IEntityStore;
 import org.jasig.portal.groups.IGroupMember;
 import org.jasig.portal.groups.ILockableEntityGroup;
 import org.jasig.portal.security.IPerson;
-import org.jasig.portal.security.PersonFactory;
-import org.jasig.portal.security.provider.RestrictedPerson;
 import org.jasig.portal.spring.locator.PersonAttributeDaoLocator;
 import org.jasig.services.persondir.IPersonAttributeDao;
 import org.jasig.services.persondir.IPersonAttributes;
@@ -70,6 +68,7 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
    private Map groupDefinitions;
    private Map<String, IEntityGroup> groups;
    private Map<String, List> containingGroups;
+   private PersonAttributesGroupEvaluator evaluator;
       
    public PersonAttributesGroupStore() {
       groups = new HashMap<String, IEntityGroup>();
@@ -80,6 +79,7 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
          IPersonAttributesConfiguration config = getConfig(props.getProperty("org.jasig.portal.groups.pags.PersonAttributesGroupStore.configurationClass"));
          groupDefinitions = config.getConfig();
          initGroups(); 
+         initEvaluator(Integer.parseInt(props.getProperty("org.jasig.portal.groups.pags.PersonAttributesGroupStore.evaluationCacheSize", "10000")));
       } catch ( Exception e ) {
          throw new RuntimeException("Problem initializing groups", e);
       }
@@ -110,6 +110,22 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
        cacheContainingGroupsForGroups();
    }
    
+   /**
+    * Compiles the group definitions into the evaluator used to find the groups
+    * containing a person.
+    */
+   private void initEvaluator(int cacheSize) throws GroupsException {
+       Map<String, Set<String>> ancestorKeys = new HashMap<String, Set<String>>();
+       for (IEntityGroup group : groups.values())
+       {
+           Set<String> keys = new HashSet<String>();
+           for (IEntityGroup ancestor : primGetAllContainingGroups(group, new HashSet<IEntityGroup>()))
+               { keys.add(ancestor.getLocalKey()); }
+           ancestorKeys.put(group.getLocalKey(), keys);
+       }
+       evaluator = new PersonAttributesGroupEvaluator(groupDefinitions.values(), ancestorKeys, cacheSize);
+   }
+   
 
    
    private IPersonTester initializeTester(String tester, String attribute, String value) {
@@ -144,25 +160,25 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
       {
          if (member.getEntityType() != IPERSON_CLASS) 
              { return false; }
-         IPerson person = null;
+         Map<String, List<Object>> attributes = null;
          try {
-             IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
-             final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
-
-             RestrictedPerson rp = PersonFactory.createRestrictedPerson();
-             if (personAttributes != null) {
-                 rp.setAttributes(personAttributes.getAttributes());
-             }
-             
-             person = rp;
+             attributes = getPersonAttributes(member);
          }
          catch (Exception ex) { 
              log.error("Exception acquiring attributes for member " + member + " while checking if group " + group + " contains this member.", ex);
              return false; 
          }
-         return testRecursively(groupDef, person, member);
+         return evaluator.getContainingGroupKeys(member.getKey(), attributes).contains(group.getLocalKey());
       }
    }
+   
+   private Map<String, List<Object>> getPersonAttributes(IGroupMember member) {
+       IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+       final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+       if (personAttributes == null || personAttributes.getAttributes() == null)
+           { return Collections.emptyMap(); }
+       return personAttributes.getAttributes();
+   }
 
    public void delete(IEntityGroup group) throws GroupsException {
       throw new UnsupportedOperationException("PersonAttributesGroupStore: Method delete() not supported.");
@@ -199,40 +215,6 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
        }
    }
 
-   private boolean testRecursively(GroupDefinition groupDef, IPerson person,
-       IGroupMember member)
-   throws GroupsException {
-       if ( ! groupDef.contains(person) )
-           { return false;}
-       else
-       {
-           IEntityGroup group = cacheGet(groupDef.getKey());
-           IEntityGroup parentGroup = null;
-           Set<IEntityGroup> allParents = primGetAllContainingGroups(group, new HashSet<IEntityGroup>());
-           boolean testPassed = true;
-           for (Iterator<IEntityGroup> i=allParents.iterator(); i.hasNext() && testPassed;)
-           {
-               parentGroup = i.next();
-               GroupDefinition parentGroupDef = 
-                 (GroupDefinition) groupDefinitions.get(parentGroup.getLocalKey());
-               testPassed = parentGroupDef.test(person);               
-           }
-           
-           if (!testPassed && log.isWarnEnabled()) {
-               StringBuffer sb = new StringBuffer();
-               sb.append("PAGS group=").append(group.getKey());
-               sb.append(" contained person=").append(member.getKey());
-               sb.append(", but the person failed to be contained in ");
-               sb.append("ancesters of this group");
-               sb.append((parentGroup != null ? " (parentGroup="+parentGroup.getKey()+")" : ""));
-               sb.append(". This may indicate a ");
-               sb.append("misconfigured PAGS group ");
-               sb.append("store. Please check PAGSGroupStoreConfig.xml.");
-               log.warn(sb.toString());
-           }
-           return testPassed;
-       }
-   }
    private java.util.Set<IEntityGroup> primGetAllContainingGroups(IEntityGroup group, Set<IEntityGroup> s)
    throws GroupsException
    {
@@ -264,10 +246,18 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
    private Iterator<IEntityGroup> findContainingGroupsForEntity(IEntity member)
    throws GroupsException {
        List<IEntityGroup> results = new ArrayList<IEntityGroup>();
-       for (Iterator<IEntityGroup> i = groups.values().iterator(); i.hasNext(); ) {
-          IEntityGroup group = i.next();
-          if ( contains(group, member)) 
-              { results.add(group); }
+       if (member.getEntityType() != IPERSON_CLASS) 
+           { return results.iterator(); }
+       Map<String, List<Object>> attributes = null;
+       try {
+           attributes = getPersonAttributes(member);
+       }
+       catch (Exception ex) { 
+           log.error("Exception acquiring attributes for member " + member + " while finding its containing groups.", ex);
+           return results.iterator(); 
+       }
+       for (String key : evaluator.getContainingGroupKeys(member.getKey(), attributes)) {
+          results.add(cacheGet(key));
        }
        return results.iterator();
    }
@@ -395,6 +385,9 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
       public boolean hasMember(String key) {
          return members.contains(key);
       }
+      List<TestGroup> getTestGroups() {
+         return testGroups;
+      }
       public void addTestGroup(TestGroup testGroup) {
          testGroups.add(testGroup);
       }
@@ -428,6 +421,10 @@ public class PersonAttributesGroupStore implements IEntityGroupStore, IEntitySto
          tests.add(test);
       }
       
+      List<IPersonTester> getTests() {
+         return tests;
+      }
+      
       public boolean test(IPerson person) {
          for (Iterator<IPersonTester> i = tests.iterator(); i.hasNext(); ) {
             IPersonTester tester = i.next();
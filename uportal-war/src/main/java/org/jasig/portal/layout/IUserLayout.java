@@ -133,6 +133,15 @@ public interface IUserLayout {
      */
     public String getNodeId(String fname) throws PortalException;
     
+    /**
+     * Returns the id of a tab by its position among the visible regular tabs, the
+     * folders of type regular directly below the root folder that are not hidden.
+     * 
+     * @param position The 1 based position of the tab
+     * @return The ID of the tab, null if there is no tab at that position
+     */
+    public String getTabId(int position);
+    
     /**
      * Returns a node id as resolved by the supplied {@link XPathExpression}
      * 
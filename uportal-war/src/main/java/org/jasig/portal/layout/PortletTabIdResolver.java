@@ -40,6 +40,12 @@ public class PortletTabIdResolver implements INodeIdResolver {
 
     @Override
     public String traverseDocument(Document document) {
+        // Layout documents register the ID attributes, walk up from the node when it can be found directly
+        final Element element = document.getElementById(layoutNodeId);
+        if (element != null) {
+            return getTabId(document, element);
+        }
+        
         // '/layout' - layouts
         for (Node root = document.getFirstChild(); root != null; root = root.getNextSibling()) {
             // '/layout/folder' - root/header/footer folders
@@ -55,6 +61,28 @@ public class PortletTabIdResolver implements INodeIdResolver {
         return null;
     }
 
+    /**
+     * Find the tab, the ancestor at '/layout/folder/folder', that contains the element.
+     * 
+     * @return The ID of the tab, null if the element is not within a tab
+     */
+    private String getTabId(Document document, Element element) {
+        Node tab = null;
+        for (Node n = element; n != null; n = n.getParentNode()) {
+            final Node rootFolder = n.getParentNode();
+            final Node root = rootFolder != null ? rootFolder.getParentNode() : null;
+            if (root != null && root.getParentNode() == document) {
+                tab = n;
+                break;
+            }
+        }
+        
+        if (tab == null || !("folder".equals(tab.getNodeName()) || "channel".equals(tab.getNodeName()))) {
+            return null;
+        }
+        return ((Element) tab).getAttribute("ID");
+    }
+
     /**
      * Recursevly find out whether node contains a folder or channel with given identifier.
      * 
@@ -19,13 +19,24 @@
 
 package org.jasig.portal.layout;
 
+import java.util.Locale;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
 import org.jasig.portal.IUserProfile;
 import org.jasig.portal.PortalException;
+import org.jasig.portal.UserProfile;
+import org.jasig.portal.i18n.LocaleManager;
 import org.jasig.portal.layout.immutable.ImmutableUserLayoutManagerWrapper;
 import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.PersonFactory;
+import org.jasig.portal.utils.cache.CacheKey;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 
@@ -40,12 +51,18 @@ public class UserLayoutManagerFactory implements BeanFactoryAware {
     public static final String USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME = "userLayoutManager";
     
     private BeanFactory beanFactory;
+    private Ehcache guestLayoutManagerCache;
     
     @Override
     public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
         this.beanFactory = beanFactory;
     }
     
+    @Autowired
+    public void setGuestLayoutManagerCache(@Qualifier("org.jasig.portal.layout.UserLayoutManagerFactory.GUEST_LAYOUT_MANAGERS") Ehcache guestLayoutManagerCache) {
+        this.guestLayoutManagerCache = guestLayoutManagerCache;
+    }
+    
     /**
      * Obtain a regular user layout manager implementation
      *
@@ -56,6 +73,75 @@ public class UserLayoutManagerFactory implements BeanFactoryAware {
         
         return new TransientUserLayoutManagerWrapper(userLayoutManager);
     }
+    
+    /**
+     * Obtain a user layout manager for a guest session. Guest sessions for the same user, profile
+     * and locale share one underlying layout manager and layout, only the transient channels of the
+     * returned wrapper are tracked per session. The shared layout manager must never be modified,
+     * callers are expected to wrap the result with {@link #immutableUserLayoutManager(IUserLayoutManager)}.
+     *
+     * @return a session specific <code>IUserLayoutManager</code> backed by a shared guest layout manager
+     */
+    public IUserLayoutManager getGuestUserLayoutManager(IPerson person, IUserProfile profile) throws PortalException {
+        if (!person.isGuest()) {
+            throw new IllegalArgumentException("Shared layout managers can only be used for guest users, " + person.getUserName() + " is not a guest");
+        }
+        
+        final LocaleManager localeManager = profile.getLocaleManager();
+        final Locale[] locales = localeManager != null ? localeManager.getLocales() : null;
+        final Locale locale = locales != null && locales.length > 0 ? locales[0] : null;
+        final CacheKey cacheKey = CacheKey.build(UserLayoutManagerFactory.class.getName(), 
+                person.getUserName(), profile.getProfileFname(), profile.getProfileId(), locale);
+        
+        IUserLayoutManager userLayoutManager;
+        final Element element = this.guestLayoutManagerCache.get(cacheKey);
+        if (element != null) {
+            userLayoutManager = (IUserLayoutManager)element.getObjectValue();
+        }
+        else {
+            //The shared layout manager runs as its own guest person, it must not hold on to the person of the first session
+            final IPerson sharedPerson = this.createSharedGuestPerson(person);
+            final IUserProfile sharedProfile = this.createSharedGuestProfile(sharedPerson, profile, locale);
+            userLayoutManager = (IUserLayoutManager)this.beanFactory.getBean(USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME, sharedPerson, sharedProfile);
+            
+            //Another session may have created the shared layout manager in the mean time, use the first one
+            final Element existing = this.guestLayoutManagerCache.putIfAbsent(new Element(cacheKey, userLayoutManager));
+            if (existing != null) {
+                userLayoutManager = (IUserLayoutManager)existing.getObjectValue();
+            }
+        }
+        
+        return new TransientUserLayoutManagerWrapper(userLayoutManager);
+    }
+    
+    /**
+     * Creates the person a shared guest layout manager is built for. Only the guest identity is copied,
+     * attributes added to a session's person later, including a login, never reach the shared manager.
+     */
+    protected IPerson createSharedGuestPerson(IPerson person) {
+        final IPerson sharedPerson = PersonFactory.createPerson();
+        sharedPerson.setAttribute(IPerson.USERNAME, person.getUserName());
+        sharedPerson.setID(person.getID());
+        return sharedPerson;
+    }
+    
+    /**
+     * Creates the profile a shared guest layout manager is built for. The copy has its own {@link LocaleManager}
+     * fixed to the locale the manager is cached for, locale changes made through a session's profile never change
+     * the locale the shared layout is loaded in.
+     */
+    protected IUserProfile createSharedGuestProfile(IPerson sharedPerson, IUserProfile profile, Locale locale) {
+        final UserProfile sharedProfile = new UserProfile(profile.getProfileId(), profile.getProfileFname(), 
+                profile.getProfileName(), profile.getProfileDescription(), profile.getLayoutId(), 
+                profile.getStructureStylesheetId(), profile.getThemeStylesheetId());
+        sharedProfile.setSystemProfile(profile.isSystemProfile());
+        if (locale != null) {
+            final LocaleManager localeManager = new LocaleManager(sharedPerson, new Locale[] { locale });
+            localeManager.setUserLocales(new Locale[] { locale });
+            sharedProfile.setLocaleManager(localeManager);
+        }
+        return sharedProfile;
+    }
 
     /**
      * Returns an immutable version of a user layout manager.
@@ -59,6 +59,7 @@ public class Constants
     public static final String ATT_ID                  = "ID";
     public static final String ATT_TYPE                = "type";
     public static final String ATT_CHANNEL_ID          = "chanID";
+    public static final String ATT_FNAME               = "fname";
     public static final String ATT_HIDDEN              = "hidden";
     public static final String ATT_NAME                = "name";
     public static final String ATT_VALUE               = "value";
@@ -88,6 +89,7 @@ public class Constants
     public static final String ELM_EDIT                = NS+"edit";
     public static final String ELM_PREF                = NS+"pref";
     public static final String ELM_PARAMETER           = "parameter";
+    public static final String ELM_LAYOUT              = "layout";
     public static final String ELM_FOLDER              = "folder";
     public static final String ELM_CHANNEL             = "channel";
     
@@ -28,7 +28,6 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
 
@@ -38,8 +37,8 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
-import javax.xml.xpath.XPathConstants;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jasig.portal.IUserIdentityStore;
@@ -50,7 +49,6 @@ import org.jasig.portal.layout.IFolderLocalNameResolver;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.IUserLayoutManager;
 import org.jasig.portal.layout.IUserLayoutStore;
-import org.jasig.portal.layout.PortletSubscribeIdResolver;
 import org.jasig.portal.layout.node.IUserLayoutChannelDescription;
 import org.jasig.portal.layout.node.IUserLayoutFolderDescription;
 import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
@@ -69,7 +67,6 @@ import org.jasig.portal.security.provider.AuthorizationImpl;
 import org.jasig.portal.spring.locator.PortletDefinitionRegistryLocator;
 import org.jasig.portal.spring.locator.UserIdentityStoreLocator;
 import org.jasig.portal.xml.XmlUtilities;
-import org.jasig.portal.xml.xpath.XPathOperations;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.w3c.dom.Document;
@@ -93,7 +90,6 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     private XmlUtilities xmlUtilities;
     private ILayoutCachingService layoutCachingService;
     private IUserLayoutStore distributedLayoutStore;
-    private XPathOperations xpathOperations;
     private IPortalLayoutEventFactory portalEventFactory;
     private IAuthorizationService authorizationService;
     
@@ -106,8 +102,8 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
      */
     static final String FOLDER_LABEL_POLICY = "FolderLabelPolicy";
     
-    protected final static Random rnd=new Random();
     protected String cacheKey="initialKey";
+    private LayoutFingerprint layoutFingerprint;
     protected String rootNodeId = null;
 
     private boolean channelsAdded = false;
@@ -143,10 +139,6 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         this.authorizationService = authorizationService;
     }
 
-    @Autowired
-    public void setXpathOperations(XPathOperations xpathOperations) {
-        this.xpathOperations = xpathOperations;
-    }
 
     @Autowired
     public void setXmlUtilities(XmlUtilities xmlUtilities) {
@@ -200,7 +192,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     private void setUserLayoutDOM(DistributedUserLayout userLayout) {
 
         this.layoutCachingService.cacheLayout(owner, profile, userLayout);
-        this.updateCacheKey();
+        this.updateCacheKey(userLayout.getLayout());
 
         // determine if this is a layout fragment by looking at the root node
         // for a cp:fragment attribute.
@@ -223,58 +215,95 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         DistributedUserLayout userLayout = this.layoutCachingService.getCachedLayout(owner, profile);
         if ( null == userLayout )
         {
-            if (LOG.isDebugEnabled())
-            {
-                LOG.debug("Load from store for " +
-                    owner.getAttribute(IPerson.USERNAME));
+            // Guest layout managers are shared by sessions on different threads, only one of them loads the layout
+            synchronized (this) {
+                userLayout = this.layoutCachingService.getCachedLayout(owner, profile);
+                if ( null == userLayout )
+                {
+                    userLayout = this.loadDistributedUserLayout();
+                }
             }
-            userLayout = this.distributedLayoutStore.getUserLayout(this.owner,this.profile);
-            
-            final Document userLayoutDocument = userLayout.getLayout();
-
-            // DistributedLayoutManager shall gracefully remove channels 
-            // that the user isn't authorized to render from folders of type 
-            // 'header' and 'footer'.
-            IAuthorizationPrincipal principal = authorizationService.newPrincipal(owner.getUserName(), IPerson.class);
-            NodeList nodes = userLayoutDocument.getElementsByTagName("folder");
-            for (int i=0; i < nodes.getLength(); i++) {
-          	  Element fd = (Element) nodes.item(i);
-          	  String type = fd.getAttribute("type");
-          	  if (type != null && (type.equals("header") || type.equals("footer") || type.equals("sidebar"))) {
-          		  // Here's where we do the work...
-          		  if (LOG.isDebugEnabled()) {
-          			  LOG.debug("RDBMUserLayoutStore examining the '" 
-        					  	+ type 
-        					  	+ "' folder of user '" 
-        					  	+ owner.getUserName() 
-        					  	+ "' for non-authorized channels.");
-          		  }
-          		  NodeList channels = fd.getElementsByTagName("channel");
-          		  for (int j=0; j < channels.getLength(); j++) {
-          			  Element ch = (Element) channels.item(j);
-          			  try {
-          				  String chanId = ch.getAttribute("chanID");
-          				  if (!principal.canRender(chanId)) {
-          					  fd.removeChild(ch);
-          					  if (LOG.isDebugEnabled()) {
-          						  LOG.debug("RDBMUserLayoutStore removing channel '" 
-            							  	+ ch.getAttribute("fname") 
-            							  	+ "' from the header or footer of user '" 
-            							  	+ owner.getUserName() 
-            							  	+ "' because he/she isn't authorized to render it.");
-          					  }
-          				  }
-          			  } catch (Throwable t) {
-          				  // Log this...
-          				  LOG.warn("RDBMUserLayoutStore was unable to analyze channel element with Id=" 
-          						  									+ch.getAttribute("chanID"), t);
-          			  }
-          		  }
-          	  }
+        }
+        return userLayout;
+    }
+    
+    private DistributedUserLayout loadDistributedUserLayout() {
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("Load from store for " +
+                owner.getAttribute(IPerson.USERNAME));
+        }
+        final DistributedUserLayout userLayout = this.distributedLayoutStore.getUserLayout(this.owner,this.profile);
+        
+        final Document userLayoutDocument = userLayout.getLayout();
+
+        // DistributedLayoutManager shall gracefully remove channels 
+        // that the user isn't authorized to render from folders of type 
+        // 'header' and 'footer'.
+        IAuthorizationPrincipal principal = authorizationService.newPrincipal(owner.getUserName(), IPerson.class);
+        List<Element> restrictedFolders = new ArrayList<Element>();
+        List<String> restrictedChannelIds = new ArrayList<String>();
+        NodeList nodes = userLayoutDocument.getElementsByTagName("folder");
+        for (int i=0; i < nodes.getLength(); i++) {
+      	  Element fd = (Element) nodes.item(i);
+      	  String type = fd.getAttribute("type");
+      	  if (type != null && (type.equals("header") || type.equals("footer") || type.equals("sidebar"))) {
+      		  restrictedFolders.add(fd);
+      		  NodeList channels = fd.getElementsByTagName("channel");
+      		  for (int j=0; j < channels.getLength(); j++) {
+      			  restrictedChannelIds.add(((Element) channels.item(j)).getAttribute("chanID"));
+      		  }
+      	  }
+        }
+        
+        // Check render permission for all of these channels at once
+        Set<String> renderableChannelIds = Collections.emptySet();
+        if (!restrictedChannelIds.isEmpty()) {
+            try {
+                renderableChannelIds = principal.getRenderablePortlets(restrictedChannelIds);
+            } catch (Throwable t) {
+                // Log this and fall back to checking each channel
+                LOG.warn("RDBMUserLayoutStore was unable to analyze channels " + restrictedChannelIds 
+                        + " together, checking them one at a time", t);
+                renderableChannelIds = null;
             }
-            
-            setUserLayoutDOM( userLayout );
         }
+        
+        for (Element fd : restrictedFolders) {
+      		  // Here's where we do the work...
+      		  if (LOG.isDebugEnabled()) {
+      			  LOG.debug("RDBMUserLayoutStore examining the '" 
+    					  	+ fd.getAttribute("type") 
+    					  	+ "' folder of user '" 
+    					  	+ owner.getUserName() 
+    					  	+ "' for non-authorized channels.");
+      		  }
+      		  NodeList channels = fd.getElementsByTagName("channel");
+      		  for (int j=0; j < channels.getLength(); j++) {
+      			  Element ch = (Element) channels.item(j);
+      			  try {
+      				  String chanId = ch.getAttribute("chanID");
+      				  boolean canRender = renderableChannelIds != null ? renderableChannelIds.contains(chanId) : principal.canRender(chanId);
+      				  if (!canRender) {
+      					  fd.removeChild(ch);
+      					  userLayout.getNodeIndex().nodeRemoved(ch);
+      					  if (LOG.isDebugEnabled()) {
+      						  LOG.debug("RDBMUserLayoutStore removing channel '" 
+        							  	+ ch.getAttribute("fname") 
+        							  	+ "' from the header or footer of user '" 
+        							  	+ owner.getUserName() 
+        							  	+ "' because he/she isn't authorized to render it.");
+      					  }
+      				  }
+      			  } catch (Throwable t) {
+      				  // Log this...
+      				  LOG.warn("RDBMUserLayoutStore was unable to analyze channel element with Id=" 
+      						  									+ch.getAttribute("chanID"), t);
+      			  }
+      		  }
+        }
+        
+        setUserLayoutDOM( userLayout );
         return userLayout;
     }
     
@@ -447,7 +476,9 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
             // register element id
             childElement.setIdAttribute(Constants.ATT_ID, true);
             childElement.setAttribute(Constants.ATT_ID, node.getId());
-            this.updateCacheKey();
+            this.getNodeIndex().nodeAdded(childElement);
+            this.invalidateCacheKey(parentElement, false);
+            this.updateCacheKey(uld);
 
             // push into the user's real layout that gets persisted.
             HandlerUtils.createPlfNodeAndPath( childElement,
@@ -482,13 +513,16 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
             Document uld=this.getUserLayoutDOM();
             Element childElement = uld.getElementById(nodeId);
             Element parentElement = uld.getElementById(parentId);
+            this.invalidateCacheKey(childElement.getParentNode(), false);
             if(nextSiblingId==null) {
                 parentElement.appendChild(childElement);
             } else {
                 Node nextSibling=uld.getElementById(nextSiblingId);
                 parentElement.insertBefore(childElement,nextSibling);
             }
-            this.updateCacheKey();
+            this.getNodeIndex().nodeChanged(childElement);
+            this.invalidateCacheKey(parentElement, false);
+            this.updateCacheKey(uld);
 
             // propagate the change into the PLF
             Element oldParent = uld.getElementById(oldParentNodeId);
@@ -526,7 +560,9 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                         "\" has a NULL parent for layout of " 
                     + owner.getAttribute(IPerson.USERNAME) + ".");
             }
-            this.updateCacheKey();
+            this.getNodeIndex().nodeRemoved(ilfNode);
+            this.invalidateCacheKey(parent, false);
+            this.updateCacheKey(uld);
 
             // now push into the PLF
             TabColumnPrefsHandler.deleteNode( ilfNode, (Element) parent,
@@ -588,7 +624,11 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                     updateFolderNode(nodeId, newFolderDesc, oldFolderDesc);
                 }
             }
-            this.updateCacheKey();
+            Document uld = this.getUserLayoutDOM();
+            final Element ilfNode = uld.getElementById(nodeId);
+            this.getNodeIndex().nodeChanged(ilfNode);
+            this.invalidateCacheKey(ilfNode, true);
+            this.updateCacheKey(uld);
             return true;
         }
         return false;
@@ -1275,15 +1315,44 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     }
 
     /**
-     * This is outright cheating ! We're supposed to analyze the user layout tree
-     * and return a key that corresponds uniqly to the composition and the sturcture of the tree.
-     * Here we just return a different key wheneever anything changes. So if one was to move a
-     * node back and forth, the key would always never (almost) come back to the original value,
-     * even though the changes to the user layout are cyclic.
-     *
+     * Sets the cache key to the fingerprint of the layout's content so identical layouts share
+     * cached rendering results and undoing a change restores the previous key. Only the parts of
+     * the layout reported by {@link #invalidateCacheKey(Node, boolean)} since the last call are
+     * hashed again.
+     */
+    private void updateCacheKey(Document layout) {
+        LayoutFingerprint fingerprint = this.layoutFingerprint;
+        if (fingerprint == null || !fingerprint.isFor(layout)) {
+            fingerprint = new LayoutFingerprint(layout);
+            this.layoutFingerprint = fingerprint;
+        }
+        this.cacheKey = fingerprint.getFingerprint();
+    }
+    
+    /**
+     * @return Indexes of the current layout, changes to the layout DOM must be reported to it
      */
-    private void updateCacheKey() {
-        this.cacheKey=Long.toString(rnd.nextLong());
+    private LayoutNodeIndex getNodeIndex() {
+        return this.getDistributedUserLayout().getNodeIndex();
+    }
+    
+    /**
+     * Reports a change to the layout DOM to be reflected by the next {@link #updateCacheKey(Document)}
+     * 
+     * @param node The changed node
+     * @param changedDescendants If anything below the node may also have changed
+     */
+    private void invalidateCacheKey(Node node, boolean changedDescendants) {
+        final LayoutFingerprint fingerprint = this.layoutFingerprint;
+        if (fingerprint == null || node == null) {
+            return;
+        }
+        if (changedDescendants) {
+            fingerprint.invalidateTree(node);
+        }
+        else {
+            fingerprint.invalidate(node);
+        }
     }
 
     public int getLayoutId() {
@@ -1296,19 +1365,19 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
      */
     @Override
     public String getSubscribeId(String fname) {
-    	final Document userLayout = this.getUserLayoutDOM();
-        return new PortletSubscribeIdResolver(fname).traverseDocument(userLayout);
+        final Element fnameNode = this.getNodeIndex().getChannel(fname);
+        if (fnameNode != null) {
+            final String subscribeId = fnameNode.getAttribute(Constants.ATT_ID);
+            return StringUtils.isEmpty(subscribeId) ? null : subscribeId;
+        }
+        
+        return null;
     }
     
     public String getSubscribeId(String parentFolderId, String fname) {
-    	final Map<String, String> variables = new HashMap<String, String>();
-    	variables.put("parentFolderId", parentFolderId);
-    	variables.put("fname", fname);
-    	
-    	final Document userLayout = this.getUserLayoutDOM();
-    	final Element fnameNode = this.xpathOperations.evaluate("//folder[@ID=$parentFolderId]/descendant::channel[@fname=$fname]", variables, userLayout, XPathConstants.NODE);
+        final Element fnameNode = this.getNodeIndex().getChannel(parentFolderId, fname);
 		if (fnameNode != null) {
-			return fnameNode.getAttribute("ID");
+			return fnameNode.getAttribute(Constants.ATT_ID);
 		}
     	
     	return null;
@@ -1334,14 +1403,12 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     public String getRootFolderId()
     {
         if (rootNodeId == null) {
-            Document layout = getUserLayoutDOM();
-            
-            Element rootNode = this.xpathOperations.evaluate("//layout/folder", layout, XPathConstants.NODE);
+            Element rootNode = this.getNodeIndex().getRootFolder();
             if (rootNode == null || !rootNode.getAttribute(Constants.ATT_TYPE).equals(Constants.ROOT_FOLDER_ID)) {
                 LOG.error("Unable to locate root node in layout of " + owner.getAttribute(IPerson.USERNAME) + ". Resetting corrupted layout.");
                 resetLayout((String) null);
                 
-                rootNode = this.xpathOperations.evaluate("//layout/folder", layout, XPathConstants.NODE);
+                rootNode = this.getNodeIndex().getRootFolder();
                 if (rootNode == null || !rootNode.getAttribute(Constants.ATT_TYPE).equals(Constants.ROOT_FOLDER_ID)) {
                     throw new PortalException("Corrupted layout detected for " + owner.getAttribute(IPerson.USERNAME)
                             + " and resetting layout failed.");
@@ -1479,7 +1546,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
             if (person == owner)
             {
                 this.layoutCachingService.removeCachedLayout(person, profile);
-                updateCacheKey();
+                // reloading the layout updates the cache key
                 getUserLayoutDOM();
             }
             //if (isFragmentOwner)
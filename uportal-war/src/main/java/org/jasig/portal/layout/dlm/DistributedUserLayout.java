@@ -37,6 +37,7 @@ public class DistributedUserLayout {
     private final Set<String> fragmentNames;
     private final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences;
     private final IStylesheetUserPreferences distributedThemeStylesheetUserPreferences;
+    private final LayoutNodeIndex nodeIndex;
 
     /**
      * This constructor seems to be used with fragment owners.
@@ -48,6 +49,7 @@ public class DistributedUserLayout {
         this.fragmentNames = Collections.emptySet();
         this.distributedStructureStylesheetUserPreferences = null;
         this.distributedThemeStylesheetUserPreferences = null;
+        this.nodeIndex = new LayoutNodeIndex(layout);
     }
 
     /**
@@ -62,6 +64,7 @@ public class DistributedUserLayout {
         this.fragmentNames = Collections.unmodifiableSet(new LinkedHashSet<String>(fragmentNames));
         this.distributedStructureStylesheetUserPreferences = distributedStructureStylesheetUserPreferences;
         this.distributedThemeStylesheetUserPreferences = distributedThemeStylesheetUserPreferences;
+        this.nodeIndex = new LayoutNodeIndex(layout);
     }
 
     /**
@@ -71,6 +74,13 @@ public class DistributedUserLayout {
         return this.layout;
     }
 
+    /**
+     * @return Indexes of the layout document, changes to the document must be reported to it
+     */
+    public LayoutNodeIndex getNodeIndex() {
+        return this.nodeIndex;
+    }
+
     /**
      * @return The names of all of the fragments incorperated into the layout
      */
@@ -20,6 +20,7 @@
 package org.jasig.portal.layout.dlm;
 
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -43,6 +44,7 @@ import org.jasig.portal.utils.DocumentFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 /** Performs merging of layout fragments into a single document containing
  * all incorporated layout fragment elements from the set of fragments
@@ -111,22 +113,29 @@ public class ILFBuilder
         Element fragmentRoot = (Element) fragmentLayout.getFirstChild();
         Element compositeLayout = composite.getDocumentElement();
         Element compositeRoot = (Element) compositeLayout.getFirstChild();
-        mergeChildren( fragmentRoot, compositeRoot, ap, new HashSet() );
+        
+        // check render permission for all of the fragment's channels at once
+        NodeList channels = fragmentRoot.getElementsByTagName("channel");
+        List<String> channelPublishIds = new ArrayList<String>(channels.getLength());
+        for (int i = 0; i < channels.getLength(); i++) {
+            channelPublishIds.add(((Element) channels.item(i)).getAttribute("chanID"));
+        }
+        Set<String> renderableChannels = ap.getRenderablePortlets(channelPublishIds);
+        
+        mergeChildren( fragmentRoot, compositeRoot, renderableChannels, new HashSet() );
     }    
 
 
     /**
      * @param source parent of children
      * @param dest receiver of children
-     * @param ap User's authorization principal for determining if they can view a channel
+     * @param renderableChannels Publish ids of the channels the user is authorized to render
      * @param visitedNodes A Set of nodes from the source tree that have been visited to get to this node, used to ensure a loop doesn't exist in the source tree.
-     * @throws AuthorizationException
      */
     private static void mergeChildren( Element source,
                                        Element dest, 
-                                       IAuthorizationPrincipal ap,
+                                       Set<String> renderableChannels,
                                        Set visitedNodes ) 
-    throws AuthorizationException
     {
         //Record this node in the visited nodes set. If add returns false a loop has been detected
         if (!visitedNodes.add(source)) {
@@ -149,14 +158,14 @@ public class ILFBuilder
                 Element child = (Element) item;
                 Element newChild = null;
     
-                if( null != child && mergeAllowed( child, ap ))
+                if( null != child && mergeAllowed( child, renderableChannels ))
                 {
                     newChild = (Element) destDoc.importNode( child, false );
                     dest.appendChild( newChild );
                     String id = newChild.getAttribute(Constants.ATT_ID);
                     if (id != null && ! id.equals(""))
                         newChild.setIdAttribute(Constants.ATT_ID, true);
-                    mergeChildren( child, newChild, ap, visitedNodes );
+                    mergeChildren( child, newChild, renderableChannels, visitedNodes );
                 }
             }
             
@@ -172,20 +181,17 @@ public class ILFBuilder
      * end user. If not then they are discarded from the merge.
      * 
      * @param child
-     * @param person
+     * @param renderableChannels
      * @return
-     * @throws AuthorizationException
-     * @throws NumberFormatException
      */
     private static boolean mergeAllowed( Element child, 
-            IAuthorizationPrincipal ap ) 
-    throws AuthorizationException
+            Set<String> renderableChannels )
     {
         if (! child.getTagName().equals("channel"))
             return true;
         
         String channelPublishId = child.getAttribute("chanID");
-        return ap.canRender(channelPublishId);
+        return renderableChannels.contains(channelPublishId);
     }
 
     private static void printNodeToDebug(Node n, String name) throws TransformerFactoryConfigurationError {
@@ -0,0 +1,188 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Content hash of a layout document, used as the layout cache key so identical layouts share
+ * cached rendering results no matter whose they are or how they came to be.
+ * <p>
+ * Each element's hash covers its name, its attributes and the hashes of its children, so
+ * after an edit only the changed elements and their ancestors have to be hashed again. Callers
+ * report what they changed with {@link #invalidate(Node)} and {@link #invalidateTree(Node)}.
+ * SHA-256 is used because layouts are user controlled and a collision would let one user see
+ * the rendering of another user's layout.
+ */
+class LayoutFingerprint {
+    private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+    private static final Comparator<Attr> ATTRIBUTE_ORDER = new Comparator<Attr>() {
+        @Override
+        public int compare(Attr a1, Attr a2) {
+            final int nameComparison = a1.getNodeName().compareTo(a2.getNodeName());
+            if (nameComparison != 0) {
+                return nameComparison;
+            }
+            final String ns1 = a1.getNamespaceURI() != null ? a1.getNamespaceURI() : "";
+            final String ns2 = a2.getNamespaceURI() != null ? a2.getNamespaceURI() : "";
+            return ns1.compareTo(ns2);
+        }
+    };
+    
+    private final Document document;
+    private final Map<Element, HashCode> elementHashes = new WeakHashMap<Element, HashCode>();
+    
+    public LayoutFingerprint(Document document) {
+        this.document = document;
+    }
+    
+    /**
+     * @return true if this fingerprint tracks the specified document
+     */
+    public boolean isFor(Document document) {
+        return this.document == document;
+    }
+    
+    /**
+     * @return Hex encoded hash of the document, only elements changed since the last call are hashed again
+     */
+    public synchronized String getFingerprint() {
+        final Hasher hasher = HASH_FUNCTION.newHasher();
+        for (Node child = this.document.getFirstChild(); child != null; child = child.getNextSibling()) {
+            this.putNode(hasher, child);
+        }
+        return hasher.hash().toString();
+    }
+    
+    /**
+     * Call after changing the attributes or children of the node, discards the hashes of the
+     * node and its ancestors.
+     */
+    public synchronized void invalidate(Node node) {
+        for (Node ancestor = node; ancestor != null; ancestor = ancestor.getParentNode()) {
+            this.elementHashes.remove(ancestor);
+        }
+    }
+    
+    /**
+     * Call after changing anything within the node, discards the hashes of the node, all of its
+     * descendants and its ancestors.
+     */
+    public synchronized void invalidateTree(Node node) {
+        this.invalidateDescendants(node);
+        this.invalidate(node);
+    }
+    
+    private void invalidateDescendants(Node node) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                this.elementHashes.remove(child);
+                this.invalidateDescendants(child);
+            }
+        }
+    }
+    
+    private HashCode getHash(Element element) {
+        HashCode hash = this.elementHashes.get(element);
+        if (hash != null) {
+            return hash;
+        }
+        
+        final Hasher hasher = HASH_FUNCTION.newHasher();
+        putString(hasher, element.getNamespaceURI());
+        putString(hasher, element.getNodeName());
+        
+        //Attribute order is not significant in XML
+        final NamedNodeMap attributeMap = element.getAttributes();
+        final Attr[] attributes = new Attr[attributeMap.getLength()];
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = (Attr) attributeMap.item(i);
+        }
+        Arrays.sort(attributes, ATTRIBUTE_ORDER);
+        hasher.putInt(attributes.length);
+        for (final Attr attribute : attributes) {
+            putString(hasher, attribute.getNamespaceURI());
+            putString(hasher, attribute.getNodeName());
+            putString(hasher, attribute.getValue());
+        }
+        
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            this.putNode(hasher, child);
+        }
+        
+        hash = hasher.hash();
+        this.elementHashes.put(element, hash);
+        return hash;
+    }
+    
+    private void putNode(Hasher hasher, Node node) {
+        final short nodeType = node.getNodeType();
+        hasher.putShort(nodeType);
+        switch (nodeType) {
+            case Node.ELEMENT_NODE: {
+                hasher.putBytes(this.getHash((Element) node).asBytes());
+                break;
+            }
+            case Node.PROCESSING_INSTRUCTION_NODE: {
+                putString(hasher, ((ProcessingInstruction) node).getTarget());
+                putString(hasher, ((ProcessingInstruction) node).getData());
+                break;
+            }
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+            case Node.COMMENT_NODE: {
+                putString(hasher, node.getNodeValue());
+                break;
+            }
+            default: {
+                putString(hasher, node.getNodeName());
+            }
+        }
+    }
+    
+    /**
+     * Length prefixed so adjacent strings can't run together
+     */
+    private static void putString(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        }
+        else {
+            hasher.putInt(value.length());
+            hasher.putString(value, Charsets.UTF_8);
+        }
+    }
+}
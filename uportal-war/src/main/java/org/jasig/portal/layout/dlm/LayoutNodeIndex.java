@@ -0,0 +1,302 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Indexes of a layout document for the lookups done on every request: the root folder, the
+ * tabs in order and the channels by functional name. Node ids are not indexed here, 
+ * {@link Document#getElementById(String)} is already a hash lookup for layout documents.
+ * <p>
+ * The indexes are built on first use. Code that modifies the document after that must report
+ * the changes through {@link #nodeAdded(Element)}, {@link #nodeRemoved(Element)} and
+ * {@link #nodeChanged(Element)}. Lookups only block while an index is being built, changes
+ * replace the indexes with updated copies.
+ */
+public class LayoutNodeIndex {
+    private final Document layout;
+    
+    private volatile LayoutStructure structure;
+    private volatile Map<String, List<Element>> channelsByFname;
+    
+    public LayoutNodeIndex(Document layout) {
+        this.layout = layout;
+    }
+    
+    /**
+     * @return The first folder of the layout element, null if there is none
+     */
+    public Element getRootFolder() {
+        return this.getStructure().rootFolder;
+    }
+    
+    /**
+     * @param position 1 based position of the tab among the visible tabs of type regular
+     * @return The ID of the tab, null if there is no tab at that position
+     */
+    public String getTabId(int position) {
+        if (position < 1) {
+            return null;
+        }
+        
+        int visibleTabs = 0;
+        for (final Element tab : this.getStructure().tabs) {
+            if ("regular".equals(tab.getAttribute(Constants.ATT_TYPE)) && "false".equals(tab.getAttribute(Constants.ATT_HIDDEN))) {
+                visibleTabs++;
+                if (visibleTabs == position) {
+                    return tab.getAttribute(Constants.ATT_ID);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * @return The first channel in document order with the fname, null if there is none
+     */
+    public Element getChannel(String fname) {
+        return this.getChannel(null, fname);
+    }
+    
+    /**
+     * @param folderId Only channels below the folder with this ID are considered, null for all channels
+     * @return The first channel in document order with the fname, null if there is none
+     */
+    public Element getChannel(String folderId, String fname) {
+        final List<Element> channels = this.getChannelsByFname().get(fname);
+        if (channels == null) {
+            return null;
+        }
+        
+        Element first = null;
+        for (final Element channel : channels) {
+            if (fname.equals(channel.getAttribute(Constants.ATT_FNAME)) && this.isBelow(channel, folderId)
+                    && (first == null || (channel.compareDocumentPosition(first) & Node.DOCUMENT_POSITION_FOLLOWING) != 0)) {
+                first = channel;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Updates the indexes for an element and its children that were added to the layout
+     */
+    public synchronized void nodeAdded(Element element) {
+        this.structure = null;
+        
+        final Map<String, List<Element>> channelsByFname = this.channelsByFname;
+        if (channelsByFname == null) {
+            return;
+        }
+        
+        final Map<String, List<Element>> updatedChannelsByFname = new HashMap<String, List<Element>>(channelsByFname);
+        for (final Element channel : getChannels(element)) {
+            final String fname = channel.getAttribute(Constants.ATT_FNAME);
+            final List<Element> channels = updatedChannelsByFname.get(fname);
+            if (channels == null) {
+                updatedChannelsByFname.put(fname, Collections.singletonList(channel));
+            }
+            else if (!containsInstance(channels, channel)) {
+                final List<Element> updatedChannels = new ArrayList<Element>(channels.size() + 1);
+                updatedChannels.addAll(channels);
+                updatedChannels.add(channel);
+                updatedChannelsByFname.put(fname, Collections.unmodifiableList(updatedChannels));
+            }
+        }
+        this.channelsByFname = updatedChannelsByFname;
+    }
+    
+    /**
+     * Updates the indexes for an element and its children that were removed from the layout
+     */
+    public synchronized void nodeRemoved(Element element) {
+        this.structure = null;
+        
+        final Map<String, List<Element>> channelsByFname = this.channelsByFname;
+        if (channelsByFname == null) {
+            return;
+        }
+        
+        final Map<String, List<Element>> updatedChannelsByFname = new HashMap<String, List<Element>>(channelsByFname);
+        for (final Element channel : getChannels(element)) {
+            final String fname = channel.getAttribute(Constants.ATT_FNAME);
+            final List<Element> channels = updatedChannelsByFname.get(fname);
+            if (channels != null && containsInstance(channels, channel)) {
+                final List<Element> updatedChannels = new ArrayList<Element>(channels.size());
+                for (final Element e : channels) {
+                    if (e != channel) {
+                        updatedChannels.add(e);
+                    }
+                }
+                
+                if (updatedChannels.isEmpty()) {
+                    updatedChannelsByFname.remove(fname);
+                }
+                else {
+                    updatedChannelsByFname.put(fname, Collections.unmodifiableList(updatedChannels));
+                }
+            }
+        }
+        this.channelsByFname = updatedChannelsByFname;
+    }
+    
+    /**
+     * Updates the indexes for an element and its children that were moved or had attributes changed
+     */
+    public void nodeChanged(Element element) {
+        //Lookups verify the fname of indexed channels so only the current fname needs to be added
+        this.nodeAdded(element);
+    }
+    
+    protected LayoutStructure getStructure() {
+        LayoutStructure structure = this.structure;
+        if (structure == null) {
+            //Built under the lock the change methods clear it with so a structure built from the document
+            //before a change can not be published after the change cleared it
+            synchronized (this) {
+                structure = this.structure;
+                if (structure == null) {
+                    structure = new LayoutStructure(this.layout);
+                    this.structure = structure;
+                }
+            }
+        }
+        return structure;
+    }
+    
+    protected Map<String, List<Element>> getChannelsByFname() {
+        Map<String, List<Element>> channelsByFname = this.channelsByFname;
+        if (channelsByFname == null) {
+            synchronized (this) {
+                channelsByFname = this.channelsByFname;
+                if (channelsByFname == null) {
+                    final Map<String, List<Element>> modifiableChannelsByFname = new HashMap<String, List<Element>>();
+                    final NodeList channels = this.layout.getElementsByTagName(Constants.ELM_CHANNEL);
+                    for (int i = 0; i < channels.getLength(); i++) {
+                        final Element channel = (Element) channels.item(i);
+                        final String fname = channel.getAttribute(Constants.ATT_FNAME);
+                        List<Element> fnameChannels = modifiableChannelsByFname.get(fname);
+                        if (fnameChannels == null) {
+                            fnameChannels = new ArrayList<Element>(1);
+                            modifiableChannelsByFname.put(fname, fnameChannels);
+                        }
+                        fnameChannels.add(channel);
+                    }
+                    
+                    channelsByFname = new HashMap<String, List<Element>>(modifiableChannelsByFname.size());
+                    for (final Map.Entry<String, List<Element>> fnameChannelsEntry : modifiableChannelsByFname.entrySet()) {
+                        channelsByFname.put(fnameChannelsEntry.getKey(), Collections.unmodifiableList(fnameChannelsEntry.getValue()));
+                    }
+                    this.channelsByFname = channelsByFname;
+                }
+            }
+        }
+        return channelsByFname;
+    }
+
+    /**
+     * @return true if the element is part of the layout and below the folder with the ID, any folder if folderId is null
+     */
+    protected boolean isBelow(Element element, String folderId) {
+        boolean belowFolder = folderId == null;
+        for (Node parent = element.getParentNode(); parent != null; parent = parent.getParentNode()) {
+            if (parent == this.layout) {
+                return belowFolder;
+            }
+            if (!belowFolder && Constants.ELM_FOLDER.equals(parent.getNodeName()) 
+                    && folderId.equals(((Element) parent).getAttribute(Constants.ATT_ID))) {
+                belowFolder = true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Element> getChannels(Element element) {
+        final List<Element> channels = new ArrayList<Element>();
+        if (Constants.ELM_CHANNEL.equals(element.getNodeName())) {
+            channels.add(element);
+        }
+        final NodeList childChannels = element.getElementsByTagName(Constants.ELM_CHANNEL);
+        for (int i = 0; i < childChannels.getLength(); i++) {
+            channels.add((Element) childChannels.item(i));
+        }
+        return channels;
+    }
+    
+    private static boolean containsInstance(List<Element> elements, Element element) {
+        for (final Element e : elements) {
+            if (e == element) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * The root folder and the tabs of a layout
+     */
+    private static final class LayoutStructure {
+        private final Element rootFolder;
+        private final List<Element> tabs;
+        
+        public LayoutStructure(Document layout) {
+            final Element layoutElement = layout.getDocumentElement();
+            
+            Element rootFolder = null;
+            if (layoutElement != null && Constants.ELM_LAYOUT.equals(layoutElement.getNodeName())) {
+                rootFolder = getFirstFolder(layoutElement);
+            }
+            this.rootFolder = rootFolder;
+            
+            if (rootFolder == null) {
+                this.tabs = Collections.emptyList();
+            }
+            else {
+                final List<Element> tabs = new ArrayList<Element>();
+                for (Node n = rootFolder.getFirstChild(); n != null; n = n.getNextSibling()) {
+                    if (Constants.ELM_FOLDER.equals(n.getNodeName())) {
+                        tabs.add((Element) n);
+                    }
+                }
+                this.tabs = Collections.unmodifiableList(tabs);
+            }
+        }
+        
+        private static Element getFirstFolder(Element parent) {
+            for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+                if (Constants.ELM_FOLDER.equals(n.getNodeName())) {
+                    return (Element) n;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -20,8 +20,6 @@
 package org.jasig.portal.layout.dlm;
 
 import java.io.StringWriter;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -68,6 +66,8 @@ import org.jasig.portal.layout.StylesheetUserPreferencesImpl;
 import org.jasig.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
+import org.jasig.portal.layout.simple.LayoutStructureRows;
+import org.jasig.portal.layout.simple.LayoutStructureRows.StructRow;
 import org.jasig.portal.layout.simple.RDBMUserLayoutStore;
 import org.jasig.portal.portlet.dao.IPortletEntityDao;
 import org.jasig.portal.portlet.dao.jpa.PortletPreferenceImpl;
@@ -95,6 +95,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.transaction.annotation.Transactional;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -117,6 +118,7 @@ import com.google.common.cache.Cache;
  * @version $Revision$ $Date$
  * @since uPortal 2.5
  */
+@ManagedResource("uPortal:section=Layout,name=UserLayoutStore")
 public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     public static final String RCS_ID = "@(#) $Header$";
     private static final Log LOG = LogFactory.getLog(RDBMDistributedLayoutStore.class);
@@ -1683,14 +1685,13 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     }
 
     @Override
-    protected int saveStructure(Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException {
+    protected int saveStructure(Node node, LayoutStructureRows rows) {
         if (node == null) { // No more
             return 0;
         }
         if (node.getNodeName().equals("parameter")) {
             //parameter, skip it and go on to the next node
-            return this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
+            return this.saveStructure(node.getNextSibling(), rows);
         }
         if (!(node instanceof Element)) {
             return 0;
@@ -1732,40 +1733,30 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         }
 
         if (node.hasChildNodes()) {
-            childStructId = this.saveStructure(node.getFirstChild(), structStmt, parmStmt);
+            childStructId = this.saveStructure(node.getFirstChild(), rows);
         }
-        nextStructId = this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
-        structStmt.clearParameters();
-        structStmt.setInt(1, saveStructId);
-        structStmt.setInt(2, nextStructId);
-        structStmt.setInt(3, childStructId);
-
+        nextStructId = this.saveStructure(node.getNextSibling(), rows);
         final String externalId = structure.getAttribute("external_id");
+        final Integer eID;
         if (externalId != null && externalId.trim().length() > 0) {
-            final Integer eID = new Integer(externalId);
-            structStmt.setInt(4, eID.intValue());
-        }
-        else {
-            structStmt.setNull(4, java.sql.Types.NUMERIC);
-
-        }
-        if (isChannel) {
-            structStmt.setInt(5, chanId);
-            structStmt.setNull(6, java.sql.Types.VARCHAR);
+            eID = new Integer(externalId);
         }
         else {
-            structStmt.setNull(5, java.sql.Types.NUMERIC);
-            structStmt.setString(6, structure.getAttribute("name"));
+            eID = null;
         }
         final String structType = structure.getAttribute("type");
-        structStmt.setString(7, structType);
-        structStmt.setString(8, RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))));
-        structStmt.setString(9, RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))));
-        structStmt.setString(10, RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
+        final StructRow structRow = new StructRow(saveStructId, nextStructId, childStructId, 
+                eID != null ? eID.toString() : null, 
+                isChannel ? chanId : null, 
+                isChannel ? null : structure.getAttribute("name"), 
+                structType,
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))),
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))),
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
         if (LOG.isDebugEnabled()) {
-            LOG.debug(structStmt.toString());
+            LOG.debug(structRow.toString());
         }
-        structStmt.executeUpdate();
+        rows.addStruct(structRow);
 
         // code to persist extension attributes for dlm
         final NamedNodeMap attribs = node.getAttributes();
@@ -1776,14 +1767,10 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             if (name.startsWith(Constants.NS) && !name.equals(Constants.ATT_PLF_ID)
                     && !name.equals(Constants.ATT_FRAGMENT) && !name.equals(Constants.ATT_PRECEDENCE)) {
                 // a cp extension attribute. Push into param table.
-                parmStmt.clearParameters();
-                parmStmt.setInt(1, saveStructId);
-                parmStmt.setString(2, name);
-                parmStmt.setString(3, attrib.getNodeValue());
                 if (LOG.isDebugEnabled()) {
-                    LOG.debug(parmStmt.toString());
+                    LOG.debug("param " + saveStructId + " " + name + "=" + attrib.getNodeValue());
                 }
-                parmStmt.executeUpdate();
+                rows.addParam(saveStructId, name, attrib.getNodeValue());
             }
         }
         final NodeList parameters = node.getChildNodes();
@@ -1804,14 +1791,10 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         // override only for adhoc or if diff from chan def
                         final IPortletDefinitionParameter cp = portletDef.getParameter(parmName);
                         if (cp == null || !cp.getValue().equals(parmValue)) {
-                            parmStmt.clearParameters();
-                            parmStmt.setInt(1, saveStructId);
-                            parmStmt.setString(2, parmName);
-                            parmStmt.setString(3, parmValue);
                             if (LOG.isDebugEnabled()) {
-                                LOG.debug(parmStmt);
+                                LOG.debug("param " + saveStructId + " " + parmName + "=" + parmValue);
                             }
-                            parmStmt.executeUpdate();
+                            rows.addParam(saveStructId, parmName, parmValue);
                         }
                     }
                 }
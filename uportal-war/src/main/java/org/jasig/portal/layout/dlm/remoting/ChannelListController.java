@@ -19,6 +19,8 @@
 
 package org.jasig.portal.layout.dlm.remoting;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -160,11 +162,24 @@ public class ChannelListController {
 	    IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
 		boolean isManage = type.equals(TYPE_MANAGE);
 		
+		// evaluate subscribe permissions for all of the category's channels at once
+		final Set<String> subscribablePortlets;
+		if (isManage) {
+		    subscribablePortlets = Collections.emptySet();
+		}
+		else {
+		    final List<String> portletIds = new ArrayList<String>(portlets.size());
+		    for (IPortletDefinition channelDef : portlets) {
+		        portletIds.add(channelDef.getPortletDefinitionId().getStringId());
+		    }
+		    subscribablePortlets = ap.getSubscribablePortlets(portletIds);
+		}
+		
 		for(IPortletDefinition channelDef : portlets) {
 			
 			if ((isManage && ap.canManage(channelDef.getPortletDefinitionId()
 					.getStringId()))
-					|| (!isManage && ap.canSubscribe(channelDef
+					|| (!isManage && subscribablePortlets.contains(channelDef
 							.getPortletDefinitionId().getStringId()))) {
 				// construct a new channel bean from this channel
 				ChannelBean channel = getChannel(channelDef, request, locale);
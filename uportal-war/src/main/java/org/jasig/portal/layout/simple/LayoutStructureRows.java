@@ -0,0 +1,262 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.simple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jasig.portal.utils.Tuple;
+
+/**
+ * The UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of a user's layout. Comparing the rows of a
+ * layout being saved with the stored rows yields the inserts, updates and deletes needed to
+ * store the layout.
+ */
+public class LayoutStructureRows {
+    private final Map<Integer, StructRow> structs = new LinkedHashMap<Integer, StructRow>();
+    private final Map<Tuple<Integer, String>, String> params = new LinkedHashMap<Tuple<Integer, String>, String>();
+    
+    public void addStruct(StructRow struct) {
+        this.structs.put(struct.getStructId(), struct);
+    }
+    
+    public void addParam(int structId, String name, String value) {
+        this.params.put(new Tuple<Integer, String>(structId, name), value);
+    }
+    
+    /**
+     * @return UP_LAYOUT_STRUCT rows by STRUCT_ID
+     */
+    public Map<Integer, StructRow> getStructs() {
+        return Collections.unmodifiableMap(this.structs);
+    }
+
+    /**
+     * @return UP_LAYOUT_PARAM STRUCT_PARM_VAL by STRUCT_ID and STRUCT_PARM_NM
+     */
+    public Map<Tuple<Integer, String>, String> getParams() {
+        return Collections.unmodifiableMap(this.params);
+    }
+    
+    public int size() {
+        return this.structs.size() + this.params.size();
+    }
+    
+    /**
+     * @return Structs that are not in the stored rows
+     */
+    public List<StructRow> getStructInserts(LayoutStructureRows stored) {
+        final List<StructRow> inserts = new ArrayList<StructRow>();
+        for (final StructRow struct : this.structs.values()) {
+            if (!stored.structs.containsKey(struct.getStructId())) {
+                inserts.add(struct);
+            }
+        }
+        return inserts;
+    }
+    
+    /**
+     * @return Structs that are in the stored rows with different values
+     */
+    public List<StructRow> getStructUpdates(LayoutStructureRows stored) {
+        final List<StructRow> updates = new ArrayList<StructRow>();
+        for (final StructRow struct : this.structs.values()) {
+            final StructRow storedStruct = stored.structs.get(struct.getStructId());
+            if (storedStruct != null && !storedStruct.equals(struct)) {
+                updates.add(struct);
+            }
+        }
+        return updates;
+    }
+    
+    /**
+     * @return IDs of the stored structs that are no longer part of the layout
+     */
+    public List<Integer> getStructDeletes(LayoutStructureRows stored) {
+        final List<Integer> deletes = new ArrayList<Integer>();
+        for (final Integer structId : stored.structs.keySet()) {
+            if (!this.structs.containsKey(structId)) {
+                deletes.add(structId);
+            }
+        }
+        return deletes;
+    }
+    
+    /**
+     * @return Params that are not in the stored rows
+     */
+    public Map<Tuple<Integer, String>, String> getParamInserts(LayoutStructureRows stored) {
+        final Map<Tuple<Integer, String>, String> inserts = new LinkedHashMap<Tuple<Integer, String>, String>();
+        for (final Map.Entry<Tuple<Integer, String>, String> param : this.params.entrySet()) {
+            if (!stored.params.containsKey(param.getKey())) {
+                inserts.put(param.getKey(), param.getValue());
+            }
+        }
+        return inserts;
+    }
+    
+    /**
+     * @return Params that are in the stored rows with a different value
+     */
+    public Map<Tuple<Integer, String>, String> getParamUpdates(LayoutStructureRows stored) {
+        final Map<Tuple<Integer, String>, String> updates = new LinkedHashMap<Tuple<Integer, String>, String>();
+        for (final Map.Entry<Tuple<Integer, String>, String> param : this.params.entrySet()) {
+            final Tuple<Integer, String> key = param.getKey();
+            if (stored.params.containsKey(key) && !StringUtils.defaultString(stored.params.get(key)).equals(StringUtils.defaultString(param.getValue()))) {
+                updates.put(key, param.getValue());
+            }
+        }
+        return updates;
+    }
+    
+    /**
+     * @return Keys of the stored params that are no longer part of the layout
+     */
+    public List<Tuple<Integer, String>> getParamDeletes(LayoutStructureRows stored) {
+        final List<Tuple<Integer, String>> deletes = new ArrayList<Tuple<Integer, String>>();
+        for (final Tuple<Integer, String> key : stored.params.keySet()) {
+            if (!this.params.containsKey(key)) {
+                deletes.add(key);
+            }
+        }
+        return deletes;
+    }
+    
+    /**
+     * A UP_LAYOUT_STRUCT row. Empty strings are equal to null since some databases store them as null.
+     */
+    public static final class StructRow {
+        private final int structId;
+        private final int nextStructId;
+        private final int childStructId;
+        private final String externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final String hidden;
+        private final String immutable;
+        private final String unremovable;
+        
+        public StructRow(int structId, int nextStructId, int childStructId, String externalId, Integer chanId,
+                String name, String type, String hidden, String immutable, String unremovable) {
+            this.structId = structId;
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            this.externalId = StringUtils.trimToNull(externalId);
+            this.chanId = chanId;
+            this.name = StringUtils.defaultIfEmpty(name, null);
+            this.type = StringUtils.defaultIfEmpty(type, null);
+            this.hidden = StringUtils.defaultIfEmpty(hidden, null);
+            this.immutable = StringUtils.defaultIfEmpty(immutable, null);
+            this.unremovable = StringUtils.defaultIfEmpty(unremovable, null);
+        }
+
+        public int getStructId() {
+            return this.structId;
+        }
+
+        public int getNextStructId() {
+            return this.nextStructId;
+        }
+
+        public int getChildStructId() {
+            return this.childStructId;
+        }
+
+        public String getExternalId() {
+            return this.externalId;
+        }
+
+        public Integer getChanId() {
+            return this.chanId;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public String getType() {
+            return this.type;
+        }
+
+        public String getHidden() {
+            return this.hidden;
+        }
+
+        public String getImmutable() {
+            return this.immutable;
+        }
+
+        public String getUnremovable() {
+            return this.unremovable;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + this.structId;
+            result = prime * result + this.nextStructId;
+            result = prime * result + this.childStructId;
+            result = prime * result + ((this.externalId == null) ? 0 : this.externalId.hashCode());
+            result = prime * result + ((this.chanId == null) ? 0 : this.chanId.hashCode());
+            result = prime * result + ((this.name == null) ? 0 : this.name.hashCode());
+            result = prime * result + ((this.type == null) ? 0 : this.type.hashCode());
+            result = prime * result + ((this.hidden == null) ? 0 : this.hidden.hashCode());
+            result = prime * result + ((this.immutable == null) ? 0 : this.immutable.hashCode());
+            result = prime * result + ((this.unremovable == null) ? 0 : this.unremovable.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StructRow)) {
+                return false;
+            }
+            final StructRow other = (StructRow) obj;
+            return this.structId == other.structId
+                    && this.nextStructId == other.nextStructId
+                    && this.childStructId == other.childStructId
+                    && ObjectUtils.equals(this.externalId, other.externalId)
+                    && ObjectUtils.equals(this.chanId, other.chanId)
+                    && ObjectUtils.equals(this.name, other.name)
+                    && ObjectUtils.equals(this.type, other.type)
+                    && ObjectUtils.equals(this.hidden, other.hidden)
+                    && ObjectUtils.equals(this.immutable, other.immutable)
+                    && ObjectUtils.equals(this.unremovable, other.unremovable);
+        }
+
+        @Override
+        public String toString() {
+            return "StructRow [structId=" + this.structId + ", nextStructId=" + this.nextStructId + ", childStructId="
+                    + this.childStructId + ", externalId=" + this.externalId + ", chanId=" + this.chanId + ", name="
+                    + this.name + ", type=" + this.type + ", hidden=" + this.hidden + ", immutable=" + this.immutable
+                    + ", unremovable=" + this.unremovable + "]";
+        }
+    }
+}
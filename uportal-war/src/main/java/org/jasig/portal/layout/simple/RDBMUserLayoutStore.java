@@ -24,6 +24,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -31,6 +32,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Resource;
 import javax.sql.DataSource;
@@ -46,6 +48,7 @@ import org.jasig.portal.jpa.BasePortalJpaDao;
 import org.jasig.portal.layout.IUserLayoutStore;
 import org.jasig.portal.layout.LayoutStructure;
 import org.jasig.portal.layout.dao.IStylesheetDescriptorDao;
+import org.jasig.portal.layout.simple.LayoutStructureRows.StructRow;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.jasig.portal.rdbm.DatabaseMetaDataImpl;
 import org.jasig.portal.rdbm.IDatabaseMetadata;
@@ -57,6 +60,7 @@ import org.jasig.portal.security.provider.PersonImpl;
 import org.jasig.portal.spring.locator.CounterStoreLocator;
 import org.jasig.portal.utils.DocumentFactory;
 import org.jasig.portal.utils.ICounterStore;
+import org.jasig.portal.utils.LatencyHistogram;
 import org.jasig.portal.utils.Tuple;
 import org.jasig.portal.utils.threading.SingletonDoubleCheckedCreator;
 import org.springframework.beans.factory.InitializingBean;
@@ -66,6 +70,7 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 import org.springframework.jdbc.support.SQLExceptionTranslator;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -92,7 +97,7 @@ import com.google.common.cache.Cache;
  * @author George Lindholm
  * @version $Revision$ $Date$
  */
-public abstract class RDBMUserLayoutStore implements IUserLayoutStore, InitializingBean {
+public abstract class RDBMUserLayoutStore implements IUserLayoutStore, InitializingBean, RDBMUserLayoutStoreMXBean {
 
     protected final Log log = LogFactory.getLog(getClass());
     private static String PROFILE_TABLE = "UP_USER_PROFILE";
@@ -115,6 +120,14 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
   protected IStylesheetDescriptorDao stylesheetDescriptorDao;
   protected SQLExceptionTranslator exceptionTranslator;
   
+  /** Loads the structure and parameter rows of a layout along with its INIT_STRUCT_ID */
+  private String layoutQuery;
+  
+  private final LatencyHistogram layoutLoadTimes = new LatencyHistogram();
+  private final LatencyHistogram layoutSaveTimes = new LatencyHistogram();
+  private final AtomicLong changedRowCount = new AtomicLong();
+  private final AtomicLong unchangedRowCount = new AtomicLong();
+  
   // I18n property
   protected static final boolean localeAware = LocaleManager.isLocaleAware();
   
@@ -170,7 +183,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
             if (joinQuery instanceof DatabaseMetaDataImpl.JdbcDb) {
                 joinQuery.addQuery("layout",
-                        "{oj UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.STRUCT_ID = USP.STRUCT_ID} WHERE");
+                        "UP_USER_LAYOUT UUL, {oj UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.LAYOUT_ID = USP.LAYOUT_ID AND ULS.STRUCT_ID = USP.STRUCT_ID} WHERE UUL.USER_ID = ULS.USER_ID AND UUL.LAYOUT_ID = ULS.LAYOUT_ID AND");
                 joinQuery.addQuery("ss_struct",
                         "{oj UP_SS_STRUCT USS LEFT OUTER JOIN UP_SS_STRUCT_PAR USP ON USS.SS_ID=USP.SS_ID} WHERE");
                 joinQuery.addQuery("ss_theme",
@@ -178,7 +191,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
             }
             else if (joinQuery instanceof DatabaseMetaDataImpl.PostgreSQLDb) {
                 joinQuery.addQuery("layout",
-                        "UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.STRUCT_ID = USP.STRUCT_ID WHERE");
+                        "UP_USER_LAYOUT UUL, UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.LAYOUT_ID = USP.LAYOUT_ID AND ULS.STRUCT_ID = USP.STRUCT_ID WHERE UUL.USER_ID = ULS.USER_ID AND UUL.LAYOUT_ID = ULS.LAYOUT_ID AND");
                 joinQuery.addQuery("ss_struct",
                         "UP_SS_STRUCT USS LEFT OUTER JOIN UP_SS_STRUCT_PAR USP ON USS.SS_ID=USP.SS_ID WHERE");
                 joinQuery.addQuery("ss_theme",
@@ -186,7 +199,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
             }
             else if (joinQuery instanceof DatabaseMetaDataImpl.OracleDb) {
                 joinQuery.addQuery("layout",
-                        "UP_LAYOUT_STRUCT ULS, UP_LAYOUT_PARAM USP WHERE ULS.STRUCT_ID = USP.STRUCT_ID(+) AND ULS.USER_ID = USP.USER_ID(+) AND");
+                        "UP_USER_LAYOUT UUL, UP_LAYOUT_STRUCT ULS, UP_LAYOUT_PARAM USP WHERE UUL.USER_ID = ULS.USER_ID AND UUL.LAYOUT_ID = ULS.LAYOUT_ID AND ULS.STRUCT_ID = USP.STRUCT_ID(+) AND ULS.USER_ID = USP.USER_ID(+) AND ULS.LAYOUT_ID = USP.LAYOUT_ID(+) AND");
                 joinQuery.addQuery("ss_struct",
                         "UP_SS_STRUCT USS, UP_SS_STRUCT_PAR USP WHERE USS.SS_ID=USP.SS_ID(+) AND");
                 joinQuery.addQuery("ss_theme", "UP_SS_THEME UTS, UP_SS_THEME_PARM UTP WHERE UTS.SS_ID=UTP.SS_ID(+) AND");
@@ -196,6 +209,18 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
             }
         }
 
+        // Built once so every layout load executes the same statement text with bound parameters
+        final StringBuilder layoutQuery = new StringBuilder(
+                "SELECT UUL.INIT_STRUCT_ID,ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,ULS.TYPE," +
+                "ULS.HIDDEN,ULS.UNREMOVABLE,ULS.IMMUTABLE");
+        if (this.databaseMetadata.supportsOuterJoins()) {
+            layoutQuery.append(",USP.STRUCT_PARM_NM,USP.STRUCT_PARM_VAL FROM ").append(this.databaseMetadata.getJoinQuery().getQuery("layout"));
+        }
+        else {
+            layoutQuery.append(" FROM UP_USER_LAYOUT UUL, UP_LAYOUT_STRUCT ULS WHERE UUL.USER_ID = ULS.USER_ID AND UUL.LAYOUT_ID = ULS.LAYOUT_ID AND");
+        }
+        layoutQuery.append(" ULS.USER_ID=? AND ULS.LAYOUT_ID=? ORDER BY ULS.STRUCT_ID");
+        this.layoutQuery = layoutQuery.toString();
     }
   
     private final SingletonDoubleCheckedCreator<IPerson> systemPersonCreator = new SingletonDoubleCheckedCreator<IPerson>() {
@@ -282,34 +307,6 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
       return (approvedDate != null && rightNow.after(approvedDate));
    }
 
-  /**
-   * Create a layout
-   * @param layoutStructure
-   * @param doc
-   * @param root
-   * @param structId
-   * @exception java.sql.SQLException
-   */
-   protected final void createLayout (HashMap layoutStructure, Document doc,
-        Element root, int structId) throws java.sql.SQLException {
-      while (structId != 0) {
-        LayoutStructure ls = (LayoutStructure) layoutStructure.get(new Integer(structId));
-        // replaced with call to method in containing class to allow overriding
-        // by subclasses of RDBMUserLayoutStore.
-        // Element structure = ls.getStructureDocument(doc);
-        Element structure = getStructure(doc, ls);
-        root.appendChild(structure);
-
-        String id = structure.getAttribute("ID");
-        if (id != null && ! id.equals("")) {
-            structure.setIdAttribute("ID", true);
-        }
-
-        createLayout(layoutStructure, doc,  structure, ls.getChildId());
-        structId = ls.getNextId();
-      }
-  }
-
   /**
    * convert true/false into Y/N for database
    * @param value to check
@@ -621,316 +618,363 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
         @Override
         public Document doInConnection(Connection con) throws SQLException, DataAccessException {
 
-      ResultSet rs;
+      final long start = System.nanoTime();
       int userId = person.getID();
       final int realUserId = userId;
       Document doc = DocumentFactory.getThreadDocument();
       Element root = doc.createElement("layout");
-      final Statement stmt = con.createStatement();
-      // A separate statement is needed so as not to interfere with ResultSet
-      // of statements used for queries
-      Statement insertStmt = con.createStatement();
-      try {
-        long startTime = System.currentTimeMillis();
-        // eventually, we need to fix template layout implementations so you can just do this:
-        //        int layoutId=profile.getLayoutId();
-        // but for now:
-        int layoutId = getLayoutID(userId, profile.getProfileId());
-
-       if (layoutId == 0) { // First time, grab the default layout for this user
-           final Tuple<Integer, Integer> userLayoutIds = transactionOperations.execute(new TransactionCallback<Tuple<Integer, Integer>>() {
-               @Override
-               public Tuple<Integer, Integer> doInTransaction(TransactionStatus status) {
-                   return jdbcOperations.execute(new ConnectionCallback<Tuple<Integer, Integer>>() {
-                       @Override
-                       public Tuple<Integer, Integer> doInConnection(Connection con) throws SQLException, DataAccessException {
-              
-              int newLayoutId;
-              int newUserId;
-              
-              String sQuery = "SELECT USER_DFLT_USR_ID, USER_DFLT_LAY_ID FROM UP_USER WHERE USER_ID=" + realUserId;
-              if (log.isDebugEnabled())
-                  log.debug("RDBMUserLayoutStore::getUserLayout(): " + sQuery);
-              ResultSet rs = stmt.executeQuery(sQuery);
-              try {
-                boolean hasRow = rs.next();
-                newUserId = rs.getInt(1);
-                newLayoutId = rs.getInt(2);
-              } finally {
-                rs.close();
-              }
-    
-              // Make sure the next struct id is set in case the user adds a channel
-              sQuery = "SELECT NEXT_STRUCT_ID FROM UP_USER WHERE USER_ID=" + newUserId;
-              if (log.isDebugEnabled())
-                  log.debug("RDBMUserLayoutStore::getUserLayout(): " + sQuery);
-              int nextStructId;
-              rs = stmt.executeQuery(sQuery);
-              try {
-                boolean hasRow = rs.next();
-                nextStructId = rs.getInt(1);
-              } finally {
-                rs.close();
-              }
-    
-              int realNextStructId = 0;
-    
-              if (realUserId != newUserId) {
-                // But never make the existing value SMALLER, change it only to make it LARGER
-                // (so, get existing value)
-                sQuery = "SELECT NEXT_STRUCT_ID FROM UP_USER WHERE USER_ID=" + realUserId;
-                if (log.isDebugEnabled())
-                    log.debug("RDBMUserLayoutStore::getUserLayout(): " + sQuery);
-                rs = stmt.executeQuery(sQuery);
-                try {
-                  boolean hasRow = rs.next();
-                  realNextStructId = rs.getInt(1);
-                } finally {
-                  rs.close();
-                }
+
+      // eventually, we need to fix template layout implementations so you can just do this:
+      //        int layoutId=profile.getLayoutId();
+      // but for now:
+      int layoutId = getLayoutID(userId, profile.getProfileId());
+
+      if (layoutId == 0) { // First time, grab the default layout for this user
+          final Tuple<Integer, Integer> userLayoutIds = transactionOperations.execute(new TransactionCallback<Tuple<Integer, Integer>>() {
+              @Override
+              public Tuple<Integer, Integer> doInTransaction(TransactionStatus status) {
+                  return jdbcOperations.execute(new ConnectionCallback<Tuple<Integer, Integer>>() {
+                      @Override
+                      public Tuple<Integer, Integer> doInConnection(Connection con) throws SQLException, DataAccessException {
+                          return initDefaultLayoutIds(con, realUserId);
+                      }
+                  });
               }
-    
-              if (nextStructId > realNextStructId) {
-                sQuery = "UPDATE UP_USER SET NEXT_STRUCT_ID=" + nextStructId + " WHERE USER_ID=" + realUserId;
-                if (log.isDebugEnabled())
-                    log.debug("RDBMUserLayoutStore::getUserLayout(): " + sQuery);
-                stmt.executeUpdate(sQuery);
+          });
+
+          userId = userLayoutIds.first;
+          layoutId = userLayoutIds.second;
+      }
+
+      final String locale = localeAware ? localeManager.getLocales()[0].toString() : null;
+
+      //Try the layout of the current user, if there isn't one fall back to the layout of the template user.
+      PersonalLayoutBuilder layoutBuilder = loadPersonalLayout(con, doc, userId, layoutId, locale);
+      if (layoutBuilder.isEmpty()) {
+          checkUserLayout(con, userId, layoutId);
+
+          if (userId == realUserId) {
+              final Tuple<Integer, Integer> defaultLayoutIds = getDefaultLayoutIds(con, userId);
+              userId = defaultLayoutIds.first;
+              layoutId = defaultLayoutIds.second;
+              layoutBuilder = loadPersonalLayout(con, doc, userId, layoutId, locale);
+              if (layoutBuilder.isEmpty()) {
+                  checkUserLayout(con, userId, layoutId);
               }
-              
-              return new Tuple<Integer, Integer>(newUserId, newLayoutId);
-              
-                       }
-                   });
-               }
-           });
-           
-           userId = userLayoutIds.first;
-           layoutId = userLayoutIds.second;
-        }
+          }
+      }
 
-        int firstStructId = -1;
+      if (!layoutBuilder.isEmpty()) { // We have a layout to work with
+          layoutBuilder.linkStructure(root);
+          doc.appendChild(root);
+      }
 
-        //Flags to enable a default layout lookup if it's needed
-        boolean foundLayout = false;
-        boolean triedDefault = false;
+      final long time = System.nanoTime() - start;
+      layoutLoadTimes.record(time / 1000);
+      if (log.isDebugEnabled()) {
+          log.debug("RDBMUserLayoutStore::getUserLayout(): Layout document for user " + userId + " took " +
+            (time / 1000000) + " milliseconds to create");
+      }
 
-        //This loop is used to ensure a layout is found for a user. It tries
-        //looking up the layout for the current userID. If one isn't found
-        //the userID is replaced with the template user ID for this user and
-        //the layout is searched for again. This loop should only ever loop once.
-        do {
-            String sQuery = "SELECT INIT_STRUCT_ID FROM UP_USER_LAYOUT WHERE USER_ID=" + userId + " AND LAYOUT_ID = " + layoutId;
-            if (log.isDebugEnabled())
-                log.debug("RDBMUserLayoutStore::getUserLayout(): " + sQuery);
-            rs = stmt.executeQuery(sQuery);
-            try {
-              if (rs.next()) {
-                firstStructId = rs.getInt(1);
-              } else {
-                throw new RuntimeException("RDBMUserLayoutStore::getUserLayout(): No INIT_STRUCT_ID in UP_USER_LAYOUT for USER_ID: " + userId + " and LAYOUT_ID: " + layoutId);
+      return  doc;
+        }
+    });
+  }
+
+  /**
+   * Point a user without a layout at the layout of their template user, making sure the next struct id of
+   * the user is past the struct ids of the template layout in case the user adds a channel.
+   * 
+   * @return The template user id and layout id
+   */
+  private Tuple<Integer, Integer> initDefaultLayoutIds(Connection con, int userId) throws SQLException {
+      final String sql = "SELECT U.USER_DFLT_USR_ID, U.USER_DFLT_LAY_ID, U.NEXT_STRUCT_ID, D.NEXT_STRUCT_ID " +
+              "FROM UP_USER U, UP_USER D WHERE U.USER_ID=? AND D.USER_ID=U.USER_DFLT_USR_ID";
+      final int defaultUserId;
+      final int defaultLayoutId;
+      final int nextStructId;
+      final int defaultNextStructId;
+      PreparedStatement pstmt = con.prepareStatement(sql);
+      try {
+          pstmt.setInt(1, userId);
+          if (log.isDebugEnabled())
+              log.debug("RDBMUserLayoutStore::getUserLayout(userId=" + userId + "): " + sql);
+          final ResultSet rs = pstmt.executeQuery();
+          try {
+              if (!rs.next()) {
+                  throw new RuntimeException("RDBMUserLayoutStore::getUserLayout(): No template user in UP_USER for USER_ID: " + userId);
               }
-            } finally {
+              defaultUserId = rs.getInt(1);
+              defaultLayoutId = rs.getInt(2);
+              nextStructId = rs.getInt(3);
+              defaultNextStructId = rs.getInt(4);
+          } finally {
               rs.close();
-            }
+          }
+      } finally {
+          pstmt.close();
+      }
 
-            String sql;
-            if (localeAware) {
-                // This needs to be changed to get the localized strings
-                sql = "SELECT ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,ULS.TYPE,ULS.HIDDEN,"+
-              "ULS.UNREMOVABLE,ULS.IMMUTABLE";
-            }  else {
-                sql = "SELECT ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,ULS.TYPE,ULS.HIDDEN,"+
-              "ULS.UNREMOVABLE,ULS.IMMUTABLE";
-            }
-            if (databaseMetadata.supportsOuterJoins()) {
-              sql += ",USP.STRUCT_PARM_NM,USP.STRUCT_PARM_VAL FROM " + databaseMetadata.getJoinQuery().getQuery("layout");
-            } else {
-              sql += " FROM UP_LAYOUT_STRUCT ULS WHERE ";
-            }
-            sql += " ULS.USER_ID=" + userId + " AND ULS.LAYOUT_ID=" + layoutId + " ORDER BY ULS.STRUCT_ID";
-            if (log.isDebugEnabled())
-                log.debug("RDBMUserLayoutStore::getUserLayout(): " + sql);
-            rs = stmt.executeQuery(sql);
-
-            //check for rows in the result set
-            foundLayout = rs.next();
-
-            if (!foundLayout && !triedDefault && userId == realUserId) {
-                //If we didn't find any rows and we haven't tried the default user yet
-                triedDefault = true;
-                rs.close();
-
-                //Get the default user ID and layout ID
-                sQuery = "SELECT USER_DFLT_USR_ID, USER_DFLT_LAY_ID FROM UP_USER WHERE USER_ID=" + userId;
-                if (log.isDebugEnabled())
-                    log.debug("RDBMUserLayoutStore::getUserLayout(): " + sQuery);
-                rs = stmt.executeQuery(sQuery);
-                try {
-                  rs.next();
-                  userId = rs.getInt(1);
-                  layoutId = rs.getInt(2);
-                } finally {
-                  rs.close();
-                }
-            }
-            else {
-                //We tried the default or actually found a layout
-                break;
-            }
-        } while (!foundLayout);
+      // Never make the existing value SMALLER, change it only to make it LARGER
+      if (userId != defaultUserId && defaultNextStructId > nextStructId) {
+          final String update = "UPDATE UP_USER SET NEXT_STRUCT_ID=? WHERE USER_ID=?";
+          pstmt = con.prepareStatement(update);
+          try {
+              pstmt.setInt(1, defaultNextStructId);
+              pstmt.setInt(2, userId);
+              if (log.isDebugEnabled())
+                  log.debug("RDBMUserLayoutStore::getUserLayout(userId=" + userId + ", nextStructId=" + defaultNextStructId + "): " + update);
+              pstmt.executeUpdate();
+          } finally {
+              pstmt.close();
+          }
+      }
 
-        HashMap layoutStructure = new HashMap();
-        StringBuffer structChanIds = new StringBuffer();
+      return new Tuple<Integer, Integer>(defaultUserId, defaultLayoutId);
+  }
 
-        try {
-          int lastStructId = 0;
-          LayoutStructure ls = null;
-          String sepChar = "";
-          if (foundLayout) {
-            int structId = rs.getInt(1);
-            // Result Set returns 0 by default if structId was null
-            // Except if you are using poolman 2.0.4 in which case you get -1 back
-            if (rs.wasNull()) {
-              structId = 0;
-            }
-            readLayout: while (true) {
+  /**
+   * @return The template user id and layout id of the user
+   */
+  private Tuple<Integer, Integer> getDefaultLayoutIds(Connection con, int userId) throws SQLException {
+      final String sql = "SELECT USER_DFLT_USR_ID, USER_DFLT_LAY_ID FROM UP_USER WHERE USER_ID=?";
+      final PreparedStatement pstmt = con.prepareStatement(sql);
+      try {
+          pstmt.setInt(1, userId);
+          if (log.isDebugEnabled())
+              log.debug("RDBMUserLayoutStore::getUserLayout(userId=" + userId + "): " + sql);
+          final ResultSet rs = pstmt.executeQuery();
+          try {
+              rs.next();
+              return new Tuple<Integer, Integer>(rs.getInt(1), rs.getInt(2));
+          } finally {
+              rs.close();
+          }
+      } finally {
+          pstmt.close();
+      }
+  }
 
-              int nextId = rs.getInt(2);
-              if (rs.wasNull()) {
-                nextId = 0;
-              }
-              int childId = rs.getInt(3);
-              if (rs.wasNull()) {
-                childId = 0;
-              }
-              int chanId = rs.getInt(4);
-              if (rs.wasNull()) {
-                chanId = 0;
-              }
-              String temp5=rs.getString(5); // Some JDBC drivers require columns accessed in order
-              String temp6=rs.getString(6); // Access 5 and 6 now, save till needed.
-
-              // uPortal i18n
-              int name_index, value_index;
-              if (localeAware) {
-                Locale[] locales = localeManager.getLocales();
-                String locale = locales[0].toString();
-				ls = new LayoutStructure(
-                              structId, nextId, childId, chanId, 
-                              rs.getString(7),rs.getString(8),rs.getString(9),
-                              locale);
-                  name_index=10;
-                  value_index=11;
-              }  else {
-                  ls = new LayoutStructure(structId, nextId, childId, chanId, rs.getString(7),rs.getString(8),rs.getString(9));
-                  name_index=10;
-                  value_index=11;
-              }
-              layoutStructure.put(new Integer(structId), ls);
-              lastStructId = structId;
-              if (!ls.isChannel()) {
-                ls.addFolderData(temp5, temp6); // Plug in saved column values
-              }
-              if (databaseMetadata.supportsOuterJoins()) {
-                do {
-                  String name = rs.getString(name_index);
-                  String value = rs.getString(value_index); // Oracle JDBC requires us to do this for longs
-                  if (name != null) { // may not be there because of the join
-                    ls.addParameter(name, value);
-                  }
-                  if (!rs.next()) {
-                    break readLayout;
-                  }
-                  structId = rs.getInt(1);
-                  if (rs.wasNull()) {
-                    structId = 0;
-                  }
-                } while (structId == lastStructId);
-              } else { // Do second SELECT later on for structure parameters
-                if (ls.isChannel()) {
-                  structChanIds.append(sepChar + ls.getChanId());
-                  sepChar = ",";
-                }
-                if (rs.next()) {
-                  structId = rs.getInt(1);
-                  if (rs.wasNull()) {
-                    structId = 0;
-                  }
-                } else {
-                  break readLayout;
-                }
+  /**
+   * Only used when a layout has no structure rows, the layout query doesn't distinguish between a missing
+   * UP_USER_LAYOUT row and an empty layout.
+   * 
+   * @throws RuntimeException If the user has no UP_USER_LAYOUT row for the layout
+   */
+  private void checkUserLayout(Connection con, int userId, int layoutId) throws SQLException {
+      final String sql = "SELECT INIT_STRUCT_ID FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
+      final PreparedStatement pstmt = con.prepareStatement(sql);
+      try {
+          pstmt.setInt(1, userId);
+          pstmt.setInt(2, layoutId);
+          if (log.isDebugEnabled())
+              log.debug("RDBMUserLayoutStore::getUserLayout(userId=" + userId + ", layoutId=" + layoutId + "): " + sql);
+          final ResultSet rs = pstmt.executeQuery();
+          try {
+              if (!rs.next()) {
+                  throw new RuntimeException("RDBMUserLayoutStore::getUserLayout(): No INIT_STRUCT_ID in UP_USER_LAYOUT for USER_ID: " + userId + " and LAYOUT_ID: " + layoutId);
               }
-            } // while
+          } finally {
+              rs.close();
           }
-        } finally {
-          rs.close();
-        }
+      } finally {
+          pstmt.close();
+      }
+  }
 
-        if (!databaseMetadata.supportsOuterJoins()) { // Pick up structure parameters
-          // first, get the struct ids for the channels
-          String sql = "SELECT STRUCT_ID FROM UP_LAYOUT_STRUCT WHERE USER_ID=" + userId +
-            " AND LAYOUT_ID=" + layoutId +
-            " AND CHAN_ID IN (" + structChanIds.toString() + ") ORDER BY STRUCT_ID";
+  /**
+   * Load the UP_USER_LAYOUT, UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of a layout with a single query, creating
+   * the element of each structure as soon as all of its rows have been read.
+   */
+  private PersonalLayoutBuilder loadPersonalLayout(Connection con, Document doc, int userId, int layoutId, String locale) throws SQLException {
+      final PersonalLayoutBuilder layoutBuilder = new PersonalLayoutBuilder(doc);
+      final boolean outerJoins = this.databaseMetadata.supportsOuterJoins();
 
+      final PreparedStatement pstmt = con.prepareStatement(this.layoutQuery);
+      try {
+          pstmt.setInt(1, userId);
+          pstmt.setInt(2, layoutId);
           if (log.isDebugEnabled())
-              log.debug("RDBMUserLayoutStore::getUserLayout(): " + sql);
-          StringBuffer structIdsSB = new StringBuffer( "" );
-          String sep = "";
-          rs = stmt.executeQuery(sql);
+              log.debug("RDBMUserLayoutStore::getUserLayout(userId=" + userId + ", layoutId=" + layoutId + "): " + this.layoutQuery);
+          final ResultSet rs = pstmt.executeQuery();
           try {
-            // use the results to build a correct list of struct ids to look for
-            while( rs.next()) {
-              structIdsSB.append(sep + rs.getString(1));
-              sep = ",";
-            }// while
+              LayoutStructure ls = null;
+              while (rs.next()) {
+                  layoutBuilder.setFirstStructId(rs.getInt(1));
+                  final int structId = rs.getInt(2);
+
+                  if (ls == null || ls.getStructId() != structId) {
+                      if (outerJoins) {
+                          layoutBuilder.addStructure(ls);
+                      }
+
+                      final int nextId = rs.getInt(3);
+                      final int childId = rs.getInt(4);
+                      final int chanId = rs.getInt(5);
+                      final String name = rs.getString(6); // Some JDBC drivers require columns accessed in order
+                      final String type = rs.getString(7);
+                      if (locale != null) {
+                          ls = new LayoutStructure(structId, nextId, childId, chanId, rs.getString(8), rs.getString(9), rs.getString(10), locale);
+                      } else {
+                          ls = new LayoutStructure(structId, nextId, childId, chanId, rs.getString(8), rs.getString(9), rs.getString(10));
+                      }
+                      if (!ls.isChannel()) {
+                          ls.addFolderData(name, type);
+                      }
+                  }
+
+                  if (outerJoins) {
+                      final String paramName = rs.getString(11);
+                      final String paramValue = rs.getString(12); // Oracle JDBC requires us to do this for longs
+                      if (paramName != null) { // may not be there because of the join
+                          ls.addParameter(paramName, paramValue);
+                      }
+                  }
+                  else {
+                      layoutBuilder.addPendingStructure(ls);
+                  }
+              }
+
+              if (outerJoins) {
+                  layoutBuilder.addStructure(ls);
+              }
           } finally {
-            rs.close();
-          } // be a good doobie
+              rs.close();
+          }
+      } finally {
+          pstmt.close();
+      }
 
+      if (!outerJoins && !layoutBuilder.isEmpty()) {
+          this.loadPersonalLayoutParameters(con, layoutBuilder, userId, layoutId);
+      }
 
-          sql = "SELECT STRUCT_ID, STRUCT_PARM_NM,STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=" + userId + " AND LAYOUT_ID=" + layoutId +
-            " AND STRUCT_ID IN (" + structIdsSB.toString() + ") ORDER BY STRUCT_ID";
+      return layoutBuilder;
+  }
+
+  /**
+   * Second query for the UP_LAYOUT_PARAM rows of a layout when the database doesn't support outer joins
+   */
+  private void loadPersonalLayoutParameters(Connection con, PersonalLayoutBuilder layoutBuilder, int userId, int layoutId) throws SQLException {
+      final String sql = "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+      final PreparedStatement pstmt = con.prepareStatement(sql);
+      try {
+          pstmt.setInt(1, userId);
+          pstmt.setInt(2, layoutId);
           if (log.isDebugEnabled())
-              log.debug("RDBMUserLayoutStore::getUserLayout(): " + sql);
-          rs = stmt.executeQuery(sql);
+              log.debug("RDBMUserLayoutStore::getUserLayout(userId=" + userId + ", layoutId=" + layoutId + "): " + sql);
+          final ResultSet rs = pstmt.executeQuery();
           try {
-            if (rs.next()) {
-              int structId = rs.getInt(1);
-              readParm: while(true) {
-                LayoutStructure ls = (LayoutStructure)layoutStructure.get(new Integer(structId));
-                int lastStructId = structId;
-                do {
-                  ls.addParameter(rs.getString(2), rs.getString(3));
-                  if (!rs.next()) {
-                    break readParm;
-                  }
-                } while ((structId = rs.getInt(1)) == lastStructId);
+              while (rs.next()) {
+                  layoutBuilder.addPendingParameter(rs.getInt(1), rs.getString(2), rs.getString(3));
               }
-            }
           } finally {
-            rs.close();
+              rs.close();
           }
-        }
+      } finally {
+          pstmt.close();
+      }
+
+      layoutBuilder.addPendingStructures();
+  }
 
-        if (layoutStructure.size() > 0) { // We have a layout to work with
-          createLayout(layoutStructure, doc, root, firstStructId);
-          layoutStructure.clear();
+  /**
+   * Builds the layout document from the UP_LAYOUT_STRUCT rows. The element for each structure is created as
+   * soon as its row and parameters have been read, the NEXT_STRUCT_ID/CHLD_STRUCT_ID linked lists are then
+   * turned into the document tree by appending each sibling list to its parent.
+   */
+  private final class PersonalLayoutBuilder {
+      private final Document doc;
+      private final Map<Integer, StructureNode> nodes = new HashMap<Integer, StructureNode>();
+      private Map<Integer, LayoutStructure> pendingStructures;
+      private int firstStructId;
+
+      public PersonalLayoutBuilder(Document doc) {
+          this.doc = doc;
+      }
+
+      public void setFirstStructId(int firstStructId) {
+          this.firstStructId = firstStructId;
+      }
+
+      public boolean isEmpty() {
+          return this.nodes.isEmpty() && (this.pendingStructures == null || this.pendingStructures.isEmpty());
+      }
 
-          if (log.isDebugEnabled()) {
-              long stopTime = System.currentTimeMillis();
-              log.debug("RDBMUserLayoutStore::getUserLayout(): Layout document for user " + userId + " took " +
-                (stopTime - startTime) + " milliseconds to create");
+      /**
+       * Create the element for a structure that has all of its parameters
+       */
+      public void addStructure(LayoutStructure ls) {
+          if (ls == null) {
+              return;
           }
 
-          doc.appendChild(root);
-        }
-      } finally {
-        stmt.close();
-        insertStmt.close();
+          final Element structure = getStructure(this.doc, ls);
+          final String id = structure.getAttribute("ID");
+          if (id != null && !id.equals("")) {
+              structure.setIdAttribute("ID", true);
+          }
+
+          this.nodes.put(ls.getStructId(), new StructureNode(structure, ls.getNextId(), ls.getChildId()));
+      }
+
+      /**
+       * Hold on to a structure until its parameters are read by a separate query
+       */
+      public void addPendingStructure(LayoutStructure ls) {
+          if (this.pendingStructures == null) {
+              this.pendingStructures = new HashMap<Integer, LayoutStructure>();
+          }
+          this.pendingStructures.put(ls.getStructId(), ls);
+      }
+
+      public void addPendingParameter(int structId, String name, String value) {
+          final LayoutStructure ls = this.pendingStructures.get(structId);
+          if (ls != null) {
+              ls.addParameter(name, value);
+          }
+      }
+
+      public void addPendingStructures() {
+          for (final LayoutStructure ls : this.pendingStructures.values()) {
+              this.addStructure(ls);
+          }
+          this.pendingStructures = null;
+      }
+
+      /**
+       * Append each sibling list to its parent element, structures not reachable from the first structure
+       * are not added to the layout.
+       */
+      public void linkStructure(Element root) {
+          this.appendSiblings(root, this.firstStructId);
+          for (final StructureNode node : this.nodes.values()) {
+              this.appendSiblings(node.element, node.childId);
+          }
+      }
+
+      private void appendSiblings(Element parent, int structId) {
+          while (structId != 0) {
+              final StructureNode node = this.nodes.get(structId);
+              if (node == null) {
+                  return;
+              }
+              parent.appendChild(node.element);
+              structId = node.nextId;
+          }
+      }
+  }
+
+  private static final class StructureNode {
+      private final Element element;
+      private final int nextId;
+      private final int childId;
+
+      public StructureNode(Element element, int nextId, int childId) {
+          this.element = element;
+          this.nextId = nextId;
+          this.childId = childId;
       }
-      return  doc;
-        }
-    });
   }
 
   public IUserProfile getUserProfileById (final IPerson person, final int profileId) {
@@ -1166,7 +1210,12 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
   protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-  protected abstract int saveStructure (Node node, PreparedStatement structStmt, PreparedStatement parmStmt) throws SQLException;
+  /**
+   * Add the rows for the node, its children and its following siblings to the layout rows
+   * 
+   * @return The struct id of the node, 0 if it has no row
+   */
+  protected abstract int saveStructure (Node node, LayoutStructureRows rows);
 
   public void setUserBrowserMapping (final IPerson person, final String userAgentArg, final int profileId) {
 	  final int userId = person.getID();
@@ -1231,15 +1280,20 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
    */
   public void setUserLayout(final IPerson person, final IUserProfile profile, final Document layoutXML, final boolean channelsAdded) {
       final long startTime = System.currentTimeMillis();
+      final long start = System.nanoTime();
       final int userId = person.getID();
       final int profileId = profile.getProfileId();
 
-      this.transactionOperations.execute(new TransactionCallback<Object>() {
+      // Convert the layout to rows before starting the transaction to keep it short
+      final LayoutStructureRows layoutRows = new LayoutStructureRows();
+      final int firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), layoutRows);
+
+      final Integer changedRows = this.transactionOperations.execute(new TransactionCallback<Integer>() {
           @Override
-          public Object doInTransaction(TransactionStatus status) {
-              return jdbcOperations.execute(new ConnectionCallback<Object>() {
+          public Integer doInTransaction(TransactionStatus status) {
+              return jdbcOperations.execute(new ConnectionCallback<Integer>() {
                   @Override
-                  public Object doInConnection(Connection con) throws SQLException, DataAccessException {
+                  public Integer doInConnection(Connection con) throws SQLException, DataAccessException {
 
           int layoutId = 0;
           ResultSet rs;
@@ -1255,50 +1309,16 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
               firstLayout = true;
           }
 
-          String sql = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-          PreparedStatement pstmt = con.prepareStatement(sql);
-          try {
-              pstmt.clearParameters();
-              pstmt.setInt(1, userId);
-              pstmt.setInt(2, layoutId);
-              if (log.isDebugEnabled())
-                  log.debug(sql);
-              pstmt.executeUpdate();
-          } finally {
-              pstmt.close();
-          }
+          // Lock the layout so concurrent saves for the user diff against the rows the previous save stored
+          lockUserLayout(con, userId, layoutId);
 
-          sql = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-          pstmt = con.prepareStatement(sql);
-          try {
-              pstmt.clearParameters();
-              pstmt.setInt(1, userId);
-              pstmt.setInt(2, layoutId);
-              if (log.isDebugEnabled())
-                log.debug(sql);
-              pstmt.executeUpdate();
-          } finally {
-              pstmt.close();
-          }
-
-          PreparedStatement structStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_STRUCT "
-                  + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                  + "VALUES (" + userId + "," + layoutId + ",?,?,?,?,?,?,?,?,?,?)");
-
-          PreparedStatement parmStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_PARAM "
-                  + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) " + "VALUES (" + userId + "," + layoutId + ",?,?,?)");
-
-          int firstStructId;
-          try {
-              firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), structStmt, parmStmt);
-          } finally {
-              structStmt.close();
-              parmStmt.close();
-          }
+          // Only write the rows that differ from the stored layout
+          final LayoutStructureRows storedRows = getLayoutStructureRows(con, userId, layoutId);
+          final int changedRows = saveLayoutStructureRows(con, userId, layoutId, storedRows, layoutRows);
 
           //Check to see if the user has a matching layout
-          sql = "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
-          pstmt = con.prepareStatement(sql);
+          String sql = "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
+          PreparedStatement pstmt = con.prepareStatement(sql);
           try {
               pstmt.clearParameters();
               pstmt.setInt(1, userId);
@@ -1454,17 +1474,318 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
               }
           }
           
-          return null;
+          return changedRows;
                   }
               });
           }
       });
+      
+      this.layoutSaveTimes.record((System.nanoTime() - start) / 1000);
+      this.changedRowCount.addAndGet(changedRows);
+      this.unchangedRowCount.addAndGet(Math.max(0, layoutRows.size() - changedRows));
+      
       if (log.isDebugEnabled()) {
           long stopTime = System.currentTimeMillis();
-          log.debug("RDBMUserLayoutStore::setUserLayout(): Layout document for user " + userId + " took " + (stopTime - startTime) + " milliseconds to save");
+          log.debug("RDBMUserLayoutStore::setUserLayout(): Layout document for user " + userId + " took " + (stopTime - startTime) + " milliseconds to save, " + changedRows + " of " + layoutRows.size() + " rows changed");
+      }
+  }
+
+  /**
+   * Lock the layout of the user until the transaction ends. Locks the UP_USER_LAYOUT row of the layout, or the
+   * UP_USER row of the user if the layout has not been saved yet. The rows are locked with an update that sets a
+   * column to its own value, SELECT ... FOR UPDATE is not supported by every database.
+   */
+  protected void lockUserLayout(Connection con, int userId, int layoutId) throws SQLException {
+      if (!lockRow(con, "UPDATE UP_USER_LAYOUT SET INIT_STRUCT_ID=INIT_STRUCT_ID WHERE USER_ID=? AND LAYOUT_ID=?", userId, layoutId)) {
+          lockRow(con, "UPDATE UP_USER SET USER_DFLT_USR_ID=USER_DFLT_USR_ID WHERE USER_ID=?", userId);
+      }
+  }
+
+  /**
+   * @return true if the update found a row to lock
+   */
+  private boolean lockRow(Connection con, String sql, int... ids) throws SQLException {
+      final PreparedStatement pstmt = con.prepareStatement(sql);
+      try {
+          for (int i = 0; i < ids.length; i++) {
+              pstmt.setInt(i + 1, ids[i]);
+          }
+          if (log.isDebugEnabled())
+              log.debug(sql);
+          return pstmt.executeUpdate() > 0;
+      } finally {
+          pstmt.close();
       }
   }
 
+  /**
+   * Load the stored UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of a layout
+   */
+  protected LayoutStructureRows getLayoutStructureRows(Connection con, int userId, int layoutId) throws SQLException {
+      final LayoutStructureRows rows = new LayoutStructureRows();
+
+      String sql = "SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE " +
+              "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
+      PreparedStatement pstmt = con.prepareStatement(sql);
+      try {
+          pstmt.setInt(1, userId);
+          pstmt.setInt(2, layoutId);
+          if (log.isDebugEnabled())
+              log.debug(sql);
+          final ResultSet rs = pstmt.executeQuery();
+          try {
+              while (rs.next()) {
+                  final int chanIdValue = rs.getInt(5);
+                  final Integer chanId = rs.wasNull() ? null : chanIdValue;
+                  rows.addStruct(new StructRow(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), chanId, 
+                          rs.getString(6), rs.getString(7), rs.getString(8), rs.getString(9), rs.getString(10)));
+              }
+          } finally {
+              rs.close();
+          }
+      } finally {
+          pstmt.close();
+      }
+
+      sql = "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
+      pstmt = con.prepareStatement(sql);
+      try {
+          pstmt.setInt(1, userId);
+          pstmt.setInt(2, layoutId);
+          if (log.isDebugEnabled())
+              log.debug(sql);
+          final ResultSet rs = pstmt.executeQuery();
+          try {
+              while (rs.next()) {
+                  rows.addParam(rs.getInt(1), rs.getString(2), rs.getString(3));
+              }
+          } finally {
+              rs.close();
+          }
+      } finally {
+          pstmt.close();
+      }
+
+      return rows;
+  }
+
+  /**
+   * Apply the differences between the stored rows and the rows of the layout being saved using JDBC batches
+   * 
+   * @return The number of rows inserted, updated and deleted
+   */
+  protected int saveLayoutStructureRows(Connection con, final int userId, final int layoutId, 
+          LayoutStructureRows storedRows, LayoutStructureRows layoutRows) throws SQLException {
+      
+      int changedRows = 0;
+
+      changedRows += executeBatch(con, 
+              "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?",
+              layoutRows.getParamDeletes(storedRows), 
+              new ParameterizedPreparedStatementSetter<Tuple<Integer, String>>() {
+                  @Override
+                  public void setValues(PreparedStatement ps, Tuple<Integer, String> param) throws SQLException {
+                      ps.setInt(1, userId);
+                      ps.setInt(2, layoutId);
+                      ps.setInt(3, param.first);
+                      ps.setString(4, param.second);
+                  }
+              });
+
+      changedRows += executeBatch(con, 
+              "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?",
+              layoutRows.getStructDeletes(storedRows), 
+              new ParameterizedPreparedStatementSetter<Integer>() {
+                  @Override
+                  public void setValues(PreparedStatement ps, Integer structId) throws SQLException {
+                      ps.setInt(1, userId);
+                      ps.setInt(2, layoutId);
+                      ps.setInt(3, structId);
+                  }
+              });
+
+      changedRows += executeBatch(con, 
+              "UPDATE UP_LAYOUT_STRUCT SET NEXT_STRUCT_ID=?, CHLD_STRUCT_ID=?, EXTERNAL_ID=?, CHAN_ID=?, NAME=?, TYPE=?, HIDDEN=?, IMMUTABLE=?, UNREMOVABLE=? " +
+              "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?",
+              layoutRows.getStructUpdates(storedRows), 
+              new ParameterizedPreparedStatementSetter<StructRow>() {
+                  @Override
+                  public void setValues(PreparedStatement ps, StructRow struct) throws SQLException {
+                      setStructValues(ps, 1, struct);
+                      ps.setInt(10, userId);
+                      ps.setInt(11, layoutId);
+                      ps.setInt(12, struct.getStructId());
+                  }
+              });
+
+      changedRows += executeBatch(con, 
+              "INSERT INTO UP_LAYOUT_STRUCT " +
+              "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE) " +
+              "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)",
+              layoutRows.getStructInserts(storedRows), 
+              new ParameterizedPreparedStatementSetter<StructRow>() {
+                  @Override
+                  public void setValues(PreparedStatement ps, StructRow struct) throws SQLException {
+                      ps.setInt(1, userId);
+                      ps.setInt(2, layoutId);
+                      ps.setInt(3, struct.getStructId());
+                      setStructValues(ps, 4, struct);
+                  }
+              });
+
+      changedRows += executeBatch(con, 
+              "UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?",
+              layoutRows.getParamUpdates(storedRows).entrySet(), 
+              new ParameterizedPreparedStatementSetter<Map.Entry<Tuple<Integer, String>, String>>() {
+                  @Override
+                  public void setValues(PreparedStatement ps, Map.Entry<Tuple<Integer, String>, String> param) throws SQLException {
+                      ps.setString(1, param.getValue());
+                      ps.setInt(2, userId);
+                      ps.setInt(3, layoutId);
+                      ps.setInt(4, param.getKey().first);
+                      ps.setString(5, param.getKey().second);
+                  }
+              });
+
+      changedRows += executeBatch(con, 
+              "INSERT INTO UP_LAYOUT_PARAM (USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) VALUES (?,?,?,?,?)",
+              layoutRows.getParamInserts(storedRows).entrySet(), 
+              new ParameterizedPreparedStatementSetter<Map.Entry<Tuple<Integer, String>, String>>() {
+                  @Override
+                  public void setValues(PreparedStatement ps, Map.Entry<Tuple<Integer, String>, String> param) throws SQLException {
+                      ps.setInt(1, userId);
+                      ps.setInt(2, layoutId);
+                      ps.setInt(3, param.getKey().first);
+                      ps.setString(4, param.getKey().second);
+                      ps.setString(5, param.getValue());
+                  }
+              });
+      
+      return changedRows;
+  }
+
+  /**
+   * Sets NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE and UNREMOVABLE
+   * starting at the specified parameter index
+   */
+  private void setStructValues(PreparedStatement ps, int index, StructRow struct) throws SQLException {
+      ps.setInt(index, struct.getNextStructId());
+      ps.setInt(index + 1, struct.getChildStructId());
+      if (struct.getExternalId() != null) {
+          ps.setInt(index + 2, Integer.parseInt(struct.getExternalId()));
+      } else {
+          ps.setNull(index + 2, java.sql.Types.NUMERIC);
+      }
+      if (struct.getChanId() != null) {
+          ps.setInt(index + 3, struct.getChanId());
+      } else {
+          ps.setNull(index + 3, java.sql.Types.NUMERIC);
+      }
+      if (struct.getName() != null) {
+          ps.setString(index + 4, struct.getName());
+      } else {
+          ps.setNull(index + 4, java.sql.Types.VARCHAR);
+      }
+      ps.setString(index + 5, struct.getType());
+      ps.setString(index + 6, struct.getHidden());
+      ps.setString(index + 7, struct.getImmutable());
+      ps.setString(index + 8, struct.getUnremovable());
+  }
+
+  /**
+   * Execute the statement as a single JDBC batch with one entry per row
+   * 
+   * @return The number of rows in the batch
+   */
+  private <T> int executeBatch(Connection con, String sql, Collection<T> rows, ParameterizedPreparedStatementSetter<T> setter) throws SQLException {
+      if (rows.isEmpty()) {
+          return 0;
+      }
+      
+      final PreparedStatement pstmt = con.prepareStatement(sql);
+      try {
+          if (log.isDebugEnabled())
+              log.debug(sql + " x " + rows.size());
+          for (final T row : rows) {
+              setter.setValues(pstmt, row);
+              pstmt.addBatch();
+          }
+          pstmt.executeBatch();
+      } finally {
+          pstmt.close();
+      }
+      
+      return rows.size();
+  }
+
+  @Override
+  public long getLayoutLoadCount() {
+      return this.layoutLoadTimes.getCount();
+  }
+
+  @Override
+  public double getLayoutLoadTimeMean() {
+      return this.layoutLoadTimes.getMean() / 1000;
+  }
+
+  @Override
+  public double getLayoutLoadTimeMedian() {
+      return this.layoutLoadTimes.getValueAtPercentile(50) / 1000d;
+  }
+
+  @Override
+  public double getLayoutLoadTime99thPercentile() {
+      return this.layoutLoadTimes.getValueAtPercentile(99) / 1000d;
+  }
+
+  @Override
+  public double getLayoutLoadTimeMax() {
+      return this.layoutLoadTimes.getMax() / 1000d;
+  }
+
+  @Override
+  public long getLayoutSaveCount() {
+      return this.layoutSaveTimes.getCount();
+  }
+
+  @Override
+  public double getLayoutSaveTimeMean() {
+      return this.layoutSaveTimes.getMean() / 1000;
+  }
+
+  @Override
+  public double getLayoutSaveTimeMedian() {
+      return this.layoutSaveTimes.getValueAtPercentile(50) / 1000d;
+  }
+
+  @Override
+  public double getLayoutSaveTime99thPercentile() {
+      return this.layoutSaveTimes.getValueAtPercentile(99) / 1000d;
+  }
+
+  @Override
+  public double getLayoutSaveTimeMax() {
+      return this.layoutSaveTimes.getMax() / 1000d;
+  }
+
+  @Override
+  public long getChangedRowCount() {
+      return this.changedRowCount.get();
+  }
+
+  @Override
+  public long getUnchangedRowCount() {
+      return this.unchangedRowCount.get();
+  }
+
+  @Override
+  public void resetStatistics() {
+      this.layoutLoadTimes.reset();
+      this.layoutSaveTimes.reset();
+      this.changedRowCount.set(0);
+      this.unchangedRowCount.set(0);
+  }
+
   public void updateUserProfile (final IPerson person, final IUserProfile profile) {
     final int userId = person.getID();
     this.transactionOperations.execute(new TransactionCallback<Object>() {
@@ -0,0 +1,90 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.simple;
+
+/**
+ * JMX view of the layout loads and saves done by the {@link RDBMUserLayoutStore}
+ */
+public interface RDBMUserLayoutStoreMXBean {
+    /**
+     * @return Number of personal layouts loaded
+     */
+    long getLayoutLoadCount();
+    
+    /**
+     * @return Mean time in milliseconds to load a personal layout
+     */
+    double getLayoutLoadTimeMean();
+    
+    /**
+     * @return Median time in milliseconds to load a personal layout
+     */
+    double getLayoutLoadTimeMedian();
+    
+    /**
+     * @return 99th percentile time in milliseconds to load a personal layout
+     */
+    double getLayoutLoadTime99thPercentile();
+    
+    /**
+     * @return Longest time in milliseconds to load a personal layout
+     */
+    double getLayoutLoadTimeMax();
+    
+    /**
+     * @return Number of layouts saved
+     */
+    long getLayoutSaveCount();
+    
+    /**
+     * @return Mean time in milliseconds to save a layout
+     */
+    double getLayoutSaveTimeMean();
+    
+    /**
+     * @return Median time in milliseconds to save a layout
+     */
+    double getLayoutSaveTimeMedian();
+    
+    /**
+     * @return 99th percentile time in milliseconds to save a layout
+     */
+    double getLayoutSaveTime99thPercentile();
+    
+    /**
+     * @return Longest time in milliseconds to save a layout
+     */
+    double getLayoutSaveTimeMax();
+    
+    /**
+     * @return Number of UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows inserted, updated or deleted by layout saves
+     */
+    long getChangedRowCount();
+    
+    /**
+     * @return Number of UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows layout saves left untouched since they were unchanged
+     */
+    long getUnchangedRowCount();
+    
+    /**
+     * Reset the layout load and save statistics
+     */
+    void resetStatistics();
+}
@@ -167,19 +167,13 @@ public class SimpleLayout implements IUserLayout {
 
     @Override
     public String getNodeId(String fname) throws PortalException {
-        String nodeId = null;
-        NodeList nl = layout.getElementsByTagName("channel");
-        for (int i = 0; i < nl.getLength(); i++) {
-            Node node = nl.item(i);
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Element channelE = (Element)node;
-                if (fname.equals(channelE.getAttribute("fname"))) {
-                    nodeId = channelE.getAttribute("ID");
-                    break;
-                }
-            }
-        }
-        return nodeId;
+        final Element channelE = this.userLayout.getNodeIndex().getChannel(fname);
+        return channelE != null ? channelE.getAttribute("ID") : null;
+    }
+    
+    @Override
+    public String getTabId(int position) {
+        return this.userLayout.getNodeIndex().getTabId(position);
     }
     
     /* (non-Javadoc)
@@ -224,20 +218,12 @@ public class SimpleLayout implements IUserLayout {
 
     @Override
     public String getRootId() {
-        String rootNode = null;
-        try {
-            
-            String expression = "/layout/folder";
-            XPathFactory fac = XPathFactory.newInstance();
-            XPath xpath = fac.newXPath();
-            Element rootNodeE = (Element) xpath.evaluate(expression, layout, 
-                    XPathConstants.NODE);
-            
-            rootNode = rootNodeE.getAttribute("ID");
-        } catch (Exception e) {
-            log.error("Error getting root id.", e);
+        final Element rootNodeE = this.userLayout.getNodeIndex().getRootFolder();
+        if (rootNodeE == null) {
+            log.error("Error getting root id, the layout has no root folder.");
+            return null;
         }
-        return rootNode;
+        return rootNodeE.getAttribute("ID");
     }
 
     @Override
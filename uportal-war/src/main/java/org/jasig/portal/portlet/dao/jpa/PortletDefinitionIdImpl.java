@@ -60,4 +60,8 @@ class PortletDefinitionIdImpl extends AbstractObjectId implements IPortletDefini
     public long getLongId() {
         return this.longId;
     }
+    
+    private Object readResolve() {
+        return create(this.longId);
+    }
 }
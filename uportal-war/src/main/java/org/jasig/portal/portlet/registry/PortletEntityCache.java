@@ -19,117 +19,80 @@
 
 package org.jasig.portal.portlet.registry;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jasig.portal.portlet.om.IPortletEntityDescriptor;
 import org.jasig.portal.portlet.om.IPortletEntityId;
-import org.jasig.portal.utils.threading.NoopLock;
 
 import com.google.common.base.Function;
 
 /**
- * Utility for caching portlet entities and entity data in memory. Ensures a consistent view for accessing the data by
- * different sets of keys
+ * Utility for caching portlet entities and entity data in memory, indexed by entity id and by subscribe key
+ * <br/>
+ * Reads never block, the entities are kept in concurrent maps. The two indexes are updated one after the other
+ * without a lock, so a reader running concurrently with a store or remove may briefly see an entity in one index
+ * and not the other. Only the entities themselves are written when the cache is serialized, the subscribe key
+ * index is rebuilt when it is read back.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  * @param <T>
  */
 class PortletEntityCache<T extends IPortletEntityDescriptor> implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     
-    private final Lock writeLock;
-    private final Lock readLock;
-    
-    private final Map<SubscribeKey, T> entitiesBySubscribeKey = new HashMap<SubscribeKey, T>();
-    private final Map<IPortletEntityId, T> entitiesById = new HashMap<IPortletEntityId, T>();
+    private transient ConcurrentMap<SubscribeKey, T> entitiesBySubscribeKey;
+    private transient ConcurrentMap<IPortletEntityId, T> entitiesById;
     
     public PortletEntityCache() {
         this(true);
     }
     
     /**
-     * @param threadSafe If set to false no locking is done around read or write operations and this class is NOT thread safe
+     * @param threadSafe If set to false the cache is sized for access by a single thread, it remains safe to use from multiple threads
      */
     public PortletEntityCache(boolean threadSafe) {
-        if (threadSafe) {
-            final ReadWriteLock cacheLock = new ReentrantReadWriteLock(true);
-            writeLock = cacheLock.writeLock();
-            readLock = cacheLock.readLock();
-        }
-        else {
-            writeLock = NoopLock.INSTANCE;
-            readLock = NoopLock.INSTANCE;
-        }
+        this.init(threadSafe ? 4 : 1);
+    }
+    
+    private void init(int concurrencyLevel) {
+        this.entitiesBySubscribeKey = new ConcurrentHashMap<SubscribeKey, T>(16, 0.75f, concurrencyLevel);
+        this.entitiesById = new ConcurrentHashMap<IPortletEntityId, T>(16, 0.75f, concurrencyLevel);
     }
     
     public T storeIfAbsentEntity(IPortletEntityId portletEntityId, Function<IPortletEntityId, T> entityCreator) {
-        //Check if the entity already exists (uses a read lock)
-        T existingEntity = this.getEntity(portletEntityId);
+        final T existingEntity = this.entitiesById.get(portletEntityId);
         if (existingEntity != null) {
             return existingEntity;
         }
         
-        writeLock.lock();
-        try {
-            //Check again inside the write lock
-            existingEntity = this.entitiesById.get(portletEntityId);
-            if (existingEntity != null) {
-                return existingEntity;
-            }
-            
-            final T entity = entityCreator.apply(portletEntityId);
-            
-            this.storeEntity(entity);
-            
-            return entity;
-        }
-        finally {
-            writeLock.unlock();
-        }
+        //The creator may run concurrently for the same id, only the first entity stored is used
+        final T entity = entityCreator.apply(portletEntityId);
+        return this.storeIfAbsentEntity(entity);
     }
     
     public T storeIfAbsentEntity(T entity) {
-        final IPortletEntityId portletEntityId = entity.getPortletEntityId();
-        
-        //Check if the entity already exists (uses a read lock)
-        T existingEntity = this.getEntity(portletEntityId);
+        final T existingEntity = this.entitiesById.putIfAbsent(entity.getPortletEntityId(), entity);
         if (existingEntity != null) {
             return existingEntity;
         }
         
-        writeLock.lock();
-        try {
-            //Check again inside the write lock
-            existingEntity = this.entitiesById.get(portletEntityId);
-            if (existingEntity != null) {
-                return existingEntity;
-            }
-            
-            this.storeEntity(entity);
-        }
-        finally {
-            writeLock.unlock();
-        }
-        
+        final SubscribeKey subscribeKey = new SubscribeKey(entity.getUserId(), entity.getLayoutNodeId());
+        this.entitiesBySubscribeKey.put(subscribeKey, entity);
         return entity;
     }
     
     public void storeEntity(T entity) {
-        writeLock.lock();
-        try {
-            final SubscribeKey subscribeKey = new SubscribeKey(entity.getUserId(), entity.getLayoutNodeId());
-            this.entitiesBySubscribeKey.put(subscribeKey, entity);
-            this.entitiesById.put(entity.getPortletEntityId(), entity);
-        }
-        finally {
-            writeLock.unlock();
-        }
+        final SubscribeKey subscribeKey = new SubscribeKey(entity.getUserId(), entity.getLayoutNodeId());
+        this.entitiesBySubscribeKey.put(subscribeKey, entity);
+        this.entitiesById.put(entity.getPortletEntityId(), entity);
     }
     
     public T getEntity(String layoutNodeId, int userId) {
@@ -137,43 +100,44 @@ class PortletEntityCache<T extends IPortletEntityDescriptor> implements Serializ
             return null;
         }
         
-        readLock.lock();
-        try {
-            final SubscribeKey subscribeKey = new SubscribeKey(userId, layoutNodeId);
-            return this.entitiesBySubscribeKey.get(subscribeKey);
-        }
-        finally {
-            readLock.unlock();
-        }
+        final SubscribeKey subscribeKey = new SubscribeKey(userId, layoutNodeId);
+        return this.entitiesBySubscribeKey.get(subscribeKey);
     }
     
     public T getEntity(IPortletEntityId portletEntityId) {
-        if (this.entitiesById.isEmpty()) {
-            return null;
+        return this.entitiesById.get(portletEntityId);
+    }
+    
+    public void removeEntity(IPortletEntityId portletEntityId) {
+        final T entity = this.entitiesById.remove(portletEntityId);
+        if (entity != null) {
+            final int userId = entity.getUserId();
+            final String layoutNodeId = entity.getLayoutNodeId();
+            final SubscribeKey subscribeKey = new SubscribeKey(userId, layoutNodeId);
+            this.entitiesBySubscribeKey.remove(subscribeKey, entity);
         }
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
         
-        readLock.lock();
-        try {
-            return this.entitiesById.get(portletEntityId);
-        }
-        finally {
-            readLock.unlock();
+        //Snapshot the entities, the maps may be modified while the session is being serialized
+        final List<T> entities = new ArrayList<T>(this.entitiesById.values());
+        out.writeInt(entities.size());
+        for (final T entity : entities) {
+            out.writeObject(entity);
         }
     }
     
-    public void removeEntity(IPortletEntityId portletEntityId) {
-        writeLock.lock();
-        try {
-            final T entity = this.entitiesById.remove(portletEntityId);
-            if (entity != null) {
-                final int userId = entity.getUserId();
-                final String layoutNodeId = entity.getLayoutNodeId();
-                final SubscribeKey subscribeKey = new SubscribeKey(userId, layoutNodeId);
-                this.entitiesBySubscribeKey.remove(subscribeKey);
-            }
-        }
-        finally {
-            writeLock.unlock();
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        
+        this.init(4);
+        
+        final int entityCount = in.readInt();
+        for (int i = 0; i < entityCount; i++) {
+            this.storeEntity((T) in.readObject());
         }
     }
-}
\ No newline at end of file
+}
@@ -22,22 +22,33 @@ package org.jasig.portal.portlet.registry;
 import org.jasig.portal.portlet.om.IPortletDefinitionId;
 import org.jasig.portal.portlet.om.IPortletEntityId;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
- * Standard IPortletEntityId
+ * Standard IPortletEntityId. Instances are interned so every session and request referencing an entity shares a
+ * single id object, the composite string id is not serialized and is rebuilt when the id is read back.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 class PortletEntityIdImpl implements IPortletEntityId {
     private static final long serialVersionUID = 1L;
+    
+    private static final Interner<PortletEntityIdImpl> INTERNER = Interners.newWeakInterner();
+    
+    public static PortletEntityIdImpl create(IPortletDefinitionId portletDefinitionId, String layoutNodeId, int userId) {
+        final String compositeIdString = portletDefinitionId.getStringId() + PortletEntityRegistryImpl.ID_PART_SEPERATOR + layoutNodeId + PortletEntityRegistryImpl.ID_PART_SEPERATOR + userId;
+        return INTERNER.intern(new PortletEntityIdImpl(portletDefinitionId, layoutNodeId, userId, compositeIdString));
+    }
 
     private final IPortletDefinitionId portletDefinitionId;
     private final String layoutNodeId;
     private final int userId;
     
-    private final String compositeIdString;
+    private final transient String compositeIdString;
     
-    public PortletEntityIdImpl(IPortletDefinitionId portletDefinitionId, String layoutNodeId, int userId, String compositeIdString) {
+    private PortletEntityIdImpl(IPortletDefinitionId portletDefinitionId, String layoutNodeId, int userId, String compositeIdString) {
         this.portletDefinitionId = portletDefinitionId;
         this.layoutNodeId = layoutNodeId;
         this.userId = userId;
@@ -55,8 +66,10 @@ class PortletEntityIdImpl implements IPortletEntityId {
     public int getUserId() {
         return this.userId;
     }
-
-
+    
+    private Object readResolve() {
+        return create(this.portletDefinitionId, this.layoutNodeId, this.userId);
+    }
 
     /* (non-Javadoc)
      * @see org.jasig.portal.portlet.om.IObjectId#getStringId()
@@ -104,6 +117,6 @@ class PortletEntityIdImpl implements IPortletEntityId {
 
     @Override
     public String toString() {
-        return this.compositeIdString.toString();
+        return this.compositeIdString;
     }
 }
@@ -633,8 +633,7 @@ public class PortletEntityRegistryImpl implements IPortletEntityRegistry {
     }
 
     protected IPortletEntityId createConsistentPortletEntityId(IPortletDefinitionId portletDefinitionId, String layoutNodeId, int userId) {
-        final String compositeId = portletDefinitionId.getStringId() + ID_PART_SEPERATOR + layoutNodeId + ID_PART_SEPERATOR + userId;
-        return new PortletEntityIdImpl(portletDefinitionId, layoutNodeId, userId, compositeId);
+        return PortletEntityIdImpl.create(portletDefinitionId, layoutNodeId, userId);
     }
 
     protected IPortletEntityId parseConsistentPortletEntityId(HttpServletRequest request, String consistentEntityIdString) {
@@ -728,13 +727,20 @@ public class PortletEntityRegistryImpl implements IPortletEntityRegistry {
         return cache;
     }
     
+    @SuppressWarnings("unchecked")
     protected PortletEntityCache<PortletEntityData> getPortletEntityDataMap(HttpServletRequest request) {
         request = portalRequestUtils.getOriginalPortalRequest(request);
         final HttpSession session = request.getSession();
+        
+        //The cache is thread safe, only lock the session when it needs to be created
+        PortletEntityCache<PortletEntityData> cache = (PortletEntityCache<PortletEntityData>)session.getAttribute(PORTLET_ENTITY_DATA_ATTRIBUTE);
+        if (cache != null) {
+            return cache;
+        }
+        
         final Object mutex = WebUtils.getSessionMutex(session);
         synchronized (mutex) {
-            @SuppressWarnings("unchecked")
-            PortletEntityCache<PortletEntityData> cache = (PortletEntityCache<PortletEntityData>)session.getAttribute(PORTLET_ENTITY_DATA_ATTRIBUTE);
+            cache = (PortletEntityCache<PortletEntityData>)session.getAttribute(PORTLET_ENTITY_DATA_ATTRIBUTE);
             if (cache == null) {
                 cache = new PortletEntityCache<PortletEntityData>();
                 session.setAttribute(PORTLET_ENTITY_DATA_ATTRIBUTE, cache);
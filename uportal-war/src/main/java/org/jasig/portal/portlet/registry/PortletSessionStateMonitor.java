@@ -0,0 +1,154 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.registry;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpSession;
+
+import org.jasig.portal.utils.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Samples the serialized size of the portlet window and entity state the registries keep in the session. Every
+ * {@link #setSampleInterval(int)} lookups the session state is serialized to a counting stream, the cost of a sample
+ * is the same as the cost of replicating or passivating the state.
+ */
+@Service
+@ManagedResource("uPortal:section=Portlets,name=PortletSessionStateMonitor")
+public class PortletSessionStateMonitor implements PortletSessionStateMonitorMXBean {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final LatencyHistogram sessionBytes = new LatencyHistogram();
+    private final LatencyHistogram windowDataBytes = new LatencyHistogram();
+    private final LatencyHistogram entityDataBytes = new LatencyHistogram();
+    
+    private int sampleInterval = 1000;
+    
+    /**
+     * Sample one in this many session state lookups, set to 0 to disable sampling
+     */
+    @Value("${org.jasig.portal.portlet.registry.PortletSessionStateMonitor.sampleInterval:1000}")
+    public void setSampleInterval(int sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+    
+    /**
+     * Called each time the portlet session state is looked up, the state is measured if the lookup is sampled
+     */
+    public void sessionStateAccessed(HttpSession session) {
+        final int interval = this.sampleInterval;
+        if (interval <= 0 || this.lookupCount.incrementAndGet() % interval != 0) {
+            return;
+        }
+        
+        final long windowBytes;
+        final long entityBytes;
+        try {
+            windowBytes = this.getSerializedSize(session.getAttribute(PortletWindowRegistryImpl.PORTLET_WINDOW_DATA_ATTRIBUTE));
+            entityBytes = this.getSerializedSize(session.getAttribute(PortletEntityRegistryImpl.PORTLET_ENTITY_DATA_ATTRIBUTE));
+        }
+        catch (IllegalStateException e) {
+            //Session was invalidated, nothing to measure
+            return;
+        }
+        catch (IOException e) {
+            this.logger.warn("Failed to measure the serialized size of the portlet state in session " + session.getId(), e);
+            return;
+        }
+        
+        this.windowDataBytes.record(windowBytes);
+        this.entityDataBytes.record(entityBytes);
+        this.sessionBytes.record(windowBytes + entityBytes);
+    }
+    
+    /**
+     * @return The number of bytes the object serializes to, 0 for null
+     */
+    protected long getSerializedSize(Object state) throws IOException {
+        if (state == null) {
+            return 0;
+        }
+        
+        final CountingOutputStream countingStream = new CountingOutputStream(ByteStreams.nullOutputStream());
+        final ObjectOutputStream objectStream = new ObjectOutputStream(countingStream);
+        objectStream.writeObject(state);
+        objectStream.close();
+        
+        return countingStream.getCount();
+    }
+
+    @Override
+    public int getSampleInterval() {
+        return this.sampleInterval;
+    }
+
+    @Override
+    public long getSampleCount() {
+        return this.sessionBytes.getCount();
+    }
+
+    @Override
+    public double getSessionBytesMean() {
+        return this.sessionBytes.getMean();
+    }
+
+    @Override
+    public long getSessionBytesMedian() {
+        return this.sessionBytes.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getSessionBytes99thPercentile() {
+        return this.sessionBytes.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getSessionBytesMax() {
+        return this.sessionBytes.getMax();
+    }
+
+    @Override
+    public double getWindowDataBytesMean() {
+        return this.windowDataBytes.getMean();
+    }
+
+    @Override
+    public double getEntityDataBytesMean() {
+        return this.entityDataBytes.getMean();
+    }
+
+    @Override
+    public void resetStatistics() {
+        this.sessionBytes.reset();
+        this.windowDataBytes.reset();
+        this.entityDataBytes.reset();
+    }
+}
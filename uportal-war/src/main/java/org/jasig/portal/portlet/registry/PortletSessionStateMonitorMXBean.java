@@ -0,0 +1,70 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.registry;
+
+/**
+ * JMX view of the {@link PortletSessionStateMonitor}
+ */
+public interface PortletSessionStateMonitorMXBean {
+    /**
+     * @return One in this many portlet session state lookups is sampled, 0 if sampling is disabled
+     */
+    int getSampleInterval();
+    
+    /**
+     * @return Number of sessions sampled since the statistics were last reset
+     */
+    long getSampleCount();
+    
+    /**
+     * @return Mean serialized size in bytes of the portlet window and entity state of a user's session
+     */
+    double getSessionBytesMean();
+    
+    /**
+     * @return Median serialized size in bytes of the portlet window and entity state of a user's session
+     */
+    long getSessionBytesMedian();
+    
+    /**
+     * @return 99th percentile serialized size in bytes of the portlet window and entity state of a user's session
+     */
+    long getSessionBytes99thPercentile();
+    
+    /**
+     * @return Largest serialized size in bytes of the portlet window and entity state of a user's session
+     */
+    long getSessionBytesMax();
+    
+    /**
+     * @return Mean serialized size in bytes of the portlet window state of a user's session
+     */
+    double getWindowDataBytesMean();
+    
+    /**
+     * @return Mean serialized size in bytes of the portlet entity state of a user's session
+     */
+    double getEntityDataBytesMean();
+    
+    /**
+     * Reset the session size statistics
+     */
+    void resetStatistics();
+}
@@ -19,138 +19,95 @@
 
 package org.jasig.portal.portlet.registry;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.jasig.portal.portlet.om.IPortletEntityId;
 import org.jasig.portal.portlet.om.IPortletWindowDescriptor;
 import org.jasig.portal.portlet.om.IPortletWindowId;
-import org.jasig.portal.utils.threading.NoopLock;
 
 import com.google.common.base.Function;
 
 /**
- * Utility for caching portlet windows and window data in memory. Ensures a consistent view for accessing the data by
- * different sets of keys
+ * Utility for caching portlet windows and window data in memory, indexed by window id and by entity id
+ * <br/>
+ * Reads never block, the windows are kept in concurrent maps and the per entity window sets are copy-on-write as
+ * there are rarely more than a few windows per entity. The two indexes are updated one after the other without a
+ * lock, so a reader running concurrently with a store or remove may briefly find a window by id that is not yet in
+ * (or is already gone from) its entity's window set. Only the windows themselves are written when the cache is
+ * serialized, the entity index is rebuilt when it is read back.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  * @param <T>
  */
 class PortletWindowCache<T extends IPortletWindowDescriptor> implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     
-    private final Lock writeLock;
-    private final Lock readLock;
-    
-    private final Map<IPortletEntityId, Set<T>> windowSetByEntityId = new HashMap<IPortletEntityId, Set<T>>();
-    private final Map<IPortletWindowId, T> windowsById = new HashMap<IPortletWindowId, T>();
+    private transient ConcurrentMap<IPortletEntityId, Set<T>> windowSetByEntityId;
+    private transient ConcurrentMap<IPortletWindowId, T> windowsById;
     
     public PortletWindowCache() {
         this(true);
     }
     
     /**
-     * @param threadSafe If set to false no locking is done around read or write operations and this class is NOT thread safe
+     * @param threadSafe If set to false the cache is sized for access by a single thread, it remains safe to use from multiple threads
      */
     public PortletWindowCache(boolean threadSafe) {
-        if (threadSafe) {
-            final ReadWriteLock cacheLock = new ReentrantReadWriteLock(true);
-            writeLock = cacheLock.writeLock();
-            readLock = cacheLock.readLock();
-        }
-        else {
-            writeLock = NoopLock.INSTANCE;
-            readLock = NoopLock.INSTANCE;
-        }
+        this.init(threadSafe ? 4 : 1);
+    }
+    
+    private void init(int concurrencyLevel) {
+        this.windowSetByEntityId = new ConcurrentHashMap<IPortletEntityId, Set<T>>(16, 0.75f, concurrencyLevel);
+        this.windowsById = new ConcurrentHashMap<IPortletWindowId, T>(16, 0.75f, concurrencyLevel);
     }
     
     public T storeIfAbsentWindow(IPortletWindowId portletWindowId, Function<IPortletWindowId, T> windowCreator) {
-        //Check if the entity already exists (uses a read lock)
-        T existingWindow = this.getWindow(portletWindowId);
+        final T existingWindow = this.windowsById.get(portletWindowId);
         if (existingWindow != null) {
             return existingWindow;
         }
         
-        writeLock.lock();
-        try {
-            //Check again inside the write lock
-            existingWindow = this.windowsById.get(portletWindowId);
-            if (existingWindow != null) {
-                return existingWindow;
-            }
-            
-            final T window = windowCreator.apply(portletWindowId);
-
-            this.storeWindow(window);
-            
-            return window;
-        }
-        finally {
-            writeLock.unlock();
-        }
+        //The creator may run concurrently for the same id, only the first window stored is used
+        final T window = windowCreator.apply(portletWindowId);
+        return this.storeIfAbsentWindow(window);
     }
     
     public T storeIfAbsentWindow(T window) {
         final IPortletWindowId portletWindowId = window.getPortletWindowId();
         
-        //Check if the entity already exists (uses a read lock)
-        T existingWindow = this.getWindow(portletWindowId);
+        final T existingWindow = this.windowsById.putIfAbsent(portletWindowId, window);
         if (existingWindow != null) {
             return existingWindow;
         }
         
-        writeLock.lock();
-        try {
-            //Check again inside the write lock
-            existingWindow = this.windowsById.get(portletWindowId);
-            if (existingWindow != null) {
-                return existingWindow;
-            }
-            
-            this.storeWindow(window);
-        }
-        finally {
-            writeLock.unlock();
-        }
-        
+        this.getWindowSet(window.getPortletEntityId(), true).add(window);
         return window;
     }
     
     public void storeWindow(T window) {
-        writeLock.lock();
-        try {
-            final IPortletEntityId portletEntityId = window.getPortletEntityId();
-            final Set<T> windowSet = this.getWindowSet(portletEntityId, true);
-            windowSet.add(window);
-            
-            final IPortletWindowId portletWindowId = window.getPortletWindowId();
-            this.windowsById.put(portletWindowId, window);
-        }
-        finally {
-            writeLock.unlock();
+        final IPortletWindowId portletWindowId = window.getPortletWindowId();
+        
+        final T oldWindow = this.windowsById.put(portletWindowId, window);
+        this.getWindowSet(window.getPortletEntityId(), true).add(window);
+        
+        if (oldWindow != null && oldWindow != window) {
+            this.removeFromWindowSet(oldWindow);
         }
     }
     
     public boolean containsWindow(IPortletWindowId portletWindowId) {
-        if (this.windowSetByEntityId.isEmpty()) {
-            return false;
-        }
-        
-        readLock.lock();
-        try {
-            return this.windowsById.containsKey(portletWindowId);
-        }
-        finally {
-            readLock.unlock();
-        }
+        return this.windowsById.containsKey(portletWindowId);
     }
     
     public Set<T> getWindows(IPortletEntityId portletEntityId) {
@@ -158,57 +115,64 @@ class PortletWindowCache<T extends IPortletWindowDescriptor> implements Serializ
             return null;
         }
         
-        readLock.lock();
-        try {
-            final Set<T> windowSet = this.getWindowSet(portletEntityId, false);
-            if (windowSet == null) {
-                return Collections.emptySet();
-            }
-            
-            return Collections.unmodifiableSet(windowSet);
-        }
-        finally {
-            readLock.unlock();
+        final Set<T> windowSet = this.getWindowSet(portletEntityId, false);
+        if (windowSet == null) {
+            return Collections.emptySet();
         }
+        
+        return Collections.unmodifiableSet(windowSet);
     }
     
     public T getWindow(IPortletWindowId portletWindowId) {
-        if (this.windowsById.isEmpty()) {
-            return null;
-        }
-        
-        readLock.lock();
-        try {
-            return this.windowsById.get(portletWindowId);
-        }
-        finally {
-            readLock.unlock();
-        }
+        return this.windowsById.get(portletWindowId);
     }
     
     public void removeWindow(IPortletWindowId portletWindowId) {
-        writeLock.lock();
-        try {
-            final T window = this.windowsById.remove(portletWindowId);
-            if (window != null) {
-                final IPortletEntityId portletEntityId = window.getPortletEntityId();
-                final Set<T> windowSet = this.getWindowSet(portletEntityId, false);
-                if (windowSet != null) {
-                    windowSet.remove(window);
-                }
-            }
-        }
-        finally {
-            writeLock.unlock();
+        final T window = this.windowsById.remove(portletWindowId);
+        if (window != null) {
+            this.removeFromWindowSet(window);
         }
     }
 
     protected Set<T> getWindowSet(final IPortletEntityId portletEntityId, boolean create) {
         Set<T> windowSet = this.windowSetByEntityId.get(portletEntityId);
         if (windowSet == null && create) {
-            windowSet = new LinkedHashSet<T>();
-            this.windowSetByEntityId.put(portletEntityId, windowSet);
+            windowSet = new CopyOnWriteArraySet<T>();
+            final Set<T> existingWindowSet = this.windowSetByEntityId.putIfAbsent(portletEntityId, windowSet);
+            if (existingWindowSet != null) {
+                windowSet = existingWindowSet;
+            }
         }
         return windowSet;
     }
-}
\ No newline at end of file
+    
+    private void removeFromWindowSet(T window) {
+        final Set<T> windowSet = this.getWindowSet(window.getPortletEntityId(), false);
+        if (windowSet != null) {
+            windowSet.remove(window);
+        }
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        
+        //Snapshot the windows, the maps may be modified while the session is being serialized
+        final List<T> windows = new ArrayList<T>(this.windowsById.values());
+        out.writeInt(windows.size());
+        for (final T window : windows) {
+            out.writeObject(window);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        
+        this.init(4);
+        
+        final int windowCount = in.readInt();
+        for (int i = 0; i < windowCount; i++) {
+            this.storeWindow((T) in.readObject());
+        }
+    }
+}
@@ -23,18 +23,39 @@ import org.apache.commons.lang.Validate;
 import org.jasig.portal.portlet.om.IPortletEntityId;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
+ * Standard IPortletWindowId. Instances are interned and only the entity id and window instance id are serialized.
+ * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 class PortletWindowIdImpl implements IPortletWindowId {
     private static final long serialVersionUID = 1L;
+    
+    private static final Interner<PortletWindowIdImpl> INTERNER = Interners.newWeakInterner();
+    
+    public static PortletWindowIdImpl create(IPortletEntityId portletEntityId, String windowInstanceId) {
+        Validate.notNull(portletEntityId, "portletEntityId can not be null");
+        
+        final String compositeIdString;
+        if (windowInstanceId != null) {
+            compositeIdString = portletEntityId.getStringId() + PortletWindowRegistryImpl.ID_PART_SEPERATOR + windowInstanceId;
+        }
+        else {
+            compositeIdString = portletEntityId.getStringId();
+        }
+        
+        return INTERNER.intern(new PortletWindowIdImpl(portletEntityId, windowInstanceId, compositeIdString));
+    }
 
     private final IPortletEntityId portletEntityId;
     private final String windowInstanceId;
-    private final String compositeIdString;
+    private final transient String compositeIdString;
     
-    public PortletWindowIdImpl(IPortletEntityId portletEntityId, String windowInstanceId, String compositeIdString) {
+    private PortletWindowIdImpl(IPortletEntityId portletEntityId, String windowInstanceId, String compositeIdString) {
         Validate.notNull(portletEntityId, "portletEntityId can not be null");
 
         this.portletEntityId = portletEntityId;
@@ -49,6 +70,10 @@ class PortletWindowIdImpl implements IPortletWindowId {
     public String getWindowInstanceId() {
         return this.windowInstanceId;
     }
+    
+    private Object readResolve() {
+        return create(this.portletEntityId, this.windowInstanceId);
+    }
 
     /* (non-Javadoc)
      * @see org.apache.pluto.PortletWindowID#getStringId()
@@ -100,6 +100,7 @@ public class PortletWindowRegistryImpl implements IPortletWindowRegistry {
     private IUserInstanceManager userInstanceManager;
     private IPortalRequestUtils portalRequestUtils;
     private IUrlSyntaxProvider urlSyntaxProvider;
+    private PortletSessionStateMonitor portletSessionStateMonitor;
     
     
     /**
@@ -110,6 +111,10 @@ public class PortletWindowRegistryImpl implements IPortletWindowRegistry {
         this.persistentWindowStates = persistentWindowStates;
     }
     
+    @Autowired
+    public void setPortletSessionStateMonitor(PortletSessionStateMonitor portletSessionStateMonitor) {
+        this.portletSessionStateMonitor = portletSessionStateMonitor;
+    }
     @Autowired
     public void setUrlSyntaxProvider(IUrlSyntaxProvider urlSyntaxProvider) {
         this.urlSyntaxProvider = urlSyntaxProvider;
@@ -693,17 +698,21 @@ public class PortletWindowRegistryImpl implements IPortletWindowRegistry {
             return null;
         }
         
-        PortletWindowCache<PortletWindowData> windowCache;
-        
-        final Object mutex = WebUtils.getSessionMutex(session);
-        synchronized (mutex) {
-            windowCache = (PortletWindowCache<PortletWindowData>)session.getAttribute(PORTLET_WINDOW_DATA_ATTRIBUTE);
-            if (windowCache == null) {
-                windowCache = new PortletWindowCache<PortletWindowData>();
-                session.setAttribute(PORTLET_WINDOW_DATA_ATTRIBUTE, windowCache);
+        //The cache is thread safe, only lock the session when it needs to be created
+        PortletWindowCache<PortletWindowData> windowCache = (PortletWindowCache<PortletWindowData>)session.getAttribute(PORTLET_WINDOW_DATA_ATTRIBUTE);
+        if (windowCache == null) {
+            final Object mutex = WebUtils.getSessionMutex(session);
+            synchronized (mutex) {
+                windowCache = (PortletWindowCache<PortletWindowData>)session.getAttribute(PORTLET_WINDOW_DATA_ATTRIBUTE);
+                if (windowCache == null) {
+                    windowCache = new PortletWindowCache<PortletWindowData>();
+                    session.setAttribute(PORTLET_WINDOW_DATA_ATTRIBUTE, windowCache);
+                }
             }
         }
         
+        this.portletSessionStateMonitor.sessionStateAccessed(session);
+        
         return windowCache;
     }
     
@@ -797,12 +806,6 @@ public class PortletWindowRegistryImpl implements IPortletWindowRegistry {
      * @return A portlet window id for the parameters.
      */
     protected PortletWindowIdImpl createPortletWindowId(String windowInstanceId, IPortletEntityId portletEntityId) {
-        final StringBuilder compositeIdString = new StringBuilder(portletEntityId.getStringId());
-        
-        if (windowInstanceId != null) {
-            compositeIdString.append(ID_PART_SEPERATOR).append(windowInstanceId);
-        }
-        
-        return new PortletWindowIdImpl(portletEntityId, windowInstanceId, compositeIdString.toString());
+        return PortletWindowIdImpl.create(portletEntityId, windowInstanceId);
     }
 }
@@ -20,6 +20,7 @@
 package org.jasig.portal.portlet.rendering;
 
 import java.io.Writer;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -108,6 +109,25 @@ public interface IPortletExecutionManager {
      * @return true if the specified portlet been requested to render it's output for the BODY during this request.
      */
     public boolean isPortletRenderRequested(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+    
+    /**
+     * Non-blocking check used when streaming portlet content to the client as it becomes available.
+     * 
+     * @return true if the BODY render for the specified portlet has completed or has exceeded its render timeout, in
+     * either case {@link #getPortletOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)} will return
+     * without waiting on the portlet. Returns false if the portlet has not been requested to render.
+     */
+    public boolean isPortletRenderComplete(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+    
+    /**
+     * Blocks until at least one of the specified portlets is complete as defined by
+     * {@link #isPortletRenderComplete(IPortletWindowId, HttpServletRequest, HttpServletResponse)}. Portlets that have
+     * not been requested to render are returned as complete.
+     * 
+     * @return The complete portlets, in the iteration order of portletWindowIds, never empty unless portletWindowIds is empty
+     * @throws InterruptedException If interrupted while waiting on the portlets
+     */
+    public Set<IPortletWindowId> waitForPortletRenderComplete(Set<IPortletWindowId> portletWindowIds, HttpServletRequest request, HttpServletResponse response) throws InterruptedException;
 
     /**
      * @see #getPortletHeadOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)
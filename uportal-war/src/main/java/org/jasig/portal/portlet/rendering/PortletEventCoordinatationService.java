@@ -21,9 +21,9 @@ package org.jasig.portal.portlet.rendering;
 
 import java.io.Serializable;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +33,7 @@ import java.util.Set;
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
@@ -42,17 +43,12 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Element;
-
-import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.PortletContainer;
 import org.apache.pluto.container.PortletContainerException;
 import org.apache.pluto.container.PortletWindow;
 import org.apache.pluto.container.driver.PortletContextService;
 import org.apache.pluto.container.om.portlet.ContainerRuntimeOption;
 import org.apache.pluto.container.om.portlet.EventDefinition;
-import org.apache.pluto.container.om.portlet.EventDefinitionReference;
 import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.EntityIdentifier;
@@ -74,13 +70,11 @@ import org.jasig.portal.services.AuthorizationService;
 import org.jasig.portal.url.IPortalRequestUtils;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
-import org.jasig.portal.utils.Tuple;
 import org.jasig.portal.utils.web.PortalWebUtils;
 import org.jasig.portal.xml.XmlUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Function;
@@ -105,6 +99,7 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
 	public static final String GLOBAL_EVENT__CONTAINER_OPTION = "org.jasig.portal.globalEvent";
 
 	private static final String PORTLET_EVENT_QUEUE = PortletEventCoordinatationService.class.getName() + ".PORTLET_EVENT_QUEUE";
+	private static final String LAYOUT_PORTLET_INDEX = PortletEventCoordinatationService.class.getName() + ".LAYOUT_PORTLET_INDEX";
     
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
     
@@ -112,10 +107,15 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
     private IPortletEntityRegistry portletEntityRegistry;
     private IPortletDefinitionRegistry portletDefinitionRegistry;
     private IUserInstanceManager userInstanceManager;
-    private Ehcache supportedEventCache;
     private IPortalRequestUtils portalRequestUtils;
     private XmlUtilities xmlUtilities;
     private PortletContextService portletContextService;
+    private PortletEventRoutingIndex portletEventRoutingIndex;
+    
+    @Autowired
+    public void setPortletEventRoutingIndex(PortletEventRoutingIndex portletEventRoutingIndex) {
+        this.portletEventRoutingIndex = portletEventRoutingIndex;
+    }
     
     @Autowired
     public void setPortletContextService(PortletContextService portletContextService) {
@@ -132,12 +132,6 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         this.portalRequestUtils = portalRequestUtils;
     }
 
-    @Autowired
-    public void setSupportedEventCache(
-            @Qualifier("org.jasig.portal.portlet.rendering.SupportedEventCache") Ehcache supportedEventCache) {
-        this.supportedEventCache = supportedEventCache;
-    }
-
     @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
@@ -207,15 +201,13 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
             return;
         }
         
-        //Get all the portlets the user is subscribed to
+        //Get the index of the portlets the user is subscribed to
         final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
         final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
         final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
+        final LayoutPortletIndex layoutPortletIndex = this.getLayoutPortletIndex(request, userInstance, userLayoutManager);
         
-        //Make a local copy so we can remove data from it
-        final Set<String> allLayoutNodeIds = new LinkedHashSet<String>(userLayoutManager.getAllSubscribedChannels());
-        
-        final Map<String, IPortletEntity> portletEntityCache = new LinkedHashMap<String, IPortletEntity>();
+        final Map<String, IPortletEntity> portletEntityCache = new HashMap<String, IPortletEntity>();
         
         while (!events.isEmpty()) {
             final QueuedEvent queuedEvent = events.poll();
@@ -227,100 +219,115 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
             final IPortletWindowId sourceWindowId = queuedEvent.getPortletWindowId();
             final Event event = queuedEvent.getEvent();
             
+            //All portlet definitions that process the event
+            final Set<IPortletDefinitionId> portletDefinitionIds = this.portletEventRoutingIndex.getProcessingPortletDefinitions(event.getQName());
+            if (portletDefinitionIds.isEmpty()) {
+                this.logger.debug("No portlets process event {}", event);
+                continue;
+            }
+            
         	final boolean globalEvent = isGlobalEvent(request, sourceWindowId, event);
         	
-        	final Set<IPortletDefinition> portletDefinitions = new LinkedHashSet<IPortletDefinition>();
+        	final Set<IPortletDefinitionId> globalPortletDefinitionIds = new LinkedHashSet<IPortletDefinitionId>();
         	if (globalEvent) {
-        		portletDefinitions.addAll(this.portletDefinitionRegistry.getAllPortletDefinitions());
+        	    globalPortletDefinitionIds.addAll(portletDefinitionIds);
         	}
             
-            //Check each subscription to see what events it is registered to see
-            for (final Iterator<String> layoutNodeIdItr = allLayoutNodeIds.iterator(); layoutNodeIdItr.hasNext(); ) {
-                final String layoutNodeId = layoutNodeIdItr.next();
-                
-                IPortletEntity portletEntity = portletEntityCache.get(layoutNodeId);
-                if (portletEntity == null) {
-                    portletEntity = this.portletEntityRegistry.getOrCreatePortletEntity(request, userInstance, layoutNodeId);
-                    
-                    // if portlet entity registry returned null, then portlet has been deleted - remove it (see UP-3378)
+            //Target each layout node subscribed to a definition that processes the event
+            for (final IPortletDefinitionId portletDefinitionId : portletDefinitionIds) {
+                final List<String> layoutNodeIds = layoutPortletIndex.getLayoutNodeIds(portletDefinitionId);
+                for (final String layoutNodeId : layoutNodeIds) {
+                    IPortletEntity portletEntity = portletEntityCache.get(layoutNodeId);
                     if (portletEntity == null) {
-                    	layoutNodeIdItr.remove();
-                    	continue;
+                        portletEntity = this.portletEntityRegistry.getOrCreatePortletEntity(request, userInstance, layoutNodeId);
+                        
+                        // if portlet entity registry returned null, then portlet has been deleted (see UP-3378)
+                        if (portletEntity == null) {
+                            continue;
+                        }
+                        
+                        portletEntityCache.put(layoutNodeId, portletEntity);
                     }
                     
-                    final IPortletDefinitionId portletDefinitionId = portletEntity.getPortletDefinitionId();
-                    final PortletDefinition portletDescriptor = this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId);
-                    if (portletDescriptor == null) {
-                        //Missconfigured portlet, remove it from the list so we don't check again and ignore it
-                        layoutNodeIdItr.remove();
-                        continue;
-                    }
+                    this.logger.debug("{} supports event {}", portletEntity, event);
                     
-                    final List<? extends EventDefinitionReference> supportedProcessingEvents = portletDescriptor.getSupportedProcessingEvents();
-                    //Skip portlets that don't handle any events and remove them from the set so they are not checked again
-                    if (supportedProcessingEvents == null || supportedProcessingEvents.size() == 0) {
-                        layoutNodeIdItr.remove();
-                        continue;
+                	//If this is the default portlet entity remove the definition from the global defs set to avoid duplicate processing
+                    if (globalEvent) {
+                    	final IPortletEntity defaultPortletEntity = this.portletEntityRegistry.getOrCreateDefaultPortletEntity(request, portletDefinitionId);
+                    	if (defaultPortletEntity.equals(portletEntity)) {
+                    	    globalPortletDefinitionIds.remove(portletDefinitionId);
+                    	}
                     }
-                    
-                    portletEntityCache.put(layoutNodeId, portletEntity);
-                }
-                
-                final IPortletDefinition portletDefinition = portletEntity.getPortletDefinition();
-                final IPortletDefinitionId portletDefinitionId = portletDefinition.getPortletDefinitionId();
-                if (this.supportsEvent(event, portletDefinitionId)) {
-                	this.logger.debug("{} supports event {}", portletDefinition, event);
                 	
-                	//If this is the default portlet entity remove the definition from the all defs set to avoid duplicate processing
-                	final IPortletEntity defaultPortletEntity = this.portletEntityRegistry.getOrCreateDefaultPortletEntity(request, portletDefinitionId);
-                	if (defaultPortletEntity.equals(portletEntity)) {
-                		portletDefinitions.remove(portletDefinition);
-                	}
-                	
-                    final IPortletEntityId portletEntityId = portletEntity.getPortletEntityId();
-                    final Set<IPortletWindow> portletWindows = this.portletWindowRegistry.getAllPortletWindowsForEntity(request, portletEntityId);
-                    
-                    for (final IPortletWindow portletWindow : portletWindows) {
-                        this.logger.debug("{} resolved target {}", event, portletWindow);
-                        final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
-                        final Event unmarshalledEvent = this.unmarshall(portletWindow, event);
-                        portletEventQueue.offerEvent(portletWindowId, new QueuedEvent(sourceWindowId, unmarshalledEvent) );
-                    }
-                }
-                else {
-                	portletDefinitions.remove(portletDefinition);
+                    this.offerEvent(request, portletEventQueue, portletEntity, sourceWindowId, event);
                 }
             }
             
-            if (!portletDefinitions.isEmpty()) {
+            if (!globalPortletDefinitionIds.isEmpty()) {
             	final IPerson user = userInstance.getPerson();
         		final EntityIdentifier ei = user.getEntityIdentifier();
         		final IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
             	
 	            //If the event is global there might still be portlet definitions that need targeting
-	            for (final IPortletDefinition portletDefinition : portletDefinitions) {
-	            	final IPortletDefinitionId portletDefinitionId = portletDefinition.getPortletDefinitionId();
-	            	//Check if the user can render the portlet definition before doing event tests
+	            for (final IPortletDefinitionId portletDefinitionId : globalPortletDefinitionIds) {
+	            	//Check if the user can render the portlet definition before targeting it
 	            	if (ap.canRender(portletDefinitionId.getStringId())) {
-		            	if (this.supportsEvent(event, portletDefinitionId)) {
-		            		this.logger.debug("{} supports event {}", portletDefinition, event);
-		                	
-		                	final IPortletEntity portletEntity = this.portletEntityRegistry.getOrCreateDefaultPortletEntity(request, portletDefinitionId);
-		                    final IPortletEntityId portletEntityId = portletEntity.getPortletEntityId();
-		                    final Set<IPortletWindow> portletWindows = this.portletWindowRegistry.getAllPortletWindowsForEntity(request, portletEntityId);
-		                    
-		                    for (final IPortletWindow portletWindow : portletWindows) {
-		                        this.logger.debug("{} resolved target {}", event, portletWindow);
-		                        final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
-		                        final Event unmarshalledEvent = this.unmarshall(portletWindow, event);
-		                        portletEventQueue.offerEvent(portletWindowId, new QueuedEvent(sourceWindowId, unmarshalledEvent) );
-		                    }
-		            	}
+	            	    this.logger.debug("{} supports event {}", portletDefinitionId, event);
+	            	    
+	                	final IPortletEntity portletEntity = this.portletEntityRegistry.getOrCreateDefaultPortletEntity(request, portletDefinitionId);
+	                	this.offerEvent(request, portletEventQueue, portletEntity, sourceWindowId, event);
 	            	}
 	            }
             }
         }
     }
+    
+    /**
+     * Queue the event for every window of the portlet entity
+     */
+    protected void offerEvent(HttpServletRequest request, PortletEventQueue portletEventQueue, IPortletEntity portletEntity, IPortletWindowId sourceWindowId, Event event) {
+        final IPortletEntityId portletEntityId = portletEntity.getPortletEntityId();
+        final Set<IPortletWindow> portletWindows = this.portletWindowRegistry.getAllPortletWindowsForEntity(request, portletEntityId);
+        
+        for (final IPortletWindow portletWindow : portletWindows) {
+            this.logger.debug("{} resolved target {}", event, portletWindow);
+            final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
+            final Event unmarshalledEvent = this.unmarshall(portletWindow, event);
+            portletEventQueue.offerEvent(portletWindowId, new QueuedEvent(sourceWindowId, unmarshalledEvent) );
+        }
+    }
+    
+    /**
+     * Get the index of the user's subscribed layout nodes by portlet definition. The index is stored in the
+     * session and rebuilt when the layout's cache key changes.
+     */
+    protected LayoutPortletIndex getLayoutPortletIndex(HttpServletRequest request, IUserInstance userInstance, IUserLayoutManager userLayoutManager) {
+        final String layoutCacheKey = userLayoutManager.getCacheKey();
+        
+        final HttpSession session = request.getSession(false);
+        if (session != null) {
+            final LayoutPortletIndex layoutPortletIndex = (LayoutPortletIndex)session.getAttribute(LAYOUT_PORTLET_INDEX);
+            if (layoutPortletIndex != null && layoutPortletIndex.isFor(layoutCacheKey)) {
+                return layoutPortletIndex;
+            }
+        }
+        
+        final LayoutPortletIndex layoutPortletIndex = new LayoutPortletIndex(layoutCacheKey);
+        for (final String layoutNodeId : userLayoutManager.getAllSubscribedChannels()) {
+            final IPortletEntity portletEntity = this.portletEntityRegistry.getOrCreatePortletEntity(request, userInstance, layoutNodeId);
+            
+            // if portlet entity registry returned null, then portlet has been deleted (see UP-3378)
+            if (portletEntity != null) {
+                layoutPortletIndex.addLayoutNode(portletEntity.getPortletDefinitionId(), layoutNodeId);
+            }
+        }
+        
+        if (session != null) {
+            session.setAttribute(LAYOUT_PORTLET_INDEX, layoutPortletIndex);
+        }
+        
+        return layoutPortletIndex;
+    }
 
 	protected boolean isGlobalEvent(HttpServletRequest request, IPortletWindowId sourceWindowId, Event event) {
 		final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, sourceWindowId);
@@ -411,85 +418,41 @@ public class PortletEventCoordinatationService implements IPortletEventCoordinat
         throw new IllegalStateException();
     }
 
-    protected Set<QName> getAllAliases(QName eventName, PortletApplicationDefinition portletApplicationDefinition) {
-        final List<? extends EventDefinition> eventDefinitions = portletApplicationDefinition.getEventDefinitions();
-        if (eventDefinitions == null || eventDefinitions.isEmpty()) {
-            return Collections.emptySet();
-        }
-
-        final String defaultNamespace = portletApplicationDefinition.getDefaultNamespace();
+    /**
+     * The user's subscribed layout nodes by portlet definition id, for a single version of the user's layout
+     */
+    static final class LayoutPortletIndex implements Serializable {
+        private static final long serialVersionUID = 1L;
         
-        for (final EventDefinition eventDefinition : eventDefinitions) {
-            final QName defQName = eventDefinition.getQualifiedName(defaultNamespace);
-            if (defQName != null && defQName.equals(eventName)) {
-                final List<QName> aliases = eventDefinition.getAliases();
-                if (aliases == null || aliases.isEmpty()) {
-                    return Collections.emptySet();
-                }
-                    
-                return new LinkedHashSet<QName>(aliases);
-            }
+        private final String layoutCacheKey;
+        private final Map<String, List<String>> layoutNodeIds = new HashMap<String, List<String>>();
+        
+        LayoutPortletIndex(String layoutCacheKey) {
+            this.layoutCacheKey = layoutCacheKey;
         }
-
-        return Collections.emptySet();
-    }
-    
-    protected boolean supportsEvent(Event event, IPortletDefinitionId portletDefinitionId) {
-        final QName eventName = event.getQName();
         
-        //The cache key to use
-        final Tuple<IPortletDefinitionId, QName> key = new Tuple<IPortletDefinitionId, QName>(portletDefinitionId, eventName);
+        boolean isFor(String layoutCacheKey) {
+            return this.layoutCacheKey != null && this.layoutCacheKey.equals(layoutCacheKey);
+        }
         
-        //Check in the cache if the portlet definition supports this event
-        final Element element = this.supportedEventCache.get(key);
-        if (element != null) {
-            final Boolean supported = (Boolean)element.getValue();
-            if (supported != null) {
-                return supported;
+        void addLayoutNode(IPortletDefinitionId portletDefinitionId, String layoutNodeId) {
+            List<String> layoutNodeIds = this.layoutNodeIds.get(portletDefinitionId.getStringId());
+            if (layoutNodeIds == null) {
+                layoutNodeIds = new ArrayList<String>(1);
+                this.layoutNodeIds.put(portletDefinitionId.getStringId(), layoutNodeIds);
             }
-        }
-
-        final PortletApplicationDefinition portletApplicationDescriptor = this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(portletDefinitionId);
-        if (portletApplicationDescriptor == null) {
-        	return false;
+            layoutNodeIds.add(layoutNodeId);
         }
         
-        final Set<QName> aliases = this.getAllAliases(eventName, portletApplicationDescriptor);
-        
-        final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
-        
-        //No support found so far, do more complex namespace matching
-        final PortletDefinition portletDescriptor = this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId);
-        if (portletDescriptor == null) {
-        	return false;
-        }
-
-        final List<? extends EventDefinitionReference> supportedProcessingEvents = portletDescriptor.getSupportedProcessingEvents();
-        for (final EventDefinitionReference eventDefinitionReference : supportedProcessingEvents) {
-            final QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
-            if (qualifiedName == null) {
-                continue;
-            }
-            
-            //See if the supported qname and event qname match explicitly
-            //Look for alias names
-            if (qualifiedName.equals(eventName) || aliases.contains(qualifiedName)) {
-                this.supportedEventCache.put(new Element(key, Boolean.TRUE));
-                return true;
-            }
-            
-            //Look for namespaced events
-            if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
-                final QName namespacedName = new QName(defaultNamespace, qualifiedName.getLocalPart());
-                if (eventName.equals(namespacedName)) {
-                    this.supportedEventCache.put(new Element(key, Boolean.TRUE));
-                    return true;
-                }
+        /**
+         * @return The subscribed layout nodes of the portlet definition, in layout order
+         */
+        List<String> getLayoutNodeIds(IPortletDefinitionId portletDefinitionId) {
+            final List<String> layoutNodeIds = this.layoutNodeIds.get(portletDefinitionId.getStringId());
+            if (layoutNodeIds == null) {
+                return Collections.emptyList();
             }
+            return layoutNodeIds;
         }
-        
-
-        this.supportedEventCache.put(new Element(key, Boolean.FALSE));
-        return false;
     }
 }
@@ -0,0 +1,334 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.xml.namespace.QName;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.pluto.container.PortletContainerException;
+import org.apache.pluto.container.driver.PortalDriverContainerServices;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryListener;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
+import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.utils.Tuple;
+import org.joda.time.Duration;
+import org.joda.time.ReadableDuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Index of the portlet definitions that process each portlet event, used to route events without
+ * checking every portlet definition against every event.
+ * <p>
+ * An event is processed by a portlet definition if it matches one of the definition's supported processing
+ * events, either directly, through an alias declared by the event definition, by the local part of a
+ * supported event without a namespace in the application's default namespace or by a supported event whose
+ * local part ends with the '*' wildcard.
+ * <p>
+ * The index is refreshed when a portlet application is registered or removed and at most every refresh period
+ * to pick up changed portlet definitions. Only definitions whose portlet descriptors changed are re-indexed.
+ */
+@Service
+public class PortletEventRoutingIndex implements PortletRegistryListener, InitializingBean, DisposableBean {
+    private static final String WILDCARD = "*";
+    
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
+    private final Lock refreshLock = new ReentrantLock();
+    private Map<IPortletDefinitionId, DefinitionEvents> definitionEvents = Collections.emptyMap();
+    private volatile RoutingTable routingTable;
+    private volatile long nextRefresh;
+    
+    private IPortletDefinitionRegistry portletDefinitionRegistry;
+    private PortalDriverContainerServices portalDriverContainerServices;
+    private ReadableDuration refreshPeriod = Duration.standardMinutes(1);
+
+    @Autowired
+    public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
+        this.portletDefinitionRegistry = portletDefinitionRegistry;
+    }
+
+    @Autowired
+    public void setPortalDriverContainerServices(PortalDriverContainerServices portalDriverContainerServices) {
+        this.portalDriverContainerServices = portalDriverContainerServices;
+    }
+
+    /**
+     * Maximum time between checks for changed portlet definitions, defaults to 1 minute
+     */
+    @Value("${org.jasig.portal.portlet.rendering.PortletEventRoutingIndex.refreshPeriod:PT1M}")
+    public void setRefreshPeriod(ReadableDuration refreshPeriod) {
+        this.refreshPeriod = refreshPeriod;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.portalDriverContainerServices.getPortletRegistryService().addPortletRegistryListener(this);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        this.portalDriverContainerServices.getPortletRegistryService().removePortletRegistryListener(this);
+    }
+
+    @Override
+    public void portletApplicationRegistered(PortletRegistryEvent event) {
+        this.nextRefresh = 0;
+    }
+
+    @Override
+    public void portletApplicationRemoved(PortletRegistryEvent event) {
+        this.nextRefresh = 0;
+    }
+    
+    /**
+     * @return The ids of the portlet definitions that process the event, never null
+     */
+    public Set<IPortletDefinitionId> getProcessingPortletDefinitions(QName eventName) {
+        return this.getRoutingTable().getPortletDefinitions(eventName);
+    }
+    
+    /**
+     * @return true if the supported processing event name ends with the wildcard and matches the event name
+     */
+    public static boolean matchesWildcard(QName supportedName, QName eventName) {
+        final String localPart = supportedName.getLocalPart();
+        if (!localPart.endsWith(WILDCARD)) {
+            return false;
+        }
+        
+        return supportedName.getNamespaceURI().equals(eventName.getNamespaceURI()) && 
+                eventName.getLocalPart().startsWith(localPart.substring(0, localPart.length() - WILDCARD.length()));
+    }
+    
+    /**
+     * Get the current routing table, refreshing it if needed. Threads that find another thread refreshing
+     * the table use the existing table instead of waiting.
+     */
+    protected RoutingTable getRoutingTable() {
+        RoutingTable routingTable = this.routingTable;
+        if (routingTable != null && System.currentTimeMillis() < this.nextRefresh) {
+            return routingTable;
+        }
+        
+        if (routingTable != null) {
+            if (!this.refreshLock.tryLock()) {
+                return routingTable;
+            }
+        }
+        else {
+            this.refreshLock.lock();
+        }
+        
+        try {
+            routingTable = this.routingTable;
+            if (routingTable != null && System.currentTimeMillis() < this.nextRefresh) {
+                return routingTable;
+            }
+            
+            //Set before refreshing so a registry change during the refresh triggers another refresh
+            this.nextRefresh = System.currentTimeMillis() + this.refreshPeriod.getMillis();
+            routingTable = this.refresh();
+            this.routingTable = routingTable;
+            return routingTable;
+        }
+        finally {
+            this.refreshLock.unlock();
+        }
+    }
+    
+    /**
+     * Rebuild the routing table, only re-reading the supported events of definitions whose portlet descriptors changed
+     */
+    protected RoutingTable refresh() {
+        final PortletRegistryService portletRegistryService = this.portalDriverContainerServices.getPortletRegistryService();
+        final List<IPortletDefinition> portletDefinitions = this.portletDefinitionRegistry.getAllPortletDefinitions();
+        
+        final Map<IPortletDefinitionId, DefinitionEvents> definitionEvents = new HashMap<IPortletDefinitionId, DefinitionEvents>(portletDefinitions.size() * 2);
+        int reindexed = 0;
+        for (final IPortletDefinition portletDefinition : portletDefinitions) {
+            final IPortletDefinitionId portletDefinitionId = portletDefinition.getPortletDefinitionId();
+            final Tuple<String, String> portletDescriptorKeys = this.portletDefinitionRegistry.getPortletDescriptorKeys(portletDefinition);
+            
+            final PortletApplicationDefinition portletApplicationDescriptor;
+            final PortletDefinition portletDescriptor;
+            try {
+                portletApplicationDescriptor = portletRegistryService.getPortletApplication(portletDescriptorKeys.first);
+                portletDescriptor = portletRegistryService.getPortlet(portletDescriptorKeys.first, portletDescriptorKeys.second);
+            }
+            catch (PortletContainerException e) {
+                this.logger.debug("No portlet descriptor found for {}, it will not receive events", portletDefinition);
+                continue;
+            }
+            if (portletApplicationDescriptor == null || portletDescriptor == null) {
+                continue;
+            }
+            
+            DefinitionEvents events = this.definitionEvents.get(portletDefinitionId);
+            if (events == null || !events.isFor(portletApplicationDescriptor, portletDescriptor)) {
+                events = new DefinitionEvents(portletApplicationDescriptor, portletDescriptor);
+                reindexed++;
+            }
+            
+            if (!events.isEmpty()) {
+                definitionEvents.put(portletDefinitionId, events);
+            }
+        }
+        
+        this.definitionEvents = definitionEvents;
+        this.logger.debug("Refreshed portlet event routing index, {} of {} portlet definitions re-indexed", reindexed, definitionEvents.size());
+        
+        return new RoutingTable(definitionEvents);
+    }
+    
+    /**
+     * The names of the events processed by a single portlet definition, for the descriptors they were read from
+     */
+    static final class DefinitionEvents {
+        private final PortletApplicationDefinition portletApplicationDescriptor;
+        private final PortletDefinition portletDescriptor;
+        private final Set<QName> eventNames = new LinkedHashSet<QName>();
+        private final Set<QName> wildcardNames = new LinkedHashSet<QName>();
+        
+        DefinitionEvents(PortletApplicationDefinition portletApplicationDescriptor, PortletDefinition portletDescriptor) {
+            this.portletApplicationDescriptor = portletApplicationDescriptor;
+            this.portletDescriptor = portletDescriptor;
+            
+            final List<? extends EventDefinitionReference> supportedProcessingEvents = portletDescriptor.getSupportedProcessingEvents();
+            if (supportedProcessingEvents == null || supportedProcessingEvents.isEmpty()) {
+                return;
+            }
+            
+            final String defaultNamespace = portletApplicationDescriptor.getDefaultNamespace();
+            final Set<QName> supportedNames = new LinkedHashSet<QName>();
+            for (final EventDefinitionReference eventDefinitionReference : supportedProcessingEvents) {
+                final QName qualifiedName = eventDefinitionReference.getQualifiedName(defaultNamespace);
+                if (qualifiedName == null) {
+                    continue;
+                }
+                
+                supportedNames.add(qualifiedName);
+                if (StringUtils.isEmpty(qualifiedName.getNamespaceURI())) {
+                    supportedNames.add(new QName(defaultNamespace, qualifiedName.getLocalPart()));
+                }
+            }
+            
+            for (final QName supportedName : supportedNames) {
+                if (supportedName.getLocalPart().endsWith(WILDCARD)) {
+                    this.wildcardNames.add(supportedName);
+                }
+                else {
+                    this.eventNames.add(supportedName);
+                }
+            }
+            
+            //Events whose definition declares one of the supported events as an alias
+            final List<? extends EventDefinition> eventDefinitions = portletApplicationDescriptor.getEventDefinitions();
+            if (eventDefinitions != null) {
+                for (final EventDefinition eventDefinition : eventDefinitions) {
+                    final QName eventName = eventDefinition.getQualifiedName(defaultNamespace);
+                    final List<QName> aliases = eventDefinition.getAliases();
+                    if (eventName != null && aliases != null && !Collections.disjoint(aliases, supportedNames)) {
+                        this.eventNames.add(eventName);
+                    }
+                }
+            }
+        }
+        
+        boolean isFor(PortletApplicationDefinition portletApplicationDescriptor, PortletDefinition portletDescriptor) {
+            return this.portletApplicationDescriptor == portletApplicationDescriptor && this.portletDescriptor == portletDescriptor;
+        }
+        
+        boolean isEmpty() {
+            return this.eventNames.isEmpty() && this.wildcardNames.isEmpty();
+        }
+    }
+    
+    /**
+     * Immutable mapping of event names to the portlet definitions that process them
+     */
+    static final class RoutingTable {
+        private final Map<QName, Set<IPortletDefinitionId>> exactRoutes = new HashMap<QName, Set<IPortletDefinitionId>>();
+        private final List<Tuple<QName, IPortletDefinitionId>> wildcardRoutes = new ArrayList<Tuple<QName, IPortletDefinitionId>>();
+        
+        RoutingTable(Map<IPortletDefinitionId, DefinitionEvents> definitionEvents) {
+            for (final Map.Entry<IPortletDefinitionId, DefinitionEvents> definitionEventsEntry : definitionEvents.entrySet()) {
+                final IPortletDefinitionId portletDefinitionId = definitionEventsEntry.getKey();
+                final DefinitionEvents events = definitionEventsEntry.getValue();
+                
+                for (final QName eventName : events.eventNames) {
+                    Set<IPortletDefinitionId> portletDefinitionIds = this.exactRoutes.get(eventName);
+                    if (portletDefinitionIds == null) {
+                        portletDefinitionIds = new LinkedHashSet<IPortletDefinitionId>();
+                        this.exactRoutes.put(eventName, portletDefinitionIds);
+                    }
+                    portletDefinitionIds.add(portletDefinitionId);
+                }
+                
+                for (final QName wildcardName : events.wildcardNames) {
+                    this.wildcardRoutes.add(new Tuple<QName, IPortletDefinitionId>(wildcardName, portletDefinitionId));
+                }
+            }
+        }
+        
+        Set<IPortletDefinitionId> getPortletDefinitions(QName eventName) {
+            final Set<IPortletDefinitionId> portletDefinitionIds = this.exactRoutes.get(eventName);
+            if (this.wildcardRoutes.isEmpty()) {
+                if (portletDefinitionIds == null) {
+                    return Collections.emptySet();
+                }
+                return Collections.unmodifiableSet(portletDefinitionIds);
+            }
+            
+            final Set<IPortletDefinitionId> result = new LinkedHashSet<IPortletDefinitionId>();
+            if (portletDefinitionIds != null) {
+                result.addAll(portletDefinitionIds);
+            }
+            for (final Tuple<QName, IPortletDefinitionId> wildcardRoute : this.wildcardRoutes) {
+                if (matchesWildcard(wildcardRoute.first, eventName)) {
+                    result.add(wildcardRoute.second);
+                }
+            }
+            return result;
+        }
+    }
+}
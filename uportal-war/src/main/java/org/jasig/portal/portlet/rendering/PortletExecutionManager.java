@@ -20,8 +20,11 @@
 package org.jasig.portal.portlet.rendering;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -30,6 +33,7 @@ import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -607,6 +611,80 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return tracker != null;
     }
     
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#isPortletRenderComplete(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletRenderComplete(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap = this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+        if (tracker == null) {
+            return false;
+        }
+        
+        //Can't use isComplete() here as it reports true for workers that have not been started yet
+        if (tracker.getCompleteTime() > 0) {
+            return true;
+        }
+        
+        //Failure workers render the error output on the thread that retrieves it
+        if (tracker instanceof IPortletFailureExecutionWorker) {
+            return true;
+        }
+        
+        //Once the worker has run past its timeout getPortletOutput will immediately fall back to the error output
+        final long startedTime = tracker.getStartedTime();
+        return startedTime > 0 && System.currentTimeMillis() - startedTime > getPortletRenderTimeout(portletWindowId, request);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#waitForPortletRenderComplete(java.util.Set, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public Set<IPortletWindowId> waitForPortletRenderComplete(Set<IPortletWindowId> portletWindowIds, HttpServletRequest request, HttpServletResponse response) throws InterruptedException {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap = this.getPortletRenderingMap(request);
+        final Semaphore completionSemaphore = new Semaphore(0);
+        final Set<IPortletWindowId> completePortlets = new LinkedHashSet<IPortletWindowId>();
+        final List<IPortletRenderExecutionWorker> registeredTrackers = new ArrayList<IPortletRenderExecutionWorker>();
+        
+        try {
+            while (true) {
+                //Wake up no later than the first time a started portlet runs past its timeout
+                long waitTime = Long.MAX_VALUE;
+                for (final IPortletWindowId portletWindowId : portletWindowIds) {
+                    final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+                    if (tracker == null || this.isPortletRenderComplete(portletWindowId, request, response)) {
+                        completePortlets.add(portletWindowId);
+                        continue;
+                    }
+                    
+                    if (!registeredTrackers.contains(tracker)) {
+                        tracker.releaseOnComplete(completionSemaphore);
+                        registeredTrackers.add(tracker);
+                    }
+                    
+                    final long timeout = getPortletRenderTimeout(portletWindowId, request);
+                    final long startedTime = tracker.getStartedTime();
+                    final long remaining = startedTime > 0 ? timeout - (System.currentTimeMillis() - startedTime) : timeout;
+                    waitTime = Math.min(waitTime, Math.max(1, remaining + 1));
+                }
+                
+                if (!completePortlets.isEmpty() || portletWindowIds.isEmpty()) {
+                    return completePortlets;
+                }
+                
+                //Extra permits from workers completing between checks only result in another pass
+                completionSemaphore.tryAcquire(waitTime, TimeUnit.MILLISECONDS);
+            }
+        }
+        finally {
+            //The semaphore is only used by this call, stop the workers from releasing it
+            for (final IPortletRenderExecutionWorker tracker : registeredTrackers) {
+                tracker.removeReleaseOnComplete(completionSemaphore);
+            }
+        }
+    }
+    
     /* (non-Javadoc)
 	 * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
 	 */
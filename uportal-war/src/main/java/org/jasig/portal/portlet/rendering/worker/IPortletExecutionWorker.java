@@ -19,6 +19,7 @@
 
 package org.jasig.portal.portlet.rendering.worker;
 
+import java.util.concurrent.Semaphore;
 
 /**
  * @author Eric Dalquist
@@ -41,6 +42,18 @@ public interface IPortletExecutionWorker<V> extends IPortletExecutionContext {
      * @return The time in ms that the worker actually started, 0 if it has not started
      */
     public long waitForStart(long timeout) throws InterruptedException;
+    
+    /**
+     * Release a permit on the semaphore when the worker completes execution, if the worker has already completed
+     * the permit is released immediately.
+     */
+    public void releaseOnComplete(Semaphore completionSemaphore);
+    
+    /**
+     * Stop releasing permits on a semaphore passed to {@link #releaseOnComplete(Semaphore)}, called once the
+     * waiting thread is done waiting.
+     */
+    public void removeReleaseOnComplete(Semaphore completionSemaphore);
 
     /**
      * Get the object returned by the worker's execution
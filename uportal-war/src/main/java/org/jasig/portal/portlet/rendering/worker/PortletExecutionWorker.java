@@ -25,10 +25,12 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -54,6 +56,7 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
     
     private final Map<String, Object> executionAttributes = new ConcurrentHashMap<String, Object>();
     private final CountDownLatch startLatch = new CountDownLatch(1);
+    private final CopyOnWriteArrayList<Semaphore> completionSemaphores = new CopyOnWriteArrayList<Semaphore>();
     private final ExecutorService executorService;
     private final List<IPortletExecutionInterceptor> interceptors;
     final IPortletRenderer portletRenderer;
@@ -211,6 +214,11 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         }
         
         workerThread = null;
+        
+        //signal any threads waiting for the worker to complete
+        for (final Semaphore completionSemaphore : this.completionSemaphores) {
+            completionSemaphore.release();
+        }
     }
     
     private void doPostExecution(Exception e) {
@@ -259,6 +267,21 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         return this.started;
     }
     
+    @Override
+    public final void releaseOnComplete(Semaphore completionSemaphore) {
+        this.completionSemaphores.addIfAbsent(completionSemaphore);
+        
+        //Completed before the semaphore was added, may result in an extra permit which waiting threads must tolerate
+        if (this.complete > 0) {
+            completionSemaphore.release();
+        }
+    }
+    
+    @Override
+    public final void removeReleaseOnComplete(Semaphore completionSemaphore) {
+        this.completionSemaphores.remove(completionSemaphore);
+    }
+    
     @Override
     public V get(long timeout) throws Exception {
         if (this.future == null) {
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -128,6 +129,17 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
         return this.submitted;
     }
 
+    @Override
+    public void releaseOnComplete(Semaphore completionSemaphore) {
+        //The error output is rendered by the thread that retrieves it, there is nothing to wait for
+        completionSemaphore.release();
+    }
+    
+    @Override
+    public void removeReleaseOnComplete(Semaphore completionSemaphore) {
+        //Nothing was registered
+    }
+
     @Override
     public synchronized PortletRenderResult get(long timeout) throws Exception {
         this.retrieved = true;
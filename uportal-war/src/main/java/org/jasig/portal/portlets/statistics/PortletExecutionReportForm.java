@@ -26,6 +26,7 @@ public class PortletExecutionReportForm extends BaseReportForm {
 
     private Set<String> portlets = new HashSet<String>();
     private Set<String> executionTypeNames = new HashSet<String>();
+    private TimedReportStatistic statistic = TimedReportStatistic.COUNT;
 
     public final Set<String> getPortlets() {
         return portlets;
@@ -43,4 +44,11 @@ public class PortletExecutionReportForm extends BaseReportForm {
         this.executionTypeNames = executionTypeNames;
     }
 
+    public final TimedReportStatistic getStatistic() {
+        return statistic;
+    }
+
+    public final void setStatistic(TimedReportStatistic statistic) {
+        this.statistic = statistic;
+    }
 }
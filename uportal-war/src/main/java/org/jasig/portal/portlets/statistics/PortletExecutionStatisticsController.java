@@ -135,6 +135,14 @@ public class PortletExecutionStatisticsController
         return sortedGroupMappings;
     }
 
+    /**
+     * @return Statistics that can be reported for each interval
+     */
+    @ModelAttribute("statistics")
+    public TimedReportStatistic[] getStatistics() {
+        return TimedReportStatistic.values();
+    }
+
     @ModelAttribute("executionTypes")
     public ExecutionType[] getExecutionTypes() {
         return ExecutionType.values();
@@ -285,8 +293,12 @@ public class PortletExecutionStatisticsController
 
     @Override
     protected List<Value> createRowValues(PortletExecutionAggregation aggr, PortletExecutionReportForm form) {
-        int count = aggr != null ? aggr.getExecutionCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+        final TimedReportStatistic statistic = form.getStatistic();
+        if (statistic == null || statistic == TimedReportStatistic.COUNT) {
+            int count = aggr != null ? aggr.getExecutionCount() : 0;
+            return Collections.<Value>singletonList(new NumberValue(count));
+        }
+        return Collections.<Value>singletonList(new NumberValue(statistic.getValue(aggr)));
     }
 
 }
@@ -25,6 +25,7 @@ import java.util.List;
 public class TabRenderReportForm extends BaseReportForm {
 
     private List<Long> tabs = new ArrayList<Long>();
+    private TimedReportStatistic statistic = TimedReportStatistic.COUNT;
 
     public final List<Long> getTabs() {
         return tabs;
@@ -33,4 +34,12 @@ public class TabRenderReportForm extends BaseReportForm {
     public final void setTabs(List<Long> tabs) {
         this.tabs = tabs;
     }
+
+    public final TimedReportStatistic getStatistic() {
+        return statistic;
+    }
+
+    public final void setStatistic(TimedReportStatistic statistic) {
+        this.statistic = statistic;
+    }
 }
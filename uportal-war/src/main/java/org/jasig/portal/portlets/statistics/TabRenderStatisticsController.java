@@ -128,6 +128,14 @@ public class TabRenderStatisticsController extends
         return sortedGroupMappings;
     }
 
+    /**
+     * @return Statistics that can be reported for each interval
+     */
+    @ModelAttribute("statistics")
+    public TimedReportStatistic[] getStatistics() {
+        return TimedReportStatistic.values();
+    }
+
     @Override
     public String getReportName() {
         return REPORT_NAME;
@@ -223,8 +231,12 @@ public class TabRenderStatisticsController extends
 
     @Override
     protected List<Value> createRowValues(TabRenderAggregation aggr, TabRenderReportForm form) {
-        int count = aggr != null ? aggr.getRenderCount() : 0;
-        return Collections.<Value>singletonList(new NumberValue(count));
+        final TimedReportStatistic statistic = form.getStatistic();
+        if (statistic == null || statistic == TimedReportStatistic.COUNT) {
+            int count = aggr != null ? aggr.getRenderCount() : 0;
+            return Collections.<Value>singletonList(new NumberValue(count));
+        }
+        return Collections.<Value>singletonList(new NumberValue(statistic.getValue(aggr)));
     }
 
 }
@@ -0,0 +1,94 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlets.statistics;
+
+import org.jasig.portal.events.aggr.TimedAggregationStatistics;
+
+/**
+ * Statistic reported for each interval of a timed aggregation report. Times are reported in milliseconds.
+ */
+public enum TimedReportStatistic {
+    COUNT {
+        @Override
+        protected double getStatistic(TimedAggregationStatistics statistics) {
+            return statistics.getN();
+        }
+    },
+    MEAN {
+        @Override
+        protected double getStatistic(TimedAggregationStatistics statistics) {
+            return toMillis(statistics.getMean());
+        }
+    },
+    MEDIAN {
+        @Override
+        protected double getStatistic(TimedAggregationStatistics statistics) {
+            return toMillis(statistics.getPercentile(50));
+        }
+    },
+    P90 {
+        @Override
+        protected double getStatistic(TimedAggregationStatistics statistics) {
+            return toMillis(statistics.getPercentile(90));
+        }
+    },
+    P95 {
+        @Override
+        protected double getStatistic(TimedAggregationStatistics statistics) {
+            return toMillis(statistics.getPercentile(95));
+        }
+    },
+    P99 {
+        @Override
+        protected double getStatistic(TimedAggregationStatistics statistics) {
+            return toMillis(statistics.getPercentile(99));
+        }
+    },
+    MAX {
+        @Override
+        protected double getStatistic(TimedAggregationStatistics statistics) {
+            return toMillis(statistics.getMax());
+        }
+    };
+    
+    private static final double NANOS_PER_MILLI = 1000000;
+    
+    /**
+     * @param statistics The aggregation to get the statistic from, may be null
+     * @return The statistic, 0 if the aggregation is null or has no values
+     */
+    public final double getValue(TimedAggregationStatistics statistics) {
+        if (statistics == null) {
+            return 0;
+        }
+        
+        final double value = this.getStatistic(statistics);
+        if (Double.isNaN(value)) {
+            return 0;
+        }
+        return value;
+    }
+    
+    protected abstract double getStatistic(TimedAggregationStatistics statistics);
+    
+    private static double toMillis(double nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
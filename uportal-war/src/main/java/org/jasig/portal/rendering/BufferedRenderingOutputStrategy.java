@@ -0,0 +1,135 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Coalesces character events into a bounded character buffer which is written to the response's
+ * {@link java.io.PrintWriter}. The response is only flushed at chunk points (see
+ * {@link org.jasig.portal.character.stream.events.ChunkPointPlaceholderEventSource}), before each portlet's
+ * content is retrieved and when the buffer fills, replacing the per-event writes and flushes done by
+ * {@link FlushingRenderingOutputStrategy}. Chunk points with nothing buffered do not flush.
+ */
+public class BufferedRenderingOutputStrategy implements RenderingOutputStrategy {
+    private int bufferSize = 8192;
+
+    /**
+     * Size of the character buffer in chars, defaults to 8192
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 16) {
+            throw new IllegalArgumentException("bufferSize must be at least 16: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public RenderingOutput openOutput(HttpServletResponse response) throws IOException {
+        return new BufferedRenderingOutput(response.getWriter(), this.bufferSize);
+    }
+
+    static final class BufferedRenderingOutput implements RenderingOutput {
+        private final Writer writer;
+        private final char[] buffer;
+        private int position = 0;
+        private long charactersWritten = 0;
+        private int flushCount = 0;
+        private boolean closed = false;
+        
+        BufferedRenderingOutput(Writer writer, int bufferSize) {
+            this.writer = writer;
+            this.buffer = new char[bufferSize];
+        }
+
+        @Override
+        public void write(String data) throws IOException {
+            if (this.closed) {
+                throw new IllegalStateException("Output has already been closed");
+            }
+            
+            final int length = data.length();
+            if (length == 0) {
+                return;
+            }
+            
+            int offset = 0;
+            while (offset < length) {
+                final int count = Math.min(this.buffer.length - this.position, length - offset);
+                data.getChars(offset, offset + count, this.buffer, this.position);
+                this.position += count;
+                offset += count;
+                
+                if (this.position == this.buffer.length) {
+                    this.writeBuffer();
+                }
+            }
+            
+            this.charactersWritten += length;
+        }
+
+        @Override
+        public void chunkPoint() throws IOException {
+            this.flush();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (this.position > 0) {
+                this.writeBuffer();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            
+            this.flush();
+        }
+        
+        @Override
+        public void abort() {
+            this.closed = true;
+            this.position = 0;
+        }
+
+        @Override
+        public long getCharactersWritten() {
+            return this.charactersWritten;
+        }
+
+        @Override
+        public int getFlushCount() {
+            return this.flushCount;
+        }
+        
+        private void writeBuffer() throws IOException {
+            this.writer.write(this.buffer, 0, this.position);
+            this.position = 0;
+            this.writer.flush();
+            this.flushCount++;
+        }
+    }
+}
@@ -20,8 +20,11 @@
 package org.jasig.portal.rendering;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -32,11 +35,14 @@ import org.jasig.portal.character.stream.events.CharacterDataEvent;
 import org.jasig.portal.character.stream.events.CharacterEvent;
 import org.jasig.portal.character.stream.events.CharacterEventTypes;
 import org.jasig.portal.events.IPortletExecutionEventFactory;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
 import org.jasig.portal.url.IPortalRequestInfo;
 import org.jasig.portal.url.IUrlSyntaxProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.naming.SelfNaming;
 
 /**
  * Top level class that initiates rendering via a {@link CharacterPipelineComponent}
@@ -44,15 +50,24 @@ import org.springframework.beans.factory.annotation.Autowired;
  * @author Eric Dalquist
  * @version $Revision$
  */
-public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
+public class DynamicRenderingPipeline implements IPortalRenderingPipeline, SelfNaming, DynamicRenderingPipelineMXBean {
     public static final String CHARACTER_SET = "UTF-8";
     public static final String DEFAULT_MEDIA_TYPE = "text/html";
     
+    private static final String RENDERING_OUTPUT_ATTRIBUTE = DynamicRenderingPipeline.class.getName() + ".RENDERING_OUTPUT";
+    
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
     private CharacterPipelineComponent pipeline;
     private IPortletExecutionEventFactory portalEventFactory;
     private IUrlSyntaxProvider urlSyntaxProvider;
+    private IPortletExecutionManager portletExecutionManager;
+    private RenderingOutputStrategy outputStrategy = new FlushingRenderingOutputStrategy();
+    private boolean streamPortletContent = false;
+    
+    private final AtomicLong renderCount = new AtomicLong();
+    private final AtomicLong charactersWritten = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
     
 
     @Autowired
@@ -60,6 +75,11 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         this.urlSyntaxProvider = urlSyntaxProvider;
     }
 
+    @Autowired
+    public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
+        this.portletExecutionManager = portletExecutionManager;
+    }
+
     @Autowired
     public void setPortalEventFactory(IPortletExecutionEventFactory portalEventFactory) {
         this.portalEventFactory = portalEventFactory;
@@ -73,6 +93,26 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         this.pipeline = pipeline;
     }
 
+    /**
+     * Strategy used to write the rendered character data to the response, defaults to
+     * {@link FlushingRenderingOutputStrategy}
+     */
+    public void setOutputStrategy(RenderingOutputStrategy outputStrategy) {
+        this.outputStrategy = outputStrategy;
+    }
+
+    /**
+     * If true portlet content for {@link #DEFAULT_MEDIA_TYPE} responses is streamed to the client in the order the
+     * portlets complete rendering instead of document order. The page is written with an empty slot for each portlet
+     * and each portlet's content is written at the end of the body along with a script that moves it into its slot.
+     * Defaults to false.
+     * 
+     * @see StreamedPortletContent
+     */
+    public void setStreamPortletContent(boolean streamPortletContent) {
+        this.streamPortletContent = streamPortletContent;
+    }
+
     @Override
     public void renderState(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
         //Disable page caching
@@ -89,7 +129,51 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         final String contentType = mediaType + "; charset=" + CHARACTER_SET;
         res.setContentType(contentType);
         
-        final PrintWriter writer = res.getWriter();
+        //Must be enabled before the first event is read from the pipeline
+        final StreamedPortletContent streamedPortletContent;
+        if (this.streamPortletContent && DEFAULT_MEDIA_TYPE.equals(mediaType)) {
+            streamedPortletContent = StreamedPortletContent.enable(req);
+        }
+        else {
+            streamedPortletContent = null;
+        }
+        
+        final RenderingOutput output = this.outputStrategy.openOutput(res);
+        req.setAttribute(RENDERING_OUTPUT_ATTRIBUTE, output);
+        
+        boolean rendered = false;
+        try {
+            this.writeEvents(req, res, pipelineEventReader, output, streamedPortletContent);
+            output.close();
+            rendered = true;
+        }
+        finally {
+            req.removeAttribute(RENDERING_OUTPUT_ATTRIBUTE);
+            
+            if (!rendered) {
+                //Drop the buffered markup so error handling starts from the data that actually reached the client
+                output.abort();
+                if (!res.isCommitted()) {
+                    res.resetBuffer();
+                }
+            }
+        }
+        this.updateOutputStatistics(output);
+        
+        final long executionTime = System.nanoTime() - startTime;
+        final IPortalRequestInfo portalRequestInfo = this.urlSyntaxProvider.getPortalRequestInfo(req);
+        this.portalEventFactory.publishPortalRenderEvent(req, this, req.getPathInfo(), executionTime, portalRequestInfo);
+    }
+
+    /**
+     * Writes the character events of the pipeline to the output
+     */
+    protected void writeEvents(HttpServletRequest req, HttpServletResponse res, 
+            PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader, RenderingOutput output,
+            StreamedPortletContent streamedPortletContent) throws IOException {
+        
+        //While streaming, the closing body tag and everything after it is held back until the streamed content is written
+        StringBuilder bodyEnd = null;
         
         for (final CharacterEvent event : pipelineEventReader) {
             if (CharacterEventTypes.CHARACTER != event.getEventType()) {
@@ -97,14 +181,137 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
             }
             
             final String data = ((CharacterDataEvent)event).getData();
-            writer.print(data);
-            writer.flush();
-            res.flushBuffer();
+            if (data.length() == 0) {
+                //Empty data is generated by chunk-point elements
+                output.chunkPoint();
+            }
+            else if (streamedPortletContent != null) {
+                final int bodyEndIndex = StreamedPortletContent.indexOfBodyEnd(data);
+                if (bodyEndIndex >= 0) {
+                    //Only the last closing body tag ends the document, earlier held back data can be written
+                    if (bodyEnd != null) {
+                        output.write(bodyEnd.toString());
+                    }
+                    output.write(data.substring(0, bodyEndIndex));
+                    bodyEnd = new StringBuilder(data.substring(bodyEndIndex));
+                }
+                else if (bodyEnd != null) {
+                    bodyEnd.append(data);
+                }
+                else {
+                    output.write(data);
+                }
+            }
+            else {
+                output.write(data);
+            }
         }
         
-        final long executionTime = System.nanoTime() - startTime;
-        final IPortalRequestInfo portalRequestInfo = this.urlSyntaxProvider.getPortalRequestInfo(req);
-        this.portalEventFactory.publishPortalRenderEvent(req, this, req.getPathInfo(), executionTime, portalRequestInfo);
+        if (streamedPortletContent != null) {
+            this.writeStreamedPortletContent(req, res, output, streamedPortletContent);
+            if (bodyEnd != null) {
+                output.write(bodyEnd.toString());
+            }
+        }
+    }
+
+    /**
+     * Marks a portlet boundary in the page being rendered for the request. Called before retrieving a portlet's
+     * content, which may block until the portlet completes, so markup buffered by the output is sent to the
+     * client first.
+     */
+    public static void portletBoundary(HttpServletRequest req) throws IOException {
+        final RenderingOutput output = (RenderingOutput) req.getAttribute(RENDERING_OUTPUT_ATTRIBUTE);
+        if (output != null) {
+            output.chunkPoint();
+        }
+    }
+
+    /**
+     * Writes the content of each streamed portlet as it completes, flushing after each batch of completed portlets.
+     */
+    protected void writeStreamedPortletContent(HttpServletRequest req, HttpServletResponse res, RenderingOutput output, StreamedPortletContent streamedPortletContent) throws IOException {
+        if (!streamedPortletContent.hasPendingPortlets()) {
+            return;
+        }
+        
+        //Get the page skeleton to the client before waiting on any portlets
+        output.write(StreamedPortletContent.PLACEMENT_SCRIPT);
+        output.flush();
+        
+        boolean waitForCompletion = true;
+        while (streamedPortletContent.hasPendingPortlets()) {
+            Set<IPortletWindowId> completePortlets = streamedPortletContent.getPendingPortlets();
+            if (waitForCompletion) {
+                try {
+                    completePortlets = this.portletExecutionManager.waitForPortletRenderComplete(completePortlets, req, res);
+                }
+                catch (InterruptedException e) {
+                    //Once interrupted stop waiting and fall back to writing the remaining portlets in document order
+                    this.logger.warn("Interrupted while waiting for streamed portlets to complete, remaining portlets will be written in document order");
+                    Thread.currentThread().interrupt();
+                    waitForCompletion = false;
+                }
+            }
+            
+            for (final IPortletWindowId portletWindowId : completePortlets) {
+                final String portletOutput = this.portletExecutionManager.getPortletOutput(portletWindowId, req, res);
+                final String title;
+                if (streamedPortletContent.isTitlePending(portletWindowId)) {
+                    title = this.portletExecutionManager.getPortletTitle(portletWindowId, req, res);
+                }
+                else {
+                    title = null;
+                }
+                
+                output.write(streamedPortletContent.createContentFragment(portletWindowId, portletOutput, title));
+            }
+            
+            output.flush();
+        }
+    }
+
+    protected void updateOutputStatistics(RenderingOutput output) {
+        this.renderCount.incrementAndGet();
+        this.charactersWritten.addAndGet(output.getCharactersWritten());
+        this.flushCount.addAndGet(output.getFlushCount());
+        
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug("Wrote " + output.getCharactersWritten() + " characters with " + output.getFlushCount() + " flushes");
+        }
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("uPortal:section=Framework,name=DynamicRenderingPipeline");
+    }
+
+    @Override
+    public long getRenderCount() {
+        return this.renderCount.get();
+    }
+
+    @Override
+    public long getCharactersWritten() {
+        return this.charactersWritten.get();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return this.flushCount.get();
+    }
+
+    @Override
+    public double getAverageFlushesPerRender() {
+        final long count = this.renderCount.get();
+        return count == 0 ? 0 : this.flushCount.get() / (double) count;
+    }
+
+    @Override
+    public void resetStatistics() {
+        this.renderCount.set(0);
+        this.charactersWritten.set(0);
+        this.flushCount.set(0);
     }
 
     /**
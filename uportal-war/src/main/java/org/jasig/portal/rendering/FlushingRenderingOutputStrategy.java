@@ -0,0 +1,87 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes each character event to the response's {@link PrintWriter} and flushes the response after every write.
+ * This gets data to the client as soon as it is available at the cost of a large number of small writes.
+ */
+public class FlushingRenderingOutputStrategy implements RenderingOutputStrategy {
+
+    @Override
+    public RenderingOutput openOutput(HttpServletResponse response) throws IOException {
+        return new FlushingRenderingOutput(response);
+    }
+    
+    private static final class FlushingRenderingOutput implements RenderingOutput {
+        private final HttpServletResponse response;
+        private final PrintWriter writer;
+        private long charactersWritten = 0;
+        private int flushCount = 0;
+        
+        public FlushingRenderingOutput(HttpServletResponse response) throws IOException {
+            this.response = response;
+            this.writer = response.getWriter();
+        }
+
+        @Override
+        public void write(String data) throws IOException {
+            this.writer.print(data);
+            this.charactersWritten += data.length();
+            this.flush();
+        }
+
+        @Override
+        public void chunkPoint() throws IOException {
+            //Every write is already flushed
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.writer.flush();
+            this.response.flushBuffer();
+            this.flushCount++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.writer.flush();
+        }
+
+        @Override
+        public void abort() {
+            //Nothing is buffered
+        }
+
+        @Override
+        public long getCharactersWritten() {
+            return this.charactersWritten;
+        }
+
+        @Override
+        public int getFlushCount() {
+            return this.flushCount;
+        }
+    }
+}
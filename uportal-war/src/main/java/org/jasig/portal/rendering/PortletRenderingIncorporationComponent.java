@@ -19,6 +19,7 @@
 
 package org.jasig.portal.rendering;
 
+import java.io.IOException;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -33,7 +34,10 @@ import org.jasig.portal.character.stream.events.PortletHeaderPlaceholderEvent;
 import org.jasig.portal.character.stream.events.PortletLinkPlaceholderEvent;
 import org.jasig.portal.character.stream.events.PortletNewItemCountPlaceholderEvent;
 import org.jasig.portal.character.stream.events.PortletTitlePlaceholderEvent;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletWindow;
 import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
 import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
 import org.jasig.portal.utils.cache.CacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -41,16 +45,27 @@ import org.springframework.beans.factory.annotation.Autowired;
 /**
  * Inserts the results of portlet's rendering into the character stream
  * 
+ * If {@link StreamedPortletContent} is enabled for the request portlet content is not waited on, an empty
+ * slot is inserted instead and the content is written by the {@link DynamicRenderingPipeline} once the portlet
+ * completes. Titles of portlets that have not completed are written using the title from the portlet definition
+ * and replaced when the content is streamed.
+ * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class PortletRenderingIncorporationComponent extends CharacterPipelineComponentWrapper {
     private IPortletExecutionManager portletExecutionManager;
+    private IPortletWindowRegistry portletWindowRegistry;
     
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
         this.portletExecutionManager = portletExecutionManager;
     }
+    
+    @Autowired
+    public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
+        this.portletWindowRegistry = portletWindowRegistry;
+    }
 
     /* (non-Javadoc)
      * @see org.jasig.portal.rendering.PipelineComponent#getCacheKey(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
@@ -78,6 +93,15 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
         return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(portletIncorporatingEventReader, outputProperties);
     }
 
+    /**
+     * @return The title from the portlet definition, used until the portlet's dynamic title is available
+     */
+    protected String getDefaultPortletTitle(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
+        final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
+        final IPortletDefinition portletDefinition = portletWindow.getPortletEntity().getPortletDefinition();
+        return portletDefinition.getTitle(response.getLocale().toString());
+    }
+
     private class PortletIncorporatingEventReader extends FilteringCharacterEventReader {
         private final HttpServletRequest request;
         private final HttpServletResponse response;
@@ -103,6 +127,25 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                     final PortletContentPlaceholderEvent contentPlaceholderEvent = (PortletContentPlaceholderEvent)event;
                     final IPortletWindowId portletWindowId = contentPlaceholderEvent.getPortletWindowId();
                     
+                    final StreamedPortletContent streamedPortletContent = StreamedPortletContent.getStreamedPortletContent(this.request);
+                    if (streamedPortletContent != null) {
+                        //Make sure the portlet is rendering, the pipeline only writes content for running portlets
+                        if (!portletExecutionManager.isPortletRenderRequested(portletWindowId, this.request, this.response)) {
+                            portletExecutionManager.startPortletRender(portletWindowId, this.request, this.response);
+                        }
+                        
+                        final String slot = streamedPortletContent.addPortletContent(portletWindowId);
+                        return CharacterDataEventImpl.create(slot);
+                    }
+                    
+                    //Get the markup before the portlet to the client before waiting on the portlet
+                    try {
+                        DynamicRenderingPipeline.portletBoundary(this.request);
+                    }
+                    catch (IOException e) {
+                        logger.debug("Failed to flush rendered markup before portlet " + portletWindowId, e);
+                    }
+                    
                     final String output = portletExecutionManager.getPortletOutput(portletWindowId, this.request, this.response);
                     
                     return CharacterDataEventImpl.create(output);
@@ -111,6 +154,14 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                     final PortletTitlePlaceholderEvent titlePlaceholderEvent = (PortletTitlePlaceholderEvent)event;
                     final IPortletWindowId portletWindowId = titlePlaceholderEvent.getPortletWindowId();
                     
+                    final StreamedPortletContent streamedPortletContent = StreamedPortletContent.getStreamedPortletContent(this.request);
+                    if (streamedPortletContent != null 
+                            && !portletExecutionManager.isPortletRenderComplete(portletWindowId, this.request, this.response)) {
+                        final String defaultTitle = getDefaultPortletTitle(portletWindowId, this.request, this.response);
+                        final String titleSlot = streamedPortletContent.addPortletTitle(portletWindowId, defaultTitle);
+                        return CharacterDataEventImpl.create(titleSlot);
+                    }
+                    
                     final String title = portletExecutionManager.getPortletTitle(portletWindowId, this.request, this.response);
                     
                     return CharacterDataEventImpl.create(title);
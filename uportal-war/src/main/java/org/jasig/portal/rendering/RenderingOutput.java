@@ -0,0 +1,66 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering;
+
+import java.io.IOException;
+
+/**
+ * Target for the character data produced by the rendering pipeline for a single request. Tracks the amount
+ * of data written and the number of times the response was flushed.
+ * 
+ * @see RenderingOutputStrategy
+ */
+public interface RenderingOutput {
+    /**
+     * Write character data to the output, the implementation decides when the data is sent to the client.
+     */
+    public void write(String data) throws IOException;
+    
+    /**
+     * Marks a natural break in the page (see {@link org.jasig.portal.character.stream.events.ChunkPointPlaceholderEventSource})
+     * or a portlet boundary, implementations may choose to send any buffered data to the client.
+     */
+    public void chunkPoint() throws IOException;
+    
+    /**
+     * Send all buffered data to the client
+     */
+    public void flush() throws IOException;
+    
+    /**
+     * Send all buffered data to the client, no more data may be written after close is called. Does not close the
+     * underlying response stream.
+     */
+    public void close() throws IOException;
+    
+    /**
+     * Discard any buffered data after rendering failed, no more data may be written after abort is called.
+     */
+    public void abort();
+    
+    /**
+     * @return Number of characters written
+     */
+    public long getCharactersWritten();
+    
+    /**
+     * @return Number of times the response was flushed
+     */
+    public int getFlushCount();
+}
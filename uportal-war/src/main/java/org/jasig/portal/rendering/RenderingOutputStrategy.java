@@ -0,0 +1,35 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Determines how the character data produced by the rendering pipeline is written to the response.
+ * 
+ * @see DynamicRenderingPipeline#setOutputStrategy(RenderingOutputStrategy)
+ */
+public interface RenderingOutputStrategy {
+    /**
+     * Open the output for the response, the content type and character encoding of the response MUST already be set.
+     */
+    public RenderingOutput openOutput(HttpServletResponse response) throws IOException;
+}
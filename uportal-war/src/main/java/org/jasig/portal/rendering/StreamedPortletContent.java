@@ -0,0 +1,171 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+
+/**
+ * Request scoped tracking of portlets whose content is streamed to the client out of document order. When
+ * enabled by the {@link DynamicRenderingPipeline} the {@link PortletRenderingIncorporationComponent} writes
+ * an empty slot in place of each portlet's content and registers the portlet here. After the page skeleton
+ * has been written the pipeline writes each portlet's content before the closing body tag, in the order the
+ * portlets complete, along with a small script that moves the content into its slot.
+ */
+public final class StreamedPortletContent {
+    private static final String REQUEST_ATTRIBUTE = StreamedPortletContent.class.getName();
+
+    private static final String CONTENT_SLOT_PREFIX = "up-streamed-content-slot_";
+    private static final String TITLE_SLOT_PREFIX = "up-streamed-title-slot_";
+    private static final String CONTENT_PREFIX = "up-streamed-content_";
+
+    /**
+     * Script written once before the first streamed portlet, defines the function used to move each
+     * portlet's content into its slot.
+     */
+    public static final String PLACEMENT_SCRIPT =
+            "<script type=\"text/javascript\">" +
+                "function upPlaceStreamedPortlet(id, title) {" +
+                    "var src = document.getElementById('" + CONTENT_PREFIX + "' + id);" +
+                    "var slot = document.getElementById('" + CONTENT_SLOT_PREFIX + "' + id);" +
+                    "if (src && slot) {" +
+                        "while (src.firstChild) { slot.appendChild(src.firstChild); }" +
+                        "src.parentNode.removeChild(src);" +
+                    "}" +
+                    "var titleSlot = document.getElementById('" + TITLE_SLOT_PREFIX + "' + id);" +
+                    "if (titleSlot && title != null) {" +
+                        "titleSlot.innerHTML = title;" +
+                    "}" +
+                "}" +
+            "</script>";
+
+    private final Set<IPortletWindowId> pendingPortlets = new LinkedHashSet<IPortletWindowId>();
+    private final Set<IPortletWindowId> pendingTitles = new HashSet<IPortletWindowId>();
+
+    private StreamedPortletContent() {
+    }
+
+    /**
+     * Enable content streaming for the request
+     *
+     * @return The tracker for the request, never null
+     */
+    public static StreamedPortletContent enable(HttpServletRequest request) {
+        StreamedPortletContent streamedPortletContent = getStreamedPortletContent(request);
+        if (streamedPortletContent == null) {
+            streamedPortletContent = new StreamedPortletContent();
+            request.setAttribute(REQUEST_ATTRIBUTE, streamedPortletContent);
+        }
+        return streamedPortletContent;
+    }
+
+    /**
+     * @return The tracker for the request, null if content streaming is not enabled for the request
+     */
+    public static StreamedPortletContent getStreamedPortletContent(HttpServletRequest request) {
+        return (StreamedPortletContent) request.getAttribute(REQUEST_ATTRIBUTE);
+    }
+
+    /**
+     * Registers the portlet as streamed
+     *
+     * @return The markup for the empty slot the portlet content will be placed into
+     */
+    public synchronized String addPortletContent(IPortletWindowId portletWindowId) {
+        this.pendingPortlets.add(portletWindowId);
+        return "<div id=\"" + CONTENT_SLOT_PREFIX + escapeId(portletWindowId) + "\"></div>";
+    }
+
+    /**
+     * Registers the portlet's title as pending, it will be replaced when the portlet's content is streamed.
+     *
+     * @param defaultTitle The title to display until the portlet's content is streamed, written as-is like the non-streamed title
+     * @return The markup for the title slot
+     */
+    public synchronized String addPortletTitle(IPortletWindowId portletWindowId, String defaultTitle) {
+        this.pendingTitles.add(portletWindowId);
+        return "<span id=\"" + TITLE_SLOT_PREFIX + escapeId(portletWindowId) + "\">" + defaultTitle + "</span>";
+    }
+
+    /**
+     * @return A snapshot of the portlets that have not yet been streamed, in document order
+     */
+    public synchronized Set<IPortletWindowId> getPendingPortlets() {
+        return Collections.unmodifiableSet(new LinkedHashSet<IPortletWindowId>(this.pendingPortlets));
+    }
+
+    public synchronized boolean hasPendingPortlets() {
+        return !this.pendingPortlets.isEmpty();
+    }
+
+    /**
+     * @return true if the portlet's title was written with a default value and needs to be replaced
+     */
+    public synchronized boolean isTitlePending(IPortletWindowId portletWindowId) {
+        return this.pendingTitles.contains(portletWindowId);
+    }
+
+    /**
+     * Marks the portlet as streamed and returns the markup containing the portlet's content and the script
+     * to move the content into place.
+     *
+     * @param title The portlet's title, null if the title slot does not need to be updated
+     */
+    public synchronized String createContentFragment(IPortletWindowId portletWindowId, String content, String title) {
+        this.pendingPortlets.remove(portletWindowId);
+        this.pendingTitles.remove(portletWindowId);
+
+        final StringBuilder fragment = new StringBuilder(content.length() + 256);
+        fragment.append("<div id=\"").append(CONTENT_PREFIX).append(escapeId(portletWindowId)).append("\" style=\"display:none\">");
+        fragment.append(content);
+        fragment.append("</div>");
+        fragment.append("<script type=\"text/javascript\">upPlaceStreamedPortlet('");
+        fragment.append(StringEscapeUtils.escapeJavaScript(portletWindowId.getStringId())).append("', ");
+        if (title != null) {
+            fragment.append("'").append(StringEscapeUtils.escapeJavaScript(title)).append("'");
+        }
+        else {
+            fragment.append("null");
+        }
+        fragment.append(");</script>");
+
+        return fragment.toString();
+    }
+
+    /**
+     * @return The index of the last closing body tag in the data, -1 if there is none. Streamed content is written
+     * before this tag.
+     */
+    public static int indexOfBodyEnd(String data) {
+        return StringUtils.lastIndexOfIgnoreCase(data, "</body");
+    }
+
+    private static String escapeId(IPortletWindowId portletWindowId) {
+        return StringEscapeUtils.escapeXml(portletWindowId.getStringId());
+    }
+}
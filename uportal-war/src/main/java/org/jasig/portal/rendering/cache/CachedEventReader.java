@@ -20,12 +20,14 @@
 package org.jasig.portal.rendering.cache;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Holder class for an event cache and output properties
+ * Holder class for an event cache and output properties. The events are copied into a right-sized array
+ * so cached entries carry no per-event list node overhead.
  */
 class CachedEventReader<E> implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -34,7 +36,9 @@ class CachedEventReader<E> implements Serializable {
     private final Map<String, String> outputProperties;
 
     public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties) {
-        this.eventCache = Collections.unmodifiableList(eventCache);
+        @SuppressWarnings("unchecked")
+        final E[] events = (E[]) eventCache.toArray();
+        this.eventCache = Collections.unmodifiableList(Arrays.asList(events));
         this.outputProperties = Collections.unmodifiableMap(outputProperties);
     }
 
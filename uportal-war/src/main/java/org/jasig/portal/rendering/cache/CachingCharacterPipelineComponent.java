@@ -19,13 +19,21 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ListIterator;
 
 import org.jasig.portal.character.stream.CharacterEventBufferReader;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletPlaceholderEvent;
 import org.jasig.portal.rendering.CharacterPipelineComponent;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
  * component that can cache character pipeline events
  * 
@@ -33,6 +41,58 @@ import org.jasig.portal.rendering.CharacterPipelineComponent;
  * @version $Revision$
  */
 public class CachingCharacterPipelineComponent extends CachingPipelineComponent<CharacterEventReader, CharacterEvent> implements CharacterPipelineComponent {
+    //Placeholder events are immutable and identified by window id and type, share them across cache entries
+    private static final Interner<PortletPlaceholderEvent> PLACEHOLDER_INTERNER = Interners.newWeakInterner();
+    
+    /**
+     * Merges each run of adjacent character events into a single event and interns placeholder events. Empty
+     * character events are chunk points used as flush hints by the output, they end the current run and are
+     * kept in place so chunk and portlet boundaries in the cached stream are unchanged. Runs of a single event
+     * keep the original, shared, event instance.
+     */
+    @Override
+    protected List<CharacterEvent> compactEvents(List<CharacterEvent> events) {
+        final List<CharacterEvent> compacted = new ArrayList<CharacterEvent>(events.size());
+        
+        final List<CharacterDataEvent> run = new ArrayList<CharacterDataEvent>();
+        for (final CharacterEvent event : events) {
+            if (event instanceof CharacterDataEvent && ((CharacterDataEvent) event).getData().length() > 0) {
+                run.add((CharacterDataEvent) event);
+                continue;
+            }
+            
+            addCharacterRun(compacted, run);
+            run.clear();
+            
+            if (event instanceof PortletPlaceholderEvent) {
+                compacted.add(PLACEHOLDER_INTERNER.intern((PortletPlaceholderEvent) event));
+            }
+            else {
+                compacted.add(event);
+            }
+        }
+        addCharacterRun(compacted, run);
+        
+        return compacted;
+    }
+    
+    private void addCharacterRun(List<CharacterEvent> compacted, List<CharacterDataEvent> run) {
+        if (run.size() == 1) {
+            //Keep the existing event, it is likely already shared with other cache entries
+            compacted.add(run.get(0));
+        }
+        else if (run.size() > 1) {
+            int length = 0;
+            for (final CharacterDataEvent dataEvent : run) {
+                length += dataEvent.getData().length();
+            }
+            final StringBuilder data = new StringBuilder(length);
+            for (final CharacterDataEvent dataEvent : run) {
+                data.append(dataEvent.getData());
+            }
+            compacted.add(CharacterDataEventImpl.create(data.toString()));
+        }
+    }
     
     @Override
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
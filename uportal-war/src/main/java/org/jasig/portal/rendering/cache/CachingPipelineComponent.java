@@ -19,11 +19,22 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,19 +52,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.naming.SelfNaming;
+
+import com.google.common.base.Throwables;
 
 /**
  * Component that caches events from a wrapped component
+ * <br/>
+ * Cache population is coalesced per {@link CacheKey}, when several requests miss the cache for the same key only
+ * the first runs the wrapped component. The others wait up to {@link #setCoalescingTimeout(long)} for it to finish
+ * and use its events. If the wait times out or the first request fails the waiting request runs the wrapped
+ * component itself.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
-public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWrapper<R, E> implements BeanNameAware {
+public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWrapper<R, E> implements BeanNameAware, SelfNaming, CachingPipelineComponentMXBean {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
+    private final ConcurrentMap<CacheKey, FutureTask<CachedEventReader<E>>> inFlightLoads = new ConcurrentHashMap<CacheKey, FutureTask<CachedEventReader<E>>>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong coalescedWaits = new AtomicLong();
+    private final AtomicLong coalescedWaitTimeouts = new AtomicLong();
+    private final AtomicLong coalescedWaitFailures = new AtomicLong();
+    
     private ResourcesElementsProvider resourcesElementsProvider;
     private Ehcache cache;
     private String beanName;
+    private volatile long coalescingTimeout = TimeUnit.SECONDS.toMillis(10);
     
     @Autowired
     public void setResourcesElementsProvider(ResourcesElementsProvider resourcesElementsProvider) {
@@ -68,6 +95,63 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
     public void setBeanName(String name) {
         this.beanName = name;
     }
+    
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("uPortal:section=Rendering,name=" + this.beanName);
+    }
+
+    @Override
+    public long getCoalescingTimeout() {
+        return this.coalescingTimeout;
+    }
+
+    /**
+     * Maximum time in ms a request waits for another request to populate the cache for the same key, defaults to 10 seconds
+     */
+    @Override
+    public void setCoalescingTimeout(long coalescingTimeout) {
+        this.coalescingTimeout = coalescingTimeout;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return this.cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return this.cacheMisses.get();
+    }
+
+    @Override
+    public long getCoalescedWaits() {
+        return this.coalescedWaits.get();
+    }
+
+    @Override
+    public long getCoalescedWaitTimeouts() {
+        return this.coalescedWaitTimeouts.get();
+    }
+
+    @Override
+    public long getCoalescedWaitFailures() {
+        return this.coalescedWaitFailures.get();
+    }
+
+    @Override
+    public int getInFlightLoads() {
+        return this.inFlightLoads.size();
+    }
+
+    @Override
+    public void resetStatistics() {
+        this.cacheHits.set(0);
+        this.cacheMisses.set(0);
+        this.coalescedWaits.set(0);
+        this.coalescedWaitTimeouts.set(0);
+        this.coalescedWaitFailures.set(0);
+    }
 
     @Override
     public final CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
@@ -79,7 +163,7 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
      */
     @SuppressWarnings("unchecked")
     @Override
-    public final PipelineEventReader<R, E> getEventReader(HttpServletRequest request, HttpServletResponse response) {
+    public final PipelineEventReader<R, E> getEventReader(final HttpServletRequest request, final HttpServletResponse response) {
         if (Included.PLAIN == this.resourcesElementsProvider.getDefaultIncludedType()) {
             this.logger.trace("{} - Resoure Aggregation Disabled, ignoring event cache and returning parent event reader directly", this.beanName);
             return this.wrappedComponent.getEventReader(request, response);
@@ -95,26 +179,31 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
 
         //If there was a cached reader return it immediately
         if (cachedEventReader == null) {
-            //No cached data for key, call target component to get events and an updated cache key
-            logger.debug("{} - No cached events found for key {}, calling parent", this.beanName, cacheKey);
-            final PipelineEventReader<R, E> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
-
-            //Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
-            for (final E event : pipelineEventReader) {
-                //TODO add de-duplication logic here
-                eventCache.add(event);
+            final FutureTask<CachedEventReader<E>> loadTask = new FutureTask<CachedEventReader<E>>(new Callable<CachedEventReader<E>>() {
+                @Override
+                public CachedEventReader<E> call() throws Exception {
+                    return loadEventReader(request, response, cacheKey);
+                }
+            });
+            
+            final FutureTask<CachedEventReader<E>> existingLoadTask = this.inFlightLoads.putIfAbsent(cacheKey, loadTask);
+            if (existingLoadTask == null) {
+                //No other request is populating this key, do it here
+                this.cacheMisses.incrementAndGet();
+                try {
+                    loadTask.run();
+                    cachedEventReader = this.getLoadResult(loadTask);
+                }
+                finally {
+                    this.inFlightLoads.remove(cacheKey, loadTask);
+                }
+            }
+            else {
+                cachedEventReader = this.waitForLoad(request, response, cacheKey, existingLoadTask);
             }
-
-            final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-            cachedEventReader = new CachedEventReader<E>(eventCache, new LinkedHashMap<String, String>(outputProperties));
-
-            //Cache the buffer
-            element = new Element(cacheKey, cachedEventReader);
-            this.cache.put(element);
-            logger.debug("{} - Cached {} events for key {}", new Object[] {this.beanName, eventCache.size(), cacheKey});
         }
         else {
+            this.cacheHits.incrementAndGet();
             logger.debug("{} - Founed  cached events for key {}", new Object[] {this.beanName, cacheKey});
         }
 
@@ -125,6 +214,85 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
     }
     
+    /**
+     * Wait for another request to populate the cache for the key, falling back to calling the wrapped component if the
+     * wait times out or the other request fails.
+     */
+    private CachedEventReader<E> waitForLoad(HttpServletRequest request, HttpServletResponse response, CacheKey cacheKey, FutureTask<CachedEventReader<E>> loadTask) {
+        this.coalescedWaits.incrementAndGet();
+        logger.debug("{} - Waiting for in-flight load of key {}", this.beanName, cacheKey);
+        
+        try {
+            return loadTask.get(this.coalescingTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            this.coalescedWaitTimeouts.incrementAndGet();
+            logger.warn("{} - Timed out after {}ms waiting for in-flight load of key {}, calling parent", new Object[] {this.beanName, this.coalescingTimeout, cacheKey});
+        }
+        catch (ExecutionException e) {
+            this.coalescedWaitFailures.incrementAndGet();
+            logger.debug("{} - In-flight load of key {} failed, calling parent", this.beanName, cacheKey);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("{} - Interrupted waiting for in-flight load of key {}, calling parent", this.beanName, cacheKey);
+        }
+        
+        return this.loadEventReader(request, response, cacheKey);
+    }
+    
+    /**
+     * Get the events from the wrapped component and store them in the cache
+     */
+    private CachedEventReader<E> loadEventReader(HttpServletRequest request, HttpServletResponse response, CacheKey cacheKey) {
+        //No cached data for key, call target component to get events and an updated cache key
+        logger.debug("{} - No cached events found for key {}, calling parent", this.beanName, cacheKey);
+        final PipelineEventReader<R, E> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
+
+        //Copy the events from the reader into a buffer to be cached
+        final List<E> events = new ArrayList<E>();
+        for (final E event : pipelineEventReader) {
+            events.add(event);
+        }
+        final List<E> eventCache = this.compactEvents(events);
+
+        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
+        final CachedEventReader<E> cachedEventReader = new CachedEventReader<E>(eventCache, new LinkedHashMap<String, String>(outputProperties));
+
+        //Cache the buffer
+        final Element element = new Element(cacheKey, cachedEventReader);
+        this.cache.put(element);
+        logger.debug("{} - Cached {} events (compacted from {}) for key {}", new Object[] {this.beanName, eventCache.size(), events.size(), cacheKey});
+        
+        return cachedEventReader;
+    }
+    
+    private CachedEventReader<E> getLoadResult(FutureTask<CachedEventReader<E>> loadTask) {
+        try {
+            return loadTask.get();
+        }
+        catch (InterruptedException e) {
+            //Can't happen, the task has already been run on this thread
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+    
+    /**
+     * Reduce the memory footprint of a freshly buffered event list before it is cached. The returned list must
+     * produce exactly the same output as the source list when replayed. The default implementation returns the
+     * events as-is.
+     * 
+     * @param events The events read from the wrapped component, in order
+     * @return The events to cache
+     */
+    protected List<E> compactEvents(List<E> events) {
+        return events;
+    }
+    
     //Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
 }
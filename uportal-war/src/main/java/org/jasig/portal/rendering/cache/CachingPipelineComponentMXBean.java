@@ -0,0 +1,70 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering.cache;
+
+/**
+ * Cache and request coalescing statistics for a {@link CachingPipelineComponent}
+ */
+public interface CachingPipelineComponentMXBean {
+    
+    /**
+     * @return Number of requests that found the events in the cache
+     */
+    long getCacheHits();
+    
+    /**
+     * @return Number of requests that ran the wrapped component and populated the cache
+     */
+    long getCacheMisses();
+    
+    /**
+     * @return Number of requests that waited for another request to populate the cache for the same key
+     */
+    long getCoalescedWaits();
+    
+    /**
+     * @return Number of waiting requests that gave up after {@link #getCoalescingTimeout()} and ran the wrapped component themselves
+     */
+    long getCoalescedWaitTimeouts();
+    
+    /**
+     * @return Number of waiting requests that ran the wrapped component themselves because the populating request failed
+     */
+    long getCoalescedWaitFailures();
+    
+    /**
+     * @return Number of cache keys currently being populated
+     */
+    int getInFlightLoads();
+    
+    /**
+     * @return Maximum time in ms a request waits for another request to populate the cache
+     */
+    long getCoalescingTimeout();
+    
+    /**
+     * @param coalescingTimeout Maximum time in ms a request waits for another request to populate the cache
+     */
+    void setCoalescingTimeout(long coalescingTimeout);
+    
+    /**
+     * Reset all statistics
+     */
+    void resetStatistics();
+}
@@ -19,9 +19,13 @@
 
 package org.jasig.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ListIterator;
 
+import javax.xml.stream.XMLEventFactory;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.XMLEvent;
 
 import org.jasig.portal.rendering.StAXPipelineComponent;
@@ -34,6 +38,47 @@ import org.jasig.portal.xml.stream.XMLEventBufferReader;
  * @version $Revision$
  */
 public class CachingStAXPipelineComponent extends CachingPipelineComponent<XMLEventReader, XMLEvent> implements StAXPipelineComponent {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+    
+    /**
+     * Merges each run of adjacent plain character events into a single event. CDATA and ignorable whitespace
+     * events are left as-is as they serialize differently.
+     */
+    @Override
+    protected List<XMLEvent> compactEvents(List<XMLEvent> events) {
+        final List<XMLEvent> compacted = new ArrayList<XMLEvent>(events.size());
+        
+        final List<Characters> run = new ArrayList<Characters>();
+        for (final XMLEvent event : events) {
+            if (event.isCharacters()) {
+                final Characters characters = event.asCharacters();
+                if (!characters.isCData() && !characters.isIgnorableWhiteSpace()) {
+                    run.add(characters);
+                    continue;
+                }
+            }
+            
+            addCharactersRun(compacted, run);
+            run.clear();
+            compacted.add(event);
+        }
+        addCharactersRun(compacted, run);
+        
+        return compacted;
+    }
+    
+    private void addCharactersRun(List<XMLEvent> compacted, List<Characters> run) {
+        if (run.size() == 1) {
+            compacted.add(run.get(0));
+        }
+        else if (run.size() > 1) {
+            final StringBuilder data = new StringBuilder();
+            for (final Characters characters : run) {
+                data.append(characters.getData());
+            }
+            compacted.add(EVENT_FACTORY.createCharacters(data.toString()));
+        }
+    }
 
     @Override
     protected XMLEventReader createEventReader(ListIterator<XMLEvent> eventCache) {
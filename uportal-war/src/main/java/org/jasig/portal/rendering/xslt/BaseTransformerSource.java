@@ -51,6 +51,7 @@ public abstract class BaseTransformerSource implements TransformerSource, Resour
     private IUserInstanceManager userInstanceManager;
     private XmlUtilities xmlUtilities;
     private ResourceLoader resourceLoader;
+    private TransformerPool transformerPool;
     protected IStylesheetDescriptorDao stylesheetDescriptorDao;
     
     @Autowired
@@ -63,6 +64,11 @@ public abstract class BaseTransformerSource implements TransformerSource, Resour
         this.userInstanceManager = userInstanceManager;
     }
 
+    @Autowired
+    public void setTransformerPool(TransformerPool transformerPool) {
+        this.transformerPool = transformerPool;
+    }
+
     @Autowired
     public void setXmlUtilities(XmlUtilities xmlUtilities) {
         this.xmlUtilities = xmlUtilities;
@@ -101,7 +107,7 @@ public abstract class BaseTransformerSource implements TransformerSource, Resour
     public final Transformer getTransformer(HttpServletRequest request, HttpServletResponse response) {
         final Resource stylesheetResource = this.getStylesheetResource(request);
         try {
-            return this.xmlUtilities.getTransformer(stylesheetResource);
+            return this.transformerPool.borrowTransformer(stylesheetResource);
         }
         catch (TransformerConfigurationException e) {
             throw new RuntimeException("Failed to get Transformer for stylesheet: " + stylesheetResource, e);
@@ -111,6 +117,14 @@ public abstract class BaseTransformerSource implements TransformerSource, Resour
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.jasig.portal.rendering.xslt.TransformerSource#releaseTransformer(javax.xml.transform.Transformer, long, boolean)
+     */
+    @Override
+    public final void releaseTransformer(Transformer transformer, long transformTime, boolean successful) {
+        this.transformerPool.returnTransformer(transformer, transformTime, successful);
+    }
+    
     /**
      * Get the stylesheet description from the user preferences
      */
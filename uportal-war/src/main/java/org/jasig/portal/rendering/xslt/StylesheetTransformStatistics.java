@@ -0,0 +1,82 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering.xslt;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Transform count and time percentiles, in milliseconds, for a single stylesheet
+ */
+public class StylesheetTransformStatistics {
+    private final String stylesheet;
+    private final int idleTransformers;
+    private final long transforms;
+    private final double meanTime;
+    private final double medianTime;
+    private final double ninetiethPercentileTime;
+    private final double ninetyNinthPercentileTime;
+    private final double maxTime;
+
+    @ConstructorProperties({ "stylesheet", "idleTransformers", "transforms", "meanTime", "medianTime",
+            "ninetiethPercentileTime", "ninetyNinthPercentileTime", "maxTime" })
+    public StylesheetTransformStatistics(String stylesheet, int idleTransformers, long transforms, double meanTime,
+            double medianTime, double ninetiethPercentileTime, double ninetyNinthPercentileTime, double maxTime) {
+        this.stylesheet = stylesheet;
+        this.idleTransformers = idleTransformers;
+        this.transforms = transforms;
+        this.meanTime = meanTime;
+        this.medianTime = medianTime;
+        this.ninetiethPercentileTime = ninetiethPercentileTime;
+        this.ninetyNinthPercentileTime = ninetyNinthPercentileTime;
+        this.maxTime = maxTime;
+    }
+
+    public String getStylesheet() {
+        return this.stylesheet;
+    }
+
+    public int getIdleTransformers() {
+        return this.idleTransformers;
+    }
+
+    public long getTransforms() {
+        return this.transforms;
+    }
+
+    public double getMeanTime() {
+        return this.meanTime;
+    }
+
+    public double getMedianTime() {
+        return this.medianTime;
+    }
+
+    public double getNinetiethPercentileTime() {
+        return this.ninetiethPercentileTime;
+    }
+
+    public double getNinetyNinthPercentileTime() {
+        return this.ninetyNinthPercentileTime;
+    }
+
+    public double getMaxTime() {
+        return this.maxTime;
+    }
+}
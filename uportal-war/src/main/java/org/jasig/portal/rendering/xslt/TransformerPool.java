@@ -0,0 +1,49 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering.xslt;
+
+import java.io.IOException;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Pools {@link Transformer} instances for each compiled stylesheet. Pools are tied to the {@link Templates}
+ * loaded for a stylesheet, when the stylesheet is modified and re-compiled the previous pool is discarded.
+ */
+public interface TransformerPool {
+    /**
+     * Get a Transformer for the stylesheet, the caller must pass the Transformer to
+     * {@link #returnTransformer(Transformer, long, boolean)} once it is done with it.
+     */
+    public Transformer borrowTransformer(Resource stylesheet) throws TransformerConfigurationException, IOException;
+    
+    /**
+     * Return a Transformer obtained from {@link #borrowTransformer(Resource)}. The Transformer is reset
+     * and made available to later callers.
+     * 
+     * @param transformTime Time in nanoseconds spent transforming, recorded against the stylesheet
+     * @param reusable false if the Transformer is in an unknown state, for example after a failed transform, and must be discarded
+     */
+    public void returnTransformer(Transformer transformer, long transformTime, boolean reusable);
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering.xslt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+
+import org.jasig.portal.utils.LatencyHistogram;
+import org.jasig.portal.utils.cache.resource.CachedResource;
+import org.jasig.portal.utils.cache.resource.CachingResourceLoader;
+import org.jasig.portal.utils.cache.resource.TemplatesBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * {@link TransformerPool} backed by the {@link CachingResourceLoader}. Stylesheets are compiled once per
+ * modification by the resource loader, each compiled {@link Templates} gets a bounded pool of idle
+ * {@link Transformer}s that are reset before reuse.
+ */
+@Service
+@ManagedResource("uPortal:section=Rendering,name=TransformerPool")
+public class TransformerPoolImpl implements TransformerPool, TransformerPoolMXBean {
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
+    private final ConcurrentMap<String, TemplatesPool> templatesPools = new ConcurrentHashMap<String, TemplatesPool>();
+    //Weak keys so Transformers that are never returned do not leak, MapMaker uses identity for weak keys
+    private final Map<Transformer, TemplatesPool> borrowedTransformers = new MapMaker().weakKeys().makeMap();
+    
+    private final AtomicLong templatesLoads = new AtomicLong();
+    private final AtomicLong poolHits = new AtomicLong();
+    private final AtomicLong poolMisses = new AtomicLong();
+    private final AtomicLong transformersDiscarded = new AtomicLong();
+    
+    private CachingResourceLoader cachingResourceLoader;
+    private TemplatesBuilder templatesBuilder;
+    private int maxIdlePerStylesheet = 32;
+
+    @Autowired
+    public void setCachingResourceLoader(CachingResourceLoader cachingResourceLoader) {
+        this.cachingResourceLoader = cachingResourceLoader;
+    }
+
+    @Autowired
+    public void setTemplatesBuilder(TemplatesBuilder templatesBuilder) {
+        this.templatesBuilder = templatesBuilder;
+    }
+
+    /**
+     * Maximum number of idle Transformers kept for each stylesheet, 0 disables pooling. Defaults to 32
+     */
+    @Value("${org.jasig.portal.rendering.xslt.transformerPoolSize:32}")
+    public void setMaxIdlePerStylesheet(int maxIdlePerStylesheet) {
+        this.maxIdlePerStylesheet = maxIdlePerStylesheet;
+    }
+
+    @Override
+    public Transformer borrowTransformer(Resource stylesheet) throws TransformerConfigurationException, IOException {
+        final CachedResource<Templates> cachedTemplates = this.cachingResourceLoader.getResource(stylesheet, this.templatesBuilder);
+        final TemplatesPool templatesPool = this.getTemplatesPool(stylesheet.getDescription(), cachedTemplates);
+        
+        Transformer transformer = templatesPool.idleTransformers.poll();
+        if (transformer != null) {
+            this.poolHits.incrementAndGet();
+        }
+        else {
+            this.poolMisses.incrementAndGet();
+            transformer = templatesPool.templates.newTransformer();
+        }
+        
+        this.borrowedTransformers.put(transformer, templatesPool);
+        return transformer;
+    }
+
+    @Override
+    public void returnTransformer(Transformer transformer, long transformTime, boolean reusable) {
+        final TemplatesPool templatesPool = this.borrowedTransformers.remove(transformer);
+        if (templatesPool == null) {
+            //Not from this pool or already returned
+            return;
+        }
+        
+        templatesPool.transformTimes.record(TimeUnit.NANOSECONDS.toMicros(transformTime));
+        
+        //Only keep the Transformer if its pool is still the current one for the stylesheet
+        if (reusable && this.maxIdlePerStylesheet > 0 && this.templatesPools.get(templatesPool.stylesheet) == templatesPool) {
+            try {
+                transformer.reset();
+                if (templatesPool.idleTransformers.offer(transformer)) {
+                    return;
+                }
+            }
+            catch (UnsupportedOperationException e) {
+                this.logger.debug("Transformer {} does not support reset, it will not be pooled", transformer.getClass());
+            }
+        }
+        
+        this.transformersDiscarded.incrementAndGet();
+    }
+
+    @Override
+    public long getTemplatesLoads() {
+        return this.templatesLoads.get();
+    }
+
+    @Override
+    public long getPoolHits() {
+        return this.poolHits.get();
+    }
+
+    @Override
+    public long getPoolMisses() {
+        return this.poolMisses.get();
+    }
+
+    @Override
+    public double getPoolHitRate() {
+        final long hits = this.poolHits.get();
+        final long total = hits + this.poolMisses.get();
+        if (total == 0) {
+            return 0;
+        }
+        return hits / (double) total;
+    }
+
+    @Override
+    public long getTransformersDiscarded() {
+        return this.transformersDiscarded.get();
+    }
+
+    @Override
+    public int getMaxIdlePerStylesheet() {
+        return this.maxIdlePerStylesheet;
+    }
+
+    @Override
+    public List<StylesheetTransformStatistics> getStylesheetStatistics() {
+        final List<StylesheetTransformStatistics> statistics = new ArrayList<StylesheetTransformStatistics>(this.templatesPools.size());
+        for (final TemplatesPool templatesPool : this.templatesPools.values()) {
+            final LatencyHistogram transformTimes = templatesPool.transformTimes;
+            statistics.add(new StylesheetTransformStatistics(
+                    templatesPool.stylesheet,
+                    templatesPool.idleTransformers.size(),
+                    transformTimes.getCount(),
+                    transformTimes.getMean() / 1000,
+                    transformTimes.getValueAtPercentile(50) / 1000d,
+                    transformTimes.getValueAtPercentile(90) / 1000d,
+                    transformTimes.getValueAtPercentile(99) / 1000d,
+                    transformTimes.getMax() / 1000d));
+        }
+        return statistics;
+    }
+
+    @Override
+    public void resetStatistics() {
+        this.poolHits.set(0);
+        this.poolMisses.set(0);
+        this.transformersDiscarded.set(0);
+        for (final TemplatesPool templatesPool : this.templatesPools.values()) {
+            templatesPool.transformTimes.reset();
+        }
+    }
+    
+    /**
+     * Get the pool for the loaded Templates, replacing the stylesheet's pool if the Templates have been
+     * reloaded since it was created.
+     */
+    private TemplatesPool getTemplatesPool(String stylesheet, CachedResource<Templates> cachedTemplates) {
+        final Templates templates = cachedTemplates.getCachedResource();
+        final long loadTime = cachedTemplates.getLastLoadTime();
+        
+        while (true) {
+            final TemplatesPool existingPool = this.templatesPools.get(stylesheet);
+            if (existingPool != null && existingPool.templates == templates) {
+                return existingPool;
+            }
+            
+            final TemplatesPool templatesPool = new TemplatesPool(stylesheet, templates, loadTime, this.maxIdlePerStylesheet);
+            if (existingPool == null) {
+                if (this.templatesPools.putIfAbsent(stylesheet, templatesPool) == null) {
+                    this.templatesLoads.incrementAndGet();
+                    return templatesPool;
+                }
+            }
+            else if (existingPool.loadTime > loadTime) {
+                //Another thread already has newer Templates, use an unregistered pool for this older copy
+                return templatesPool;
+            }
+            else if (this.templatesPools.replace(stylesheet, existingPool, templatesPool)) {
+                this.logger.debug("Stylesheet {} was reloaded, discarding {} pooled Transformers", stylesheet, existingPool.idleTransformers.size());
+                this.templatesLoads.incrementAndGet();
+                templatesPool.transformTimes.merge(existingPool.transformTimes);
+                return templatesPool;
+            }
+        }
+    }
+    
+    private static final class TemplatesPool {
+        private final String stylesheet;
+        private final Templates templates;
+        private final long loadTime;
+        private final BlockingQueue<Transformer> idleTransformers;
+        private final LatencyHistogram transformTimes = new LatencyHistogram();
+        
+        public TemplatesPool(String stylesheet, Templates templates, long loadTime, int maxIdle) {
+            this.stylesheet = stylesheet;
+            this.templates = templates;
+            this.loadTime = loadTime;
+            this.idleTransformers = new ArrayBlockingQueue<Transformer>(Math.max(1, maxIdle));
+        }
+    }
+}
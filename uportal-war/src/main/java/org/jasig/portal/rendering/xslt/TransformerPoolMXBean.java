@@ -0,0 +1,67 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering.xslt;
+
+import java.util.List;
+
+/**
+ * JMX view of the {@link TransformerPool}
+ */
+public interface TransformerPoolMXBean {
+    /**
+     * @return Number of compiled stylesheets the pool has seen, increases each time a stylesheet is (re)compiled
+     */
+    long getTemplatesLoads();
+    
+    /**
+     * @return Number of borrows satisfied by an idle pooled Transformer
+     */
+    long getPoolHits();
+    
+    /**
+     * @return Number of borrows that created a new Transformer
+     */
+    long getPoolMisses();
+    
+    /**
+     * @return Fraction of borrows satisfied by an idle pooled Transformer
+     */
+    double getPoolHitRate();
+    
+    /**
+     * @return Number of Transformers discarded because the pool was full, the stylesheet changed or the transform failed
+     */
+    long getTransformersDiscarded();
+    
+    /**
+     * @return Maximum number of idle Transformers kept per stylesheet
+     */
+    int getMaxIdlePerStylesheet();
+    
+    /**
+     * @return Transform statistics for each pooled stylesheet
+     */
+    List<StylesheetTransformStatistics> getStylesheetStatistics();
+    
+    /**
+     * Reset the pool hit and transform time statistics
+     */
+    void resetStatistics();
+}
@@ -35,6 +35,15 @@ public interface TransformerSource {
      */
     public Transformer getTransformer(HttpServletRequest request, HttpServletResponse response);
     
+    /**
+     * Called once the transform using a Transformer from {@link #getTransformer(HttpServletRequest, HttpServletResponse)}
+     * is complete, the Transformer must not be used after it is released.
+     * 
+     * @param transformTime Time in nanoseconds spent transforming
+     * @param successful false if the transform failed
+     */
+    public void releaseTransformer(Transformer transformer, long transformTime, boolean successful);
+    
     /**
      * Gets the CacheKey for the Transformer
      */
@@ -22,10 +22,13 @@ package org.jasig.portal.rendering.xslt;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
@@ -42,17 +45,23 @@ import org.jasig.portal.rendering.PipelineEventReader;
 import org.jasig.portal.rendering.PipelineEventReaderImpl;
 import org.jasig.portal.rendering.StAXPipelineComponentWrapper;
 import org.jasig.portal.utils.cache.CacheKey;
+import org.jasig.portal.utils.threading.TrackingThreadLocal;
 import org.jasig.portal.xml.ResourceLoaderURIResolver;
 import org.jasig.portal.xml.StaxUtils;
 import org.jasig.portal.xml.stream.XMLEventBufferReader;
 import org.jasig.portal.xml.stream.XMLEventBufferWriter;
+import org.jasig.portal.xml.stream.XMLEventPipe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.util.xml.FixedXMLEventStreamReader;
 import org.springframework.util.xml.SimpleTransformErrorListener;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.helpers.LocatorImpl;
 
@@ -67,6 +76,11 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
     private ResourceLoaderURIResolver uriResolver;
     private TransformerSource transformerSource;
     private TransformerConfigurationSource xsltParameterSource;
+    private ExecutorService pipelinedTransformExecutor;
+    private boolean pipelinedTransform = false;
+    private int pipelineQueueCapacity = 16;
+    private int pipelineBatchSize = 128;
+    private long pipelineWriteTimeout = 60000;
     
     private String beanName;
     
@@ -81,6 +95,41 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
         this.transformerSource = transformerSource;
     }
     
+    /**
+     * Executor used to run pipelined transforms, required for {@link #setPipelinedTransform(boolean)} to
+     * take effect.
+     */
+    public void setPipelinedTransformExecutor(ExecutorService pipelinedTransformExecutor) {
+        this.pipelinedTransformExecutor = pipelinedTransformExecutor;
+    }
+    /**
+     * If true the transform runs on a thread from the pipelined transform executor and its output is handed
+     * to the next component through a bounded queue as it is produced, instead of the entire output being
+     * buffered before the next component sees the first event. Defaults to false.
+     */
+    public void setPipelinedTransform(boolean pipelinedTransform) {
+        this.pipelinedTransform = pipelinedTransform;
+    }
+    /**
+     * Number of event batches that can be waiting for the next component, defaults to 16
+     */
+    public void setPipelineQueueCapacity(int pipelineQueueCapacity) {
+        this.pipelineQueueCapacity = pipelineQueueCapacity;
+    }
+    /**
+     * Number of events handed to the next component at a time, defaults to 128
+     */
+    public void setPipelineBatchSize(int pipelineBatchSize) {
+        this.pipelineBatchSize = pipelineBatchSize;
+    }
+    /**
+     * Maximum time in milliseconds a pipelined transform waits for the next component to read events
+     * before the transform is aborted, defaults to 60000
+     */
+    public void setPipelineWriteTimeout(long pipelineWriteTimeout) {
+        this.pipelineWriteTimeout = pipelineWriteTimeout;
+    }
+    
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
@@ -140,30 +189,111 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
         //Setup logging for the transform
         transformer.setErrorListener(this.errorListener);
 
+        //Read before the transform, the Transformer is returned to the pool once the transform completes
+        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+        
+        XMLEventReader outputEventReader = null;
+        if (this.pipelinedTransform && this.pipelinedTransformExecutor != null) {
+            try {
+                outputEventReader = this.pipelineTransform(transformer, xmlReaderSource);
+            }
+            catch (RejectedExecutionException e) {
+                this.logger.warn("{} - Pipelined transform rejected by executor, transforming on the request thread", this.beanName);
+            }
+        }
+        if (outputEventReader == null) {
+            outputEventReader = this.bufferTransform(transformer, xmlReaderSource);
+        }
+        
+        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
+        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(outputEventReader, outputProperties);
+        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
+        return pipelineEventReaderImpl;
+    }
+
+    /**
+     * Run the transform on the current thread, buffering all output events
+     */
+    protected XMLEventReader bufferTransform(Transformer transformer, Source xmlReaderSource) {
         //Transform to a SAX ContentHandler to avoid JDK bug: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
         final XMLEventBufferWriter eventWriterBuffer = new XMLEventBufferWriter();
         final ContentHandler contentHandler = StaxUtils.createLexicalContentHandler(eventWriterBuffer);
         contentHandler.setDocumentLocator(new LocatorImpl());
         
         final SAXResult outputTarget = new SAXResult(contentHandler);
+        final long start = System.nanoTime();
+        boolean successful = false;
         try {
             this.logger.debug("{} - Begining XML Transformation", this.beanName);
             transformer.transform(xmlReaderSource, outputTarget);
             this.logger.debug("{} - XML Transformation complete", this.beanName);
+            successful = true;
         }
         catch (TransformerException e) {
             throw new RuntimeException("Failed to transform document", e);
         }
-        
-        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+        finally {
+            this.transformerSource.releaseTransformer(transformer, System.nanoTime() - start, successful);
+        }
         
         final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
-        final XMLEventReader outputEventReader = new XMLEventBufferReader(eventBuffer.listIterator()); 
+        return new XMLEventBufferReader(eventBuffer.listIterator());
+    }
+    
+    /**
+     * Run the transform on a thread from the pipelined transform executor, events are available from the
+     * returned reader as soon as the transform produces them. Failures in the transform are thrown by the
+     * returned reader.
+     * 
+     * @throws RejectedExecutionException If the executor could not accept the transform
+     */
+    protected XMLEventReader pipelineTransform(final Transformer transformer, final Source xmlReaderSource) {
+        final XMLEventPipe eventPipe = new XMLEventPipe(this.pipelineQueueCapacity, this.pipelineBatchSize, this.pipelineWriteTimeout);
         
-        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(outputEventReader, outputProperties);
-        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
-        return pipelineEventReaderImpl;
+        //Components before this one may rely on the request's thread locals while their events are read
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        final LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+        final Map<TrackingThreadLocal<Object>, Object> trackingData = TrackingThreadLocal.getCurrentData();
+        
+        this.pipelinedTransformExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                RequestContextHolder.setRequestAttributes(requestAttributes);
+                LocaleContextHolder.setLocaleContext(localeContext);
+                TrackingThreadLocal.setCurrentData(trackingData);
+                try {
+                    //Transform to a SAX ContentHandler to avoid JDK bug: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
+                    final XMLEventWriter eventWriter = eventPipe.getEventWriter();
+                    final ContentHandler contentHandler = StaxUtils.createLexicalContentHandler(eventWriter);
+                    contentHandler.setDocumentLocator(new LocatorImpl());
+                    
+                    logger.debug("{} - Begining pipelined XML Transformation", beanName);
+                    final long start = System.nanoTime();
+                    boolean successful = false;
+                    try {
+                        transformer.transform(xmlReaderSource, new SAXResult(contentHandler));
+                        successful = true;
+                    }
+                    finally {
+                        //Release before ending the stream so the Transformer is back in the pool once the reader completes
+                        transformerSource.releaseTransformer(transformer, System.nanoTime() - start, successful);
+                    }
+                    eventWriter.close();
+                    logger.debug("{} - Pipelined XML Transformation complete", beanName);
+                }
+                catch (Throwable t) {
+                    logger.debug(beanName + " - Pipelined XML Transformation failed", t);
+                    eventPipe.fail(new RuntimeException("Failed to transform document", t));
+                }
+                finally {
+                    TrackingThreadLocal.clearCurrentData();
+                    LocaleContextHolder.resetLocaleContext();
+                    RequestContextHolder.resetRequestAttributes();
+                }
+            }
+        });
+        
+        return eventPipe.getEventReader();
     }
 
     @Override
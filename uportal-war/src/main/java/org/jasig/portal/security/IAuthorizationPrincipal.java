@@ -19,6 +19,8 @@
 
 package org.jasig.portal.security;
 
+import java.util.Collection;
+import java.util.Set;
 import java.util.Vector;
 
 import org.jasig.portal.AuthorizationException;
@@ -67,6 +69,20 @@ public interface IAuthorizationPrincipal {
  * @exception AuthorizationException thrown when authorization information could not be retrieved.
  */
     boolean canSubscribe(String channelPublishId) throws AuthorizationException;
+/**
+ * Answers which of these channels this <code>IAuthorizationPrincipal</code> has permission to render.
+ * @return the renderable Channel publish Ids
+ * @param channelPublishIds the Channel publish Ids to check
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+    Set<String> getRenderablePortlets(Collection<String> channelPublishIds) throws AuthorizationException;
+/**
+ * Answers which of these channels this <code>IAuthorizationPrincipal</code> has permission to subscribe to.
+ * @return the Channel publish Ids that may be subscribed to
+ * @param channelPublishIds the Channel publish Ids to check
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+    Set<String> getSubscribablePortlets(Collection<String> channelPublishIds) throws AuthorizationException;
 /**
  * Returns the <code>IPermissions</code> for this <code>IAuthorizationPrincipal</code>,
  * including inherited <code>Permissions</code>.
@@ -19,6 +19,8 @@
 
 package org.jasig.portal.security;
 
+import java.util.Collection;
+import java.util.Set;
 import java.util.Vector;
 
 import org.jasig.portal.AuthorizationException;
@@ -86,6 +88,49 @@ public interface IAuthorizationService
  */
     public boolean canPrincipalSubscribe(IAuthorizationPrincipal principal, String channelPublishId)
     throws AuthorizationException;
+/**
+ * Answers which of the Channels the principal has permission to render.  Equivalent
+ * to calling {@link #canPrincipalRender(IAuthorizationPrincipal, String)} for each
+ * Channel but evaluates the principal's permissions once for the whole collection.
+ * @return the renderable channelPublishIds
+ * @param principal IAuthorizationPrincipal
+ * @param channelPublishIds the Channels to check
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+    public Set<String> getPortletsPrincipalCanRender(IAuthorizationPrincipal principal, Collection<String> channelPublishIds)
+    throws AuthorizationException;
+/**
+ * Answers which of the Channels the principal has permission to subscribe to.  Equivalent
+ * to calling {@link #canPrincipalSubscribe(IAuthorizationPrincipal, String)} for each
+ * Channel but evaluates the principal's permissions once for the whole collection.
+ * @return the channelPublishIds the principal may subscribe to
+ * @param principal IAuthorizationPrincipal
+ * @param channelPublishIds the Channels to check
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+    public Set<String> getPortletsPrincipalCanSubscribe(IAuthorizationPrincipal principal, Collection<String> channelPublishIds)
+    throws AuthorizationException;
+/**
+ * Answers which of the targets the owner has given the principal permission to perform
+ * the activity on.  Equivalent to calling
+ * {@link #doesPrincipalHavePermission(IAuthorizationPrincipal, String, String, String)}
+ * for each target but shares the group walk and permission lookup across all of them.
+ * Params <code>owner</code> and <code>activity</code> must be non-null.
+ *
+ * @return the permitted targets
+ * @param principal IAuthorizationPrincipal
+ * @param owner java.lang.String
+ * @param activity java.lang.String
+ * @param targets the targets to check
+ * @exception AuthorizationException indicates authorization information could not
+ * be retrieved.
+ */
+    public Set<String> getPermittedTargets(
+      IAuthorizationPrincipal principal,
+      String owner,
+      String activity,
+      Collection<String> targets)
+    throws AuthorizationException;
 /**
  * Answers if the owner has given the principal permission to perform the activity on
  * the target.  Params <code>owner</code> and <code>activity</code> must be non-null.
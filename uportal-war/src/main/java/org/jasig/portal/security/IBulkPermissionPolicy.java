@@ -0,0 +1,55 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.security;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * An {@link IPermissionPolicy} that can evaluate many targets for the same principal,
+ * owner and activity at once, sharing the work that does not depend on the target.
+ * Policies that do not implement this interface are evaluated one target at a time.
+ *
+ * @see org.jasig.portal.security.IAuthorizationService#getPermittedTargets
+ */
+public interface IBulkPermissionPolicy extends IPermissionPolicy {
+/**
+ * Answers the subset of <code>targets</code> the owner has authorized the
+ * principal to perform the activity on.  Equivalent to calling
+ * {@link #doesPrincipalHavePermission} for each target.  Params
+ * <code>service</code>, <code>owner</code> and <code>activity</code> must
+ * be non-null.
+ *
+ * @return the permitted targets, in iteration order of <code>targets</code>
+ * @param service org.jasig.portal.security.IAuthorizationService
+ * @param principal org.jasig.portal.security.IAuthorizationPrincipal
+ * @param owner java.lang.String
+ * @param activity java.lang.String
+ * @param targets the targets to check
+ * @exception org.jasig.portal.AuthorizationException
+ */
+public Set<String> getPermittedTargets
+   (IAuthorizationService service,
+    IAuthorizationPrincipal principal,
+    String owner,
+    String activity,
+    Collection<String> targets)
+throws org.jasig.portal.AuthorizationException;
+}
@@ -22,9 +22,13 @@ package org.jasig.portal.security.provider;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
@@ -48,6 +52,7 @@ import org.jasig.portal.portlet.om.PortletLifecycleState;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.jasig.portal.security.IAuthorizationPrincipal;
 import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IBulkPermissionPolicy;
 import org.jasig.portal.security.IPermission;
 import org.jasig.portal.security.IPermissionManager;
 import org.jasig.portal.security.IPermissionPolicy;
@@ -95,8 +100,8 @@ public class AuthorizationImpl implements IAuthorizationService {
     /** The cache to hold the list of principals. */
     private Ehcache principalCache;
 
-    /** The cache to hold the list of principals. */
-    private Ehcache entityParentsCache;
+    /** The effective permissions of principals, also resolves the groups containing a target. */
+    private EffectivePermissionIndex effectivePermissionIndex;
 
     /** The cache to hold permission resolution. */
     private Ehcache doesPrincipalHavePermissionCache;
@@ -131,8 +136,8 @@ public class AuthorizationImpl implements IAuthorizationService {
         });
     }
     @Autowired
-    public void setEntityParentsCache(@Qualifier(CacheFactory.ENTITY_PARENTS_CACHE)  Ehcache entityParentsCache) {
-        this.entityParentsCache = entityParentsCache;
+    public void setEffectivePermissionIndex(EffectivePermissionIndex effectivePermissionIndex) {
+        this.effectivePermissionIndex = effectivePermissionIndex;
     }
     @Autowired
     public void setDoesPrincipalHavePermissionCache(@Qualifier("org.jasig.portal.security.provider.AuthorizationImpl.PRINCIPAL_HAS_PERMISSION") Ehcache doesPrincipalHavePermissionCache) {
@@ -156,6 +161,7 @@ throws AuthorizationException
         getPermissionStore().add(permissions);
         if ( this.cachePermissions )
             { removeFromPermissionsCache(permissions); }
+        invalidateEffectivePermissions(permissions);
     }
 }
 
@@ -379,30 +385,126 @@ public boolean canPrincipalSubscribe(IAuthorizationPrincipal principal, String p
     if (portlet == null){
     	return false;
     }    
-    PortletLifecycleState state = portlet.getLifecycleState();
+    final String permission = getSubscribeActivity(portlet.getLifecycleState(), portletDefinitionId);
+
+    // test the appropriate permission
+    return doesPrincipalHavePermission(principal, owner, permission, target);
+
+}
+
+/**
+ * Answers which of the Channels the principal has permission to RENDER.  This
+ * implementation currently delegates to the SUBSCRIBE permission.
+ * 
+ * @return the renderable portletDefinitionIds
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitionIds the Channels to check
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+public Set<String> getPortletsPrincipalCanRender(IAuthorizationPrincipal principal, Collection<String> portletDefinitionIds)
+throws AuthorizationException
+{
+    return getPortletsPrincipalCanSubscribe(principal, portletDefinitionIds);
+}
+
+/**
+ * Answers which of the Channels the principal has permission to SUBSCRIBE to.  The
+ * Channels are grouped by the activity their lifecycle state requires so each
+ * activity is evaluated once for all of its targets.
+ * 
+ * @return the portletDefinitionIds the principal may subscribe to, in iteration order
+ * @param principal IAuthorizationPrincipal
+ * @param portletDefinitionIds the Channels to check
+ * @exception AuthorizationException indicates authorization information could not be retrieved.
+ */
+public Set<String> getPortletsPrincipalCanSubscribe(IAuthorizationPrincipal principal, Collection<String> portletDefinitionIds)
+throws AuthorizationException
+{
+    final String owner = IPermission.PORTAL_SUBSCRIBE;
     
-    /*
-     * Each channel lifecycle state now has its own subscribe permission.  The
-     * following logic checks the appropriate permission for the lifecycle.
-     */
-    String permission;
+    final Map<String, List<String>> targetsByActivity = new LinkedHashMap<String, List<String>>();
+    for (final String portletDefinitionId : portletDefinitionIds) {
+        final IPortletDefinition portlet = this.portletDefinitionRegistry.getPortletDefinition(portletDefinitionId);
+        if (portlet == null) {
+            continue;
+        }
+        
+        final String activity = getSubscribeActivity(portlet.getLifecycleState(), portletDefinitionId);
+        List<String> targets = targetsByActivity.get(activity);
+        if (targets == null) {
+            targets = new ArrayList<String>();
+            targetsByActivity.put(activity, targets);
+        }
+        targets.add(IPermission.PORTLET_PREFIX + portletDefinitionId);
+    }
+    
+    final Set<String> permittedTargets = new HashSet<String>();
+    for (final Map.Entry<String, List<String>> targetsEntry : targetsByActivity.entrySet()) {
+        permittedTargets.addAll(getPermittedTargets(principal, owner, targetsEntry.getKey(), targetsEntry.getValue()));
+    }
+    
+    final Set<String> subscribablePortlets = new LinkedHashSet<String>();
+    for (final String portletDefinitionId : portletDefinitionIds) {
+        if (permittedTargets.contains(IPermission.PORTLET_PREFIX + portletDefinitionId)) {
+            subscribablePortlets.add(portletDefinitionId);
+        }
+    }
+    return subscribablePortlets;
+}
+
+/**
+ * Each channel lifecycle state now has its own subscribe permission.  Returns the
+ * activity to check for the lifecycle state.
+ */
+private String getSubscribeActivity(PortletLifecycleState state, String portletDefinitionId) {
     if (state.equals(PortletLifecycleState.PUBLISHED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_ACTIVITY;
     } else if (state.equals(PortletLifecycleState.APPROVED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY;
     } else if (state.equals(PortletLifecycleState.CREATED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_CREATED_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_CREATED_ACTIVITY;
     } else if (state.equals(PortletLifecycleState.EXPIRED)) {
-    	permission = IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY;
+    	return IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY;
     } else {
 			throw new AuthorizationException(
 					"Unrecognized lifecycle state for channel "
 							+ portletDefinitionId);
     }
+}
 
-    // test the appropriate permission
-    return doesPrincipalHavePermission(principal, owner, permission, target);
-
+/**
+ * Answers which of the targets the owner has given the principal (or any of its parents)
+ * permission to perform the activity on, as evaluated by the default policy.  An
+ * {@link IBulkPermissionPolicy} shares the group walk and permission lookup across all
+ * of the targets, any other policy is asked about each target in turn.
+ *
+ * @return the permitted targets
+ * @param principal IAuthorizationPrincipal
+ * @param owner java.lang.String
+ * @param activity java.lang.String
+ * @param targets the targets to check
+ * @exception AuthorizationException indicates authorization information could not
+ * be retrieved.
+ */
+public Set<String> getPermittedTargets(
+    IAuthorizationPrincipal principal,
+    String owner,
+    String activity,
+    Collection<String> targets)
+throws AuthorizationException
+{
+    final IPermissionPolicy policy = getDefaultPermissionPolicy();
+    if (policy instanceof IBulkPermissionPolicy) {
+        return ((IBulkPermissionPolicy) policy).getPermittedTargets(this, principal, owner, activity, targets);
+    }
+    
+    final Set<String> permittedTargets = new LinkedHashSet<String>();
+    for (final String target : targets) {
+        if (doesPrincipalHavePermission(principal, owner, activity, target, policy)) {
+            permittedTargets.add(target);
+        }
+    }
+    return permittedTargets;
 }
 
 /**
@@ -901,47 +1003,8 @@ throws AuthorizationException
     if ( owner == null && activity == null && target == null )
         { return perms; }
 
-	Set<String> containingGroups;
-	
-	if (target != null) {
-		
-        final Element element = this.entityParentsCache.get(target);
-        if (element != null) {
-            containingGroups = (Set<String>) element.getObjectValue();
-        }
-        else {
-        	containingGroups = new HashSet<String>();
-        	
-        	//Ignore target entity lookups for the various synthetic ALL targets
-        	if (!IPermission.ALL_CATEGORIES_TARGET.equals(target) &&
-                    !IPermission.ALL_GROUPS_TARGET.equals(target) &&
-                    !IPermission.ALL_PORTLETS_TARGET.equals(target) &&
-                    !IPermission.ALL_TARGET.equals(target)) {
-        	    
-            	IGroupMember targetEntity = GroupService.findGroup(target);
-        		if (targetEntity == null) {
-                    if (target.startsWith(IPermission.PORTLET_PREFIX)) {
-        				targetEntity = GroupService.getGroupMember(target.replace(IPermission.PORTLET_PREFIX, ""), IPortletDefinition.class);
-        			} else {
-        				targetEntity = GroupService.getGroupMember(target, IPerson.class);
-        			}
-        		}
-        		
-        		if (targetEntity != null) {
-        			for (Iterator containing = targetEntity.getAllContainingGroups(); containing.hasNext();) {
-        				containingGroups.add(((IEntityGroup)containing.next()).getKey());
-        			}
-        		}
-            }
-    		
-    		this.entityParentsCache.put(new Element(target, containingGroups));
-        	
-        }
-
-		
-	} else {
-		containingGroups = new HashSet<String>();
-	}
+    // The target and the keys of all groups containing it, a permission on any of them applies to the target
+    final Set<String> targetKeys = target != null ? this.effectivePermissionIndex.getTargetKeys(target) : null;
 
     List<IPermission> al = new ArrayList<IPermission>(perms.length);
     
@@ -954,8 +1017,7 @@ throws AuthorizationException
         		// activity matches
                 (activity == null || activity.equals(perms[i].getActivity())) &&
                 // target matches or is a member of the current permission target
-                (target == null || target.equals(permissionTarget) 
-                		|| containingGroups.contains(permissionTarget))    
+                (targetKeys == null || targetKeys.contains(permissionTarget))    
             ) {
         	
             al.add(perms[i]);
@@ -1018,6 +1080,20 @@ throws AuthorizationException
     removeFromPermissionsCache(principals);
 }
 
+/**
+ * Discards the effective permissions that include a principal of the <code>IPermissions</code>
+ * and the cached permission check results.
+ * @param permissions IPermission[]
+ */
+private void invalidateEffectivePermissions(IPermission[] permissions)
+{
+    Set<String> principalStrings = new HashSet<String>();
+    for ( int i=0; i<permissions.length; i++ )
+        { principalStrings.add(permissions[i].getPrincipal()); }
+    this.effectivePermissionIndex.invalidate(principalStrings);
+    this.doesPrincipalHavePermissionCache.removeAll();
+}
+
 /**
  * Removes <code>IPermissions</code> from the back end store.
  * @param permissions IPermission[]
@@ -1031,6 +1107,7 @@ throws AuthorizationException
         getPermissionStore().delete(permissions);
         if ( this.cachePermissions )
             { removeFromPermissionsCache(permissions); }
+        invalidateEffectivePermissions(permissions);
     }
 }
 
@@ -1047,6 +1124,7 @@ throws AuthorizationException
         getPermissionStore().update(permissions);
         if ( this.cachePermissions )
             { removeFromPermissionsCache(permissions); }
+        invalidateEffectivePermissions(permissions);
     }
 }
 }
@@ -19,6 +19,9 @@
 
 package org.jasig.portal.security.provider;
 
+import java.util.Collection;
+import java.util.Set;
+
 import org.jasig.portal.AuthorizationException;
 import org.jasig.portal.portlet.om.PortletLifecycleState;
 import org.jasig.portal.security.IAuthorizationPrincipal;
@@ -92,6 +95,24 @@ public boolean canRender(String channelPublishId) throws org.jasig.portal.Author
 public boolean canSubscribe(String channelPublishId) throws org.jasig.portal.AuthorizationException {
     return getAuthorizationService().canPrincipalSubscribe(this, channelPublishId);
 }
+/**
+ * Answers which of these channels this <code>IAuthorizationPrincipal</code> has permission to render.
+ * @return the renderable Channel publish IDs
+ * @param channelPublishIds the Channel publish IDs to check
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+public Set<String> getRenderablePortlets(Collection<String> channelPublishIds) throws AuthorizationException {
+    return getAuthorizationService().getPortletsPrincipalCanRender(this, channelPublishIds);
+}
+/**
+ * Answers which of these channels this <code>IAuthorizationPrincipal</code> has permission to subscribe to.
+ * @return the Channel publish IDs that may be subscribed to
+ * @param channelPublishIds the Channel publish IDs to check
+ * @exception AuthorizationException thrown when authorization information could not be retrieved.
+ */
+public Set<String> getSubscribablePortlets(Collection<String> channelPublishIds) throws AuthorizationException {
+    return getAuthorizationService().getPortletsPrincipalCanSubscribe(this, channelPublishIds);
+}
 @Override
 public boolean equals(Object obj) {
     if (this == obj)
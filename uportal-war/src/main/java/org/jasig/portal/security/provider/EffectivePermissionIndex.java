@@ -0,0 +1,272 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.security.provider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.groups.IEntityGroup;
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.services.GroupService;
+import org.jasig.portal.utils.cache.CacheFactory;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Index of the {@link EffectivePermissions} of each principal, owner and activity. The containing group graph of a
+ * principal is walked and its permissions fetched once when the entry is built, later permission checks for any
+ * target only consult the materialized GRANT and DENY target sets.
+ * <br/>
+ * When permissions are changed only the entries that include one of the changed principals, either as the principal
+ * itself or as a containing group, are discarded. Group membership changes are picked up when an entry expires from
+ * the cache.
+ */
+@Service
+public class EffectivePermissionIndex {
+    public static final String EFFECTIVE_PERMISSIONS_CACHE = "org.jasig.portal.security.provider.EffectivePermissionIndex.EFFECTIVE_PERMISSIONS";
+    
+    protected final Log log = LogFactory.getLog(getClass());
+    
+    private Ehcache effectivePermissionsCache;
+    private Ehcache entityParentsCache;
+    
+    @Autowired
+    public void setEffectivePermissionsCache(@Qualifier(EFFECTIVE_PERMISSIONS_CACHE) Ehcache effectivePermissionsCache) {
+        this.effectivePermissionsCache = effectivePermissionsCache;
+    }
+    
+    @Autowired
+    public void setEntityParentsCache(@Qualifier(CacheFactory.ENTITY_PARENTS_CACHE) Ehcache entityParentsCache) {
+        this.entityParentsCache = entityParentsCache;
+    }
+    
+    /**
+     * Get the effective permissions of the principal for the owner and activity, building them if they are not
+     * cached or a permission has become effective or expired since they were built.
+     */
+    public EffectivePermissions getEffectivePermissions(IAuthorizationService service, IAuthorizationPrincipal principal, String owner, String activity) {
+        final CacheKey key = CacheKey.build(EFFECTIVE_PERMISSIONS_CACHE, principal.getPrincipalString(), owner, activity);
+        
+        final Element element = this.effectivePermissionsCache.get(key);
+        if (element != null) {
+            final EffectivePermissions effectivePermissions = (EffectivePermissions) element.getObjectValue();
+            if (!effectivePermissions.isExpired(System.currentTimeMillis())) {
+                return effectivePermissions;
+            }
+        }
+        
+        final EffectivePermissions effectivePermissions = this.buildEffectivePermissions(service, principal, owner, activity);
+        this.effectivePermissionsCache.put(new Element(key, effectivePermissions));
+        
+        if (log.isDebugEnabled()) {
+            log.debug("Built " + effectivePermissions);
+        }
+        
+        return effectivePermissions;
+    }
+    
+    /**
+     * Discard the effective permissions that include any of the principals
+     */
+    public void invalidate(Collection<String> principalStrings) {
+        if (principalStrings.isEmpty()) {
+            return;
+        }
+        
+        int removed = 0;
+        for (final Object key : this.effectivePermissionsCache.getKeys()) {
+            final Element element = this.effectivePermissionsCache.getQuiet(key);
+            if (element != null && ((EffectivePermissions) element.getObjectValue()).includesAnyPrincipal(principalStrings)) {
+                this.effectivePermissionsCache.remove(key);
+                removed++;
+            }
+        }
+        
+        if (log.isDebugEnabled()) {
+            log.debug("Removed " + removed + " effective permissions including principals " + principalStrings);
+        }
+    }
+    
+    /**
+     * @return The target and the keys of all groups containing the target, permissions assigned to any of these keys apply to the target
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> getTargetKeys(String target) {
+        final Element element = this.entityParentsCache.get(target);
+        if (element != null) {
+            return (Set<String>) element.getObjectValue();
+        }
+        
+        final Set<String> targetKeys = new HashSet<String>();
+        targetKeys.add(target);
+        
+        //Ignore target entity lookups for the various synthetic ALL targets
+        if (!IPermission.ALL_CATEGORIES_TARGET.equals(target) &&
+                !IPermission.ALL_GROUPS_TARGET.equals(target) &&
+                !IPermission.ALL_PORTLETS_TARGET.equals(target) &&
+                !IPermission.ALL_TARGET.equals(target)) {
+            
+            IGroupMember targetEntity = GroupService.findGroup(target);
+            if (targetEntity == null) {
+                if (target.startsWith(IPermission.PORTLET_PREFIX)) {
+                    targetEntity = GroupService.getGroupMember(target.replace(IPermission.PORTLET_PREFIX, ""), IPortletDefinition.class);
+                } else {
+                    targetEntity = GroupService.getGroupMember(target, IPerson.class);
+                }
+            }
+            
+            if (targetEntity != null) {
+                for (Iterator<IEntityGroup> containing = targetEntity.getAllContainingGroups(); containing.hasNext();) {
+                    targetKeys.add(containing.next().getKey());
+                }
+            }
+        }
+        
+        this.entityParentsCache.put(new Element(target, targetKeys));
+        
+        return targetKeys;
+    }
+    
+    /**
+     * Walk the containing group graph of the principal breadth first, recording the GRANT and DENY targets of each
+     * group that are in effect now.
+     */
+    @SuppressWarnings("unchecked")
+    protected EffectivePermissions buildEffectivePermissions(IAuthorizationService service, IAuthorizationPrincipal principal, String owner, String activity) {
+        final Date now = new Date();
+        long validUntil = Long.MAX_VALUE;
+        
+        final List<IAuthorizationPrincipal> principals = new ArrayList<IAuthorizationPrincipal>();
+        final Map<String, Integer> nodeIndexes = new HashMap<String, Integer>();
+        final List<Set<String>> grantTargets = new ArrayList<Set<String>>();
+        final List<Set<String>> denyTargets = new ArrayList<Set<String>>();
+        final List<int[]> parents = new ArrayList<int[]>();
+        
+        principals.add(principal);
+        nodeIndexes.put(principal.getPrincipalString(), 0);
+        
+        for (int node = 0; node < principals.size(); node++) {
+            final IAuthorizationPrincipal nodePrincipal = principals.get(node);
+            
+            final Set<String> nodeGrantTargets = new HashSet<String>();
+            final Set<String> nodeDenyTargets = new HashSet<String>();
+            final List<Integer> nodeParents = new ArrayList<Integer>();
+            try {
+                final IPermission[] permissions = service.getPermissionsForPrincipal(nodePrincipal, owner, activity, null);
+                for (final IPermission permission : permissions) {
+                    final Date effective = permission.getEffective();
+                    final Date expires = permission.getExpires();
+                    
+                    if (effective != null && effective.after(now)) {
+                        validUntil = Math.min(validUntil, effective.getTime());
+                        continue;
+                    }
+                    if (expires != null) {
+                        if (!expires.after(now)) {
+                            continue;
+                        }
+                        validUntil = Math.min(validUntil, expires.getTime());
+                    }
+                    
+                    final String target = permission.getTarget();
+                    if (target == null) {
+                        continue;
+                    }
+                    if (IPermission.PERMISSION_TYPE_DENY.equals(permission.getType())) {
+                        nodeDenyTargets.add(target);
+                    }
+                    else if (IPermission.PERMISSION_TYPE_GRANT.equals(permission.getType())) {
+                        nodeGrantTargets.add(target);
+                    }
+                }
+            }
+            catch (RuntimeException e) {
+                //The principal's own permissions must be available, a broken group only removes its paths
+                if (node == 0) {
+                    throw e;
+                }
+                log.error("Error evaluating permissions of parent group [" + nodePrincipal + "]", e);
+            }
+            
+            try {
+                final IGroupMember groupMember = service.getGroupMember(nodePrincipal);
+                for (final Iterator<IGroupMember> containingGroups = groupMember.getContainingGroups(); containingGroups.hasNext(); ) {
+                    final IGroupMember parentGroup = containingGroups.next();
+                    if (parentGroup == null) {
+                        continue;
+                    }
+                    
+                    final IAuthorizationPrincipal parentPrincipal = service.newPrincipal(parentGroup);
+                    final String parentPrincipalString = parentPrincipal.getPrincipalString();
+                    Integer parentIndex = nodeIndexes.get(parentPrincipalString);
+                    if (parentIndex == null) {
+                        parentIndex = principals.size();
+                        principals.add(parentPrincipal);
+                        nodeIndexes.put(parentPrincipalString, parentIndex);
+                    }
+                    nodeParents.add(parentIndex);
+                }
+            }
+            catch (RuntimeException e) {
+                // problem evaluating this path, but let's not let it stop
+                // us from exploring other paths.  Though a portion of the
+                // group structure is broken, permission may be granted by
+                // an unbroken portion
+                log.error("Error searching for containing groups of [" + nodePrincipal + "]", e);
+            }
+            
+            grantTargets.add(nodeGrantTargets);
+            denyTargets.add(nodeDenyTargets);
+            
+            final int[] nodeParentIndexes = new int[nodeParents.size()];
+            for (int i = 0; i < nodeParentIndexes.length; i++) {
+                nodeParentIndexes[i] = nodeParents.get(i);
+            }
+            parents.add(nodeParentIndexes);
+        }
+        
+        final String[] principalStrings = new String[principals.size()];
+        for (int i = 0; i < principalStrings.length; i++) {
+            principalStrings[i] = principals.get(i).getPrincipalString();
+        }
+        
+        return new EffectivePermissions(owner, activity, principalStrings, grantTargets, denyTargets, 
+                parents.toArray(new int[parents.size()][]), validUntil);
+    }
+}
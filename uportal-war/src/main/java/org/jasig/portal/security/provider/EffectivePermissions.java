@@ -0,0 +1,186 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.security.provider;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The permissions of one owner and activity that apply to a principal, materialized for the principal and every
+ * group containing it. Each group in the graph is a node with the GRANT and DENY targets assigned directly to it,
+ * node 0 is the principal itself. If no containing group has a DENY the GRANT targets of all containing groups are
+ * collected in a single set when the permissions are built, so the unblocked path search is a set lookup.
+ * <br/>
+ * Targets are matched against a set of target keys: the target being checked and the keys of the groups containing
+ * it, a null set of target keys matches every target. Instances are immutable.
+ */
+public final class EffectivePermissions {
+    private final String owner;
+    private final String activity;
+    private final String[] principalStrings;
+    private final List<Set<String>> grantTargets;
+    private final List<Set<String>> denyTargets;
+    private final int[][] parents;
+    private final Set<String> unblockedGrantTargets;
+    private final long validUntil;
+    
+    /**
+     * @param principalStrings Principal string of each node, node 0 is the principal the permissions are for
+     * @param grantTargets GRANT targets assigned to each node
+     * @param denyTargets DENY targets assigned to each node
+     * @param parents Indices of the groups directly containing each node
+     * @param validUntil Time at which a permission in the graph becomes effective or expires, {@link Long#MAX_VALUE} if never
+     */
+    EffectivePermissions(String owner, String activity, String[] principalStrings, 
+            List<Set<String>> grantTargets, List<Set<String>> denyTargets, int[][] parents, long validUntil) {
+        this.owner = owner;
+        this.activity = activity;
+        this.principalStrings = principalStrings;
+        this.grantTargets = grantTargets;
+        this.denyTargets = denyTargets;
+        this.parents = parents;
+        this.validUntil = validUntil;
+        
+        //Without a DENY on any containing group every GRANT in the graph is reachable by an unblocked path
+        boolean containsDeny = false;
+        final Set<String> unblockedGrantTargets = new HashSet<String>();
+        for (int node = 1; node < principalStrings.length; node++) {
+            if (!denyTargets.get(node).isEmpty()) {
+                containsDeny = true;
+                break;
+            }
+            unblockedGrantTargets.addAll(grantTargets.get(node));
+        }
+        this.unblockedGrantTargets = containsDeny ? null : unblockedGrantTargets;
+    }
+    
+    public String getOwner() {
+        return this.owner;
+    }
+
+    public String getActivity() {
+        return this.activity;
+    }
+    
+    /**
+     * @return Number of principals, the principal and all containing groups, the permissions were built from
+     */
+    public int getPrincipalCount() {
+        return this.principalStrings.length;
+    }
+    
+    /**
+     * @return true if a permission in the graph has become effective or expired since the permissions were built
+     */
+    public boolean isExpired(long now) {
+        return now >= this.validUntil;
+    }
+    
+    /**
+     * @return true if any of the principals are the principal these permissions are for or one of its containing groups
+     */
+    public boolean includesAnyPrincipal(Collection<String> principalStrings) {
+        for (final String principalString : this.principalStrings) {
+            if (principalStrings.contains(principalString)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return {@link Boolean#FALSE} if the principal is explicitly denied the target, {@link Boolean#TRUE} if it
+     * is explicitly granted the target, null if there is no explicit permission
+     */
+    public Boolean getExplicitPermission(Set<String> targetKeys) {
+        if (matches(this.denyTargets.get(0), targetKeys)) {
+            return Boolean.FALSE;
+        }
+        if (matches(this.grantTargets.get(0), targetKeys)) {
+            return Boolean.TRUE;
+        }
+        return null;
+    }
+    
+    /**
+     * @return true if there is a path from the principal to a containing group with a GRANT for the target that does
+     * not pass through a group with a DENY for the target
+     */
+    public boolean hasUnblockedPathToGrant(Set<String> targetKeys) {
+        if (this.unblockedGrantTargets != null) {
+            return matches(this.unblockedGrantTargets, targetKeys);
+        }
+        
+        final boolean[] seen = new boolean[this.principalStrings.length];
+        final Deque<Integer> remaining = new ArrayDeque<Integer>();
+        seen[0] = true;
+        remaining.add(0);
+        
+        while (!remaining.isEmpty()) {
+            final int node = remaining.poll();
+            for (final int parent : this.parents[node]) {
+                if (seen[parent]) {
+                    continue;
+                }
+                seen[parent] = true;
+                
+                //A DENY blocks every path through the group, including a GRANT on the group itself
+                if (matches(this.denyTargets.get(parent), targetKeys)) {
+                    continue;
+                }
+                if (matches(this.grantTargets.get(parent), targetKeys)) {
+                    return true;
+                }
+                remaining.add(parent);
+            }
+        }
+        
+        return false;
+    }
+    
+    private static boolean matches(Set<String> permissionTargets, Set<String> targetKeys) {
+        if (permissionTargets.isEmpty()) {
+            return false;
+        }
+        if (targetKeys == null) {
+            return true;
+        }
+        if (targetKeys.size() > permissionTargets.size()) {
+            return !Collections.disjoint(permissionTargets, targetKeys);
+        }
+        for (final String targetKey : targetKeys) {
+            if (permissionTargets.contains(targetKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "EffectivePermissions [owner=" + this.owner + ", activity=" + this.activity + ", principal="
+                + this.principalStrings[0] + ", principalCount=" + this.principalStrings.length + "]";
+    }
+}
@@ -26,7 +26,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.xpath.XPathExpression;
 
 import org.apache.commons.lang.StringUtils;
 import org.jasig.portal.IUserPreferencesManager;
@@ -50,14 +49,11 @@ import org.jasig.portal.portlet.registry.IPortletEntityRegistry;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
-import org.jasig.portal.xml.xpath.XPathOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.google.common.base.Function;
-
 /**
  * Maps tabs and portlets to folder names and back. Handles a single set of tabs and uses tab IDs for folder names.
  * 
@@ -72,12 +68,10 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
     
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
-    private String defaultLayoutNodeIdExpression = "/layout/folder/folder[@type='regular' and @hidden!='true'][$defaultTab]/@ID";
 //    private String tabIdExpression = "/layout/folder/folder[@ID=$nodeId or descendant::node()[@ID=$nodeId]]/@ID";
     private String defaultTabParameter = "defaultTab";
     
     private IUserInstanceManager userInstanceManager;
-    private XPathOperations xpathOperations;
     private IStylesheetUserPreferencesService stylesheetUserPreferencesService;
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEntityRegistry portletEntityRegistry;
@@ -97,11 +91,6 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         this.userInstanceManager = userInstanceManager;
     }
 
-    @Autowired
-    public void setXpathOperations(XPathOperations xpathOperations) {
-        this.xpathOperations = xpathOperations;
-    }
-    
     @Autowired
     public void setStylesheetUserPreferencesService(IStylesheetUserPreferencesService stylesheetUserPreferencesService) {
         this.stylesheetUserPreferencesService = stylesheetUserPreferencesService;
@@ -142,15 +131,16 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
     }
 
     protected String getTabId(final IUserLayout userLayout, final String tabIndex) {
-        return this.xpathOperations.doWithExpression(
-            defaultLayoutNodeIdExpression, 
-            Collections.singletonMap("defaultTab", tabIndex), 
-            new Function<XPathExpression, String>() {
-                @Override
-                public String apply(XPathExpression xPathExpression) {
-                    return userLayout.findNodeId(xPathExpression);
-                }
-            });
+        final int position;
+        try {
+            position = Integer.parseInt(tabIndex.trim());
+        }
+        catch (NumberFormatException e) {
+            this.logger.warn("Tab index '" + tabIndex + "' is not a number, no tab will be found for it");
+            return null;
+        }
+        
+        return userLayout.getTabId(position);
     }
 
     /**
@@ -22,7 +22,6 @@ package org.jasig.portal.url;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -38,10 +37,10 @@ import java.util.regex.Pattern;
 import javax.portlet.PortletMode;
 import javax.portlet.WindowState;
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.xpath.XPathExpression;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.math.NumberUtils;
 import org.jasig.portal.IUserPreferencesManager;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.IUserLayoutManager;
@@ -55,14 +54,12 @@ import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
 import org.jasig.portal.utils.Tuple;
 import org.jasig.portal.utils.web.PortalWebUtils;
-import org.jasig.portal.xml.xpath.XPathOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.util.UrlPathHelper;
 
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
@@ -239,18 +236,12 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
     private IUrlNodeSyntaxHelperRegistry urlNodeSyntaxHelperRegistry;
     private IPortalUrlProvider portalUrlProvider;
     private IUserInstanceManager userInstanceManager;
-    private XPathOperations xpathOperations;
 
     @Autowired
     public void setUserInstanceManager(IUserInstanceManager userInstanceManager) {
         this.userInstanceManager = userInstanceManager;
     }
 
-    @Autowired
-    public void setXpathOperations(XPathOperations xpathOperations) {
-        this.xpathOperations = xpathOperations;
-    }
-
     @Autowired
     public void setPortalUrlProvider(IPortalUrlProvider portalUrlProvider) {
         this.portalUrlProvider = portalUrlProvider;
@@ -709,21 +700,13 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
                         //Get the active tab id
                         final String[] activeTabId = parameterMap.remove(LEGACY_PARAM_LAYOUT_TAB_ID);
                         if (activeTabId != null && activeTabId.length > 0) {
-                            //Get the user's layout and do xpath for tab at index=activeTabId[0]
+                            //Get the user's layout and look up the tab at index=activeTabId[0]
                             final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
                             final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
                             final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
                             final IUserLayout userLayout = userLayoutManager.getUserLayout();
                             
-                            final String nodeId = this.xpathOperations.doWithExpression(
-                                    "/layout/folder/folder[@type='regular' and @hidden='false'][position() = $activeTabId]/@ID", 
-                                    Collections.singletonMap("activeTabId", activeTabId[0]), 
-                                    new Function<XPathExpression, String>() {
-                                        @Override
-                                        public String apply(XPathExpression xPathExpression) {
-                                            return userLayout.findNodeId(xPathExpression);
-                                        }
-                                    });
+                            final String nodeId = NumberUtils.isDigits(activeTabId[0]) ? userLayout.getTabId(NumberUtils.toInt(activeTabId[0])) : null;
 
                             //Found nodeId for activeTabId
                             if (nodeId != null) {
@@ -149,9 +149,14 @@ public class UserInstanceManagerImpl implements IUserInstanceManager {
         final IUserProfile userProfile = this.getUserProfile(request, person, localeManager, userAgent);
 
         //Create the user layout manager and user instance object
-        IUserLayoutManager userLayoutManager = userLayoutManagerFactory.getUserLayoutManager(person, userProfile);
+        final IUserLayoutManager userLayoutManager;
         if (person.isGuest()) {
-            userLayoutManager = userLayoutManagerFactory.immutableUserLayoutManager(userLayoutManager);
+            //Guest sessions share their layout, only transient state is kept per session
+            final IUserLayoutManager guestUserLayoutManager = userLayoutManagerFactory.getGuestUserLayoutManager(person, userProfile);
+            userLayoutManager = userLayoutManagerFactory.immutableUserLayoutManager(guestUserLayoutManager);
+        }
+        else {
+            userLayoutManager = userLayoutManagerFactory.getUserLayoutManager(person, userProfile);
         }
         
         final UserPreferencesManager userPreferencesManager = new UserPreferencesManager(person, userProfile, userLayoutManager);
@@ -0,0 +1,232 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Fixed size, mergeable estimator of the number of distinct strings in a stream. Uses the HyperLogLog
+ * algorithm with linear counting for small cardinalities, with the default precision of
+ * {@value #DEFAULT_PRECISION} the estimator has 2048 registers and the standard error of the estimate is
+ * about 2.3%.
+ * <br/>
+ * {@link #toBytes()} packs the registers into {@value #REGISTER_BITS} bits each, the first byte is the
+ * precision. With the default precision that is {@value #DEFAULT_SERIALIZED_SIZE} bytes which fits in a
+ * VARBINARY/RAW/BYTEA column on all supported databases.
+ * <br/>
+ * Not thread-safe.
+ */
+public final class HyperLogLog {
+    /**
+     * Precision used by {@link #HyperLogLog()}, results in 2^11 registers
+     */
+    public static final int DEFAULT_PRECISION = 11;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+    
+    /**
+     * Bits used per register by {@link #toBytes()}, the largest rank is 65 - {@link #MIN_PRECISION}
+     */
+    public static final int REGISTER_BITS = 6;
+    
+    /**
+     * Length of the array returned by {@link #toBytes()} for an estimator with the {@link #DEFAULT_PRECISION}
+     */
+    public static final int DEFAULT_SERIALIZED_SIZE = 1 + ((1 << DEFAULT_PRECISION) * REGISTER_BITS + 7) / 8;
+    
+    private static final int REGISTER_MASK = (1 << REGISTER_BITS) - 1;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    
+    private final byte[] registers;
+    private final int precision;
+    
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+    
+    /**
+     * @param precision Number of bits used to select a register, memory use is 2^precision bytes and the
+     *  standard error is 1.04/sqrt(2^precision)
+     */
+    public HyperLogLog(int precision) {
+        this(precision, new byte[1 << checkPrecision(precision)]);
+    }
+    
+    private HyperLogLog(int precision, byte[] registers) {
+        this.precision = precision;
+        this.registers = registers;
+    }
+    
+    private static int checkPrecision(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        return precision;
+    }
+    
+    /**
+     * @return The length of the array returned by {@link #toBytes()} for the precision
+     */
+    public static int getSerializedSize(int precision) {
+        return 1 + ((1 << checkPrecision(precision)) * REGISTER_BITS + 7) / 8;
+    }
+    
+    /**
+     * Create an estimator from an array returned by {@link #toBytes()}, the estimator does not share
+     * state with the array.
+     */
+    public static HyperLogLog fromBytes(byte[] data) {
+        if (data == null || data.length == 0) {
+            throw new IllegalArgumentException("Invalid HyperLogLog data, no data");
+        }
+        final int precision = data[0];
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid HyperLogLog data, unsupported precision: " + precision);
+        }
+        final int serializedSize = getSerializedSize(precision);
+        if (data.length != serializedSize) {
+            throw new IllegalArgumentException("Invalid HyperLogLog data, expected " + serializedSize + " bytes but was " + data.length);
+        }
+        
+        final byte[] registers = new byte[1 << precision];
+        int buffer = 0;
+        int bufferBits = 0;
+        int offset = 1;
+        for (int register = 0; register < registers.length; register++) {
+            while (bufferBits < REGISTER_BITS) {
+                buffer = (buffer << 8) | (data[offset++] & 0xff);
+                bufferBits += 8;
+            }
+            bufferBits -= REGISTER_BITS;
+            registers[register] = (byte) ((buffer >>> bufferBits) & REGISTER_MASK);
+        }
+        return new HyperLogLog(precision, registers);
+    }
+    
+    /**
+     * @return A new array containing the precision and the packed registers of the estimator
+     */
+    public byte[] toBytes() {
+        final byte[] data = new byte[getSerializedSize(this.precision)];
+        data[0] = (byte) this.precision;
+        
+        int buffer = 0;
+        int bufferBits = 0;
+        int offset = 1;
+        for (final byte rank : this.registers) {
+            buffer = (buffer << REGISTER_BITS) | rank;
+            bufferBits += REGISTER_BITS;
+            while (bufferBits >= 8) {
+                bufferBits -= 8;
+                data[offset++] = (byte) (buffer >>> bufferBits);
+            }
+        }
+        if (bufferBits > 0) {
+            data[offset] = (byte) (buffer << (8 - bufferBits));
+        }
+        return data;
+    }
+    
+    public int getPrecision() {
+        return this.precision;
+    }
+    
+    /**
+     * Add a string to the estimator
+     * 
+     * @return true if the estimator state changed, a false return means the string was very likely seen before
+     */
+    public boolean offer(String value) {
+        final long hash = HASH_FUNCTION.hashString(value, Charsets.UTF_8).asLong();
+        final int register = (int) (hash >>> (Long.SIZE - this.precision));
+        
+        //Rank is the position of the first 1 bit in the remaining hash bits, capped by the number of bits remaining
+        final long remaining = hash << this.precision;
+        final int rank = remaining == 0 ? Long.SIZE - this.precision + 1 : Long.numberOfLeadingZeros(remaining) + 1;
+        
+        if (rank > this.registers[register]) {
+            this.registers[register] = (byte) rank;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Add the strings seen by another estimator to this estimator. The result is identical to having
+     * offered all of the strings to this estimator directly.
+     * 
+     * @throws IllegalArgumentException If the estimators have different precisions
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog with precision " + other.precision + " into precision " + this.precision);
+        }
+        for (int register = 0; register < this.registers.length; register++) {
+            if (other.registers[register] > this.registers[register]) {
+                this.registers[register] = other.registers[register];
+            }
+        }
+    }
+    
+    /**
+     * @return A copy of this estimator that does not share state
+     */
+    public HyperLogLog copy() {
+        return new HyperLogLog(this.precision, this.registers.clone());
+    }
+    
+    /**
+     * @return The estimated number of distinct strings offered to this estimator
+     */
+    public long cardinality() {
+        double sum = 0;
+        int zeroRegisters = 0;
+        for (final byte rank : this.registers) {
+            sum += 1d / (1L << rank);
+            if (rank == 0) {
+                zeroRegisters++;
+            }
+        }
+        
+        final double m = this.registers.length;
+        final double estimate = getAlpha(this.registers.length) * m * m / sum;
+        
+        //Small range correction, 64 bit hashes make the large range correction unnecessary
+        if (estimate <= 2.5 * m && zeroRegisters > 0) {
+            return Math.round(m * Math.log(m / zeroRegisters));
+        }
+        return Math.round(estimate);
+    }
+    
+    private static double getAlpha(int registerCount) {
+        switch (registerCount) {
+            case 16: return 0.673;
+            case 32: return 0.697;
+            case 64: return 0.709;
+            default: return 0.7213 / (1 + 1.079 / registerCount);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog [precision=" + precision + ", cardinality=" + cardinality() + "]";
+    }
+}
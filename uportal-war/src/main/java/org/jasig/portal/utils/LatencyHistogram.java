@@ -0,0 +1,281 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe, fixed size histogram of non-negative values, typically latencies in microseconds. Values
+ * below 8 are counted exactly, larger values are counted in 8 buckets per power of two which bounds the
+ * error of a reported percentile to 12.5% of the value. Values larger than {@link #MAX_VALUE} are counted
+ * as {@link #MAX_VALUE}.
+ * <br/>
+ * Histograms can be merged, making them suitable for combining measurements from multiple sources or
+ * time intervals, and encoded into a compact byte array for storage.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int ENCODING_VERSION = 1;
+    
+    /**
+     * Largest value that is tracked, larger values are clamped
+     */
+    public static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    
+    private static final int BUCKET_COUNT = getBucketIndex(MAX_VALUE) + 1;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    /**
+     * Record a value, negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        
+        this.buckets.incrementAndGet(getBucketIndex(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+        updateMax(this.max, value);
+    }
+    
+    /**
+     * Add all values recorded by the other histogram to this histogram
+     */
+    public void merge(LatencyHistogram other) {
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            final long bucketCount = other.buckets.get(index);
+            if (bucketCount > 0) {
+                this.buckets.addAndGet(index, bucketCount);
+            }
+        }
+        this.count.addAndGet(other.count.get());
+        this.total.addAndGet(other.total.get());
+        updateMax(this.max, other.max.get());
+    }
+    
+    /**
+     * Remove all recorded values
+     */
+    public void reset() {
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            this.buckets.set(index, 0);
+        }
+        this.count.set(0);
+        this.total.set(0);
+        this.max.set(0);
+    }
+    
+    public long getCount() {
+        return this.count.get();
+    }
+    
+    public long getTotal() {
+        return this.total.get();
+    }
+    
+    public long getMax() {
+        return this.max.get();
+    }
+    
+    public double getMean() {
+        final long count = this.count.get();
+        if (count == 0) {
+            return 0;
+        }
+        return this.total.get() / (double) count;
+    }
+    
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return The highest value in the bucket containing the percentile, 0 if no values have been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        
+        long totalCount = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            totalCount += this.buckets.get(index);
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        
+        final long rank = Math.max(1, (long) Math.ceil(totalCount * percentile / 100));
+        long seen = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            seen += this.buckets.get(index);
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(index), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+    
+    /**
+     * @return A copy of the per-bucket counts, see {@link #getBucketUpperBound(int)} for each bucket's range
+     */
+    public long[] getBucketCounts() {
+        final long[] counts = new long[BUCKET_COUNT];
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            counts[index] = this.buckets.get(index);
+        }
+        return counts;
+    }
+    
+    /**
+     * Add counts previously returned by {@link #getBucketCounts()}, used to restore a stored histogram
+     */
+    public void addBucketCounts(long[] counts, long total, long max) {
+        if (counts.length != BUCKET_COUNT) {
+            throw new IllegalArgumentException("Expected " + BUCKET_COUNT + " bucket counts but was " + counts.length);
+        }
+        
+        long count = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            if (counts[index] > 0) {
+                this.buckets.addAndGet(index, counts[index]);
+                count += counts[index];
+            }
+        }
+        this.count.addAndGet(count);
+        this.total.addAndGet(total);
+        updateMax(this.max, max);
+    }
+    
+    /**
+     * @return A compact encoding of the histogram, see {@link #fromByteArray(byte[])}
+     */
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(ENCODING_VERSION);
+        writeVarLong(out, this.total.get());
+        writeVarLong(out, this.max.get());
+        
+        //Only non-empty buckets are written as pairs of (index delta, count)
+        int previousIndex = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            final long bucketCount = this.buckets.get(index);
+            if (bucketCount > 0) {
+                writeVarLong(out, index - previousIndex);
+                writeVarLong(out, bucketCount);
+                previousIndex = index;
+            }
+        }
+        
+        return out.toByteArray();
+    }
+    
+    /**
+     * @param data Data from {@link #toByteArray()}, if null an empty histogram is returned
+     */
+    public static LatencyHistogram fromByteArray(byte[] data) {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        if (data == null || data.length == 0) {
+            return histogram;
+        }
+        
+        final ByteArrayInputStream in = new ByteArrayInputStream(data);
+        final int version = in.read();
+        if (version != ENCODING_VERSION) {
+            throw new IllegalArgumentException("Unsupported LatencyHistogram encoding version: " + version);
+        }
+        
+        final long total = readVarLong(in);
+        final long max = readVarLong(in);
+        
+        final long[] counts = new long[BUCKET_COUNT];
+        int index = 0;
+        while (in.available() > 0) {
+            index += (int) readVarLong(in);
+            counts[index] = readVarLong(in);
+        }
+        
+        histogram.addBucketCounts(counts, total, max);
+        return histogram;
+    }
+    
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    private static long readVarLong(ByteArrayInputStream in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new IllegalArgumentException("Truncated LatencyHistogram data");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed LatencyHistogram data");
+    }
+    
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    /**
+     * @return The highest value counted in the bucket
+     */
+    static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1L) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+    
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.xml.stream;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Bounded hand-off of {@link XMLEvent}s from a producing thread to a consuming thread. Events written
+ * to {@link #getEventWriter()} are passed in batches through a bounded queue and read from
+ * {@link #getEventReader()}, so at most <code>queueCapacity * batchSize</code> events are held in memory.
+ * <br/>
+ * The producer must call {@link XMLEventWriter#close()} when it is done writing or {@link #fail(Throwable)}
+ * if it failed, either will end the stream for the consumer. If the consumer closes the reader, or does not
+ * accept a batch within the write timeout, the producer's next write fails with an {@link XMLStreamException}.
+ */
+public class XMLEventPipe {
+    private static final Object END_OF_EVENTS = new Object();
+    
+    private final BlockingQueue<Object> queue;
+    private final int batchSize;
+    private final long writeTimeout;
+    private final PipeEventWriter eventWriter = new PipeEventWriter();
+    private final PipeEventReader eventReader = new PipeEventReader();
+    
+    private volatile boolean readerClosed = false;
+    
+    /**
+     * @param queueCapacity Maximum number of batches waiting to be read
+     * @param batchSize Number of events written per batch
+     * @param writeTimeout Maximum time in milliseconds the writer waits for space in the queue
+     */
+    public XMLEventPipe(int queueCapacity, int batchSize, long writeTimeout) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1: " + queueCapacity);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        }
+        
+        this.queue = new ArrayBlockingQueue<Object>(queueCapacity);
+        this.batchSize = batchSize;
+        this.writeTimeout = writeTimeout;
+    }
+    
+    /**
+     * @return The writer for the producing thread
+     */
+    public XMLEventWriter getEventWriter() {
+        return this.eventWriter;
+    }
+    
+    /**
+     * @return The reader for the consuming thread
+     */
+    public XMLEventReader getEventReader() {
+        return this.eventReader;
+    }
+    
+    /**
+     * End the stream with a failure, the consumer will see a {@link RuntimeException} wrapping the cause
+     * once it has read the events written before the failure.
+     */
+    public void fail(Throwable cause) {
+        try {
+            this.eventWriter.flushBatch();
+        }
+        catch (XMLStreamException e) {
+            //Ignore, the failure below is more important
+        }
+        this.eventWriter.enqueue(cause);
+    }
+    
+    private class PipeEventWriter implements XMLEventWriter {
+        private List<XMLEvent> batch = new ArrayList<XMLEvent>(batchSize);
+        private NamespaceContext namespaceContext;
+        private boolean closed = false;
+
+        @Override
+        public void add(XMLEvent event) throws XMLStreamException {
+            if (this.closed) {
+                throw new XMLStreamException("XMLEventPipe writer has been closed");
+            }
+            
+            this.batch.add(event);
+            if (this.batch.size() >= batchSize) {
+                this.flushBatch();
+            }
+        }
+
+        @Override
+        public void add(XMLEventReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                this.add(reader.nextEvent());
+            }
+        }
+
+        @Override
+        public void flush() throws XMLStreamException {
+            this.flushBatch();
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            if (this.closed) {
+                return;
+            }
+            
+            this.flushBatch();
+            this.closed = true;
+            if (!this.enqueue(END_OF_EVENTS)) {
+                throw new XMLStreamException("XMLEventPipe reader did not accept the end of the stream");
+            }
+        }
+        
+        void flushBatch() throws XMLStreamException {
+            if (this.batch.isEmpty()) {
+                return;
+            }
+            
+            if (!this.enqueue(this.batch)) {
+                this.closed = true;
+                throw new XMLStreamException("XMLEventPipe reader has been closed or did not read events within " + writeTimeout + "ms");
+            }
+            this.batch = new ArrayList<XMLEvent>(batchSize);
+        }
+        
+        boolean enqueue(Object element) {
+            try {
+                final long deadline = System.currentTimeMillis() + writeTimeout;
+                while (!readerClosed) {
+                    //Poll in short intervals so a closed reader is noticed promptly
+                    final long wait = Math.min(100, deadline - System.currentTimeMillis());
+                    if (wait <= 0) {
+                        return false;
+                    }
+                    if (queue.offer(element, wait, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public String getPrefix(String uri) throws XMLStreamException {
+            return this.namespaceContext != null ? this.namespaceContext.getPrefix(uri) : null;
+        }
+
+        @Override
+        public void setPrefix(String prefix, String uri) throws XMLStreamException {
+        }
+
+        @Override
+        public void setDefaultNamespace(String uri) throws XMLStreamException {
+        }
+
+        @Override
+        public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+            this.namespaceContext = context;
+        }
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            return this.namespaceContext;
+        }
+    }
+    
+    private class PipeEventReader implements XMLEventReader {
+        private Iterator<XMLEvent> batch = null;
+        private XMLEvent nextEvent = null;
+        private XMLEvent previousEvent = null;
+        private boolean ended = false;
+        
+        @Override
+        public boolean hasNext() {
+            return this.peek() != null;
+        }
+        
+        @Override
+        public XMLEvent peek() {
+            if (this.nextEvent == null && !this.ended) {
+                this.nextEvent = this.readNext();
+            }
+            return this.nextEvent;
+        }
+
+        @Override
+        public XMLEvent nextEvent() throws XMLStreamException {
+            final XMLEvent event = this.peek();
+            if (event == null) {
+                throw new NoSuchElementException("No more events in XMLEventPipe");
+            }
+            this.nextEvent = null;
+            this.previousEvent = event;
+            return event;
+        }
+
+        @Override
+        public Object next() {
+            try {
+                return this.nextEvent();
+            }
+            catch (XMLStreamException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+        @SuppressWarnings("unchecked")
+        private XMLEvent readNext() {
+            while (this.batch == null || !this.batch.hasNext()) {
+                final Object element;
+                try {
+                    element = queue.take();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.close();
+                    throw new IllegalStateException("Interrupted while waiting for events from XMLEventPipe", e);
+                }
+                
+                if (element == END_OF_EVENTS) {
+                    this.ended = true;
+                    return null;
+                }
+                if (element instanceof Throwable) {
+                    this.ended = true;
+                    throw new IllegalStateException("Producer of XMLEventPipe events failed", (Throwable) element);
+                }
+                
+                this.batch = ((List<XMLEvent>) element).iterator();
+            }
+            
+            return this.batch.next();
+        }
+
+        @Override
+        public String getElementText() throws XMLStreamException {
+            XMLEvent event = this.previousEvent;
+            if (event == null || !event.isStartElement()) {
+                throw new XMLStreamException("Must be on START_ELEMENT to read next text");
+            }
+            
+            final StringBuilder text = new StringBuilder();
+            event = this.nextEvent();
+            while (!event.isEndElement()) {
+                if (event.isCharacters()) {
+                    text.append(event.asCharacters().getData());
+                }
+                else if (event.isStartElement()) {
+                    throw new XMLStreamException("Element text may not contain elements", event.getLocation());
+                }
+                event = this.nextEvent();
+            }
+            return text.toString();
+        }
+
+        @Override
+        public XMLEvent nextTag() throws XMLStreamException {
+            XMLEvent event = this.nextEvent();
+            while ((event.isCharacters() && event.asCharacters().isWhiteSpace())
+                    || event.isProcessingInstruction()
+                    || event.getEventType() == XMLEvent.COMMENT) {
+                
+                event = this.nextEvent();
+            }
+            
+            if (!event.isStartElement() && !event.isEndElement()) {
+                throw new XMLStreamException("Unexpected event type '" + XMLStreamConstantsUtils.getEventName(event.getEventType()) + "' encountered. Found event: " + event, event.getLocation());
+            }
+            
+            return event;
+        }
+
+        @Override
+        public Object getProperty(String name) throws IllegalArgumentException {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            readerClosed = true;
+            this.ended = true;
+            this.nextEvent = null;
+            queue.clear();
+        }
+    }
+}
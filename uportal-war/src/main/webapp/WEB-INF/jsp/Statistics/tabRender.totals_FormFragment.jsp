@@ -27,3 +27,11 @@
                     </c:forEach>
                 </form:select>
             </p>
+            <p>
+                <form:label path="statistic"><spring:message code="statistic"/></form:label>
+                <form:select path="statistic">
+                    <c:forEach items="${ statistics }" var="statistic">
+                        <form:option value="${ statistic }"><spring:message code="statistic.${ statistic }"/></form:option>
+                    </c:forEach>
+                </form:select>
+            </p>
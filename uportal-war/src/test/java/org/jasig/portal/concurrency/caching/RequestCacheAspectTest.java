@@ -20,11 +20,16 @@
 package org.jasig.portal.concurrency.caching;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.ConcurrentMap;
+
 import org.jasig.portal.url.IPortalRequestUtils;
 import org.junit.Before;
 import org.junit.Test;
@@ -289,4 +294,63 @@ public class RequestCacheAspectTest {
         assertEquals("testMethodCacheThrows(2)", result);
         assertEquals(5, cacheTestInterface.testMethodCacheThrowsCount());
     }
+
+    @Test
+    public void testMethodCacheSeparateSlots() {
+        when(this.portalRequestUtils.getCurrentPortalRequest()).thenReturn(new MockHttpServletRequest());
+        
+        //Keys only contain the arguments, methods called with the same arguments must not share results
+        String result = cacheTestInterface.testMethodCacheDefault("1", false, false);
+        assertEquals("testMethodCacheDefault(1)", result);
+        assertEquals(1, cacheTestInterface.testMethodCacheDefaultCount());
+        
+        result = cacheTestInterface.testMethodCacheNull("1", false, false);
+        assertEquals("testMethodCacheNull(1)", result);
+        assertEquals(1, cacheTestInterface.testMethodCacheNullCount());
+        
+        result = cacheTestInterface.testMethodCacheDefault("1", false, false);
+        assertEquals("testMethodCacheDefault(1)", result);
+        assertEquals(1, cacheTestInterface.testMethodCacheDefaultCount());
+        
+        result = cacheTestInterface.testMethodCacheNull("1", false, false);
+        assertEquals("testMethodCacheNull(1)", result);
+        assertEquals(1, cacheTestInterface.testMethodCacheNullCount());
+    }
+
+    @Test
+    public void testMethodCachePerRequest() {
+        final MockHttpServletRequest firstRequest = new MockHttpServletRequest();
+        final MockHttpServletRequest secondRequest = new MockHttpServletRequest();
+        
+        when(this.portalRequestUtils.getCurrentPortalRequest()).thenReturn(firstRequest);
+        String result = cacheTestInterface.testMethodCacheDefault("1", false, false);
+        assertEquals("testMethodCacheDefault(1)", result);
+        assertEquals(1, cacheTestInterface.testMethodCacheDefaultCount());
+        
+        when(this.portalRequestUtils.getCurrentPortalRequest()).thenReturn(secondRequest);
+        result = cacheTestInterface.testMethodCacheDefault("1", false, false);
+        assertEquals("testMethodCacheDefault(1)", result);
+        assertEquals(2, cacheTestInterface.testMethodCacheDefaultCount());
+        
+        when(this.portalRequestUtils.getCurrentPortalRequest()).thenReturn(firstRequest);
+        result = cacheTestInterface.testMethodCacheDefault("1", false, false);
+        assertEquals("testMethodCacheDefault(1)", result);
+        assertEquals(2, cacheTestInterface.testMethodCacheDefaultCount());
+    }
+
+    @Test
+    public void testCacheSlotsGrow() {
+        //Methods first invoked after the slots for a request were created get a slot past the end of the array
+        final RequestCacheAspect.CacheSlots cacheSlots = new RequestCacheAspect.CacheSlots(0);
+        
+        final ConcurrentMap<Object, Object> firstSlot = cacheSlots.getSlot(0);
+        firstSlot.put("key", "value");
+        
+        final ConcurrentMap<Object, Object> lateSlot = cacheSlots.getSlot(40);
+        assertNotNull(lateSlot);
+        assertNotSame(firstSlot, lateSlot);
+        assertSame(lateSlot, cacheSlots.getSlot(40));
+        assertSame(firstSlot, cacheSlots.getSlot(0));
+        assertEquals("value", cacheSlots.getSlot(0).get("key"));
+    }
 }
@@ -0,0 +1,130 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+import javax.xml.namespace.QName;
+
+import org.apache.commons.codec.binary.Base64;
+import org.jasig.portal.events.handlers.db.BinaryPortalEventCodec;
+import org.jasig.portal.events.handlers.db.JsonPortalEventCodec;
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.portlet.rendering.worker.IPortletExecutionWorker;
+import org.jasig.portal.security.SystemPerson;
+import org.jasig.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.jasig.portal.url.UrlState;
+import org.jasig.portal.url.UrlType;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class BinaryPortalEventCodecTest {
+    private ObjectMapper mapper;
+    private JsonPortalEventCodec jsonPortalEventCodec;
+    private BinaryPortalEventCodec binaryPortalEventCodec;
+    
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        mapper = omfb.getObject();
+        
+        jsonPortalEventCodec = new JsonPortalEventCodec();
+        jsonPortalEventCodec.setMapper(mapper);
+        
+        binaryPortalEventCodec = new BinaryPortalEventCodec();
+        binaryPortalEventCodec.setMapper(mapper);
+    }
+    
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (final PortalEvent event : createEvents()) {
+            final String eventData = binaryPortalEventCodec.encode(event);
+            
+            assertTrue(binaryPortalEventCodec.isEncoded(eventData));
+            assertFalse(jsonPortalEventCodec.isEncoded(eventData));
+            
+            final PortalEvent decoded = binaryPortalEventCodec.decode(eventData, event.getClass());
+            assertEquals(event.getClass(), decoded.getClass());
+            assertEquals(mapper.writeValueAsString(event), mapper.writeValueAsString(decoded));
+            
+            final String json = jsonPortalEventCodec.encode(event);
+            assertTrue("Binary data should be smaller than JSON for " + event.getClass().getSimpleName(), eventData.length() < json.length());
+        }
+    }
+    
+    @Test
+    public void testJsonDataNotBinary() throws Exception {
+        for (final PortalEvent event : createEvents()) {
+            final String json = jsonPortalEventCodec.encode(event);
+            
+            assertTrue(jsonPortalEventCodec.isEncoded(json));
+            assertFalse(binaryPortalEventCodec.isEncoded(json));
+            
+            final PortalEvent decoded = jsonPortalEventCodec.decode(json, PortalEvent.class);
+            assertEquals(json, mapper.writeValueAsString(decoded));
+        }
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownVersion() throws Exception {
+        binaryPortalEventCodec.decode("~" + Base64.encodeBase64String(new byte[] { 2, 1, 2 }), PortalEvent.class);
+    }
+    
+    static List<PortalEvent> createEvents() {
+        final String sessionId = "1234567890123_system_AAAAAAAAAAA";
+        final PortalEvent.PortalEventBuilder eventBuilder = new PortalEvent.PortalEventBuilder(BinaryPortalEventCodecTest.class, "example.com", sessionId, SystemPerson.INSTANCE, null);
+        
+        final Map<String, List<String>> parameters = ImmutableMap.of("action", (List<String>)ImmutableList.of("search"), "query", (List<String>)ImmutableList.of("café", "-12"));
+        final PortletExecutionEvent.PortletExecutionEventBuilder portletExecutionEventBuilder = new PortletExecutionEvent.PortletExecutionEventBuilder(
+                eventBuilder, new MockPortletWindowId("pw1"), "portal-activity", 12345678, parameters, WindowState.MAXIMIZED, PortletMode.VIEW);
+        
+        final Set<String> groups = ImmutableSet.of("Student");
+        final Map<String, List<String>> attributes = ImmutableMap.of("username", (List<String>)ImmutableList.of("system"), "roles", (List<String>)ImmutableList.of("student", "employee"));
+        
+        final IPortletExecutionWorker hungWorker = mock(IPortletExecutionWorker.class);
+        when(hungWorker.getPortletFname()).thenReturn("weather");
+        
+        return ImmutableList.of(
+                new LoginEvent(eventBuilder, groups, attributes),
+                new PortalRenderEvent(eventBuilder, "/f/welcome/normal/render.uP", 98765432, UrlState.NORMAL, UrlType.RENDER, Collections.<String, List<String>>emptyMap(), "u12l1n11"),
+                new PortletRenderExecutionEvent(portletExecutionEventBuilder, true, false),
+                new PortletResourceExecutionEvent(portletExecutionEventBuilder, "feed", true, false),
+                new PortletEventExecutionEvent(portletExecutionEventBuilder, new QName("http://example.com/uri", "EventName")),
+                new FolderMovedInLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "s1", "s2"),
+                new PortletHungEvent(eventBuilder, hungWorker));
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jasig.portal.concurrency.FunctionWithoutResult;
+import org.jasig.portal.events.handlers.db.BinaryPortalEventCodec;
+import org.jasig.portal.events.handlers.db.EventAggregationWatermark;
+import org.jasig.portal.events.handlers.db.FilePortalEventStore;
+import org.jasig.portal.security.SystemPerson;
+import org.jasig.portal.spring.beans.factory.ObjectMapperFactoryBean;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.base.Function;
+
+public class FilePortalEventStoreTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    private BinaryPortalEventCodec binaryPortalEventCodec;
+    private FilePortalEventStore portalEventStore;
+    
+    @Before
+    public void setup() throws Exception {
+        final ObjectMapperFactoryBean omfb = new ObjectMapperFactoryBean();
+        omfb.afterPropertiesSet();
+        
+        binaryPortalEventCodec = new BinaryPortalEventCodec();
+        binaryPortalEventCodec.setMapper(omfb.getObject());
+        
+        portalEventStore = createStore();
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        portalEventStore.destroy();
+    }
+    
+    @Test
+    public void testStoreAndGetEvents() throws Exception {
+        final List<PortalEvent> events = generateEvents(50);
+        portalEventStore.storePortalEvents(events);
+        
+        //Small segments, the events must span several
+        assertTrue(countSegments() > 2);
+        
+        final DateTime start = events.get(0).getTimestampAsDate();
+        final DateTime end = events.get(events.size() - 1).getTimestampAsDate().plusMillis(1);
+        assertEquals(start, portalEventStore.getOldestPortalEventTimestamp());
+        assertEquals(end.minusMillis(1), portalEventStore.getNewestPortalEventTimestamp());
+        
+        assertSameEvents(events, getEvents(start, end, -1));
+        assertSameEvents(events.subList(0, 5), getEvents(start, end, 5));
+        
+        //Range in the middle of the log
+        final DateTime rangeStart = events.get(20).getTimestampAsDate();
+        final DateTime rangeEnd = events.get(30).getTimestampAsDate();
+        assertSameEvents(events.subList(20, 30), getEvents(rangeStart, rangeEnd, -1));
+    }
+    
+    @Test
+    public void testAggregateEvents() throws Exception {
+        final List<PortalEvent> events = generateEvents(50);
+        portalEventStore.storePortalEvents(events);
+        
+        final DateTime start = events.get(0).getTimestampAsDate();
+        final DateTime end = events.get(40).getTimestampAsDate();
+        
+        //Aggregate in batches up to the end time
+        final EventAggregationWatermark watermark = new EventAggregationWatermark(start, Long.MIN_VALUE, Period.minutes(2));
+        final List<PortalEvent> aggregated = new ArrayList<PortalEvent>();
+        assertTrue(portalEventStore.aggregatePortalEvents(watermark, end, 15, collect(aggregated)));
+        assertEquals(15, aggregated.size());
+        assertTrue(portalEventStore.aggregatePortalEvents(watermark, end, 15, collect(aggregated)));
+        assertTrue(portalEventStore.aggregatePortalEvents(watermark, end, 15, collect(aggregated)));
+        assertSameEvents(events.subList(0, 40), aggregated);
+        assertEquals(events.get(39).getTimestampAsDate(), watermark.getTimestamp());
+        
+        //Nothing left before the end time
+        final List<PortalEvent> none = new ArrayList<PortalEvent>();
+        assertTrue(portalEventStore.aggregatePortalEvents(watermark, end, 15, collect(none)));
+        assertTrue(none.isEmpty());
+        
+        //Handler stopping aggregation, the event it stopped on is returned again
+        final List<PortalEvent> stopped = new ArrayList<PortalEvent>();
+        final DateTime newEnd = DateTime.now().plusDays(1);
+        assertFalse(portalEventStore.aggregatePortalEvents(watermark, newEnd, -1, new Function<PortalEvent, Boolean>() {
+            @Override
+            public Boolean apply(PortalEvent input) {
+                stopped.add(input);
+                return stopped.size() < 3;
+            }
+        }));
+        assertSameEvents(events.subList(40, 43), stopped);
+        assertEquals(events.get(41).getTimestampAsDate(), watermark.getTimestamp());
+        
+        //The watermark survives a restart
+        portalEventStore.destroy();
+        portalEventStore = createStore();
+        
+        final List<PortalEvent> remaining = new ArrayList<PortalEvent>();
+        assertTrue(portalEventStore.aggregatePortalEvents(watermark, newEnd, -1, collect(remaining)));
+        assertSameEvents(events.subList(42, 50), remaining);
+    }
+    
+    @Test
+    public void testWatermarkStoredAfterCommit() throws Exception {
+        final List<PortalEvent> events = generateEvents(30);
+        portalEventStore.storePortalEvents(events);
+        
+        final DateTime start = events.get(0).getTimestampAsDate();
+        final DateTime end = DateTime.now().plusDays(1);
+        
+        //Rolled back aggregation, the same events are read again
+        List<PortalEvent> aggregated = aggregateInTransaction(start, end, 10, TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertSameEvents(events.subList(0, 10), aggregated);
+        aggregated = aggregateInTransaction(start, end, 10, TransactionSynchronization.STATUS_COMMITTED);
+        assertSameEvents(events.subList(0, 10), aggregated);
+        
+        //Not stored before the transaction completes
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            portalEventStore.aggregatePortalEvents(new EventAggregationWatermark(start, Long.MIN_VALUE, Period.minutes(2)), end, 10, collect(new ArrayList<PortalEvent>()));
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        
+        //Only the committed watermark survives a restart
+        portalEventStore.destroy();
+        portalEventStore = createStore();
+        
+        aggregated = aggregateInTransaction(start, end, -1, TransactionSynchronization.STATUS_COMMITTED);
+        assertSameEvents(events.subList(10, 30), aggregated);
+    }
+    
+    @Test
+    public void testReopenAndAppend() throws Exception {
+        final List<PortalEvent> events = generateEvents(20);
+        portalEventStore.storePortalEvents(events.subList(0, 10));
+        
+        portalEventStore.destroy();
+        portalEventStore = createStore();
+        
+        portalEventStore.storePortalEvents(events.subList(10, 20));
+        
+        final DateTime start = events.get(0).getTimestampAsDate();
+        final DateTime end = DateTime.now().plusDays(1);
+        assertSameEvents(events, getEvents(start, end, -1));
+    }
+    
+    @Test
+    public void testDeleteEventsBefore() throws Exception {
+        assertNull(portalEventStore.getOldestPortalEventTimestamp());
+        
+        final List<PortalEvent> events = generateEvents(50);
+        portalEventStore.storePortalEvents(events);
+        final int segments = countSegments();
+        
+        //Only whole segments are deleted
+        final int deleted = portalEventStore.deletePortalEventsBefore(events.get(25).getTimestampAsDate());
+        assertTrue(deleted > 0 && deleted <= 25);
+        assertTrue(countSegments() < segments);
+        
+        final DateTime end = DateTime.now().plusDays(1);
+        final List<PortalEvent> remaining = getEvents(events.get(0).getTimestampAsDate(), end, -1);
+        assertSameEvents(events.subList(deleted, 50), remaining);
+        assertEquals(events.get(deleted).getTimestampAsDate(), portalEventStore.getOldestPortalEventTimestamp());
+        
+        //The segment being written to is never deleted
+        portalEventStore.deletePortalEventsBefore(end);
+        assertEquals(1, countSegments());
+    }
+    
+    private FilePortalEventStore createStore() throws Exception {
+        final FilePortalEventStore store = new FilePortalEventStore();
+        store.setPortalEventCodec(binaryPortalEventCodec);
+        store.setDirectory(temporaryFolder.getRoot());
+        store.setSegmentSize(1024);
+        store.setIndexInterval(256);
+        store.afterPropertiesSet();
+        return store;
+    }
+    
+    private List<PortalEvent> aggregateInTransaction(DateTime start, DateTime end, int maxEvents, int status) {
+        final List<PortalEvent> aggregated = new ArrayList<PortalEvent>();
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            portalEventStore.aggregatePortalEvents(new EventAggregationWatermark(start, Long.MIN_VALUE, Period.minutes(2)), end, maxEvents, collect(aggregated));
+            for (final TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                    synchronization.afterCommit();
+                }
+                synchronization.afterCompletion(status);
+            }
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        return aggregated;
+    }
+    
+    private int countSegments() {
+        return temporaryFolder.getRoot().list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        }).length;
+    }
+    
+    private List<PortalEvent> getEvents(DateTime start, DateTime end, int maxEvents) {
+        final List<PortalEvent> events = new ArrayList<PortalEvent>();
+        portalEventStore.getPortalEvents(start, end, maxEvents, new FunctionWithoutResult<PortalEvent>() {
+            @Override
+            protected void applyWithoutResult(PortalEvent input) {
+                events.add(input);
+            }
+        });
+        return events;
+    }
+    
+    private static Function<PortalEvent, Boolean> collect(final List<PortalEvent> events) {
+        return new Function<PortalEvent, Boolean>() {
+            @Override
+            public Boolean apply(PortalEvent input) {
+                events.add(input);
+                return Boolean.TRUE;
+            }
+        };
+    }
+    
+    private static void assertSameEvents(List<PortalEvent> expected, List<PortalEvent> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getClass(), actual.get(i).getClass());
+            assertEquals(expected.get(i).getTimestampAsDate(), actual.get(i).getTimestampAsDate());
+        }
+    }
+    
+    /**
+     * Events with distinct, increasing timestamps
+     */
+    private List<PortalEvent> generateEvents(int count) throws Exception {
+        final PortalEvent.PortalEventBuilder eventBuilder = new PortalEvent.PortalEventBuilder(this, "example.com", "1234567890123_system_AAAAAAAAAAA", SystemPerson.INSTANCE, null);
+        
+        final List<PortalEvent> events = new ArrayList<PortalEvent>(count);
+        for (int i = 0; i < count; i++) {
+            Thread.sleep(2);
+            if (i % 2 == 0) {
+                events.add(new PortletAddedToLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n" + i, "portlet" + i));
+            }
+            else {
+                events.add(new FolderMovedInLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n" + i, "s" + i));
+            }
+        }
+        return events;
+    }
+}
@@ -30,7 +30,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
 
 import javax.portlet.ActionRequest;
 import javax.portlet.PortletMode;
@@ -39,11 +38,14 @@ import javax.xml.namespace.QName;
 
 import org.jasig.portal.concurrency.CallableWithoutResult;
 import org.jasig.portal.concurrency.FunctionWithoutResult;
+import org.jasig.portal.events.handlers.db.EventAggregationWatermark;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.JpaPortalEventStoreMXBean;
 import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
 import org.jasig.portal.security.SystemPerson;
 import org.jasig.portal.test.BaseRawEventsJpaDaoTest;
 import org.joda.time.DateTime;
+import org.joda.time.Period;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -64,12 +66,15 @@ import com.google.common.collect.ImmutableSet;
 public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
     @Autowired
     private IPortalEventDao portalEventDao;
+    @Autowired
+    private JpaPortalEventStoreMXBean portalEventStoreStatistics;
     
     @Test
     public void testStoreSingleEvents() throws Exception {
         final DateTime startDate = DateTime.now().minusDays(1);
         final DateTime endDate = DateTime.now().plusDays(1);
         
+        final EventAggregationWatermark watermark = new EventAggregationWatermark(startDate, Long.MIN_VALUE, Period.minutes(2));
         final List<PortalEvent> originalEvents = generateEvents();
 
         execute(new CallableWithoutResult() {
@@ -82,11 +87,11 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
         });
         
         verifyGetEvents(originalEvents, startDate, endDate);
-        verifyAggregateEvents(originalEvents, startDate, endDate);
-        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
+        verifyAggregateEvents(originalEvents, watermark, endDate);
+        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), watermark, endDate);
         deleteEvents(originalEvents, startDate, endDate);
         verifyGetEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
-        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
+        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), watermark, endDate);
     }
     
     @Test
@@ -94,6 +99,7 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
         final DateTime startDate = DateTime.now().minusDays(1);
         final DateTime endDate = DateTime.now().plusDays(1);
         
+        final EventAggregationWatermark watermark = new EventAggregationWatermark(startDate, Long.MIN_VALUE, Period.minutes(2));
         final List<PortalEvent> originalEvents = generateEvents();
         
         execute(new CallableWithoutResult() {
@@ -108,6 +114,7 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
         });
         
 
+        final long batchInsertEventCount = portalEventStoreStatistics.getBatchInsertEventCount();
         execute(new CallableWithoutResult() {
             @Override
             protected void callWithoutResult() {
@@ -115,6 +122,11 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
             }
         });
         
+        //Events are inserted using JDBC batches of the size configured for the dialect
+        assertEquals(5, portalEventStoreStatistics.getJdbcBatchSize());
+        assertEquals(batchInsertEventCount + originalEvents.size(), portalEventStoreStatistics.getBatchInsertEventCount());
+        assertEquals(5, portalEventStoreStatistics.getBatchSizeMax());
+        
         Collections.sort(originalEvents, new Comparator<PortalEvent>() {
             @Override
             public int compare(PortalEvent o1, PortalEvent o2) {
@@ -137,11 +149,80 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
         });
         
         verifyGetEvents(originalEvents, startDate, endDate);
-        verifyAggregateEvents(originalEvents, startDate, endDate);
-        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
+        verifyAggregateEvents(originalEvents, watermark, endDate);
+        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), watermark, endDate);
         deleteEvents(originalEvents, startDate, endDate);
         verifyGetEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
-        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
+        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), watermark, endDate);
+    }
+
+    @Test
+    public void testAggregateLateEvents() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+        final EventAggregationWatermark watermark = new EventAggregationWatermark(startDate, Long.MIN_VALUE, Period.minutes(2));
+        
+        final List<PortalEvent> originalEvents = generateEvents();
+        final List<PortalEvent> onTimeEvents = originalEvents.subList(originalEvents.size() / 2, originalEvents.size());
+        final List<PortalEvent> lateEvents = originalEvents.subList(0, originalEvents.size() / 2);
+        
+        //Aggregation moves past the timestamps of the late events before they are stored
+        storeEvents(onTimeEvents);
+        verifyAggregateEvents(onTimeEvents, watermark, endDate);
+        
+        //Late events are aggregated once, the events already aggregated are not returned again
+        storeEvents(lateEvents);
+        verifyAggregateEvents(lateEvents, watermark, endDate);
+        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), watermark, endDate);
+    }
+    
+    @Test
+    public void testResumeFromStoredWatermark() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+        final EventAggregationWatermark watermark = new EventAggregationWatermark(startDate, Long.MIN_VALUE, Period.minutes(2));
+        
+        final List<PortalEvent> originalEvents = generateEvents();
+        final List<PortalEvent> firstEvents = originalEvents.subList(0, originalEvents.size() / 2);
+        final List<PortalEvent> secondEvents = originalEvents.subList(originalEvents.size() / 2, originalEvents.size());
+        
+        storeEvents(firstEvents);
+        verifyAggregateEvents(firstEvents, watermark, endDate);
+        
+        //A watermark re-created from the stored key does not treat the already aggregated events as late
+        final EventAggregationWatermark resumedWatermark = new EventAggregationWatermark(watermark.getTimestamp(), watermark.getEventId(), Period.minutes(2));
+        storeEvents(secondEvents);
+        verifyAggregateEvents(secondEvents, resumedWatermark, endDate);
+        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), resumedWatermark, endDate);
+    }
+    
+    @Test
+    public void testResumeFromStoredTimestamp() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+        final EventAggregationWatermark watermark = new EventAggregationWatermark(startDate, Long.MIN_VALUE, Period.minutes(2));
+        
+        final List<PortalEvent> originalEvents = generateEvents();
+        final List<PortalEvent> firstEvents = originalEvents.subList(0, originalEvents.size() / 2);
+        final List<PortalEvent> secondEvents = originalEvents.subList(originalEvents.size() / 2, originalEvents.size());
+        
+        storeEvents(firstEvents);
+        verifyAggregateEvents(firstEvents, watermark, endDate);
+        
+        //Status stored without an event id, the events at the stored timestamp are not aggregated again
+        final EventAggregationWatermark resumedWatermark = new EventAggregationWatermark(watermark.getTimestamp(), Long.MAX_VALUE, Period.minutes(2));
+        storeEvents(secondEvents);
+        verifyAggregateEvents(secondEvents, resumedWatermark, endDate);
+        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), resumedWatermark, endDate);
+    }
+    
+    protected void storeEvents(final List<PortalEvent> events) {
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalEventDao.storePortalEvents(events);
+            }
+        });
     }
 
     protected void verifyGetEvents(final List<PortalEvent> originalEvents, final DateTime startDate, final DateTime endDate) {
@@ -169,25 +250,22 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
         });
     }
 
-    protected void verifyAggregateEvents(final List<PortalEvent> originalEvents, final DateTime startDate, final DateTime endDate) {
+    protected void verifyAggregateEvents(final List<PortalEvent> originalEvents, final EventAggregationWatermark watermark, final DateTime endDate) {
         execute(new CallableWithoutResult() {
             @Override
             protected void callWithoutResult() {
                 //Get all events
                 final List<PortalEvent> portalEvents = new LinkedList<PortalEvent>();
-                
-                final AtomicReference<DateTime> nextStart = new AtomicReference<DateTime>(startDate);
 
                 //aggregate all events, 5 at a time.
                 final int loadSize = 10;
                 int startSize;
                 do {
                     startSize = portalEvents.size();
-                    portalEventDao.aggregatePortalEvents(nextStart.get(), endDate, loadSize, new Function<PortalEvent, Boolean>() {
+                    portalEventDao.aggregatePortalEvents(watermark, endDate, loadSize, new Function<PortalEvent, Boolean>() {
                         @Override
 						public Boolean apply(PortalEvent input) {
                             portalEvents.add(input);
-                            nextStart.set(input.getTimestampAsDate());
                             return Boolean.TRUE;
                         }
                     });
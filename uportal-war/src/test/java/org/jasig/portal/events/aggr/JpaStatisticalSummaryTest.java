@@ -19,6 +19,7 @@
 package org.jasig.portal.events.aggr;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Random;
 
@@ -29,7 +30,9 @@ import org.apache.commons.math3.stat.descriptive.rank.Min;
 import org.apache.commons.math3.stat.descriptive.summary.Sum;
 import org.apache.commons.math3.stat.descriptive.summary.SumOfLogs;
 import org.apache.commons.math3.stat.descriptive.summary.SumOfSquares;
+import org.jasig.portal.events.aggr.stat.JpaStatisticalSummary;
 import org.jasig.portal.test.BaseAggrEventsJpaDaoTest;
+import org.jasig.portal.utils.LatencyHistogram;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -84,6 +87,36 @@ public class JpaStatisticalSummaryTest extends BaseAggrEventsJpaDaoTest {
 //    }
 
     
+    @Test
+    public void testPercentilesMergeAcrossIntervals() {
+        final JpaStatisticalSummary firstHour = new JpaStatisticalSummary();
+        final JpaStatisticalSummary secondHour = new JpaStatisticalSummary();
+        final JpaStatisticalSummary day = new JpaStatisticalSummary();
+        assertTrue(Double.isNaN(day.getPercentile(50)));
+        
+        final Random r = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            final long fast = 1000000 + r.nextInt(1000000);
+            final long slow = 100000000 + r.nextInt(100000000);
+            firstHour.addValue(fast);
+            secondHour.addValue(i % 10 == 0 ? slow : fast);
+            day.addValue(fast);
+            day.addValue(i % 10 == 0 ? slow : fast);
+        }
+        
+        //The slow tail only shows up in the percentiles
+        assertTrue(firstHour.getPercentile(99) < 2000000 * 1.125);
+        assertTrue(secondHour.getPercentile(99) > 100000000);
+        
+        //Histograms survive encoding and roll up to the same result as aggregating the whole day
+        final LatencyHistogram merged = LatencyHistogram.fromByteArray(firstHour.getHistogramData());
+        merged.merge(secondHour.getHistogram());
+        assertEquals(day.getN(), merged.getCount());
+        assertEquals(day.getPercentile(50), JpaStatisticalSummary.getPercentile(merged, 50), 0);
+        assertEquals(day.getPercentile(95), JpaStatisticalSummary.getPercentile(merged, 95), 0);
+        assertEquals(day.getPercentile(99), JpaStatisticalSummary.getPercentile(merged, 99), 0);
+    }
+    
     @Ignore
     @Test
     public void testSummaryStatisticsJson() throws Exception {
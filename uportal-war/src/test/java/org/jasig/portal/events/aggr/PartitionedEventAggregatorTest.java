@@ -0,0 +1,202 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jasig.portal.events.PortalEvent;
+import org.jasig.portal.events.aggr.session.EventSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PartitionedEventAggregatorTest {
+    @Mock private TransactionOperations transactionOperations;
+    @Mock private HibernateCacheEvictor hibernateCacheEvictor;
+    @Mock private PortalEvent event;
+    @Mock private EventSession eventSession;
+    
+    private final List<SimpleTransactionStatus> committedStatuses = new CopyOnWriteArrayList<SimpleTransactionStatus>();
+    private final List<SimpleTransactionStatus> rolledBackStatuses = new CopyOnWriteArrayList<SimpleTransactionStatus>();
+    private final AtomicBoolean failNextCommit = new AtomicBoolean(false);
+    
+    private ExecutorService executorService;
+    private IPortalEventAggregator<PortalEvent> firstAggregator;
+    private IPortalEventAggregator<PortalEvent> secondAggregator;
+    private PartitionedEventAggregator partitionedEventAggregator;
+    
+    @Before
+    public void setup() {
+        this.executorService = Executors.newCachedThreadPool();
+        this.firstAggregator = mock(FirstPortalEventAggregator.class);
+        this.secondAggregator = mock(SecondPortalEventAggregator.class);
+        
+        when(this.transactionOperations.execute(any(TransactionCallback.class))).then(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final SimpleTransactionStatus status = new SimpleTransactionStatus();
+                final Object result = ((TransactionCallback<?>) invocation.getArguments()[0]).doInTransaction(status);
+                if (status.isRollbackOnly()) {
+                    rolledBackStatuses.add(status);
+                }
+                else if (failNextCommit.compareAndSet(true, false)) {
+                    throw new IllegalStateException("Simulated commit failure");
+                }
+                else {
+                    committedStatuses.add(status);
+                }
+                return result;
+            }
+        });
+        
+        @SuppressWarnings("unchecked")
+        final List<IPortalEventAggregator<PortalEvent>> aggregators = Arrays.asList(this.firstAggregator, this.secondAggregator);
+        this.partitionedEventAggregator = new PartitionedEventAggregator(aggregators, 2, 10, this.transactionOperations, this.hibernateCacheEvictor);
+        assertEquals(2, this.partitionedEventAggregator.getPartitionCount());
+        
+        this.partitionedEventAggregator.start(this.executorService);
+    }
+    
+    @After
+    public void tearDown() {
+        this.executorService.shutdownNow();
+    }
+    
+    @Test
+    public void testCommit() {
+        this.aggregateAndFinish();
+        this.partitionedEventAggregator.complete(true);
+        
+        assertEquals(2, this.committedStatuses.size());
+        assertEquals(0, this.rolledBackStatuses.size());
+        assertEquals(2, this.partitionedEventAggregator.getCommittedPartitionCount());
+    }
+    
+    @Test
+    public void testRollback() {
+        this.aggregateAndFinish();
+        this.partitionedEventAggregator.complete(false);
+        
+        assertEquals(0, this.committedStatuses.size());
+        assertEquals(2, this.rolledBackStatuses.size());
+        assertEquals(0, this.partitionedEventAggregator.getCommittedPartitionCount());
+    }
+    
+    @Test
+    public void testAggregationRollbackAfterPartitionCommit() {
+        this.aggregateAndFinish();
+        
+        //beforeCommit of the aggregation transaction
+        this.partitionedEventAggregator.complete(true);
+        
+        //The aggregation transaction then fails to commit, the partition work stays committed (at-least-once)
+        this.partitionedEventAggregator.complete(false);
+        
+        assertEquals(2, this.committedStatuses.size());
+        assertEquals(0, this.rolledBackStatuses.size());
+        assertEquals(2, this.partitionedEventAggregator.getCommittedPartitionCount());
+    }
+    
+    @Test
+    public void testPartitionCommitFailure() {
+        this.aggregateAndFinish();
+        
+        this.failNextCommit.set(true);
+        try {
+            this.partitionedEventAggregator.complete(true);
+            fail("Partition commit failure must fail the aggregation commit");
+        }
+        catch (IllegalStateException e) {
+            //expected, the aggregation transaction rolls back
+        }
+        this.partitionedEventAggregator.complete(false);
+        
+        //The other partition committed and will count the events again when they are re-aggregated (at-least-once)
+        assertFalse(this.failNextCommit.get());
+        assertEquals(1, this.committedStatuses.size());
+        assertEquals(1, this.partitionedEventAggregator.getCommittedPartitionCount());
+    }
+    
+    @Test
+    public void testAggregatorFailure() {
+        doThrow(new IllegalArgumentException("Simulated aggregation failure"))
+            .when(this.firstAggregator).aggregateEvent(any(PortalEvent.class), any(EventSession.class), 
+                    any(EventAggregationContext.class), anyMapOf(AggregationInterval.class, AggregationIntervalInfo.class));
+        
+        this.partitionedEventAggregator.aggregateEvent(this.firstAggregator, this.event, this.eventSession, 
+                Collections.<AggregationInterval, AggregationIntervalInfo>emptyMap());
+        try {
+            this.partitionedEventAggregator.finish();
+            fail("Aggregator failure must fail the aggregation");
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+        this.partitionedEventAggregator.complete(false);
+        
+        assertEquals(0, this.committedStatuses.size());
+        assertTrue(this.rolledBackStatuses.size() >= 1);
+        assertEquals(0, this.partitionedEventAggregator.getCommittedPartitionCount());
+    }
+    
+    private void aggregateAndFinish() {
+        final Map<AggregationInterval, AggregationIntervalInfo> intervals = Collections.emptyMap();
+        this.partitionedEventAggregator.aggregateEvent(this.firstAggregator, this.event, this.eventSession, intervals);
+        this.partitionedEventAggregator.aggregateEvent(this.secondAggregator, this.event, this.eventSession, intervals);
+        this.partitionedEventAggregator.finish();
+        
+        verify(this.firstAggregator).aggregateEvent(any(PortalEvent.class), any(EventSession.class), 
+                any(EventAggregationContext.class), anyMapOf(AggregationInterval.class, AggregationIntervalInfo.class));
+        verify(this.secondAggregator).aggregateEvent(any(PortalEvent.class), any(EventSession.class), 
+                any(EventAggregationContext.class), anyMapOf(AggregationInterval.class, AggregationIntervalInfo.class));
+    }
+    
+    private static abstract class FirstPortalEventAggregator implements IPortalEventAggregator<PortalEvent> {
+    }
+    
+    private static abstract class SecondPortalEventAggregator implements IPortalEventAggregator<PortalEvent> {
+    }
+}
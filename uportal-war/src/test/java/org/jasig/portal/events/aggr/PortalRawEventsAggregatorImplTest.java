@@ -21,9 +21,18 @@ package org.jasig.portal.events.aggr;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import javax.persistence.EntityManager;
 
 import org.jasig.portal.IPortalInfoProvider;
@@ -33,6 +42,7 @@ import org.jasig.portal.events.aggr.IEventAggregatorStatus.ProcessingType;
 import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.aggr.session.EventSession;
 import org.jasig.portal.events.aggr.session.EventSessionDao;
+import org.jasig.portal.events.handlers.db.EventAggregationWatermark;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
 import org.jasig.portal.security.IPerson;
 import org.joda.time.DateTime;
@@ -60,6 +70,7 @@ public class PortalRawEventsAggregatorImplTest {
     @Mock private IPortalInfoProvider portalInfoProvider;
     @Mock private IPortalEventDao portalEventDao;
     @Mock private EventSessionDao eventSessionDao;
+    @Mock private HibernateCacheEvictor hibernateCacheEvictor;
     
     @Mock private IEventAggregatorStatus eventAggregatorStatus;
     @Mock private IPerson person;
@@ -79,7 +90,7 @@ public class PortalRawEventsAggregatorImplTest {
         when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true)).thenReturn(eventAggregatorStatus);
         when(portalInfoProvider.getUniqueServerName()).thenReturn("serverName_abcd");
         when(eventAggregatorStatus.getLastEventDate()).thenReturn(new DateTime(1325881376117l));
-        when(portalEventDao.aggregatePortalEvents(any(DateTime.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
+        when(portalEventDao.aggregatePortalEvents(any(EventAggregationWatermark.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
             @Override
             public Boolean answer(InvocationOnMock invocation) throws Throwable {
                 return true;
@@ -106,9 +117,14 @@ public class PortalRawEventsAggregatorImplTest {
         when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true)).thenReturn(eventAggregatorStatus);
         when(portalInfoProvider.getUniqueServerName()).thenReturn("serverName_abcd");
         when(eventAggregatorStatus.getLastEventDate()).thenReturn(new DateTime(1325881376117l));
-        when(portalEventDao.aggregatePortalEvents(any(DateTime.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
+        when(eventAggregatorStatus.getLastEventId()).thenReturn(null);
+        when(portalEventDao.aggregatePortalEvents(any(EventAggregationWatermark.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
             @Override
             public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                //Status without an event id, events at the last event date have already been aggregated
+                final EventAggregationWatermark watermark = (EventAggregationWatermark)invocation.getArguments()[0];
+                assertEquals(1325881376117l, watermark.getTimestamp().getMillis());
+                assertEquals(Long.MAX_VALUE, watermark.getEventId());
                 return false;
             }
         });
@@ -117,6 +133,7 @@ public class PortalRawEventsAggregatorImplTest {
         assertNotNull(result);
         assertEquals(0, result.getProcessed());
         assertEquals(false, result.isComplete());
+        verify(eventAggregatorStatus).setLastEventId(Long.MAX_VALUE);
     }
     
     @Test
@@ -133,7 +150,7 @@ public class PortalRawEventsAggregatorImplTest {
         when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true)).thenReturn(eventAggregatorStatus);
         when(portalInfoProvider.getUniqueServerName()).thenReturn("serverName_abcd");
         when(eventAggregatorStatus.getLastEventDate()).thenReturn(new DateTime(1325881376117l));
-        when(portalEventDao.aggregatePortalEvents(any(DateTime.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
+        when(portalEventDao.aggregatePortalEvents(any(EventAggregationWatermark.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
             @Override
             public Boolean answer(InvocationOnMock invocation) throws Throwable {
                 ((Function<PortalEvent, Boolean>)invocation.getArguments()[3]).apply(new MockPortalEvent(this, "serverName", "eventSessionId", person));
@@ -152,6 +169,74 @@ public class PortalRawEventsAggregatorImplTest {
         this.portalEventAggregator.setEventAggregationBatchSize(1000);
     }
     
+    @Test
+    public void aggregateRawEventsPartitioned()  throws Exception {
+        when(transactionOperations.execute(any(TransactionCallback.class))).then(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final TransactionStatus status = mock(TransactionStatus.class);
+                return ((TransactionCallback<Object>)invocation.getArguments()[0]).doInTransaction(status);
+            }
+        });
+        when(clusterLockService.isLockOwner(PortalRawEventsAggregator.AGGREGATION_LOCK_NAME)).thenReturn(true);
+        when(portalEventDimensionPopulator.isCheckedDimensions()).thenReturn(true);
+        when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true)).thenReturn(eventAggregatorStatus);
+        when(eventAggregationManagementDao.getDefaultAggregatedIntervalConfig()).thenReturn(mock(AggregatedIntervalConfig.class));
+        when(portalInfoProvider.getUniqueServerName()).thenReturn("serverName_abcd");
+        when(eventAggregatorStatus.getLastEventDate()).thenReturn(new DateTime(1325881376117l));
+        when(eventSessionDao.getEventSession(any(PortalEvent.class))).thenReturn(eventSession);
+        
+        final MockPortalEvent event = new MockPortalEvent(this, "serverName", "eventSessionId", person);
+        when(portalEventDao.aggregatePortalEvents(any(EventAggregationWatermark.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                final Function<PortalEvent, Boolean> handler = (Function<PortalEvent, Boolean>)invocation.getArguments()[3];
+                handler.apply(event);
+                handler.apply(event);
+                
+                return true;
+            }
+        });
+        
+        final IPortalEventAggregator<PortalEvent> firstAggregator = mock(FirstPortalEventAggregator.class);
+        when(firstAggregator.supports(any(PortalEvent.class))).thenReturn(true);
+        final IPortalEventAggregator<PortalEvent> secondAggregator = mock(SecondPortalEventAggregator.class);
+        when(secondAggregator.supports(any(PortalEvent.class))).thenReturn(true);
+        
+        final Set<IPortalEventAggregator<PortalEvent>> portalEventAggregators = new LinkedHashSet<IPortalEventAggregator<PortalEvent>>();
+        portalEventAggregators.add(firstAggregator);
+        portalEventAggregators.add(secondAggregator);
+        
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            this.portalEventAggregator.setPortalEventAggregators(portalEventAggregators);
+            this.portalEventAggregator.setAggregationExecutor(executorService);
+            this.portalEventAggregator.setAggregationPartitions(2);
+            
+            final EventProcessingResult result = portalEventAggregator.doAggregateRawEvents();
+            assertNotNull(result);
+            assertEquals(2, result.getProcessed());
+            assertEquals(true, result.isComplete());
+            
+            verify(firstAggregator, times(2)).aggregateEvent(eq(event), any(EventSession.class), any(EventAggregationContext.class), anyMapOf(AggregationInterval.class, AggregationIntervalInfo.class));
+            verify(secondAggregator, times(2)).aggregateEvent(eq(event), any(EventSession.class), any(EventAggregationContext.class), anyMapOf(AggregationInterval.class, AggregationIntervalInfo.class));
+            
+            //The aggregation transaction plus one transaction per partition
+            verify(transactionOperations, times(3)).execute(any(TransactionCallback.class));
+        }
+        finally {
+            executorService.shutdownNow();
+            this.portalEventAggregator.setAggregationPartitions(1);
+            this.portalEventAggregator.setAggregationExecutor(null);
+        }
+    }
+    
+    private static abstract class FirstPortalEventAggregator implements IPortalEventAggregator<PortalEvent> {
+    }
+    
+    private static abstract class SecondPortalEventAggregator implements IPortalEventAggregator<PortalEvent> {
+    }
+    
     private static class MockPortalEvent extends PortalEvent {
         public MockPortalEvent(Object source, String serverName, String eventSessionId, IPerson person) {
             super(new MockPortalEventBuilder(source, serverName, eventSessionId, person));
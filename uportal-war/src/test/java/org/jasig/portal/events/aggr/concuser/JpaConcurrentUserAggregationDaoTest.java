@@ -30,6 +30,7 @@ import org.jasig.portal.events.aggr.BaseAggregationPrivateDao;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.JpaBaseAggregationDaoTest;
 import org.jasig.portal.events.aggr.TimeDimension;
+import org.jasig.portal.events.aggr.UniqueCountMode;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -54,7 +55,8 @@ public class JpaConcurrentUserAggregationDaoTest
 
     @Override
     protected void updateAggregation(AggregationIntervalInfo intervalInfo, ConcurrentUserAggregationImpl aggregation, Random r) {
-        aggregation.countSession(RandomStringUtils.random(8, 0, 0, true, true, null, r));
+        //Mix both counting modes, each aggregation keeps the mode it started with
+        aggregation.countSession(RandomStringUtils.random(8, 0, 0, true, true, null, r), r.nextBoolean() ? UniqueCountMode.EXACT : UniqueCountMode.ESTIMATED);
     }
 
     @Override
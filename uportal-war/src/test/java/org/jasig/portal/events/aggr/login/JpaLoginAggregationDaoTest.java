@@ -19,18 +19,31 @@
 
 package org.jasig.portal.events.aggr.login;
 
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 import java.util.Collections;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+
+import javax.naming.CompositeName;
 
 import org.apache.commons.lang.RandomStringUtils;
+import org.jasig.portal.concurrency.CallableWithoutResult;
 import org.jasig.portal.events.aggr.AggregationInterval;
 import org.jasig.portal.events.aggr.AggregationIntervalInfo;
 import org.jasig.portal.events.aggr.BaseAggregationPrivateDao;
 import org.jasig.portal.events.aggr.DateDimension;
 import org.jasig.portal.events.aggr.JpaBaseAggregationDaoTest;
 import org.jasig.portal.events.aggr.TimeDimension;
+import org.jasig.portal.events.aggr.UniqueCountMode;
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.groups.IEntityGroup;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -47,6 +60,61 @@ public class JpaLoginAggregationDaoTest
     @Autowired
     private LoginAggregationPrivateDao loginAggregationDao;
     
+    @Test
+    public void testEstimatedUniqueCountPersisted() throws Exception {
+        final IEntityGroup entityGroupA = mock(IEntityGroup.class);
+        when(entityGroupA.getServiceName()).thenReturn(new CompositeName("local"));
+        when(entityGroupA.getName()).thenReturn("Group A");
+        when(compositeGroupService.findGroup("local.0")).thenReturn(entityGroupA);
+        
+        final DateTime instant = new DateTime(1326734644000l, DateTimeZone.UTC);
+        populateDateTimeDimensions(instant.minusHours(1), instant.plusHours(1), null);
+        
+        final LoginAggregationKey key = this.executeInTransaction(new Callable<LoginAggregationKey>() {
+            @Override
+            public LoginAggregationKey call() throws Exception {
+                final AggregatedGroupMapping groupA = aggregatedGroupLookupDao.getGroupMapping("local.0");
+                final AggregationIntervalInfo intervalInfo = aggregationIntervalHelper.getIntervalInfo(AggregationInterval.FIVE_MINUTE, instant);
+                final LoginAggregationKey key = createAggregationKey(intervalInfo, groupA);
+                final LoginAggregationImpl aggregation = loginAggregationDao.createAggregation(key);
+                
+                for (int i = 0; i < 100; i++) {
+                    aggregation.countUser("user" + i, UniqueCountMode.ESTIMATED);
+                }
+                loginAggregationDao.updateAggregation(aggregation);
+                return key;
+            }
+        });
+        
+        //Updates to an estimate loaded from the database are stored
+        this.executeInTransaction(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final LoginAggregationImpl aggregation = loginAggregationDao.getAggregation(key);
+                assertEquals(100, aggregation.getUniqueLoginEstimate().cardinality(), 2);
+                
+                for (int i = 50; i < 150; i++) {
+                    aggregation.countUser("user" + i, UniqueCountMode.EXACT);
+                }
+                loginAggregationDao.updateAggregation(aggregation);
+            }
+        });
+        
+        this.execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final LoginAggregationImpl aggregation = loginAggregationDao.getAggregation(key);
+                assertEquals(200, aggregation.getLoginCount());
+                assertEquals(150, aggregation.getUniqueLoginEstimate().cardinality(), 3);
+                assertEquals(aggregation.getUniqueLoginEstimate().cardinality(), aggregation.getUniqueLoginCount());
+                
+                //The returned estimate is a copy
+                aggregation.getUniqueLoginEstimate().offer("another");
+                assertEquals(aggregation.getUniqueLoginCount(), aggregation.getUniqueLoginEstimate().cardinality());
+            }
+        });
+    }
+
     @Override
     protected BaseAggregationPrivateDao<LoginAggregationImpl, LoginAggregationKey> getAggregationDao() {
         return this.loginAggregationDao;
@@ -54,7 +122,8 @@ public class JpaLoginAggregationDaoTest
 
     @Override
     protected void updateAggregation(AggregationIntervalInfo intervalInfo, LoginAggregationImpl aggregation, Random r) {
-        aggregation.countUser(RandomStringUtils.random(8, 0, 0, true, true, null, r));
+        //Mix both counting modes, each aggregation keeps the mode it started with
+        aggregation.countUser(RandomStringUtils.random(8, 0, 0, true, true, null, r), r.nextBoolean() ? UniqueCountMode.EXACT : UniqueCountMode.ESTIMATED);
     }
 
     @Override
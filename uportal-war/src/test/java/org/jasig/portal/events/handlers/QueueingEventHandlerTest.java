@@ -0,0 +1,228 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.events.handlers;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jasig.portal.events.handlers.QueueingEventHandler.OverflowPolicy;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class QueueingEventHandlerTest {
+    @Test
+    public void testDropOldest() throws Exception {
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setWriterThreadEnabled(false);
+        handler.setQueueCapacity(2);
+        handler.afterPropertiesSet();
+        
+        final TestEvent e1 = new TestEvent("1");
+        final TestEvent e2 = new TestEvent("2");
+        final TestEvent e3 = new TestEvent("3");
+        handler.onApplicationEvent(e1);
+        handler.onApplicationEvent(e2);
+        handler.onApplicationEvent(e3);
+        
+        assertEquals(2, handler.getQueueDepth());
+        assertEquals(1, handler.getDroppedEventCount());
+        
+        handler.flush();
+        
+        assertEquals(ImmutableList.of(e2, e3), handler.getEvents());
+        assertEquals(3, handler.getQueuedEventCount());
+        assertEquals(2, handler.getHandledEventCount());
+        assertEquals(0, handler.getQueueDepth());
+    }
+    
+    @Test
+    public void testDropByType() throws Exception {
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setWriterThreadEnabled(false);
+        handler.setQueueCapacity(1);
+        handler.setOverflowPolicy(OverflowPolicy.DROP_BY_TYPE);
+        handler.setOverflowTimeout(10);
+        handler.setDroppableEventTypes(ImmutableSet.<Class<? extends TestEvent>>of(DroppableTestEvent.class));
+        handler.afterPropertiesSet();
+        
+        final TestEvent e1 = new TestEvent("1");
+        handler.onApplicationEvent(e1);
+        handler.onApplicationEvent(new DroppableTestEvent("2"));
+        handler.onApplicationEvent(new TestEvent("3"));
+        
+        assertEquals(2, handler.getDroppedEventCount());
+        assertEquals(
+                ImmutableMap.of(DroppableTestEvent.class.getName(), 1l, TestEvent.class.getName(), 1l), 
+                handler.getDroppedEventCountsByType());
+        
+        handler.flush();
+        assertEquals(ImmutableList.of(e1), handler.getEvents());
+    }
+    
+    @Test
+    public void testAdaptiveBatchSize() throws Exception {
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setWriterThreadEnabled(false);
+        handler.setBatchSize(2);
+        handler.setMaxBatchSize(8);
+        handler.afterPropertiesSet();
+        
+        for (int i = 0; i < 100; i++) {
+            handler.onApplicationEvent(new TestEvent(Integer.toString(i)));
+        }
+        handler.flush();
+        
+        assertEquals(100, handler.getEvents().size());
+        assertEquals(ImmutableList.copyOf(Collections.nCopies(50, 2)), handler.getBatchSizes());
+        assertEquals(4, handler.getBatchSize());
+        
+        handler.onApplicationEvent(new TestEvent("last"));
+        handler.flush();
+        assertEquals(2, handler.getBatchSize());
+    }
+    
+    @Test
+    public void testWriterThread() throws Exception {
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler();
+        handler.setFlushPeriod(10);
+        handler.afterPropertiesSet();
+        try {
+            for (int i = 0; i < 100; i++) {
+                handler.onApplicationEvent(new TestEvent(Integer.toString(i)));
+            }
+            
+            for (int i = 0; i < 500 && handler.getHandledEventCount() < 100; i++) {
+                Thread.sleep(10);
+            }
+            
+            assertEquals(100, handler.getHandledEventCount());
+            assertTrue(handler.getLastFlushTime() > 0);
+        }
+        finally {
+            handler.destroy();
+        }
+        
+        assertEquals(100, handler.getEvents().size());
+        assertEquals(0, handler.getDroppedEventCount());
+    }
+    
+    @Test
+    public void testDestroyWaitsForFlush() throws Exception {
+        final CountDownLatch flushStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFlush = new CountDownLatch(1);
+        final TestQueueingEventHandler handler = new TestQueueingEventHandler() {
+            @Override
+            protected void onApplicationEvents(Iterable<TestEvent> events) {
+                flushStarted.countDown();
+                try {
+                    releaseFlush.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onApplicationEvents(events);
+            }
+        };
+        handler.setWriterThreadEnabled(false);
+        handler.afterPropertiesSet();
+        
+        handler.onApplicationEvent(new TestEvent("1"));
+        final Thread flushThread = new Thread() {
+            @Override
+            public void run() {
+                handler.flush();
+            }
+        };
+        flushThread.start();
+        assertTrue(flushStarted.await(5, TimeUnit.SECONDS));
+        
+        //Queued while the flush is blocked, must still be written by destroy
+        handler.onApplicationEvent(new TestEvent("2"));
+        final Thread destroyThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    handler.destroy();
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        destroyThread.start();
+        
+        //destroy must wait for the flush under way rather than return without a final flush
+        destroyThread.join(200);
+        assertTrue(destroyThread.isAlive());
+        
+        releaseFlush.countDown();
+        destroyThread.join(5000);
+        flushThread.join(5000);
+        
+        assertEquals(2, handler.getEvents().size());
+        assertEquals(0, handler.getQueueDepth());
+    }
+    
+    private static class TestQueueingEventHandler extends QueueingEventHandler<TestEvent> {
+        private final List<TestEvent> events = Collections.synchronizedList(new ArrayList<TestEvent>());
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        protected void onApplicationEvents(Iterable<TestEvent> events) {
+            final List<TestEvent> batch = ImmutableList.copyOf(events);
+            this.batchSizes.add(batch.size());
+            this.events.addAll(batch);
+        }
+        
+        public List<TestEvent> getEvents() {
+            return ImmutableList.copyOf(this.events);
+        }
+        
+        public List<Integer> getBatchSizes() {
+            return ImmutableList.copyOf(this.batchSizes);
+        }
+    }
+    
+    private static class TestEvent extends ApplicationEvent {
+        private static final long serialVersionUID = 1L;
+
+        public TestEvent(String source) {
+            super(source);
+        }
+    }
+    
+    private static class DroppableTestEvent extends TestEvent {
+        private static final long serialVersionUID = 1L;
+
+        public DroppableTestEvent(String source) {
+            super(source);
+        }
+    }
+}
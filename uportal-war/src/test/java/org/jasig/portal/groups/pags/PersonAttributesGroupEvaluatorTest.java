@@ -0,0 +1,163 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.groups.pags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.GroupDefinition;
+import org.jasig.portal.groups.pags.PersonAttributesGroupStore.TestGroup;
+import org.jasig.portal.groups.pags.testers.EagerRegexTester;
+import org.jasig.portal.groups.pags.testers.IntegerGETester;
+import org.jasig.portal.groups.pags.testers.InvertedRegexTester;
+import org.jasig.portal.groups.pags.testers.RegexTester;
+import org.jasig.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.jasig.portal.groups.pags.testers.StringEqualsTester;
+import org.jasig.portal.groups.pags.testers.ValueExistsTester;
+import org.jasig.portal.groups.pags.testers.ValueMissingTester;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.provider.PersonImpl;
+import org.junit.Test;
+
+public class PersonAttributesGroupEvaluatorTest {
+    private static final String[] VALUES = { "staff", "STAFF", "faculty", "student", "", "02AB", "x02A", "17", "42", "abc" };
+    
+    @Test
+    public void testMatchesTesters() {
+        final List<GroupDefinition> groupDefinitions = new ArrayList<GroupDefinition>();
+        groupDefinitions.add(group("equals", new StringEqualsTester("role", "staff")));
+        groupDefinitions.add(group("equalsIgnoreCase", new StringEqualsIgnoreCaseTester("role", "staff")));
+        groupDefinitions.add(group("regex", new RegexTester("code", "^02([A-D])*")));
+        groupDefinitions.add(group("sameRegex", new RegexTester("code", "^02([A-D])*"), new ValueExistsTester("role", null)));
+        groupDefinitions.add(group("eagerRegex", new EagerRegexTester("code", "02A")));
+        groupDefinitions.add(group("invertedRegex", new InvertedRegexTester("code", "^02([A-D])*")));
+        groupDefinitions.add(group("exists", new ValueExistsTester("role", null)));
+        groupDefinitions.add(group("missing", new ValueMissingTester("role", "Student")));
+        groupDefinitions.add(group("integer", new IntegerGETester("level", "20")));
+        
+        //Either test group passes
+        final GroupDefinition either = group("either", new StringEqualsTester("role", "faculty"));
+        final TestGroup testGroup = new TestGroup();
+        testGroup.addTest(new IntegerGETester("level", "40"));
+        testGroup.addTest(new ValueMissingTester("code", "abc"));
+        either.addTestGroup(testGroup);
+        groupDefinitions.add(either);
+        
+        final PersonAttributesGroupEvaluator evaluator = new PersonAttributesGroupEvaluator(groupDefinitions, Collections.<String, Set<String>>emptyMap(), 0);
+        
+        final Random random = new Random(0);
+        for (int i = 0; i < 500; i++) {
+            final Map<String, List<Object>> attributes = new HashMap<String, List<Object>>();
+            for (final String attributeName : Arrays.asList("role", "code", "level")) {
+                final int valueCount = random.nextInt(4) - 1;
+                if (valueCount >= 0) {
+                    final List<Object> values = new ArrayList<Object>();
+                    for (int v = 0; v < valueCount; v++) {
+                        values.add(VALUES[random.nextInt(VALUES.length)]);
+                    }
+                    attributes.put(attributeName, values);
+                }
+            }
+            
+            final IPerson person = new PersonImpl();
+            person.setAttributes(attributes);
+            final Set<String> expected = new LinkedHashSet<String>();
+            for (final GroupDefinition groupDefinition : groupDefinitions) {
+                if (groupDefinition.contains(person)) {
+                    expected.add(groupDefinition.getKey());
+                }
+            }
+            
+            assertEquals(attributes.toString(), expected, evaluator.getContainingGroupKeys("user" + i, attributes));
+        }
+    }
+    
+    @Test
+    public void testAncestorsMustPass() {
+        final GroupDefinition parent = group("parent", new StringEqualsTester("role", "staff"));
+        parent.addMember("child");
+        final GroupDefinition child = group("child", new ValueExistsTester("role", null));
+        
+        final Map<String, Set<String>> ancestorKeys = new HashMap<String, Set<String>>();
+        ancestorKeys.put("child", Collections.singleton("parent"));
+        final PersonAttributesGroupEvaluator evaluator = new PersonAttributesGroupEvaluator(Arrays.asList(parent, child), ancestorKeys, 0);
+        
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("parent", "child")), evaluator.getContainingGroupKeys("staff", attributes("role", "staff")));
+        assertEquals(Collections.emptySet(), evaluator.getContainingGroupKeys("faculty", attributes("role", "faculty")));
+    }
+    
+    @Test
+    public void testResultsSharedBySnapshot() {
+        final AtomicInteger tests = new AtomicInteger();
+        final GroupDefinition custom = group("custom", new IPersonTester() {
+            @Override
+            public boolean test(IPerson person) {
+                tests.incrementAndGet();
+                return true;
+            }
+        });
+        final GroupDefinition staff = group("staff", new StringEqualsTester("role", "staff"));
+        
+        //Only the attributes read by compiled testers are part of the snapshot
+        PersonAttributesGroupEvaluator evaluator = new PersonAttributesGroupEvaluator(Arrays.asList(staff), Collections.<String, Set<String>>emptyMap(), 100);
+        final Map<String, List<Object>> first = attributes("role", "staff");
+        first.put(IPerson.USERNAME, Arrays.<Object>asList("first"));
+        final Map<String, List<Object>> second = attributes("role", "staff");
+        second.put(IPerson.USERNAME, Arrays.<Object>asList("second"));
+        assertSame(evaluator.getContainingGroupKeys("first", first), evaluator.getContainingGroupKeys("second", second));
+        
+        //Testers run as-is may read any attribute
+        evaluator = new PersonAttributesGroupEvaluator(Arrays.asList(staff, custom), Collections.<String, Set<String>>emptyMap(), 100);
+        evaluator.getContainingGroupKeys("first", first);
+        evaluator.getContainingGroupKeys("first", attributes(IPerson.USERNAME, "first", "role", "staff"));
+        evaluator.getContainingGroupKeys("second", second);
+        assertEquals(2, tests.get());
+    }
+    
+    private static GroupDefinition group(String key, IPersonTester... testers) {
+        final GroupDefinition groupDefinition = new GroupDefinition();
+        groupDefinition.setKey(key);
+        final TestGroup testGroup = new TestGroup();
+        for (final IPersonTester tester : testers) {
+            testGroup.addTest(tester);
+        }
+        groupDefinition.addTestGroup(testGroup);
+        return groupDefinition;
+    }
+    
+    private static Map<String, List<Object>> attributes(String... namesAndValues) {
+        final Map<String, List<Object>> attributes = new HashMap<String, List<Object>>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            attributes.put(namesAndValues[i], new ArrayList<Object>(Arrays.<Object>asList(namesAndValues[i + 1])));
+        }
+        return attributes;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Locale;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.IUserProfile;
+import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.BeanFactory;
+
+public class UserLayoutManagerFactoryTest {
+    private CacheManager cacheManager;
+    private BeanFactory beanFactory;
+    private UserLayoutManagerFactory userLayoutManagerFactory;
+    
+    @Before
+    public void setup() {
+        this.cacheManager = new CacheManager(new Configuration().name("UserLayoutManagerFactoryTest"));
+        final Cache guestLayoutManagerCache = new Cache("guestLayoutManagers", 100, false, false, 60, 0);
+        this.cacheManager.addCache(guestLayoutManagerCache);
+        
+        this.beanFactory = mock(BeanFactory.class);
+        
+        this.userLayoutManagerFactory = new UserLayoutManagerFactory();
+        this.userLayoutManagerFactory.setBeanFactory(this.beanFactory);
+        this.userLayoutManagerFactory.setGuestLayoutManagerCache(guestLayoutManagerCache);
+    }
+    
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+
+    @Test
+    public void testGuestLayoutManagerShared() throws Exception {
+        final IPerson guest1 = mockGuest();
+        final IPerson guest2 = mockGuest();
+        final IUserProfile profile = mockProfile("default", Locale.US);
+        
+        final IUserLayoutManager sharedLayoutManager = mock(IUserLayoutManager.class);
+        when(this.beanFactory.getBean(eq(UserLayoutManagerFactory.USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME), any(IPerson.class), any(IUserProfile.class))).thenReturn(sharedLayoutManager);
+        
+        final TransientUserLayoutManagerWrapper ulm1 = (TransientUserLayoutManagerWrapper)this.userLayoutManagerFactory.getGuestUserLayoutManager(guest1, profile);
+        final TransientUserLayoutManagerWrapper ulm2 = (TransientUserLayoutManagerWrapper)this.userLayoutManagerFactory.getGuestUserLayoutManager(guest2, profile);
+        
+        assertNotSame(ulm1, ulm2);
+        assertSame(sharedLayoutManager, ulm1.getOriginalLayoutManager());
+        assertSame(sharedLayoutManager, ulm2.getOriginalLayoutManager());
+        
+        //The shared layout manager gets its own guest person, not the person of the first session
+        final ArgumentCaptor<IPerson> sharedPerson = ArgumentCaptor.forClass(IPerson.class);
+        verify(this.beanFactory, times(1)).getBean(eq(UserLayoutManagerFactory.USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME), sharedPerson.capture(), any(IUserProfile.class));
+        assertNotSame(guest1, sharedPerson.getValue());
+        assertEquals("guest", sharedPerson.getValue().getUserName());
+        assertEquals(1, sharedPerson.getValue().getID());
+        assertTrue(sharedPerson.getValue().isGuest());
+    }
+    
+    @Test
+    public void testGuestLayoutManagerProfileCopy() throws Exception {
+        final IPerson guest = mockGuest();
+        final IUserProfile profile = mockProfile("default", Locale.US);
+        when(profile.getLayoutId()).thenReturn(2);
+        when(profile.getStructureStylesheetId()).thenReturn(3);
+        when(profile.getThemeStylesheetId()).thenReturn(4);
+        
+        when(this.beanFactory.getBean(eq(UserLayoutManagerFactory.USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME), any(IPerson.class), any(IUserProfile.class))).thenReturn(mock(IUserLayoutManager.class));
+        this.userLayoutManagerFactory.getGuestUserLayoutManager(guest, profile);
+        
+        final ArgumentCaptor<IPerson> sharedPerson = ArgumentCaptor.forClass(IPerson.class);
+        final ArgumentCaptor<IUserProfile> sharedProfile = ArgumentCaptor.forClass(IUserProfile.class);
+        verify(this.beanFactory).getBean(eq(UserLayoutManagerFactory.USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME), sharedPerson.capture(), sharedProfile.capture());
+        assertNotSame(profile, sharedProfile.getValue());
+        assertEquals(1, sharedProfile.getValue().getProfileId());
+        assertEquals("default", sharedProfile.getValue().getProfileFname());
+        assertEquals(2, sharedProfile.getValue().getLayoutId());
+        assertEquals(3, sharedProfile.getValue().getStructureStylesheetId());
+        assertEquals(4, sharedProfile.getValue().getThemeStylesheetId());
+        
+        //A locale change made through the session's profile does not reach the shared layout manager
+        final LocaleManager sessionLocaleManager = profile.getLocaleManager();
+        when(sessionLocaleManager.getLocales()).thenReturn(new Locale[] { Locale.FRANCE });
+        final LocaleManager sharedLocaleManager = sharedProfile.getValue().getLocaleManager();
+        assertNotSame(sessionLocaleManager, sharedLocaleManager);
+        assertEquals(Locale.US, sharedLocaleManager.getLocales()[0]);
+    }
+
+    @Test
+    public void testGuestLayoutManagerPerLocale() throws Exception {
+        final IPerson guest = mockGuest();
+        final IUserProfile usProfile = mockProfile("default", Locale.US);
+        final IUserProfile frProfile = mockProfile("default", Locale.FRANCE);
+        
+        when(this.beanFactory.getBean(eq(UserLayoutManagerFactory.USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME), any(IPerson.class), any(IUserProfile.class))).thenReturn(mock(IUserLayoutManager.class), mock(IUserLayoutManager.class));
+        
+        final TransientUserLayoutManagerWrapper usUlm = (TransientUserLayoutManagerWrapper)this.userLayoutManagerFactory.getGuestUserLayoutManager(guest, usProfile);
+        final TransientUserLayoutManagerWrapper frUlm = (TransientUserLayoutManagerWrapper)this.userLayoutManagerFactory.getGuestUserLayoutManager(guest, frProfile);
+        
+        assertNotSame(usUlm.getOriginalLayoutManager(), frUlm.getOriginalLayoutManager());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testGuestLayoutManagerNotGuest() throws Exception {
+        final IPerson person = mock(IPerson.class);
+        when(person.getUserName()).thenReturn("student");
+        
+        this.userLayoutManagerFactory.getGuestUserLayoutManager(person, mockProfile("default", Locale.US));
+    }
+    
+    private IPerson mockGuest() {
+        final IPerson person = mock(IPerson.class);
+        when(person.isGuest()).thenReturn(true);
+        when(person.getUserName()).thenReturn("guest");
+        when(person.getID()).thenReturn(1);
+        return person;
+    }
+    
+    private IUserProfile mockProfile(String fname, Locale locale) {
+        final LocaleManager localeManager = mock(LocaleManager.class);
+        when(localeManager.getLocales()).thenReturn(new Locale[] { locale });
+        
+        final IUserProfile profile = mock(IUserProfile.class);
+        when(profile.getProfileFname()).thenReturn(fname);
+        when(profile.getProfileId()).thenReturn(1);
+        when(profile.getLocaleManager()).thenReturn(localeManager);
+        return profile;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+public class LayoutFingerprintTest {
+    private static final String LAYOUT = 
+            "<layout ID=\"1\"><folder ID=\"s1\" name=\"Home\" type=\"regular\">" +
+            "<channel ID=\"n2\" chanID=\"5\"/><channel ID=\"n3\" chanID=\"7\"/>" +
+            "</folder></layout>";
+    
+    @Test
+    public void testEqualContentEqualFingerprint() throws Exception {
+        final Document d1 = parse(LAYOUT);
+        final Document d2 = parse(LAYOUT.replace("name=\"Home\" type=\"regular\"", "type=\"regular\" name=\"Home\""));
+        
+        assertEquals(new LayoutFingerprint(d1).getFingerprint(), new LayoutFingerprint(d2).getFingerprint());
+    }
+    
+    @Test
+    public void testIncrementalMatchesFull() throws Exception {
+        final Document doc = parse(LAYOUT);
+        final LayoutFingerprint fingerprint = new LayoutFingerprint(doc);
+        final String original = fingerprint.getFingerprint();
+        
+        final Element folder = (Element) doc.getElementsByTagName("folder").item(0);
+        final Element channel = (Element) doc.getElementsByTagName("channel").item(1);
+        channel.setAttribute("chanID", "9");
+        fingerprint.invalidate(channel);
+        final String changed = fingerprint.getFingerprint();
+        
+        assertFalse(original.equals(changed));
+        assertEquals(new LayoutFingerprint(doc).getFingerprint(), changed);
+        
+        folder.removeChild(channel);
+        fingerprint.invalidate(folder);
+        assertEquals(new LayoutFingerprint(doc).getFingerprint(), fingerprint.getFingerprint());
+        
+        folder.appendChild(channel);
+        channel.setAttribute("chanID", "7");
+        fingerprint.invalidateTree(folder);
+        assertEquals(original, fingerprint.getFingerprint());
+    }
+    
+    private Document parse(String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public class LayoutNodeIndexTest {
+    private static final String LAYOUT = 
+            "<layout ID=\"1\"><folder ID=\"s1\" type=\"root\" hidden=\"false\">" +
+            "<folder ID=\"s2\" type=\"header\" hidden=\"false\"><channel ID=\"n3\" fname=\"login\"/></folder>" +
+            "<folder ID=\"s4\" type=\"regular\" hidden=\"false\"><folder ID=\"s5\" type=\"regular\" hidden=\"false\">" +
+                "<channel ID=\"n6\" fname=\"news\"/><channel ID=\"n7\" fname=\"weather\"/></folder></folder>" +
+            "<folder ID=\"s8\" type=\"regular\" hidden=\"true\"/>" +
+            "<folder ID=\"s9\" type=\"regular\" hidden=\"false\"><folder ID=\"s10\" type=\"regular\" hidden=\"false\">" +
+                "<channel ID=\"n11\" fname=\"news\"/></folder></folder>" +
+            "</folder></layout>";
+    
+    private Document layout;
+    private LayoutNodeIndex index;
+    
+    @Before
+    public void setup() throws Exception {
+        this.layout = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(LAYOUT)));
+        this.index = new LayoutNodeIndex(this.layout);
+    }
+    
+    @Test
+    public void testStructure() throws Exception {
+        assertEquals("s1", this.index.getRootFolder().getAttribute("ID"));
+        assertEquals("s4", this.index.getTabId(1));
+        assertEquals("s9", this.index.getTabId(2));
+        assertNull(this.index.getTabId(3));
+        assertNull(this.index.getTabId(0));
+    }
+    
+    @Test
+    public void testChannelLookup() throws Exception {
+        assertSame(getElement("n6"), this.index.getChannel("news"));
+        assertSame(getElement("n11"), this.index.getChannel("s9", "news"));
+        assertSame(getElement("n3"), this.index.getChannel("s1", "login"));
+        assertNull(this.index.getChannel("s4", "login"));
+        assertNull(this.index.getChannel("calendar"));
+    }
+    
+    @Test
+    public void testChanges() throws Exception {
+        //Build the indexes before changing the layout
+        assertSame(getElement("n6"), this.index.getChannel("news"));
+        
+        final Element s5 = getElement("s5");
+        s5.getParentNode().removeChild(s5);
+        this.index.nodeRemoved(s5);
+        assertSame(getElement("n11"), this.index.getChannel("news"));
+        assertNull(this.index.getChannel("weather"));
+        
+        final Element s8 = getElement("s8");
+        s8.setAttribute("hidden", "false");
+        final Element calendar = this.layout.createElement("channel");
+        calendar.setAttribute("ID", "n12");
+        calendar.setAttribute("fname", "calendar");
+        s8.appendChild(calendar);
+        this.index.nodeAdded(calendar);
+        this.index.nodeChanged(s8);
+        assertSame(calendar, this.index.getChannel("s8", "calendar"));
+        assertEquals("s8", this.index.getTabId(2));
+        
+        final Element s10 = getElement("s10");
+        getElement("s4").appendChild(s10);
+        this.index.nodeChanged(s10);
+        assertSame(getElement("n11"), this.index.getChannel("s4", "news"));
+        assertNull(this.index.getChannel("s9", "news"));
+    }
+    
+    private Element getElement(String id) {
+        final NodeList elements = this.layout.getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            final Element e = (Element) elements.item(i);
+            if (id.equals(e.getAttribute("ID"))) {
+                return e;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jasig.portal.layout.simple.LayoutStructureRows.StructRow;
+import org.jasig.portal.utils.Tuple;
+import org.junit.Test;
+
+public class LayoutStructureRowsTest {
+    @Test
+    public void testUnchangedLayout() throws Exception {
+        final LayoutStructureRows stored = new LayoutStructureRows();
+        stored.addStruct(new StructRow(1, 0, 2, null, null, "Root", "root", "N", "N", "N"));
+        //Some databases store empty strings as null
+        stored.addStruct(new StructRow(2, 0, 0, null, 5, null, null, "N", "N", "N"));
+        stored.addParam(2, "dlm:moveAllowed", "false");
+        
+        final LayoutStructureRows layout = new LayoutStructureRows();
+        layout.addStruct(new StructRow(1, 0, 2, "", null, "Root", "root", "N", "N", "N"));
+        layout.addStruct(new StructRow(2, 0, 0, null, 5, null, "", "N", "N", "N"));
+        layout.addParam(2, "dlm:moveAllowed", "false");
+        
+        assertTrue(layout.getStructInserts(stored).isEmpty());
+        assertTrue(layout.getStructUpdates(stored).isEmpty());
+        assertTrue(layout.getStructDeletes(stored).isEmpty());
+        assertTrue(layout.getParamInserts(stored).isEmpty());
+        assertTrue(layout.getParamUpdates(stored).isEmpty());
+        assertTrue(layout.getParamDeletes(stored).isEmpty());
+    }
+    
+    @Test
+    public void testChangedLayout() throws Exception {
+        final LayoutStructureRows stored = new LayoutStructureRows();
+        stored.addStruct(new StructRow(1, 0, 2, null, null, "Root", "root", "N", "N", "N"));
+        stored.addStruct(new StructRow(2, 3, 0, null, null, "Tab 1", "regular", "N", "N", "N"));
+        stored.addStruct(new StructRow(3, 0, 0, null, null, "Tab 2", "regular", "N", "N", "N"));
+        stored.addParam(2, "dlm:moveAllowed", "false");
+        stored.addParam(3, "dlm:deleteAllowed", "false");
+        
+        //Tab 1 deleted, Tab 3 added after Tab 2
+        final LayoutStructureRows layout = new LayoutStructureRows();
+        final StructRow root = new StructRow(1, 0, 3, null, null, "Root", "root", "N", "N", "N");
+        final StructRow tab2 = new StructRow(3, 4, 0, null, null, "Tab 2", "regular", "N", "N", "N");
+        final StructRow tab3 = new StructRow(4, 0, 0, null, null, "Tab 3", "regular", "N", "N", "N");
+        layout.addStruct(root);
+        layout.addStruct(tab2);
+        layout.addStruct(tab3);
+        layout.addParam(3, "dlm:deleteAllowed", "true");
+        layout.addParam(4, "dlm:deleteAllowed", "false");
+        
+        assertEquals(Arrays.asList(tab3), layout.getStructInserts(stored));
+        assertEquals(Arrays.asList(root, tab2), layout.getStructUpdates(stored));
+        assertEquals(Arrays.asList(2), layout.getStructDeletes(stored));
+        assertEquals(Collections.singletonMap(new Tuple<Integer, String>(4, "dlm:deleteAllowed"), "false"), layout.getParamInserts(stored));
+        assertEquals(Collections.singletonMap(new Tuple<Integer, String>(3, "dlm:deleteAllowed"), "true"), layout.getParamUpdates(stored));
+        assertEquals(Arrays.asList(new Tuple<Integer, String>(2, "dlm:moveAllowed")), layout.getParamDeletes(stored));
+    }
+}
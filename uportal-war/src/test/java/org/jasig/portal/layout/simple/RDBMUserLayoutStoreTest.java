@@ -0,0 +1,457 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.jasig.portal.IUserProfile;
+import org.jasig.portal.UserProfile;
+import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.layout.LayoutStructure;
+import org.jasig.portal.layout.StructureParameter;
+import org.jasig.portal.layout.dlm.DistributedUserLayout;
+import org.jasig.portal.layout.dlm.FragmentChannelInfo;
+import org.jasig.portal.layout.dlm.FragmentNodeInfo;
+import org.jasig.portal.layout.simple.LayoutStructureRows.StructRow;
+import org.jasig.portal.rdbm.DatabaseMetaDataImpl;
+import org.jasig.portal.rdbm.IDatabaseMetadata;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.provider.PersonImpl;
+import org.jasig.portal.utils.Tuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import com.google.common.cache.Cache;
+
+/**
+ * Loads and saves personal layouts against an in-memory database
+ */
+public class RDBMUserLayoutStoreTest {
+    private static final int TEMPLATE_USER_ID = 1;
+    private static final int USER_ID = 10;
+    private static final int EMPTY_LAYOUT_USER_ID = 20;
+    private static final int MISSING_LAYOUT_USER_ID = 30;
+    private static final int NEW_USER_ID = 40;
+    private static final int PROFILE_ID = 1;
+    
+    /**
+     * Layout of the template user as built by the original recursive layout load
+     */
+    private static final String TEMPLATE_LAYOUT = 
+            "<layout>" +
+                "<folder ID=\"s1\" name=\"Root\" type=\"root\">" +
+                    "<folder ID=\"s2\" name=\"Welcome\" type=\"regular\">" +
+                        "<channel ID=\"n3\" chanID=\"41\"/>" +
+                    "</folder>" +
+                "</folder>" +
+            "</layout>";
+    
+    /**
+     * Layout of the user as built by the original recursive layout load, siblings are in NEXT_STRUCT_ID order
+     */
+    private static final String USER_LAYOUT = 
+            "<layout>" +
+                "<folder ID=\"s1\" name=\"Root\" type=\"root\">" +
+                    "<folder ID=\"s5\" name=\"First\" type=\"regular\" width=\"100%\">" +
+                        "<channel ID=\"n6\" chanID=\"33\" minimized=\"false\"/>" +
+                        "<channel ID=\"n7\" chanID=\"34\"/>" +
+                    "</folder>" +
+                    "<folder ID=\"s2\" name=\"Second\" type=\"regular\">" +
+                        "<channel ID=\"n4\" chanID=\"32\"/>" +
+                        "<channel ID=\"n3\" chanID=\"31\"/>" +
+                    "</folder>" +
+                "</folder>" +
+            "</layout>";
+    
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TestLayoutStore layoutStore;
+    
+    @Before
+    public void setup() throws Exception {
+        this.dataSource = new SingleConnectionDataSource("jdbc:hsqldb:mem:RDBMUserLayoutStoreTest", "sa", "", true);
+        this.dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+        this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+        createTables(this.jdbcTemplate);
+        
+        final DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(this.dataSource);
+        final DatabaseMetaDataImpl databaseMetadata = new DatabaseMetaDataImpl(this.dataSource, transactionManager);
+        databaseMetadata.afterPropertiesSet();
+        
+        this.layoutStore = new TestLayoutStore();
+        this.layoutStore.setDataSource(this.dataSource);
+        this.layoutStore.setPlatformTransactionManager(transactionManager);
+        this.layoutStore.setDatabaseMetadata(databaseMetadata);
+        this.layoutStore.afterPropertiesSet();
+    }
+    
+    @After
+    public void tearDown() {
+        this.jdbcTemplate.execute("SHUTDOWN");
+        this.dataSource.destroy();
+    }
+    
+    @Test
+    public void testLoadLayout() throws Exception {
+        final Document layout = this.layoutStore.getPersonalUserLayout(createPerson(USER_ID), createProfile());
+        
+        assertEquals(USER_LAYOUT, toXml(layout));
+        assertEquals(1, this.layoutStore.getLayoutLoadCount());
+    }
+    
+    @Test
+    public void testLoadLayoutWithoutOuterJoins() throws Exception {
+        final IDatabaseMetadata databaseMetadata = mock(IDatabaseMetadata.class);
+        when(databaseMetadata.supportsOuterJoins()).thenReturn(false);
+        
+        final TestLayoutStore layoutStore = new TestLayoutStore();
+        layoutStore.setDataSource(this.dataSource);
+        layoutStore.setPlatformTransactionManager(new DataSourceTransactionManager(this.dataSource));
+        layoutStore.setDatabaseMetadata(databaseMetadata);
+        layoutStore.afterPropertiesSet();
+        
+        //Parameters are read by a second query
+        final Document layout = layoutStore.getPersonalUserLayout(createPerson(USER_ID), createProfile());
+        assertEquals(USER_LAYOUT, toXml(layout));
+    }
+    
+    @Test
+    public void testLoadTemplateLayoutForEmptyLayout() throws Exception {
+        final Document layout = this.layoutStore.getPersonalUserLayout(createPerson(EMPTY_LAYOUT_USER_ID), createProfile());
+        
+        assertEquals(TEMPLATE_LAYOUT, toXml(layout));
+    }
+    
+    @Test
+    public void testLoadTemplateLayoutForNewUser() throws Exception {
+        final Document layout = this.layoutStore.getPersonalUserLayout(createPerson(NEW_USER_ID), createProfile());
+        
+        assertEquals(TEMPLATE_LAYOUT, toXml(layout));
+        
+        //Structures the user adds must not collide with the template layout
+        assertEquals(3, this.jdbcTemplate.queryForInt("SELECT NEXT_STRUCT_ID FROM UP_USER WHERE USER_ID=?", NEW_USER_ID));
+    }
+    
+    @Test
+    public void testLoadMissingUserLayout() throws Exception {
+        try {
+            this.layoutStore.getPersonalUserLayout(createPerson(MISSING_LAYOUT_USER_ID), createProfile());
+            fail("A layout without an UP_USER_LAYOUT row must not load");
+        }
+        catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("No INIT_STRUCT_ID in UP_USER_LAYOUT for USER_ID: " + MISSING_LAYOUT_USER_ID));
+        }
+    }
+    
+    @Test
+    public void testSaveUnchangedLayout() throws Exception {
+        final Document layout = this.layoutStore.getPersonalUserLayout(createPerson(USER_ID), createProfile());
+        
+        this.layoutStore.setUserLayout(createPerson(USER_ID), createProfile(), layout, false);
+        
+        assertEquals(1, this.layoutStore.getLayoutSaveCount());
+        assertEquals(0, this.layoutStore.getChangedRowCount());
+        assertEquals(9, this.layoutStore.getUnchangedRowCount());
+    }
+    
+    @Test
+    public void testSaveChangedLayout() throws Exception {
+        final Document layout = this.layoutStore.getPersonalUserLayout(createPerson(USER_ID), createProfile());
+        
+        //Rename a tab, remove a portlet, change one parameter and add another
+        layout.getElementById("s5").setAttribute("name", "Renamed");
+        final Element removed = layout.getElementById("n7");
+        removed.getParentNode().removeChild(removed);
+        layout.getElementById("n6").setAttribute("minimized", "true");
+        layout.getElementById("n3").setAttribute("minimized", "false");
+        
+        this.layoutStore.setUserLayout(createPerson(USER_ID), createProfile(), layout, false);
+        
+        //Tab and portlet updates, portlet delete, parameter update and insert
+        assertEquals(5, this.layoutStore.getChangedRowCount());
+        assertEquals("Renamed", this.jdbcTemplate.queryForObject(
+                "SELECT NAME FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=1 AND STRUCT_ID=5", String.class, USER_ID));
+        assertEquals(0, this.jdbcTemplate.queryForInt(
+                "SELECT COUNT(*) FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=1 AND STRUCT_ID=7", USER_ID));
+        
+        final Document reloaded = this.layoutStore.getPersonalUserLayout(createPerson(USER_ID), createProfile());
+        assertEquals(toXml(layout), toXml(reloaded));
+    }
+    
+    @Test
+    public void testSaveFirstLayout() throws Exception {
+        //No personal layout yet, the template user's layout is loaded
+        final Document layout = this.layoutStore.getPersonalUserLayout(createPerson(NEW_USER_ID), createProfile());
+        layout.getElementById("s2").setAttribute("name", "Mine");
+        
+        //The UP_USER row is locked since there is no UP_USER_LAYOUT row yet
+        this.layoutStore.setUserLayout(createPerson(NEW_USER_ID), createProfile(), layout, false);
+        
+        assertEquals(1, this.jdbcTemplate.queryForInt(
+                "SELECT LAYOUT_ID FROM UP_USER_PROFILE WHERE USER_ID=? AND PROFILE_ID=?", NEW_USER_ID, PROFILE_ID));
+        assertEquals(1, this.jdbcTemplate.queryForInt(
+                "SELECT INIT_STRUCT_ID FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=1", NEW_USER_ID));
+        assertEquals(3, this.jdbcTemplate.queryForInt(
+                "SELECT COUNT(*) FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=1", NEW_USER_ID));
+        
+        final Document reloaded = this.layoutStore.getPersonalUserLayout(createPerson(NEW_USER_ID), createProfile());
+        assertEquals(toXml(layout), toXml(reloaded));
+        assertEquals("Welcome", this.jdbcTemplate.queryForObject(
+                "SELECT NAME FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=1 AND STRUCT_ID=2", String.class, TEMPLATE_USER_ID));
+    }
+    
+    private static IPerson createPerson(int userId) {
+        final PersonImpl person = new PersonImpl();
+        person.setID(userId);
+        return person;
+    }
+    
+    private static IUserProfile createProfile() {
+        final UserProfile profile = new UserProfile(PROFILE_ID, "default", "Default", "", 1, 1, 1);
+        profile.setLocaleManager(new LocaleManager(null, new Locale[] { Locale.US }));
+        return profile;
+    }
+    
+    private static String toXml(Document document) throws Exception {
+        final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        final StringWriter writer = new StringWriter();
+        transformer.transform(new DOMSource(document), new StreamResult(writer));
+        return writer.toString();
+    }
+    
+    /**
+     * Creates the tables used by personal layouts along with:
+     * <ul>
+     *  <li>A template user with a one tab layout</li>
+     *  <li>A user with a two tab layout whose struct ids are not in layout order</li>
+     *  <li>A user with an empty layout</li>
+     *  <li>A user without an UP_USER_LAYOUT row for their layout</li>
+     *  <li>A user without a layout</li>
+     * </ul>
+     */
+    private static void createTables(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.execute("CREATE TABLE UP_USER (USER_ID INTEGER NOT NULL PRIMARY KEY, USER_DFLT_USR_ID INTEGER, " +
+                "USER_DFLT_LAY_ID INTEGER, NEXT_STRUCT_ID INTEGER, LST_CHAN_UPDT_DT DATE, USER_NAME VARCHAR(100))");
+        jdbcTemplate.execute("CREATE TABLE UP_USER_PROFILE (USER_ID INTEGER NOT NULL, PROFILE_ID INTEGER NOT NULL, " +
+                "PROFILE_FNAME VARCHAR(100), LAYOUT_ID INTEGER, PRIMARY KEY (USER_ID, PROFILE_ID))");
+        jdbcTemplate.execute("CREATE TABLE UP_USER_LAYOUT (USER_ID INTEGER NOT NULL, LAYOUT_ID INTEGER NOT NULL, " +
+                "LAYOUT_TITLE VARCHAR(255), INIT_STRUCT_ID INTEGER, PRIMARY KEY (USER_ID, LAYOUT_ID))");
+        jdbcTemplate.execute("CREATE TABLE UP_LAYOUT_STRUCT (USER_ID INTEGER NOT NULL, LAYOUT_ID INTEGER NOT NULL, " +
+                "STRUCT_ID INTEGER NOT NULL, NEXT_STRUCT_ID INTEGER, CHLD_STRUCT_ID INTEGER, EXTERNAL_ID VARCHAR(100), " +
+                "CHAN_ID INTEGER, NAME VARCHAR(255), TYPE VARCHAR(35), HIDDEN CHAR(1), IMMUTABLE CHAR(1), UNREMOVABLE CHAR(1), " +
+                "PRIMARY KEY (LAYOUT_ID, USER_ID, STRUCT_ID))");
+        jdbcTemplate.execute("CREATE TABLE UP_LAYOUT_PARAM (USER_ID INTEGER NOT NULL, LAYOUT_ID INTEGER NOT NULL, " +
+                "STRUCT_ID INTEGER NOT NULL, STRUCT_PARM_NM VARCHAR(255) NOT NULL, STRUCT_PARM_VAL VARCHAR(2000), " +
+                "PRIMARY KEY (USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM))");
+        
+        insertUser(jdbcTemplate, TEMPLATE_USER_ID, 3, "template");
+        jdbcTemplate.update("INSERT INTO UP_USER_LAYOUT VALUES (?, 1, 'Layout', 1)", TEMPLATE_USER_ID);
+        insertFolder(jdbcTemplate, TEMPLATE_USER_ID, 1, 0, 2, "Root", "root");
+        insertFolder(jdbcTemplate, TEMPLATE_USER_ID, 2, 0, 3, "Welcome", "regular");
+        insertChannel(jdbcTemplate, TEMPLATE_USER_ID, 3, 0, 41);
+        
+        //Tab s5 comes before tab s2 and portlet n4 before n3
+        insertUser(jdbcTemplate, USER_ID, 8, "student");
+        jdbcTemplate.update("INSERT INTO UP_USER_PROFILE VALUES (?, ?, 'default', 1)", USER_ID, PROFILE_ID);
+        jdbcTemplate.update("INSERT INTO UP_USER_LAYOUT VALUES (?, 1, 'Layout', 1)", USER_ID);
+        insertFolder(jdbcTemplate, USER_ID, 1, 0, 5, "Root", "root");
+        insertFolder(jdbcTemplate, USER_ID, 2, 0, 4, "Second", "regular");
+        insertChannel(jdbcTemplate, USER_ID, 3, 0, 31);
+        insertChannel(jdbcTemplate, USER_ID, 4, 3, 32);
+        insertFolder(jdbcTemplate, USER_ID, 5, 2, 6, "First", "regular");
+        insertChannel(jdbcTemplate, USER_ID, 6, 7, 33);
+        insertChannel(jdbcTemplate, USER_ID, 7, 0, 34);
+        insertParameter(jdbcTemplate, USER_ID, 5, "width", "100%");
+        insertParameter(jdbcTemplate, USER_ID, 6, "minimized", "false");
+        
+        insertUser(jdbcTemplate, EMPTY_LAYOUT_USER_ID, 1, "empty");
+        jdbcTemplate.update("INSERT INTO UP_USER_PROFILE VALUES (?, ?, 'default', 1)", EMPTY_LAYOUT_USER_ID, PROFILE_ID);
+        jdbcTemplate.update("INSERT INTO UP_USER_LAYOUT VALUES (?, 1, 'Layout', 1)", EMPTY_LAYOUT_USER_ID);
+        
+        insertUser(jdbcTemplate, MISSING_LAYOUT_USER_ID, 1, "missing");
+        jdbcTemplate.update("INSERT INTO UP_USER_PROFILE VALUES (?, ?, 'default', 1)", MISSING_LAYOUT_USER_ID, PROFILE_ID);
+        
+        insertUser(jdbcTemplate, NEW_USER_ID, 1, "new");
+        jdbcTemplate.update("INSERT INTO UP_USER_PROFILE VALUES (?, ?, 'default', 0)", NEW_USER_ID, PROFILE_ID);
+    }
+    
+    private static void insertUser(JdbcTemplate jdbcTemplate, int userId, int nextStructId, String userName) {
+        jdbcTemplate.update("INSERT INTO UP_USER VALUES (?, ?, 1, ?, NULL, ?)", userId, TEMPLATE_USER_ID, nextStructId, userName);
+    }
+    
+    private static void insertFolder(JdbcTemplate jdbcTemplate, int userId, int structId, int nextId, int childId, String name, String type) {
+        jdbcTemplate.update("INSERT INTO UP_LAYOUT_STRUCT VALUES (?, 1, ?, ?, ?, NULL, NULL, ?, ?, 'N', 'N', 'N')", 
+                userId, structId, nextId, childId, name, type);
+    }
+    
+    private static void insertChannel(JdbcTemplate jdbcTemplate, int userId, int structId, int nextId, int chanId) {
+        jdbcTemplate.update("INSERT INTO UP_LAYOUT_STRUCT VALUES (?, 1, ?, ?, 0, NULL, ?, NULL, NULL, 'N', 'N', 'N')", 
+                userId, structId, nextId, chanId);
+    }
+    
+    private static void insertParameter(JdbcTemplate jdbcTemplate, int userId, int structId, String name, String value) {
+        jdbcTemplate.update("INSERT INTO UP_LAYOUT_PARAM VALUES (?, 1, ?, ?, ?)", userId, structId, name, value);
+    }
+    
+    /**
+     * Builds and saves plain folder and channel elements, structure parameters are stored as attributes
+     */
+    private static class TestLayoutStore extends RDBMUserLayoutStore {
+        @Override
+        protected Element getStructure(Document doc, LayoutStructure ls) {
+            final Element structure;
+            if (ls.isChannel()) {
+                structure = doc.createElement("channel");
+                structure.setAttribute("ID", channelPrefix + ls.getStructId());
+                structure.setAttribute("chanID", String.valueOf(ls.getChanId()));
+            }
+            else {
+                structure = doc.createElement("folder");
+                structure.setAttribute("ID", folderPrefix + ls.getStructId());
+                structure.setAttribute("name", ls.getName());
+                structure.setAttribute("type", ls.getType());
+            }
+            
+            for (final Object parameter : ls.getParameters()) {
+                final StructureParameter structureParameter = (StructureParameter) parameter;
+                structure.setAttribute(structureParameter.getName(), structureParameter.getValue());
+            }
+            
+            return structure;
+        }
+        
+        @Override
+        protected int saveStructure(Node node, LayoutStructureRows rows) {
+            final Element structure = (Element) node;
+            final int structId = Integer.parseInt(structure.getAttribute("ID").substring(1));
+            final int nextId = node.getNextSibling() != null ? this.saveStructure(node.getNextSibling(), rows) : 0;
+            final int childId = node.getFirstChild() != null ? this.saveStructure(node.getFirstChild(), rows) : 0;
+            
+            if ("channel".equals(structure.getNodeName())) {
+                rows.addStruct(new StructRow(structId, nextId, childId, null, Integer.valueOf(structure.getAttribute("chanID")), 
+                        null, null, "N", "N", "N"));
+            }
+            else {
+                rows.addStruct(new StructRow(structId, nextId, childId, null, null, 
+                        structure.getAttribute("name"), structure.getAttribute("type"), "N", "N", "N"));
+            }
+            
+            final NamedNodeMap attributes = structure.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                final Attr attribute = (Attr) attributes.item(i);
+                final String name = attribute.getName();
+                if (!"ID".equals(name) && !"chanID".equals(name) && !"name".equals(name) && !"type".equals(name)) {
+                    rows.addParam(structId, name, attribute.getValue());
+                }
+            }
+            
+            return structId;
+        }
+        
+        @Override
+        public void importLayout(org.dom4j.Element layout) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public org.dom4j.Element exportLayout(IPerson person, IUserProfile profile) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public DistributedUserLayout getUserLayout(IPerson person, IUserProfile profile) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void setLayoutImportExportCache(Cache<Tuple<String, String>, Document> layoutCache) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void setUserLayout(IPerson person, IUserProfile profile, Document layoutXML, boolean channelsAdded,
+                boolean updateFragmentCache) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public Map<String, Document> getFragmentLayoutCopies() {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public FragmentChannelInfo getFragmentChannelInfo(String sId) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public FragmentNodeInfo getFragmentNodeInfo(String sId) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public boolean isFragmentOwner(IPerson person) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public boolean isFragmentOwner(String username) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public Document getFragmentLayout(IPerson person, IUserProfile profile) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public String getNextStructDirectiveId(IPerson person) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public double getFragmentPrecedence(int index) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+
+import org.jasig.portal.portlet.om.AbstractObjectId;
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
+import org.junit.Test;
+
+public class PortletSessionStateSerializationTest {
+    @Test
+    public void testWindowCacheRoundTrip() throws Exception {
+        final PortletEntityIdImpl entityId = PortletEntityIdImpl.create(new TestPortletDefinitionId(42), "n12", 7);
+        final PortletWindowIdImpl windowId = PortletWindowIdImpl.create(entityId, null);
+        final PortletWindowIdImpl instanceWindowId = PortletWindowIdImpl.create(entityId, "tw_1");
+        
+        assertEquals("42_n12_7", entityId.getStringId());
+        assertEquals("42_n12_7.tw_1", instanceWindowId.getStringId());
+        assertSame(entityId, PortletEntityIdImpl.create(new TestPortletDefinitionId(42), "n12", 7));
+        
+        final PortletWindowData windowData = new PortletWindowData(windowId, entityId);
+        windowData.setWindowState(WindowState.MAXIMIZED);
+        windowData.setPortletMode(PortletMode.EDIT);
+        windowData.setRenderParameters(Collections.singletonMap("action", new String[] { "view" }));
+        
+        final PortletWindowCache<PortletWindowData> windowCache = new PortletWindowCache<PortletWindowData>();
+        windowCache.storeWindow(windowData);
+        windowCache.storeWindow(new PortletWindowData(instanceWindowId, entityId, windowId));
+        
+        final PortletWindowCache<PortletWindowData> readCache = roundTrip(windowCache);
+        
+        final PortletWindowData readWindowData = readCache.getWindow(windowId);
+        assertNotNull(readWindowData);
+        assertSame(windowId, readWindowData.getPortletWindowId());
+        assertSame(entityId, readWindowData.getPortletEntityId());
+        assertEquals(WindowState.MAXIMIZED, readWindowData.getWindowState());
+        assertEquals(PortletMode.EDIT, readWindowData.getPortletMode());
+        assertEquals("view", readWindowData.getRenderParameters().get("action")[0]);
+        
+        final PortletWindowData readInstanceData = readCache.getWindow(instanceWindowId);
+        assertSame(windowId, readInstanceData.getDelegationParentId());
+        
+        final Set<PortletWindowData> windows = readCache.getWindows(entityId);
+        assertEquals(2, windows.size());
+        assertTrue(windows.contains(readWindowData));
+        assertTrue(windows.contains(readInstanceData));
+    }
+    
+    @Test
+    public void testEntityCacheRoundTrip() throws Exception {
+        final PortletEntityIdImpl entityId = PortletEntityIdImpl.create(new TestPortletDefinitionId(3), "n5", 12);
+        
+        final PortletEntityCache<PortletEntityData> entityCache = new PortletEntityCache<PortletEntityData>();
+        entityCache.storeEntity(new PortletEntityData(entityId, entityId.getPortletDefinitionId(), "n5", 12));
+        
+        final PortletEntityCache<PortletEntityData> readCache = roundTrip(entityCache);
+        
+        final PortletEntityData readEntityData = readCache.getEntity("n5", 12);
+        assertNotNull(readEntityData);
+        assertSame(entityId, readEntityData.getPortletEntityId());
+        assertSame(readEntityData, readCache.getEntity(entityId));
+        
+        readCache.removeEntity(entityId);
+        assertEquals(null, readCache.getEntity("n5", 12));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T object) throws IOException, ClassNotFoundException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (T) in.readObject();
+    }
+    
+    private static final class TestPortletDefinitionId extends AbstractObjectId implements IPortletDefinitionId {
+        private static final long serialVersionUID = 1L;
+        
+        private final long longId;
+
+        public TestPortletDefinitionId(long longId) {
+            super(Long.toString(longId));
+            this.longId = longId;
+        }
+
+        @Override
+        public long getLongId() {
+            return this.longId;
+        }
+    }
+}
@@ -24,23 +24,25 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-import javax.portlet.Event;
 import javax.xml.namespace.QName;
 
-import net.sf.ehcache.Ehcache;
-
+import org.apache.pluto.container.driver.PortalDriverContainerServices;
+import org.apache.pluto.container.driver.PortletRegistryService;
 import org.apache.pluto.container.om.portlet.EventDefinition;
 import org.apache.pluto.container.om.portlet.EventDefinitionReference;
 import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.mock.portlet.om.MockPortletDefinitionId;
+import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.utils.Tuple;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -53,9 +55,10 @@ import org.mockito.runners.MockitoJUnitRunner;
  */
 @RunWith(MockitoJUnitRunner.class)
 public class PortletEventCoordinatationServiceTest {
-    @InjectMocks private PortletEventCoordinatationService portletEventCoordinatationService = new PortletEventCoordinatationService();
-    @Mock private Ehcache supportedEventCache;
+    @InjectMocks private PortletEventRoutingIndex portletEventRoutingIndex = new PortletEventRoutingIndex();
     @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private PortalDriverContainerServices portalDriverContainerServices;
+    @Mock private PortletRegistryService portletRegistryService;
     
     
     @Test
@@ -65,7 +68,6 @@ public class PortletEventCoordinatationServiceTest {
         
         //org.jasig.portal.search.SearchQuery
         
-        final Event event = mock(Event.class);
         final MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(1);
         final PortletApplicationDefinition portletApplicationDefinition = mock(PortletApplicationDefinition.class);
         final PortletDefinition portletDefinition = mock(PortletDefinition.class);
@@ -74,8 +76,6 @@ public class PortletEventCoordinatationServiceTest {
         final EventDefinition searchRequestEventDefinition = mock(EventDefinition.class);
         final EventDefinition searchResultsEventDefinition = mock(EventDefinition.class);
         
-        when(event.getQName()).thenReturn(searchRequestName);
-        
         when(searchRequestEventDefinitionReference.getQualifiedName(anyString())).thenReturn(searchRequestName);
         when(searchRequestEventDefinitionReference.getQName()).thenReturn(searchRequestName);
         
@@ -89,8 +89,13 @@ public class PortletEventCoordinatationServiceTest {
         when(searchResultsEventDefinition.getQualifiedName(anyString())).thenReturn(searchResultsName);
 
 
-        when(this.portletDefinitionRegistry.getParentPortletApplicationDescriptor(portletDefinitionId)).thenReturn(portletApplicationDefinition);
-        when(this.portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId)).thenReturn(portletDefinition);
+        final IPortletDefinition portletDefinitionEntity = mock(IPortletDefinition.class);
+        when(portletDefinitionEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(this.portletDefinitionRegistry.getAllPortletDefinitions()).thenReturn(Collections.singletonList(portletDefinitionEntity));
+        when(this.portletDefinitionRegistry.getPortletDescriptorKeys(portletDefinitionEntity)).thenReturn(new Tuple<String, String>("search", "search"));
+        when(this.portalDriverContainerServices.getPortletRegistryService()).thenReturn(this.portletRegistryService);
+        when(this.portletRegistryService.getPortletApplication("search")).thenReturn(portletApplicationDefinition);
+        when(this.portletRegistryService.getPortlet("search", "search")).thenReturn(portletDefinition);
         
         final List<? extends EventDefinition> eventDefinitions = Arrays.asList(searchRequestEventDefinition, searchResultsEventDefinition);
         when(portletApplicationDefinition.getEventDefinitions()).thenReturn((List) eventDefinitions);
@@ -98,7 +103,8 @@ public class PortletEventCoordinatationServiceTest {
         final List<? extends EventDefinitionReference> supportedProcessingEvents = Collections.singletonList(searchRequestEventDefinitionReference);
         when(portletDefinition.getSupportedProcessingEvents()).thenReturn((List) supportedProcessingEvents);
         
-        final boolean supportsEvent = portletEventCoordinatationService.supportsEvent(event, portletDefinitionId);
-        assertTrue(supportsEvent);
+        //Event routing is resolved by the routing index
+        assertTrue(portletEventRoutingIndex.getProcessingPortletDefinitions(searchRequestName).contains(portletDefinitionId));
+        assertFalse(portletEventRoutingIndex.getProcessingPortletDefinitions(searchResultsName).contains(portletDefinitionId));
     }
 }
@@ -0,0 +1,161 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.portlet.rendering;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.apache.pluto.container.driver.PortalDriverContainerServices;
+import org.apache.pluto.container.driver.PortletRegistryEvent;
+import org.apache.pluto.container.driver.PortletRegistryService;
+import org.apache.pluto.container.om.portlet.EventDefinition;
+import org.apache.pluto.container.om.portlet.EventDefinitionReference;
+import org.apache.pluto.container.om.portlet.PortletApplicationDefinition;
+import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.jasig.portal.mock.portlet.om.MockPortletDefinitionId;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.utils.Tuple;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.collect.ImmutableSet;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortletEventRoutingIndexTest {
+    private static final String NAMESPACE = "https://source.jasig.org/schemas/uportal/search";
+    private static final QName SEARCH_REQUEST = new QName(NAMESPACE, "SearchRequest");
+    private static final QName SEARCH_RESULTS = new QName(NAMESPACE, "SearchResults");
+    private static final QName FIND = new QName(NAMESPACE, "Find");
+    
+    @InjectMocks private PortletEventRoutingIndex portletEventRoutingIndex = new PortletEventRoutingIndex();
+    @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private PortalDriverContainerServices portalDriverContainerServices;
+    @Mock private PortletRegistryService portletRegistryService;
+    @Mock private PortletApplicationDefinition portletApplicationDefinition;
+    
+    private final MockPortletDefinitionId exactDefinitionId = new MockPortletDefinitionId(1);
+    private final MockPortletDefinitionId wildcardDefinitionId = new MockPortletDefinitionId(2);
+    private final MockPortletDefinitionId aliasDefinitionId = new MockPortletDefinitionId(3);
+    private final MockPortletDefinitionId noEventsDefinitionId = new MockPortletDefinitionId(4);
+    private PortletDefinition exactPortletDescriptor;
+    
+    @Before
+    public void setup() throws Exception {
+        when(this.portalDriverContainerServices.getPortletRegistryService()).thenReturn(this.portletRegistryService);
+        when(this.portletRegistryService.getPortletApplication("search")).thenReturn(this.portletApplicationDefinition);
+        when(this.portletApplicationDefinition.getDefaultNamespace()).thenReturn(NAMESPACE);
+        
+        //SearchRequest has the Find alias
+        final EventDefinition searchRequestDefinition = mock(EventDefinition.class);
+        when(searchRequestDefinition.getQualifiedName(anyString())).thenReturn(SEARCH_REQUEST);
+        when(searchRequestDefinition.getAliases()).thenReturn(Collections.singletonList(FIND));
+        final List<? extends EventDefinition> eventDefinitions = Collections.singletonList(searchRequestDefinition);
+        when(this.portletApplicationDefinition.getEventDefinitions()).thenReturn((List) eventDefinitions);
+        
+        this.exactPortletDescriptor = this.addPortletDefinition(this.exactDefinitionId, "exact", SEARCH_REQUEST);
+        this.addPortletDefinition(this.wildcardDefinitionId, "wildcard", new QName(NAMESPACE, "Search*"));
+        this.addPortletDefinition(this.aliasDefinitionId, "alias", FIND);
+        this.addPortletDefinition(this.noEventsDefinitionId, "noEvents");
+        
+        final List<IPortletDefinition> portletDefinitions = Arrays.asList(
+                this.mockPortletDefinition(this.exactDefinitionId, "exact"), 
+                this.mockPortletDefinition(this.wildcardDefinitionId, "wildcard"),
+                this.mockPortletDefinition(this.aliasDefinitionId, "alias"),
+                this.mockPortletDefinition(this.noEventsDefinitionId, "noEvents"));
+        when(this.portletDefinitionRegistry.getAllPortletDefinitions()).thenReturn(portletDefinitions);
+        
+        this.portletEventRoutingIndex.setRefreshPeriod(Duration.standardHours(1));
+    }
+    
+    @Test
+    public void testEventRouting() throws Exception {
+        assertEquals(ImmutableSet.of(this.exactDefinitionId, this.wildcardDefinitionId, this.aliasDefinitionId), 
+                this.portletEventRoutingIndex.getProcessingPortletDefinitions(SEARCH_REQUEST));
+        
+        assertEquals(ImmutableSet.of(this.wildcardDefinitionId), 
+                this.portletEventRoutingIndex.getProcessingPortletDefinitions(SEARCH_RESULTS));
+        
+        assertEquals(ImmutableSet.of(this.aliasDefinitionId), 
+                this.portletEventRoutingIndex.getProcessingPortletDefinitions(FIND));
+        
+        assertTrue(this.portletEventRoutingIndex.getProcessingPortletDefinitions(new QName("urn:other", "SearchRequest")).isEmpty());
+        
+        //The index is only built once during the refresh period
+        verify(this.portletDefinitionRegistry, times(1)).getAllPortletDefinitions();
+    }
+    
+    @Test
+    public void testIncrementalRefresh() throws Exception {
+        this.portletEventRoutingIndex.getProcessingPortletDefinitions(SEARCH_REQUEST);
+        
+        //Redeploying the application refreshes the index, only the changed descriptor is re-read
+        final PortletDefinition redeployedDescriptor = this.addPortletDefinition(this.exactDefinitionId, "exact", SEARCH_RESULTS);
+        this.portletEventRoutingIndex.portletApplicationRegistered(new PortletRegistryEvent());
+        
+        assertEquals(ImmutableSet.of(this.wildcardDefinitionId, this.aliasDefinitionId), 
+                this.portletEventRoutingIndex.getProcessingPortletDefinitions(SEARCH_REQUEST));
+        assertEquals(ImmutableSet.of(this.exactDefinitionId, this.wildcardDefinitionId), 
+                this.portletEventRoutingIndex.getProcessingPortletDefinitions(SEARCH_RESULTS));
+        
+        verify(this.portletDefinitionRegistry, times(2)).getAllPortletDefinitions();
+        verify(this.exactPortletDescriptor, times(1)).getSupportedProcessingEvents();
+        verify(redeployedDescriptor, times(1)).getSupportedProcessingEvents();
+    }
+    
+    private PortletDefinition addPortletDefinition(MockPortletDefinitionId portletDefinitionId, String portletName, QName... supportedEvents) throws Exception {
+        final PortletDefinition portletDescriptor = mock(PortletDefinition.class);
+        
+        final List<EventDefinitionReference> supportedProcessingEvents = new ArrayList<EventDefinitionReference>();
+        for (final QName supportedEvent : supportedEvents) {
+            final EventDefinitionReference eventDefinitionReference = mock(EventDefinitionReference.class);
+            when(eventDefinitionReference.getQualifiedName(anyString())).thenReturn(supportedEvent);
+            supportedProcessingEvents.add(eventDefinitionReference);
+        }
+        when(portletDescriptor.getSupportedProcessingEvents()).thenReturn((List) supportedProcessingEvents);
+        when(this.portletRegistryService.getPortlet("search", portletName)).thenReturn(portletDescriptor);
+        
+        return portletDescriptor;
+    }
+    
+    private IPortletDefinition mockPortletDefinition(MockPortletDefinitionId portletDefinitionId, String portletName) {
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(this.portletDefinitionRegistry.getPortletDescriptorKeys(portletDefinition)).thenReturn(new Tuple<String, String>("search", portletName));
+        return portletDefinition;
+    }
+}
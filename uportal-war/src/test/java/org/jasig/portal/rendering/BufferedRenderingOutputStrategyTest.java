@@ -0,0 +1,96 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.io.StringWriter;
+
+import org.jasig.portal.rendering.BufferedRenderingOutputStrategy.BufferedRenderingOutput;
+import org.junit.Test;
+
+public class BufferedRenderingOutputStrategyTest {
+    
+    @Test
+    public void testFlushOnlyWhenFull() throws Exception {
+        final StringWriter writer = new StringWriter();
+        final BufferedRenderingOutput output = new BufferedRenderingOutput(writer, 16);
+        
+        output.write("<html>");
+        output.write("<body>");
+        assertEquals(0, writer.getBuffer().length());
+        assertEquals(0, output.getFlushCount());
+        
+        output.write("<div>content</div>");
+        assertEquals(16, writer.getBuffer().length());
+        assertEquals(1, output.getFlushCount());
+        
+        output.write("</body></html>");
+        output.close();
+        
+        assertEquals("<html><body><div>content</div></body></html>", writer.toString());
+        assertEquals(44, output.getCharactersWritten());
+        assertEquals(3, output.getFlushCount());
+    }
+    
+    @Test
+    public void testChunkPoint() throws Exception {
+        final StringWriter writer = new StringWriter();
+        final BufferedRenderingOutput output = new BufferedRenderingOutput(writer, 64);
+        
+        //Nothing buffered, nothing to flush
+        output.chunkPoint();
+        assertEquals(0, output.getFlushCount());
+        
+        output.write("abc");
+        output.chunkPoint();
+        assertEquals(1, output.getFlushCount());
+        assertEquals("abc", writer.toString());
+        
+        //Empty data, such as empty portlet output, is not a chunk of its own
+        output.write("");
+        output.chunkPoint();
+        assertEquals(1, output.getFlushCount());
+        
+        output.write("defghijk");
+        output.chunkPoint();
+        assertEquals(2, output.getFlushCount());
+        assertEquals("abcdefghijk", writer.toString());
+        
+        //Nothing left to write on close
+        output.close();
+        assertEquals(2, output.getFlushCount());
+    }
+    
+    @Test
+    public void testAbortDiscardsBuffer() throws Exception {
+        final StringWriter writer = new StringWriter();
+        final BufferedRenderingOutput output = new BufferedRenderingOutput(writer, 64);
+        
+        output.write("abc");
+        output.chunkPoint();
+        output.write("def");
+        output.abort();
+        
+        //Only the data flushed before the failure reached the client
+        output.close();
+        assertEquals("abc", writer.toString());
+        assertEquals(1, output.getFlushCount());
+    }
+}
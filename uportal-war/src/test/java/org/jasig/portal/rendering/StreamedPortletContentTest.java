@@ -0,0 +1,90 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering;
+
+import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class StreamedPortletContentTest {
+    @Test
+    public void testEnable() {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        assertNull(StreamedPortletContent.getStreamedPortletContent(request));
+
+        final StreamedPortletContent streamedPortletContent = StreamedPortletContent.enable(request);
+        assertSame(streamedPortletContent, StreamedPortletContent.getStreamedPortletContent(request));
+        assertSame(streamedPortletContent, StreamedPortletContent.enable(request));
+    }
+
+    @Test
+    public void testPendingPortlets() {
+        final StreamedPortletContent streamedPortletContent = StreamedPortletContent.enable(new MockHttpServletRequest());
+        final IPortletWindowId windowA = new MockPortletWindowId("a");
+        final IPortletWindowId windowB = new MockPortletWindowId("b");
+
+        assertFalse(streamedPortletContent.hasPendingPortlets());
+
+        assertEquals("<div id=\"up-streamed-content-slot_a\"></div>", streamedPortletContent.addPortletContent(windowA));
+        assertEquals("<div id=\"up-streamed-content-slot_b\"></div>", streamedPortletContent.addPortletContent(windowB));
+        assertEquals("<span id=\"up-streamed-title-slot_b\">Title B</span>", streamedPortletContent.addPortletTitle(windowB, "Title B"));
+
+        assertTrue(streamedPortletContent.hasPendingPortlets());
+        assertFalse(streamedPortletContent.isTitlePending(windowA));
+        assertTrue(streamedPortletContent.isTitlePending(windowB));
+
+        final Iterator<IPortletWindowId> pendingItr = streamedPortletContent.getPendingPortlets().iterator();
+        assertEquals(windowA, pendingItr.next());
+        assertEquals(windowB, pendingItr.next());
+        assertFalse(pendingItr.hasNext());
+
+        final String fragmentB = streamedPortletContent.createContentFragment(windowB, "<p>B</p>", "It's B");
+        assertEquals(
+                "<div id=\"up-streamed-content_b\" style=\"display:none\"><p>B</p></div>" +
+                "<script type=\"text/javascript\">upPlaceStreamedPortlet('b', 'It\\'s B');</script>",
+                fragmentB);
+        assertFalse(streamedPortletContent.isTitlePending(windowB));
+
+        final String fragmentA = streamedPortletContent.createContentFragment(windowA, "<p>A</p>", null);
+        assertEquals(
+                "<div id=\"up-streamed-content_a\" style=\"display:none\"><p>A</p></div>" +
+                "<script type=\"text/javascript\">upPlaceStreamedPortlet('a', null);</script>",
+                fragmentA);
+
+        assertFalse(streamedPortletContent.hasPendingPortlets());
+    }
+
+    @Test
+    public void testIndexOfBodyEnd() {
+        assertEquals(-1, StreamedPortletContent.indexOfBodyEnd("<div>portlet</div>"));
+        assertEquals(6, StreamedPortletContent.indexOfBodyEnd("</div></body></html>"));
+        assertEquals(6, StreamedPortletContent.indexOfBodyEnd("</div></BODY></HTML>"));
+        assertEquals(27, StreamedPortletContent.indexOfBodyEnd("<script>'</body>'</script>\n</body>\n</html>"));
+    }
+}
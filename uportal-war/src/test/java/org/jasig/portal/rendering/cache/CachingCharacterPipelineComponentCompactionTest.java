@@ -0,0 +1,132 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import net.sf.ehcache.pool.sizeof.ReflectionSizeOf;
+import net.sf.ehcache.pool.sizeof.SizeOf;
+
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.jasig.portal.character.stream.events.PortletTitlePlaceholderEventImpl;
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.junit.Test;
+
+public class CachingCharacterPipelineComponentCompactionTest {
+    private final CachingCharacterPipelineComponent component = new CachingCharacterPipelineComponent();
+
+    @Test
+    public void testMergeAdjacentCharacters() {
+        final CharacterEvent single = CharacterDataEventImpl.create("<body>");
+        final CharacterEvent content = new PortletContentPlaceholderEventImpl(new MockPortletWindowId("a"));
+        
+        final List<CharacterEvent> compacted = component.compactEvents(Arrays.<CharacterEvent>asList(
+                single,
+                content,
+                CharacterDataEventImpl.create("<div>"),
+                CharacterDataEventImpl.create("text"),
+                CharacterDataEventImpl.EMPTY_CHARACTER_DATA,
+                CharacterDataEventImpl.create("</div>")));
+        
+        assertEquals(5, compacted.size());
+        assertSame(single, compacted.get(0));
+        assertSame(content, compacted.get(1));
+        assertEquals("<div>text", ((CharacterDataEvent) compacted.get(2)).getData());
+        assertSame(CharacterDataEventImpl.EMPTY_CHARACTER_DATA, compacted.get(3));
+        assertEquals("</div>", ((CharacterDataEvent) compacted.get(4)).getData());
+    }
+
+    @Test
+    public void testChunkPointsEndRuns() {
+        final CharacterEvent header = CharacterDataEventImpl.create("<div class=\"header\">");
+        final CharacterEvent footer = CharacterDataEventImpl.create("</div>");
+        
+        final List<CharacterEvent> compacted = component.compactEvents(Arrays.<CharacterEvent>asList(
+                header,
+                CharacterDataEventImpl.EMPTY_CHARACTER_DATA,
+                footer,
+                CharacterDataEventImpl.EMPTY_CHARACTER_DATA,
+                CharacterDataEventImpl.EMPTY_CHARACTER_DATA));
+        
+        assertEquals(5, compacted.size());
+        assertSame(header, compacted.get(0));
+        assertSame(CharacterDataEventImpl.EMPTY_CHARACTER_DATA, compacted.get(1));
+        assertSame(footer, compacted.get(2));
+        assertSame(CharacterDataEventImpl.EMPTY_CHARACTER_DATA, compacted.get(3));
+        assertSame(CharacterDataEventImpl.EMPTY_CHARACTER_DATA, compacted.get(4));
+    }
+
+    @Test
+    public void testInternPlaceholders() {
+        final CharacterEvent title = new PortletTitlePlaceholderEventImpl(new MockPortletWindowId("b"));
+        final List<CharacterEvent> first = component.compactEvents(Arrays.<CharacterEvent>asList(title));
+        
+        final List<CharacterEvent> second = component.compactEvents(Arrays.<CharacterEvent>asList(
+                new PortletTitlePlaceholderEventImpl(new MockPortletWindowId("b"))));
+        
+        assertSame(first.get(0), second.get(0));
+    }
+
+    @Test
+    public void testCompactionReducesRetainedHeap() {
+        final List<CharacterEvent> events = new ArrayList<CharacterEvent>();
+        events.add(CharacterDataEventImpl.create("<html><body><div id=\"portal\">"));
+        for (int portlet = 0; portlet < 12; portlet++) {
+            final IPortletWindowId windowId = new MockPortletWindowId("window_" + portlet);
+            events.add(CharacterDataEventImpl.create("<div id=\"portlet_" + portlet + "\"><h2>"));
+            events.add(new PortletTitlePlaceholderEventImpl(windowId));
+            events.add(CharacterDataEventImpl.create("</h2>"));
+            for (int fragment = 0; fragment < 10; fragment++) {
+                events.add(CharacterDataEventImpl.create("<a href=\"/uPortal/p/portlet_" + portlet + "/max/action" + fragment + "\">"));
+                events.add(CharacterDataEventImpl.create("<span class=\"icon\"></span></a>"));
+            }
+            events.add(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+            events.add(new PortletContentPlaceholderEventImpl(windowId));
+            events.add(CharacterDataEventImpl.EMPTY_CHARACTER_DATA);
+            events.add(CharacterDataEventImpl.create("</div>"));
+        }
+        events.add(CharacterDataEventImpl.create("</div></body></html>"));
+        
+        //Cached storage prior to compaction was an unmodifiable LinkedList of the serializer's events
+        final Object uncompacted = Collections.unmodifiableList(new LinkedList<CharacterEvent>(events));
+        final List<CharacterEvent> compactedEvents = component.compactEvents(events);
+        final Object compacted = new CachedEventReader<CharacterEvent>(compactedEvents, Collections.<String, String>emptyMap());
+        
+        assertTrue(compactedEvents.size() < events.size());
+        
+        final SizeOf sizeOf = new ReflectionSizeOf();
+        final long uncompactedSize = sizeOf.deepSizeOf(Integer.MAX_VALUE, false, uncompacted).getCalculated();
+        final long compactedSize = sizeOf.deepSizeOf(Integer.MAX_VALUE, false, compacted).getCalculated();
+        assertTrue("Compacted entry retains " + compactedSize + " bytes, uncompacted retains " + uncompactedSize, 
+                compactedSize < uncompactedSize);
+    }
+}
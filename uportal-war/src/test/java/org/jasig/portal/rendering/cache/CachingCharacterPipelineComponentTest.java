@@ -28,12 +28,23 @@ import static org.easymock.EasyMock.verify;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 
 import org.jasig.portal.character.stream.CharacterEventBufferReader;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
 import org.jasig.portal.rendering.CharacterPipelineComponent;
 import org.jasig.portal.rendering.PipelineEventReader;
@@ -117,4 +128,84 @@ public class CachingCharacterPipelineComponentTest {
         
         verify(cache, targetComponent, elementsProvider);
     }
+    
+    @Test
+    public void testCoalescedCacheMiss() throws Exception {
+        final CacheKey cacheKey = CacheKey.build("testCacheKey");
+        final List<CharacterEvent> eventBuffer = Collections.<CharacterEvent>singletonList(CharacterDataEventImpl.create("test"));
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoad = new CountDownLatch(1);
+        final AtomicInteger loadCount = new AtomicInteger();
+        
+        final CharacterPipelineComponent targetComponent = new CharacterPipelineComponent() {
+            @Override
+            public CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
+                return cacheKey;
+            }
+
+            @Override
+            public PipelineEventReader<CharacterEventReader, CharacterEvent> getEventReader(HttpServletRequest request, HttpServletResponse response) {
+                loadCount.incrementAndGet();
+                loadStarted.countDown();
+                try {
+                    releaseLoad.await();
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(new CharacterEventBufferReader(eventBuffer.listIterator()));
+            }
+        };
+        
+        final Ehcache cache = createMock(Ehcache.class);
+        final ResourcesElementsProvider elementsProvider = createMock(ResourcesElementsProvider.class);
+        
+        expect(elementsProvider.getDefaultIncludedType()).andReturn(Included.AGGREGATED).times(2);
+        expect(cache.get(cacheKey)).andReturn(null).times(2);
+        cache.put((Element)notNull());
+        expectLastCall();
+        
+        replay(cache, elementsProvider);
+        
+        final CachingCharacterPipelineComponent cachingComponent = new CachingCharacterPipelineComponent();
+        cachingComponent.setCache(cache);
+        cachingComponent.setWrappedComponent(targetComponent);
+        cachingComponent.setResourcesElementsProvider(elementsProvider);
+        
+        final Callable<CharacterEvent> render = new Callable<CharacterEvent>() {
+            @Override
+            public CharacterEvent call() throws Exception {
+                final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader = cachingComponent.getEventReader(new MockHttpServletRequest(), new MockHttpServletResponse());
+                return eventReader.getEventReader().next();
+            }
+        };
+        
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<CharacterEvent> first = executorService.submit(render);
+            Assert.assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+            
+            final Future<CharacterEvent> second = executorService.submit(render);
+            //Wait for the second request to start waiting on the first
+            final long waitStart = System.currentTimeMillis();
+            while (cachingComponent.getCoalescedWaits() == 0 && System.currentTimeMillis() - waitStart < 5000) {
+                Thread.sleep(10);
+            }
+            
+            releaseLoad.countDown();
+            
+            Assert.assertEquals(eventBuffer.get(0), first.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(eventBuffer.get(0), second.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+        
+        Assert.assertEquals(1, loadCount.get());
+        Assert.assertEquals(1, cachingComponent.getCacheMisses());
+        Assert.assertEquals(1, cachingComponent.getCoalescedWaits());
+        Assert.assertEquals(0, cachingComponent.getInFlightLoads());
+        
+        verify(cache, elementsProvider);
+    }
 }
@@ -0,0 +1,114 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.rendering.xslt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+
+import org.jasig.portal.utils.cache.resource.CachedResource;
+import org.jasig.portal.utils.cache.resource.CachingResourceLoader;
+import org.jasig.portal.utils.cache.resource.Loader;
+import org.jasig.portal.utils.cache.resource.TemplatesBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+public class TransformerPoolImplTest {
+    private final Resource stylesheet = new ByteArrayResource(new byte[0], "test.xsl");
+    private CachingResourceLoader cachingResourceLoader;
+    private TransformerPoolImpl transformerPool;
+    
+    @Before
+    public void setup() {
+        this.cachingResourceLoader = mock(CachingResourceLoader.class);
+        this.transformerPool = new TransformerPoolImpl();
+        this.transformerPool.setCachingResourceLoader(this.cachingResourceLoader);
+        this.transformerPool.setTemplatesBuilder(new TemplatesBuilder());
+    }
+    
+    @Test
+    public void testTransformerReuse() throws Exception {
+        this.mockTemplates(1);
+        
+        final Transformer first = this.transformerPool.borrowTransformer(this.stylesheet);
+        final Transformer second = this.transformerPool.borrowTransformer(this.stylesheet);
+        assertNotSame(first, second);
+        
+        this.transformerPool.returnTransformer(first, 1000000, true);
+        this.transformerPool.returnTransformer(second, 2000000, false);
+        
+        assertSame(first, this.transformerPool.borrowTransformer(this.stylesheet));
+        
+        assertEquals(1, this.transformerPool.getTemplatesLoads());
+        assertEquals(1, this.transformerPool.getPoolHits());
+        assertEquals(2, this.transformerPool.getPoolMisses());
+        assertEquals(1, this.transformerPool.getTransformersDiscarded());
+        
+        final StylesheetTransformStatistics statistics = this.transformerPool.getStylesheetStatistics().get(0);
+        assertEquals(this.stylesheet.getDescription(), statistics.getStylesheet());
+        assertEquals(2, statistics.getTransforms());
+        assertEquals(1.5, statistics.getMeanTime(), 0.001);
+    }
+    
+    @Test
+    public void testReloadedTemplates() throws Exception {
+        this.mockTemplates(1);
+        final Transformer first = this.transformerPool.borrowTransformer(this.stylesheet);
+        
+        this.mockTemplates(2);
+        final Transformer second = this.transformerPool.borrowTransformer(this.stylesheet);
+        
+        //Transformer from the replaced Templates is not pooled
+        this.transformerPool.returnTransformer(first, 1000, true);
+        this.transformerPool.returnTransformer(second, 1000, true);
+        
+        assertSame(second, this.transformerPool.borrowTransformer(this.stylesheet));
+        assertEquals(2, this.transformerPool.getTemplatesLoads());
+        assertEquals(1, this.transformerPool.getTransformersDiscarded());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void mockTemplates(long loadTime) throws Exception {
+        final Templates templates = mock(Templates.class);
+        when(templates.newTransformer()).thenAnswer(new Answer<Transformer>() {
+            @Override
+            public Transformer answer(InvocationOnMock invocation) throws Throwable {
+                return mock(Transformer.class);
+            }
+        });
+        
+        final CachedResource<Templates> cachedResource = mock(CachedResource.class);
+        when(cachedResource.getCachedResource()).thenReturn(templates);
+        when(cachedResource.getLastLoadTime()).thenReturn(loadTime);
+        doReturn(cachedResource).when(this.cachingResourceLoader).getResource(same(this.stylesheet), any(Loader.class));
+    }
+}
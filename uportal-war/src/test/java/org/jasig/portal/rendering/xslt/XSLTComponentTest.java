@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -70,6 +72,80 @@ public class XSLTComponentTest {
 
     @Test
     public void testXSLTComponent() throws Exception {
+        this.testXSLTComponent(null);
+    }
+    
+    @Test
+    public void testPipelinedXSLTComponent() throws Exception {
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            this.testXSLTComponent(executorService);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testPipelinedXSLTComponentRejected() throws Exception {
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        executorService.shutdown();
+        
+        //A rejected pipelined transform falls back to buffering on the request thread
+        this.testXSLTComponent(executorService);
+    }
+    
+    @Test
+    public void testPipelinedXSLTComponentFailure() throws Exception {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+
+        final XMLEventReader xmlEventReader = this.getXmlEventReader("juser.xml");
+        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> cacheableEventReader = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(xmlEventReader);
+        
+        final String stylesheet = 
+                "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" +
+                "<xsl:template match=\"/\"><out><xsl:message terminate=\"yes\">fail</xsl:message></out></xsl:template>" +
+                "</xsl:stylesheet>";
+        final Transformer transformer = TransformerFactory.newInstance().newTransformer(new StreamSource(new StringReader(stylesheet)));
+
+        final StAXPipelineComponent targetComponent = EasyMock.createMock(StAXPipelineComponent.class);
+        final TransformerSource transformerSource = EasyMock.createMock(TransformerSource.class);
+        
+        EasyMock.expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(cacheableEventReader);
+        EasyMock.expect(transformerSource.getTransformer(mockReq, mockRes)).andReturn(transformer);
+        transformerSource.releaseTransformer(EasyMock.same(transformer), EasyMock.anyLong(), EasyMock.eq(false));
+        EasyMock.expectLastCall();
+        
+        EasyMock.replay(targetComponent, transformerSource);
+        
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final XSLTComponent xsltComponent = new XSLTComponent();
+            xsltComponent.setWrappedComponent(targetComponent);
+            xsltComponent.setTransformerSource(transformerSource);
+            xsltComponent.setPipelinedTransformExecutor(executorService);
+            xsltComponent.setPipelinedTransform(true);
+            
+            final XMLEventReader eventReader = xsltComponent.getEventReader(mockReq, mockRes).getEventReader();
+            try {
+                while (eventReader.hasNext()) {
+                    eventReader.nextEvent();
+                }
+                Assert.fail("Transform failure should be thrown by the reader");
+            }
+            catch (IllegalStateException e) {
+                //expected
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+        
+        EasyMock.verify(targetComponent, transformerSource);
+    }
+    
+    protected void testXSLTComponent(ExecutorService pipelinedTransformExecutor) throws Exception {
         final MockHttpServletRequest mockReq = new MockHttpServletRequest();
         final MockHttpServletResponse mockRes = new MockHttpServletResponse();
 
@@ -83,12 +159,20 @@ public class XSLTComponentTest {
         
         EasyMock.expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(cacheableEventReader);
         EasyMock.expect(transformerSource.getTransformer(mockReq, mockRes)).andReturn(transformer);
+        transformerSource.releaseTransformer(EasyMock.same(transformer), EasyMock.anyLong(), EasyMock.eq(true));
+        EasyMock.expectLastCall();
         
         EasyMock.replay(targetComponent, transformerSource);
         
         final XSLTComponent xsltComponent = new XSLTComponent();
         xsltComponent.setWrappedComponent(targetComponent);
         xsltComponent.setTransformerSource(transformerSource);
+        if (pipelinedTransformExecutor != null) {
+            xsltComponent.setPipelinedTransformExecutor(pipelinedTransformExecutor);
+            xsltComponent.setPipelinedTransform(true);
+            xsltComponent.setPipelineBatchSize(4);
+            xsltComponent.setPipelineQueueCapacity(2);
+        }
         
         final PipelineEventReader<XMLEventReader, XMLEvent> eventReader = xsltComponent.getEventReader(mockReq, mockRes);
         
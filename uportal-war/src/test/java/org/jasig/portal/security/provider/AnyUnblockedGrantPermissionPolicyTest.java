@@ -0,0 +1,243 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.groups.IEntityGroup;
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class AnyUnblockedGrantPermissionPolicyTest {
+    private static final String OWNER = "UP_PORTLET_SUBSCRIBE";
+    private static final String ACTIVITY = "SUBSCRIBE";
+    
+    private CacheManager cacheManager;
+    private Cache entityParentsCache;
+    private final Map<String, IEntityGroup> targetGroups = new HashMap<String, IEntityGroup>();
+    private AnyUnblockedGrantPermissionPolicy policy;
+    private IAuthorizationService service;
+    
+    @Before
+    public void setup() {
+        this.cacheManager = new CacheManager(new Configuration().name("AnyUnblockedGrantPermissionPolicyTest"));
+        final Cache effectivePermissionsCache = new Cache("effectivePermissions", 100, false, false, 60, 0);
+        this.cacheManager.addCache(effectivePermissionsCache);
+        this.entityParentsCache = new Cache("entityParents", 100, false, false, 60, 0);
+        this.cacheManager.addCache(this.entityParentsCache);
+        
+        final EffectivePermissionIndex effectivePermissionIndex = new EffectivePermissionIndex();
+        effectivePermissionIndex.setEffectivePermissionsCache(effectivePermissionsCache);
+        effectivePermissionIndex.setEntityParentsCache(this.entityParentsCache);
+        
+        this.policy = new AnyUnblockedGrantPermissionPolicy() {
+            @Override
+            protected IEntityGroup findTargetGroup(String target) {
+                return targetGroups.get(target);
+            }
+        };
+        this.policy.setEffectivePermissionIndex(effectivePermissionIndex);
+        
+        this.service = mock(IAuthorizationService.class);
+        when(this.service.getPermissionsForPrincipal(any(IAuthorizationPrincipal.class), anyString(), anyString(), anyString()))
+            .thenReturn(new IPermission[0]);
+    }
+    
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+    
+    @Test
+    public void testGrantDenyAndInherited() {
+        final IAuthorizationPrincipal user = principal("user");
+        final IAuthorizationPrincipal denied = principal("denied");
+        final IAuthorizationPrincipal granted = principal("granted");
+        
+        parents(user, denied);
+        parents(denied, granted);
+        parents(granted);
+        permissions(user, 
+                permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.4"),
+                permission(IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.3"));
+        permissions(denied, permission(IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.2"));
+        permissions(granted, 
+                permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1"),
+                permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.2"),
+                permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.3"),
+                permission(IPermission.PERMISSION_TYPE_GRANT, "local.10"));
+        
+        //PORTLET_ID.5 is granted through the category containing it
+        targetKeys("PORTLET_ID.5", "local.10");
+        
+        assertPermittedTargets(user, 
+                Arrays.asList("PORTLET_ID.1", "PORTLET_ID.2", "PORTLET_ID.3", "PORTLET_ID.4", "PORTLET_ID.5", "PORTLET_ID.6"), 
+                "PORTLET_ID.1", "PORTLET_ID.4", "PORTLET_ID.5");
+    }
+    
+    @Test
+    public void testAllPortletsAndAllCategories() {
+        final IAuthorizationPrincipal user = principal("user");
+        final IAuthorizationPrincipal group = principal("group");
+        
+        parents(user, group);
+        parents(group);
+        permissions(user, permission(IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.2"));
+        permissions(group, 
+                permission(IPermission.PERMISSION_TYPE_GRANT, IPermission.ALL_PORTLETS_TARGET),
+                permission(IPermission.PERMISSION_TYPE_GRANT, IPermission.ALL_CATEGORIES_TARGET));
+        
+        targetGroup("local.10", IPortletDefinition.class);
+        targetGroup("local.20", IPerson.class);
+        
+        assertPermittedTargets(user, 
+                Arrays.asList("PORTLET_ID.1", "PORTLET_ID.2", "local.10", "local.20"), 
+                "PORTLET_ID.1", "local.10");
+    }
+    
+    @Test
+    public void testAllGroups() {
+        final IAuthorizationPrincipal user = principal("user");
+        
+        parents(user);
+        permissions(user, permission(IPermission.PERMISSION_TYPE_GRANT, IPermission.ALL_GROUPS_TARGET));
+        
+        targetGroup("local.10", IPortletDefinition.class);
+        targetGroup("local.20", IPerson.class);
+        
+        assertPermittedTargets(user, 
+                Arrays.asList("PORTLET_ID.1", "local.10", "local.20"), 
+                "local.10", "local.20");
+    }
+    
+    @Test
+    public void testSuperUser() {
+        final IAuthorizationPrincipal user = principal("user");
+        
+        parents(user);
+        permissions(user, permission(IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.2"));
+        final IPermission allPermissions = permission(IPermission.PERMISSION_TYPE_GRANT, IPermission.ALL_TARGET);
+        when(this.service.getPermissionsForPrincipal(user, IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY, null))
+            .thenReturn(new IPermission[] { allPermissions });
+        
+        assertPermittedTargets(user, 
+                Arrays.asList("PORTLET_ID.1", "PORTLET_ID.2", "local.10"), 
+                "PORTLET_ID.1", "PORTLET_ID.2", "local.10");
+    }
+    
+    /**
+     * Verify the bulk evaluation returns the expected targets and agrees with the per-target evaluation
+     */
+    private void assertPermittedTargets(IAuthorizationPrincipal principal, List<String> targets, String... expected) {
+        //Targets not contained by any group
+        for (final String target : targets) {
+            if (!this.entityParentsCache.isKeyInCache(target)) {
+                targetKeys(target);
+            }
+        }
+        
+        final Set<String> permittedTargets = this.policy.getPermittedTargets(this.service, principal, OWNER, ACTIVITY, targets);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList(expected)), permittedTargets);
+        
+        for (final String target : targets) {
+            assertEquals(target, 
+                    permittedTargets.contains(target), 
+                    this.policy.doesPrincipalHavePermission(this.service, principal, OWNER, ACTIVITY, target));
+        }
+    }
+    
+    private void targetKeys(String target, String... containingGroups) {
+        final Set<String> targetKeys = new HashSet<String>();
+        targetKeys.add(target);
+        targetKeys.addAll(Arrays.asList(containingGroups));
+        this.entityParentsCache.put(new Element(target, targetKeys));
+    }
+    
+    private void targetGroup(String target, Class<?> entityType) {
+        final IEntityGroup group = mock(IEntityGroup.class);
+        when(group.getEntityType()).thenReturn(entityType);
+        this.targetGroups.put(target, group);
+        targetKeys(target);
+    }
+    
+    private IAuthorizationPrincipal principal(String principalString) {
+        final IAuthorizationPrincipal principal = mock(IAuthorizationPrincipal.class);
+        when(principal.getPrincipalString()).thenReturn(principalString);
+        when(principal.toString()).thenReturn(principalString);
+        return principal;
+    }
+    
+    private void parents(IAuthorizationPrincipal principal, IAuthorizationPrincipal... parents) {
+        final IGroupMember groupMember = mock(IGroupMember.class);
+        when(this.service.getGroupMember(principal)).thenReturn(groupMember);
+        
+        final List<IGroupMember> parentMembers = new ArrayList<IGroupMember>();
+        for (final IAuthorizationPrincipal parent : parents) {
+            final IGroupMember parentMember = mock(IGroupMember.class);
+            when(this.service.newPrincipal(parentMember)).thenReturn(parent);
+            parentMembers.add(parentMember);
+        }
+        
+        when(groupMember.getContainingGroups()).thenAnswer(new Answer<Iterator<IGroupMember>>() {
+            @Override
+            public Iterator<IGroupMember> answer(InvocationOnMock invocation) throws Throwable {
+                return parentMembers.iterator();
+            }
+        });
+    }
+    
+    private void permissions(IAuthorizationPrincipal principal, IPermission... permissions) {
+        when(this.service.getPermissionsForPrincipal(principal, OWNER, ACTIVITY, null)).thenReturn(permissions);
+    }
+    
+    private IPermission permission(String type, String target) {
+        final IPermission permission = mock(IPermission.class);
+        when(permission.getType()).thenReturn(type);
+        when(permission.getTarget()).thenReturn(target);
+        return permission;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.PortletLifecycleState;
+import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IBulkPermissionPolicy;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.security.IPermissionPolicy;
+import org.jasig.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class AuthorizationImplTest {
+    private static final List<String> PORTLET_IDS = Arrays.asList("1", "2", "3", "4", "5");
+    
+    private CacheManager cacheManager;
+    private AuthorizationImpl authorizationService;
+    private IAuthorizationPrincipal principal;
+    
+    //activity and target pairs the policy grants
+    private final Set<List<String>> grants = new HashSet<List<String>>();
+    
+    @Before
+    public void setup() {
+        this.cacheManager = new CacheManager(new Configuration().name("AuthorizationImplTest"));
+        final Cache doesPrincipalHavePermissionCache = new Cache("doesPrincipalHavePermission", 100, false, false, 60, 0);
+        this.cacheManager.addCache(doesPrincipalHavePermissionCache);
+        
+        final IPortletDefinitionRegistry portletDefinitionRegistry = mock(IPortletDefinitionRegistry.class);
+        portlet(portletDefinitionRegistry, "1", PortletLifecycleState.PUBLISHED);
+        portlet(portletDefinitionRegistry, "2", PortletLifecycleState.APPROVED);
+        portlet(portletDefinitionRegistry, "3", PortletLifecycleState.PUBLISHED);
+        portlet(portletDefinitionRegistry, "4", PortletLifecycleState.EXPIRED);
+        
+        this.authorizationService = new AuthorizationImpl();
+        this.authorizationService.setDoesPrincipalHavePermissionCache(doesPrincipalHavePermissionCache);
+        this.authorizationService.setPortletDefinitionRegistry(portletDefinitionRegistry);
+        
+        this.principal = mock(IAuthorizationPrincipal.class);
+        when(this.principal.getKey()).thenReturn("user");
+        when(this.principal.getType()).thenReturn(IPerson.class);
+        
+        grant(IPermission.PORTLET_SUBSCRIBER_ACTIVITY, "PORTLET_ID.1");
+        grant(IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY, "PORTLET_ID.2");
+        //Portlet 4 is expired so the SUBSCRIBE grant does not apply
+        grant(IPermission.PORTLET_SUBSCRIBER_ACTIVITY, "PORTLET_ID.4");
+    }
+    
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+    
+    @Test
+    public void testSubscribableWithBulkPolicy() {
+        final IBulkPermissionPolicy policy = mock(IBulkPermissionPolicy.class);
+        when(policy.doesPrincipalHavePermission(any(IAuthorizationService.class), any(IAuthorizationPrincipal.class), anyString(), anyString(), anyString()))
+            .thenAnswer(new Answer<Boolean>() {
+                @Override
+                public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                    final Object[] args = invocation.getArguments();
+                    return isGranted((String) args[3], (String) args[4]);
+                }
+            });
+        when(policy.getPermittedTargets(any(IAuthorizationService.class), any(IAuthorizationPrincipal.class), anyString(), anyString(), anyCollectionOf(String.class)))
+            .thenAnswer(new Answer<Set<String>>() {
+                @SuppressWarnings("unchecked")
+                @Override
+                public Set<String> answer(InvocationOnMock invocation) throws Throwable {
+                    final Object[] args = invocation.getArguments();
+                    final Set<String> permittedTargets = new LinkedHashSet<String>();
+                    for (final String target : (Collection<String>) args[4]) {
+                        if (isGranted((String) args[3], target)) {
+                            permittedTargets.add(target);
+                        }
+                    }
+                    return permittedTargets;
+                }
+            });
+        this.authorizationService.setDefaultPermissionPolicy(policy);
+        
+        assertSubscribable("1", "2");
+        
+        //One bulk evaluation per activity for each of the subscribe and render checks
+        verify(policy, times(2)).getPermittedTargets(this.authorizationService, this.principal, IPermission.PORTAL_SUBSCRIBE, 
+                IPermission.PORTLET_SUBSCRIBER_ACTIVITY, Arrays.asList("PORTLET_ID.1", "PORTLET_ID.3"));
+        verify(policy, times(2)).getPermittedTargets(this.authorizationService, this.principal, IPermission.PORTAL_SUBSCRIBE, 
+                IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY, Arrays.asList("PORTLET_ID.2"));
+        verify(policy, times(2)).getPermittedTargets(this.authorizationService, this.principal, IPermission.PORTAL_SUBSCRIBE, 
+                IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY, Arrays.asList("PORTLET_ID.4"));
+    }
+    
+    @Test
+    public void testSubscribableWithoutBulkPolicy() {
+        final IPermissionPolicy policy = mock(IPermissionPolicy.class);
+        when(policy.doesPrincipalHavePermission(any(IAuthorizationService.class), any(IAuthorizationPrincipal.class), anyString(), anyString(), anyString()))
+            .thenAnswer(new Answer<Boolean>() {
+                @Override
+                public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                    final Object[] args = invocation.getArguments();
+                    return isGranted((String) args[3], (String) args[4]);
+                }
+            });
+        this.authorizationService.setDefaultPermissionPolicy(policy);
+        
+        assertSubscribable("1", "2");
+        
+        //Evaluated one target at a time
+        verify(policy).doesPrincipalHavePermission(eq(this.authorizationService), eq(this.principal), eq(IPermission.PORTAL_SUBSCRIBE), 
+                eq(IPermission.PORTLET_SUBSCRIBER_ACTIVITY), eq("PORTLET_ID.3"));
+    }
+    
+    /**
+     * Verify the bulk subscribe and render checks return the expected portlets and agree with the per-portlet checks
+     */
+    private void assertSubscribable(String... expected) {
+        final Set<String> subscribablePortlets = this.authorizationService.getPortletsPrincipalCanSubscribe(this.principal, PORTLET_IDS);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList(expected)), subscribablePortlets);
+        assertEquals(subscribablePortlets, this.authorizationService.getPortletsPrincipalCanRender(this.principal, PORTLET_IDS));
+        
+        for (final String portletDefinitionId : PORTLET_IDS) {
+            assertEquals(portletDefinitionId, 
+                    subscribablePortlets.contains(portletDefinitionId), 
+                    this.authorizationService.canPrincipalSubscribe(this.principal, portletDefinitionId));
+        }
+    }
+    
+    private boolean isGranted(String activity, String target) {
+        return this.grants.contains(Arrays.asList(activity, target));
+    }
+    
+    private void grant(String activity, String target) {
+        this.grants.add(Arrays.asList(activity, target));
+    }
+    
+    private void portlet(IPortletDefinitionRegistry portletDefinitionRegistry, String portletDefinitionId, PortletLifecycleState lifecycleState) {
+        final IPortletDefinition portlet = mock(IPortletDefinition.class);
+        when(portlet.getLifecycleState()).thenReturn(lifecycleState);
+        when(portletDefinitionRegistry.getPortletDefinition(portletDefinitionId)).thenReturn(portlet);
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IPermission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class EffectivePermissionIndexTest {
+    private static final String OWNER = "UP_PORTLET_SUBSCRIBE";
+    private static final String ACTIVITY = "SUBSCRIBE";
+    
+    private CacheManager cacheManager;
+    private EffectivePermissionIndex effectivePermissionIndex;
+    private IAuthorizationService service;
+    
+    @Before
+    public void setup() {
+        this.cacheManager = new CacheManager(new Configuration().name("EffectivePermissionIndexTest"));
+        final Cache effectivePermissionsCache = new Cache("effectivePermissions", 100, false, false, 60, 0);
+        this.cacheManager.addCache(effectivePermissionsCache);
+        
+        this.effectivePermissionIndex = new EffectivePermissionIndex();
+        this.effectivePermissionIndex.setEffectivePermissionsCache(effectivePermissionsCache);
+        
+        this.service = mock(IAuthorizationService.class);
+    }
+    
+    @After
+    public void tearDown() {
+        this.cacheManager.shutdown();
+    }
+    
+    @Test
+    public void testUnblockedPathAroundDeny() {
+        final IAuthorizationPrincipal user = principal("user");
+        final IAuthorizationPrincipal denied = principal("denied");
+        final IAuthorizationPrincipal other = principal("other");
+        final IAuthorizationPrincipal granted = principal("granted");
+        
+        parents(user, denied, other);
+        parents(denied, granted);
+        parents(other, granted);
+        permissions(user);
+        permissions(denied, permission(IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.1", null, null));
+        permissions(other);
+        permissions(granted, 
+                permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1", null, null),
+                permission(IPermission.PERMISSION_TYPE_GRANT, "local.5", null, null));
+        
+        final EffectivePermissions effectivePermissions = this.effectivePermissionIndex.getEffectivePermissions(this.service, user, OWNER, ACTIVITY);
+        assertEquals(4, effectivePermissions.getPrincipalCount());
+        assertNull(effectivePermissions.getExplicitPermission(Collections.singleton("PORTLET_ID.1")));
+        
+        //The DENY on one containing group does not block the path through the other
+        assertTrue(effectivePermissions.hasUnblockedPathToGrant(Collections.singleton("PORTLET_ID.1")));
+        //Granted through a group containing the target
+        assertTrue(effectivePermissions.hasUnblockedPathToGrant(new HashSet<String>(Arrays.asList("PORTLET_ID.2", "local.5"))));
+        assertFalse(effectivePermissions.hasUnblockedPathToGrant(Collections.singleton("PORTLET_ID.2")));
+        
+        //Second lookup is served from the index
+        assertSame(effectivePermissions, this.effectivePermissionIndex.getEffectivePermissions(this.service, user, OWNER, ACTIVITY));
+        verify(this.service, times(1)).getPermissionsForPrincipal(granted, OWNER, ACTIVITY, null);
+    }
+    
+    @Test
+    public void testDenyBlocksOnlyPath() {
+        final IAuthorizationPrincipal user = principal("user");
+        final IAuthorizationPrincipal denied = principal("denied");
+        final IAuthorizationPrincipal granted = principal("granted");
+        
+        parents(user, denied);
+        parents(denied, granted);
+        permissions(user);
+        permissions(denied, permission(IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.1", null, null));
+        permissions(granted, permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1", null, null),
+                permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.2", null, null));
+        
+        final EffectivePermissions effectivePermissions = this.effectivePermissionIndex.getEffectivePermissions(this.service, user, OWNER, ACTIVITY);
+        assertFalse(effectivePermissions.hasUnblockedPathToGrant(Collections.singleton("PORTLET_ID.1")));
+        assertTrue(effectivePermissions.hasUnblockedPathToGrant(Collections.singleton("PORTLET_ID.2")));
+    }
+    
+    @Test
+    public void testExplicitAndInactivePermissions() {
+        final IAuthorizationPrincipal user = principal("user");
+        
+        parents(user);
+        final long now = System.currentTimeMillis();
+        permissions(user, 
+                permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1", null, null),
+                permission(IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.1", new Date(now + 600000), null),
+                permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.2", null, new Date(now - 1000)),
+                permission(IPermission.PERMISSION_TYPE_DENY, "PORTLET_ID.3", null, null));
+        
+        final EffectivePermissions effectivePermissions = this.effectivePermissionIndex.getEffectivePermissions(this.service, user, OWNER, ACTIVITY);
+        
+        //The DENY is not yet effective and the second GRANT has expired
+        assertEquals(Boolean.TRUE, effectivePermissions.getExplicitPermission(Collections.singleton("PORTLET_ID.1")));
+        assertNull(effectivePermissions.getExplicitPermission(Collections.singleton("PORTLET_ID.2")));
+        assertEquals(Boolean.FALSE, effectivePermissions.getExplicitPermission(Collections.singleton("PORTLET_ID.3")));
+        
+        //The entry is rebuilt once the DENY becomes effective
+        assertFalse(effectivePermissions.isExpired(now));
+        assertTrue(effectivePermissions.isExpired(now + 600000));
+    }
+    
+    @Test
+    public void testInvalidateIncludedPrincipal() {
+        final IAuthorizationPrincipal user = principal("user");
+        final IAuthorizationPrincipal group = principal("group");
+        final IAuthorizationPrincipal unrelated = principal("unrelated");
+        
+        parents(user, group);
+        parents(group);
+        parents(unrelated);
+        permissions(user);
+        permissions(group, permission(IPermission.PERMISSION_TYPE_GRANT, "PORTLET_ID.1", null, null));
+        permissions(unrelated);
+        
+        final EffectivePermissions userPermissions = this.effectivePermissionIndex.getEffectivePermissions(this.service, user, OWNER, ACTIVITY);
+        final EffectivePermissions unrelatedPermissions = this.effectivePermissionIndex.getEffectivePermissions(this.service, unrelated, OWNER, ACTIVITY);
+        
+        //Changing the permissions of the group only discards entries that include it
+        this.effectivePermissionIndex.invalidate(Collections.singleton("group"));
+        
+        assertSame(unrelatedPermissions, this.effectivePermissionIndex.getEffectivePermissions(this.service, unrelated, OWNER, ACTIVITY));
+        final EffectivePermissions rebuiltUserPermissions = this.effectivePermissionIndex.getEffectivePermissions(this.service, user, OWNER, ACTIVITY);
+        assertFalse(userPermissions == rebuiltUserPermissions);
+        assertTrue(rebuiltUserPermissions.hasUnblockedPathToGrant(Collections.singleton("PORTLET_ID.1")));
+    }
+    
+    private IAuthorizationPrincipal principal(String principalString) {
+        final IAuthorizationPrincipal principal = mock(IAuthorizationPrincipal.class);
+        when(principal.getPrincipalString()).thenReturn(principalString);
+        when(principal.toString()).thenReturn(principalString);
+        return principal;
+    }
+    
+    private void parents(IAuthorizationPrincipal principal, IAuthorizationPrincipal... parents) {
+        final IGroupMember groupMember = mock(IGroupMember.class);
+        when(this.service.getGroupMember(principal)).thenReturn(groupMember);
+        
+        final List<IGroupMember> parentMembers = new ArrayList<IGroupMember>();
+        for (final IAuthorizationPrincipal parent : parents) {
+            final IGroupMember parentMember = mock(IGroupMember.class);
+            when(this.service.newPrincipal(parentMember)).thenReturn(parent);
+            parentMembers.add(parentMember);
+        }
+        
+        when(groupMember.getContainingGroups()).thenAnswer(new Answer<Iterator<IGroupMember>>() {
+            @Override
+            public Iterator<IGroupMember> answer(InvocationOnMock invocation) throws Throwable {
+                return parentMembers.iterator();
+            }
+        });
+    }
+    
+    private void permissions(IAuthorizationPrincipal principal, IPermission... permissions) {
+        when(this.service.getPermissionsForPrincipal(principal, OWNER, ACTIVITY, null)).thenReturn(permissions);
+    }
+    
+    private IPermission permission(String type, String target, Date effective, Date expires) {
+        final IPermission permission = mock(IPermission.class);
+        when(permission.getType()).thenReturn(type);
+        when(permission.getTarget()).thenReturn(target);
+        when(permission.getEffective()).thenReturn(effective);
+        when(permission.getExpires()).thenReturn(expires);
+        return permission;
+    }
+}
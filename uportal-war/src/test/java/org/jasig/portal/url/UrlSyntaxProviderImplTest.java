@@ -49,16 +49,13 @@ import org.jasig.portal.portlet.rendering.IPortletRenderer;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
 import org.jasig.portal.utils.Tuple;
-import org.jasig.portal.xml.xpath.XPathOperations;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.mock.web.MockHttpServletRequest;
 
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
@@ -77,7 +74,6 @@ public class UrlSyntaxProviderImplTest {
     @Mock private IPortalUrlProvider portalUrlProvider;
     @Mock private IPortletEntityRegistry portletEntityRegistry;
     @Mock private IPortletWindowRegistry portletWindowRegistry;
-    @Mock private XPathOperations xpathOperations;
     @Mock private IUserInstanceManager userInstanceManager;
     @Mock private IUserInstance userInstance;
     @Mock private IUserPreferencesManager userPreferencesManager;
@@ -923,11 +919,7 @@ public class UrlSyntaxProviderImplTest {
         request.addParameter("activeTab", "1");
         
         when(this.portalRequestUtils.getOriginalPortalRequest(request)).thenReturn(request);
-        when(this.xpathOperations.doWithExpression(
-                Mockito.eq("/layout/folder/folder[@type='regular' and @hidden='false'][position() = $activeTabId]/@ID"),
-                Mockito.eq(Collections.singletonMap("activeTabId", "1")),
-                Mockito.<Function>anyObject()))
-                .thenReturn("n12");
+        when(userLayout.getTabId(1)).thenReturn("n12");
         
         when(this.userInstanceManager.getUserInstance(request)).thenReturn(userInstance);
         when(userInstance.getPreferencesManager()).thenReturn(userPreferencesManager);
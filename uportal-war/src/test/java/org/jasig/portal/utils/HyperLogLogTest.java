@@ -0,0 +1,132 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+    @Test
+    public void testSmallCardinality() {
+        final HyperLogLog hyperLogLog = new HyperLogLog();
+        assertEquals(0, hyperLogLog.cardinality());
+        
+        for (int i = 0; i < 100; i++) {
+            hyperLogLog.offer("user" + i);
+        }
+        //Repeats never change the state
+        for (int i = 0; i < 100; i++) {
+            assertFalse(hyperLogLog.offer("user" + i));
+        }
+        
+        assertEquals(100, hyperLogLog.cardinality(), 2);
+    }
+    
+    @Test
+    public void testLargeCardinality() {
+        final HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int i = 0; i < 60000; i++) {
+            hyperLogLog.offer("user" + i);
+        }
+        
+        //Allow 3 standard errors
+        assertEquals(60000, hyperLogLog.cardinality(), 60000 * 0.07);
+    }
+    
+    @Test
+    public void testMerge() {
+        final HyperLogLog first = new HyperLogLog();
+        final HyperLogLog second = new HyperLogLog();
+        final HyperLogLog all = new HyperLogLog();
+        for (int i = 0; i < 20000; i++) {
+            first.offer("user" + i);
+            all.offer("user" + i);
+        }
+        for (int i = 10000; i < 30000; i++) {
+            second.offer("user" + i);
+            all.offer("user" + i);
+        }
+        
+        first.merge(second);
+        assertArrayEquals(all.toBytes(), first.toBytes());
+        assertEquals(all.cardinality(), first.cardinality());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testMergePrecisionMismatch() {
+        new HyperLogLog(10).merge(new HyperLogLog(11));
+    }
+    
+    @Test
+    public void testSerialization() {
+        final HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int i = 0; i < 5000; i++) {
+            hyperLogLog.offer("user" + i);
+        }
+        
+        final byte[] data = hyperLogLog.toBytes();
+        assertEquals(HyperLogLog.DEFAULT_SERIALIZED_SIZE, data.length);
+        assertTrue("Serialized estimator must fit in a 2000 byte binary column", data.length < 2000);
+        
+        final HyperLogLog read = HyperLogLog.fromBytes(data);
+        assertEquals(HyperLogLog.DEFAULT_PRECISION, read.getPrecision());
+        assertEquals(hyperLogLog.cardinality(), read.cardinality());
+        assertArrayEquals(data, read.toBytes());
+        
+        //Neither the estimator nor the array share state
+        assertTrue(read.offer("another"));
+        assertArrayEquals(data, hyperLogLog.toBytes());
+        assertNotSame(data, hyperLogLog.toBytes());
+    }
+    
+    @Test
+    public void testSerializationMaxRank() {
+        //Every register at the largest value the packed format can hold
+        final byte[] data = new byte[HyperLogLog.getSerializedSize(HyperLogLog.MIN_PRECISION)];
+        data[0] = HyperLogLog.MIN_PRECISION;
+        for (int i = 1; i < data.length; i++) {
+            data[i] = (byte) 0xff;
+        }
+        final HyperLogLog read = HyperLogLog.fromBytes(data);
+        assertArrayEquals(data, read.toBytes());
+        assertFalse(read.offer("user"));
+    }
+    
+    @Test
+    public void testCopy() {
+        final HyperLogLog hyperLogLog = new HyperLogLog(12);
+        assertTrue(hyperLogLog.offer("user"));
+        
+        final HyperLogLog copy = hyperLogLog.copy();
+        assertArrayEquals(hyperLogLog.toBytes(), copy.toBytes());
+        assertTrue(copy.offer("another"));
+        assertEquals(1, hyperLogLog.cardinality());
+        assertEquals(2, copy.cardinality());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void testFromBytesInvalid() {
+        HyperLogLog.fromBytes(new byte[] { 11, 0, 0 });
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketBoundaries() {
+        for (long value = 0; value < 100000; value++) {
+            final int index = LatencyHistogram.getBucketIndex(value);
+            assertTrue(value <= LatencyHistogram.getBucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.getBucketUpperBound(index - 1));
+            }
+        }
+        
+        final int maxIndex = LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_VALUE);
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.getBucketUpperBound(maxIndex));
+    }
+    
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertWithinError(500, histogram.getValueAtPercentile(50));
+        assertWithinError(990, histogram.getValueAtPercentile(99));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+    
+    @Test
+    public void testMerge() {
+        final LatencyHistogram first = new LatencyHistogram();
+        final LatencyHistogram second = new LatencyHistogram();
+        for (int value = 1; value <= 500; value++) {
+            first.record(value);
+            second.record(value + 500);
+        }
+        
+        first.merge(second);
+        assertEquals(1000, first.getCount());
+        assertEquals(1000, first.getMax());
+        assertWithinError(500, first.getValueAtPercentile(50));
+        
+        final LatencyHistogram restored = new LatencyHistogram();
+        restored.addBucketCounts(first.getBucketCounts(), first.getTotal(), first.getMax());
+        assertEquals(first.getCount(), restored.getCount());
+        assertEquals(first.getValueAtPercentile(90), restored.getValueAtPercentile(90));
+    }
+    
+    @Test
+    public void testEncoding() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, LatencyHistogram.fromByteArray(histogram.toByteArray()).getCount());
+        assertEquals(0, LatencyHistogram.fromByteArray(null).getCount());
+        
+        for (long value = 1; value < LatencyHistogram.MAX_VALUE; value *= 3) {
+            histogram.record(value);
+        }
+        
+        final LatencyHistogram decoded = LatencyHistogram.fromByteArray(histogram.toByteArray());
+        assertEquals(histogram.getCount(), decoded.getCount());
+        assertEquals(histogram.getTotal(), decoded.getTotal());
+        assertEquals(histogram.getMax(), decoded.getMax());
+        assertArrayEquals(histogram.getBucketCounts(), decoded.getBucketCounts());
+    }
+    
+    private void assertWithinError(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.125);
+    }
+}
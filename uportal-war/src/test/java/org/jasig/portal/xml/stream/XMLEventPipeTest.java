@@ -0,0 +1,125 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.jasig.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class XMLEventPipeTest {
+    private final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+    
+    @Test
+    public void testPipeEvents() throws Exception {
+        final XMLEventPipe eventPipe = new XMLEventPipe(2, 3, 10000);
+        
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final XMLEventWriter eventWriter = eventPipe.getEventWriter();
+                    eventWriter.add(eventFactory.createStartDocument());
+                    for (int i = 0; i < 100; i++) {
+                        eventWriter.add(eventFactory.createCharacters(Integer.toString(i)));
+                    }
+                    eventWriter.add(eventFactory.createEndDocument());
+                    eventWriter.close();
+                }
+                catch (XMLStreamException e) {
+                    eventPipe.fail(e);
+                }
+            }
+        };
+        producer.start();
+        
+        final XMLEventReader eventReader = eventPipe.getEventReader();
+        assertTrue(eventReader.nextEvent().isStartDocument());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(i), eventReader.nextEvent().asCharacters().getData());
+        }
+        assertTrue(eventReader.peek().isEndDocument());
+        assertTrue(eventReader.nextEvent().isEndDocument());
+        assertFalse(eventReader.hasNext());
+        
+        producer.join(1000);
+    }
+    
+    @Test
+    public void testProducerFailure() throws Exception {
+        final XMLEventPipe eventPipe = new XMLEventPipe(2, 10, 10000);
+        eventPipe.getEventWriter().add(eventFactory.createStartDocument());
+        eventPipe.fail(new IllegalArgumentException("test"));
+        
+        final XMLEventReader eventReader = eventPipe.getEventReader();
+        assertTrue(eventReader.nextEvent().isStartDocument());
+        try {
+            eventReader.hasNext();
+            fail("Producer failure should be thrown");
+        }
+        catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+    
+    @Test
+    public void testReaderClose() throws Exception {
+        final XMLEventPipe eventPipe = new XMLEventPipe(1, 1, 10000);
+        final AtomicReference<XMLStreamException> writeFailure = new AtomicReference<XMLStreamException>();
+        final CountDownLatch done = new CountDownLatch(1);
+        
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    final XMLEventWriter eventWriter = eventPipe.getEventWriter();
+                    while (true) {
+                        eventWriter.add(eventFactory.createCharacters("x"));
+                    }
+                }
+                catch (XMLStreamException e) {
+                    writeFailure.set(e);
+                }
+                finally {
+                    done.countDown();
+                }
+            }
+        };
+        producer.start();
+        
+        final XMLEventReader eventReader = eventPipe.getEventReader();
+        assertEquals("x", eventReader.nextEvent().asCharacters().getData());
+        eventReader.close();
+        
+        assertTrue("Producer should stop once the reader is closed", done.await(5, TimeUnit.SECONDS));
+        assertTrue(writeFailure.get() != null);
+    }
+}